@@ -34,35 +34,42 @@ import ai.starwhale.mlops.datastore.DataStore;
 import ai.starwhale.mlops.datastore.DataStoreQueryRequest;
 import ai.starwhale.mlops.datastore.DataStoreScanRequest;
 import ai.starwhale.mlops.datastore.RecordList;
+import ai.starwhale.mlops.datastore.RecordStreamWriter;
+import ai.starwhale.mlops.datastore.RecordWriter;
 import ai.starwhale.mlops.datastore.TableQueryFilter;
 import ai.starwhale.mlops.datastore.exporter.RecordsStreamingExporter;
 import ai.starwhale.mlops.datastore.impl.RecordDecoder;
+import ai.starwhale.mlops.datastore.wal.WalDurability;
 import ai.starwhale.mlops.exception.SwProcessException;
 import ai.starwhale.mlops.exception.SwProcessException.ErrorType;
 import ai.starwhale.mlops.exception.SwValidationException;
 import ai.starwhale.mlops.exception.SwValidationException.ValidSubject;
+import com.google.protobuf.InvalidProtocolBufferException;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.text.MessageFormat;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
 import javax.annotation.Resource;
-import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.jetbrains.annotations.NotNull;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
-import org.springframework.util.CollectionUtils;
 import org.springframework.util.StringUtils;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 @RestController
@@ -73,13 +80,19 @@ public class DataStoreController {
 
     private static final Pattern COLUMN_NAME_PATTERN = Pattern.compile("^[\\p{Alnum}-_/: ]*$");
 
+    static final String PROTOBUF_STREAM = "application/x-protobuf";
+
+    private static final int RECORDS_EXPORT_BUFFER_SIZE = 64 * 1024;
+
+    private static final Pattern Q_ZERO = Pattern.compile("q=0(\\.0*)?");
+
     @Resource
     @Setter
     private DataStore dataStore;
 
     @Resource
     @Setter
-    private RecordsStreamingExporter recordsExporter;
+    private List<RecordsStreamingExporter> recordsExporters;
 
     @PostMapping(value = "/datastore/listTables")
     @PreAuthorize("hasAnyRole('GUEST', 'OWNER', 'MAINTAINER', 'ANONYMOUS')")
@@ -129,13 +142,52 @@ public class DataStoreController {
                         })
                         .collect(Collectors.toList());
             }
-            var revision = this.dataStore.update(request.getTableName(), request.getTableSchemaDesc(), records);
+            String revision;
+            if (request.getDurability() == null) {
+                revision = this.dataStore.update(request.getTableName(), request.getTableSchemaDesc(), records);
+            } else {
+                revision = this.dataStore.update(request.getTableName(),
+                        request.getTableSchemaDesc(),
+                        records,
+                        WalDurability.parse(request.getDurability()));
+            }
             return ResponseEntity.ok(Code.success.asResponse(revision));
         } catch (SwValidationException e) {
             throw new SwValidationException(SwValidationException.ValidSubject.DATASTORE, "request=" + request, e);
         }
     }
 
+    /**
+     * Bulk update with a stream of length-delimited protobuf messages, see {@link DataStore#ingest}. The records are
+     * applied while the body is being read.
+     */
+    @PostMapping(value = "/datastore/ingestTable", consumes = PROTOBUF_STREAM)
+    @PreAuthorize("hasAnyRole('OWNER', 'MAINTAINER')")
+    ResponseEntity<ResponseMessage<String>> ingestTable(
+            @RequestParam(name = "tableName") String tableName,
+            @RequestParam(name = "durability", required = false) String durability,
+            HttpServletRequest request
+    ) {
+        try {
+            String revision;
+            if (durability == null) {
+                revision = this.dataStore.ingest(tableName, request.getInputStream());
+            } else {
+                revision = this.dataStore.ingest(tableName,
+                        request.getInputStream(),
+                        WalDurability.parse(durability));
+            }
+            return ResponseEntity.ok(Code.success.asResponse(revision));
+        } catch (SwValidationException e) {
+            throw new SwValidationException(SwValidationException.ValidSubject.DATASTORE, "table=" + tableName, e);
+        } catch (InvalidProtocolBufferException e) {
+            throw new SwValidationException(SwValidationException.ValidSubject.DATASTORE,
+                    "invalid protobuf stream, table=" + tableName, e);
+        } catch (IOException e) {
+            throw new SwProcessException(ErrorType.DATASTORE, "failed to read the request body", e);
+        }
+    }
+
     @PostMapping(value = "/datastore/flush")
     @PreAuthorize("hasAnyRole('OWNER', 'MAINTAINER')")
     ResponseEntity<ResponseMessage<String>> flush(FlushRequest request) {
@@ -151,7 +203,8 @@ public class DataStoreController {
         try {
             RecordList recordList = queryRecordList(request);
             var vo = RecordListVo.builder().records(recordList.getRecords())
-                    .columnHints(recordList.getColumnHints());
+                    .columnHints(recordList.getColumnHints())
+                    .cursor(recordList.getCursor());
             if (!request.isEncodeWithType()) {
                 vo.columnTypes(recordList.getColumnSchemaMap().values().stream()
                         .map(ColumnSchema::toColumnSchemaDesc)
@@ -191,46 +244,78 @@ public class DataStoreController {
         }
     }
 
-    @PostMapping(value = "/datastore/queryTable/export")
+    /**
+     * Stream all the query results as length-delimited protobuf messages, see {@link RecordStreamWriter}. Selected
+     * by "Accept: application/x-protobuf", the limit is not capped and no cursor is needed.
+     */
+    @PostMapping(value = "/datastore/queryTable", produces = PROTOBUF_STREAM)
     @PreAuthorize("hasAnyRole('GUEST', 'OWNER', 'MAINTAINER', 'ANONYMOUS')")
-    void queryAndExport(
+    void queryTableStream(
             @Valid @RequestBody QueryTableRequest request, HttpServletResponse httpResponse
     ) {
         try {
-            httpResponse.addHeader("Content-Type", recordsExporter.getWebMediaType());
-            httpResponse.addHeader(
-                    "Content-Disposition",
-                    "attachment; filename=\"" + extractRealTableName(request.getTableName()) + "."
-                            + recordsExporter.getFileSuffix() + "\""
-            );
-            int remaining = request.getLimit();
-            int requestNum = Math.min(remaining, DataStore.QUERY_LIMIT);
-            int totalRecords = 0;
-            ServletOutputStream outputStream = httpResponse.getOutputStream();
-            do {
-                request.setLimit(requestNum);
-                RecordList recordList = queryRecordList(request);
-                if (CollectionUtils.isEmpty(recordList.getRecords())) {
-                    break;
-                }
-                recordsExporter.exportTo(recordList, outputStream);
-                int resultSize = recordList.getRecords().size();
-                totalRecords += resultSize;
-                if (resultSize < requestNum) {
-                    break;
-                }
-                request.setStart(totalRecords);
-                if (remaining > 0) {
-                    remaining = remaining - resultSize;
-                    if (remaining <= 0) {
-                        break;
-                    }
-                }
-                requestNum = Math.min(remaining, DataStore.QUERY_LIMIT);
-            } while (true);
+            var queryRequest = DataStoreController.toDataStoreQueryRequest(request);
+            httpResponse.setContentType(PROTOBUF_STREAM);
+            var outputStream = httpResponse.getOutputStream();
+            this.dataStore.query(queryRequest, new RecordStreamWriter(outputStream));
+            outputStream.flush();
+        } catch (SwValidationException e) {
+            throw new SwValidationException(SwValidationException.ValidSubject.DATASTORE, "request=" + request, e);
+        } catch (IOException e) {
+            log.error("writing response failed", e);
+            throw new SwProcessException(ErrorType.SYSTEM, "stream records failed", e);
+        }
+    }
+
+    /**
+     * Stream all the scanned records as length-delimited protobuf messages, see {@link RecordStreamWriter}. Selected
+     * by "Accept: application/x-protobuf", the limit is not capped.
+     */
+    @PostMapping(value = "/datastore/scanTable", produces = PROTOBUF_STREAM)
+    @PreAuthorize("hasAnyRole('GUEST', 'OWNER', 'MAINTAINER', 'ANONYMOUS')")
+    void scanTableStream(
+            @Valid @RequestBody ScanTableRequest request, HttpServletResponse httpResponse
+    ) {
+        try {
+            if (request.getTables() == null || request.getTables().isEmpty()) {
+                throw new SwValidationException(
+                        SwValidationException.ValidSubject.DATASTORE,
+                        "tables should not be null or empty."
+                );
+            }
+            var scanRequest = DataStoreController.toDataStoreScanRequest(request);
+            httpResponse.setContentType(PROTOBUF_STREAM);
+            var outputStream = httpResponse.getOutputStream();
+            this.dataStore.scan(scanRequest, new RecordStreamWriter(outputStream));
             outputStream.flush();
         } catch (SwValidationException e) {
             throw new SwValidationException(SwValidationException.ValidSubject.DATASTORE, "request=" + request, e);
+        } catch (IOException e) {
+            log.error("writing response failed", e);
+            throw new SwProcessException(ErrorType.SYSTEM, "stream records failed", e);
+        }
+    }
+
+    @PostMapping(value = "/datastore/queryTable/export")
+    @PreAuthorize("hasAnyRole('GUEST', 'OWNER', 'MAINTAINER', 'ANONYMOUS')")
+    void queryAndExport(
+            @Valid @RequestBody QueryTableRequest request,
+            @RequestParam(value = "format", required = false, defaultValue = "csv") String format,
+            HttpServletRequest httpRequest,
+            HttpServletResponse httpResponse
+    ) {
+        try {
+            var exporter = this.getRecordsExporter(format);
+            var queryRequest = DataStoreController.toDataStoreQueryRequest(request);
+            this.export(exporter,
+                    extractRealTableName(request.getTableName()),
+                    request.isRawResult(),
+                    request.isEncodeWithType(),
+                    httpRequest,
+                    httpResponse,
+                    writer -> this.dataStore.query(queryRequest, writer));
+        } catch (SwValidationException e) {
+            throw new SwValidationException(SwValidationException.ValidSubject.DATASTORE, "request=" + request, e);
         } catch (IOException e) {
             log.error("writing response failed", e);
             throw new SwProcessException(ErrorType.SYSTEM, "export records failed ", e);
@@ -246,45 +331,29 @@ public class DataStoreController {
     @PostMapping(value = "/datastore/scanTable/export")
     @PreAuthorize("hasAnyRole('GUEST', 'OWNER', 'MAINTAINER', 'ANONYMOUS')")
     void scanAndExport(
-            @Valid @RequestBody ScanTableRequest request, HttpServletResponse httpResponse
+            @Valid @RequestBody ScanTableRequest request,
+            @RequestParam(value = "format", required = false, defaultValue = "csv") String format,
+            HttpServletRequest httpRequest,
+            HttpServletResponse httpResponse
     ) {
         try {
-            httpResponse.addHeader(
-                    "Content-Disposition",
-                    "attachment; filename=\"" + String.join(
-                            "-",
-                            request.getTables()
-                                    .stream()
-                                    .map(tableDesc -> extractRealTableName(tableDesc.getTableName()))
-                                    .collect(Collectors.toList())
-                    ) + "." + recordsExporter.getFileSuffix() + "\""
-            );
-            httpResponse.addHeader("Content-Type", recordsExporter.getWebMediaType());
-            int remaining = request.getLimit();
-            int requestNum = Math.min(remaining, DataStore.QUERY_LIMIT);
-            ServletOutputStream outputStream = httpResponse.getOutputStream();
-            do {
-                request.setLimit(requestNum);
-                RecordList recordList = scanRecordList(request);
-                if (CollectionUtils.isEmpty(recordList.getRecords())) {
-                    break;
-                }
-                recordsExporter.exportTo(recordList, outputStream);
-                int resultSize = recordList.getRecords().size();
-                if (resultSize < requestNum) {
-                    break;
-                }
-                request.setStart(recordList.getLastKey());
-                request.setStartInclusive(false);
-                if (remaining > 0) {
-                    remaining = remaining - resultSize;
-                    if (remaining <= 0) {
-                        break;
-                    }
-                }
-                requestNum = Math.min(remaining, DataStore.QUERY_LIMIT);
-            } while (true);
-            outputStream.flush();
+            if (request.getTables() == null || request.getTables().isEmpty()) {
+                throw new SwValidationException(
+                        SwValidationException.ValidSubject.DATASTORE,
+                        "tables should not be null or empty."
+                );
+            }
+            var exporter = this.getRecordsExporter(format);
+            var scanRequest = DataStoreController.toDataStoreScanRequest(request);
+            this.export(exporter,
+                    request.getTables().stream()
+                            .map(tableDesc -> extractRealTableName(tableDesc.getTableName()))
+                            .collect(Collectors.joining("-")),
+                    request.isRawResult(),
+                    request.isEncodeWithType(),
+                    httpRequest,
+                    httpResponse,
+                    writer -> this.dataStore.scan(scanRequest, writer));
         } catch (SwValidationException e) {
             throw new SwValidationException(SwValidationException.ValidSubject.DATASTORE, "request=" + request, e);
         } catch (IOException e) {
@@ -293,14 +362,70 @@ public class DataStoreController {
         }
     }
 
+    private interface ExportTask {
+
+        void run(RecordWriter writer) throws IOException;
+    }
+
+    private RecordsStreamingExporter getRecordsExporter(String format) {
+        return this.recordsExporters.stream()
+                .filter(exporter -> exporter.getFileSuffix().equals(format))
+                .findFirst()
+                .orElseThrow(() -> new SwValidationException(ValidSubject.DATASTORE,
+                        "unsupported export format " + format));
+    }
+
+    private void export(RecordsStreamingExporter exporter,
+            String fileName,
+            boolean rawResult,
+            boolean encodeWithType,
+            HttpServletRequest httpRequest,
+            HttpServletResponse httpResponse,
+            ExportTask task) throws IOException {
+        httpResponse.addHeader("Content-Type", exporter.getWebMediaType());
+        httpResponse.addHeader(
+                "Content-Disposition",
+                "attachment; filename=\"" + fileName + "." + exporter.getFileSuffix() + "\""
+        );
+        OutputStream outputStream = httpResponse.getOutputStream();
+        if (!exporter.isCompressed()) {
+            httpResponse.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+            if (DataStoreController.acceptsGzip(httpRequest.getHeader(HttpHeaders.ACCEPT_ENCODING))) {
+                httpResponse.addHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+                outputStream = new GZIPOutputStream(outputStream, RECORDS_EXPORT_BUFFER_SIZE);
+            }
+        }
+        var writer = exporter.createWriter(outputStream, rawResult, encodeWithType);
+        task.run(writer);
+        // not closed on failures, so that the client sees a broken response instead of a complete looking file
+        writer.close();
+    }
+
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (var coding : acceptEncoding.split(",")) {
+            var parts = coding.split(";");
+            if (parts[0].trim().equalsIgnoreCase("gzip")) {
+                return parts.length < 2 || !Q_ZERO.matcher(parts[1].trim()).matches();
+            }
+        }
+        return false;
+    }
+
     private RecordList queryRecordList(QueryTableRequest request) {
+        return this.dataStore.query(DataStoreController.toDataStoreQueryRequest(request));
+    }
+
+    private static DataStoreQueryRequest toDataStoreQueryRequest(QueryTableRequest request) {
         if (request.getTableName() == null) {
             throw new SwValidationException(
                     ValidSubject.DATASTORE,
                     "table name should not be null"
             );
         }
-        return this.dataStore.query(DataStoreQueryRequest.builder()
+        return DataStoreQueryRequest.builder()
                 .tableName(request.getTableName())
                 .columns(DataStoreController.convertColumns(request.getColumns()))
                 .filter(DataStoreController.convertFilter(request.getFilter()))
@@ -312,7 +437,8 @@ public class DataStoreController {
                 .encodeWithType(request.isEncodeWithType())
                 .ignoreNonExistingTable(request.isIgnoreNonExistingTable())
                 .revision(StringUtils.hasText(request.getRevision()) ? Long.parseLong(request.getRevision()) : 0)
-                .build());
+                .cursor(request.getCursor())
+                .build();
     }
 
     private static TableQueryFilter convertFilter(TableQueryFilterDesc input) {
@@ -361,6 +487,7 @@ public class DataStoreController {
                 }
                 break;
             case EQUAL:
+            case LIKE:
             case LESS:
             case LESS_EQUAL:
             case GREATER:
@@ -372,6 +499,22 @@ public class DataStoreController {
                     );
                 }
                 break;
+            case IN:
+                if (input.getOperands().size() < 2) {
+                    throw new SwValidationException(
+                            SwValidationException.ValidSubject.DATASTORE,
+                            "'IN' should have 2 operands at least. " + input
+                    );
+                }
+                break;
+            case IS_NULL:
+                if (input.getOperands().size() != 1) {
+                    throw new SwValidationException(
+                            SwValidationException.ValidSubject.DATASTORE,
+                            "'IS_NULL' should have only one operand. " + input
+                    );
+                }
+                break;
             default:
                 throw new SwValidationException(
                         SwValidationException.ValidSubject.DATASTORE,
@@ -398,6 +541,33 @@ public class DataStoreController {
                     }
                 }
                 break;
+            case LIKE:
+                if (!(ret.getOperands().get(0) instanceof TableQueryFilter.Column)
+                        || !(ret.getOperands().get(1) instanceof TableQueryFilter.Constant)
+                        || ((TableQueryFilter.Constant) ret.getOperands().get(1)).getType() != ColumnType.STRING) {
+                    throw new SwValidationException(
+                            SwValidationException.ValidSubject.DATASTORE,
+                            "operator LIKE should have a column operand and a string pattern. " + input
+                    );
+                }
+                break;
+            case IN:
+            case IS_NULL:
+                if (!(ret.getOperands().get(0) instanceof TableQueryFilter.Column)) {
+                    throw new SwValidationException(
+                            SwValidationException.ValidSubject.DATASTORE,
+                            "the first operand of operator " + operator + " should be a column. " + input
+                    );
+                }
+                for (var operand : ret.getOperands().subList(1, ret.getOperands().size())) {
+                    if (operand != null && !(operand instanceof TableQueryFilter.Constant)) {
+                        throw new SwValidationException(
+                                SwValidationException.ValidSubject.DATASTORE,
+                                MessageFormat.format("unsupported operand {0} for operator {1}", operand, operator)
+                        );
+                    }
+                }
+                break;
             case EQUAL:
             case LESS:
             case LESS_EQUAL:
@@ -487,7 +657,11 @@ public class DataStoreController {
 
 
     private RecordList scanRecordList(ScanTableRequest request) {
-        var recordList = this.dataStore.scan(DataStoreScanRequest.builder()
+        return this.dataStore.scan(DataStoreController.toDataStoreScanRequest(request));
+    }
+
+    private static DataStoreScanRequest toDataStoreScanRequest(ScanTableRequest request) {
+        return DataStoreScanRequest.builder()
                 .tables(request.getTables().stream()
                         .map(x -> {
                             if (x == null) {
@@ -523,7 +697,6 @@ public class DataStoreController {
                 .rawResult(request.isRawResult())
                 .encodeWithType(request.isEncodeWithType())
                 .ignoreNonExistingTable(request.isIgnoreNonExistingTable())
-                .build());
-        return recordList;
+                .build();
     }
 }
@@ -36,6 +36,7 @@ import ai.starwhale.mlops.api.protocol.dataset.upload.DatasetUploadRequest;
 import ai.starwhale.mlops.api.protocol.upload.UploadResult;
 import ai.starwhale.mlops.common.IdConverter;
 import ai.starwhale.mlops.common.PageParams;
+import ai.starwhale.mlops.common.util.DownloadUtil;
 import ai.starwhale.mlops.domain.dataset.DatasetService;
 import ai.starwhale.mlops.domain.dataset.bo.DatasetQuery;
 import ai.starwhale.mlops.domain.dataset.bo.DatasetVersionQuery;
@@ -65,6 +66,7 @@ import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
 import javax.validation.constraints.Max;
@@ -83,6 +85,7 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
@@ -328,6 +331,8 @@ public class DatasetController {
             @PathVariable String versionUrl,
             @Parameter(description = "optional, _manifest.yaml is used if not specified")
             @RequestParam(required = false) String partName,
+            @RequestHeader(name = "Range", required = false) String range,
+            HttpServletRequest httpRequest,
             HttpServletResponse httpResponse
     ) {
         if (!StringUtils.hasText(datasetUrl) || !StringUtils.hasText(versionUrl)) {
@@ -336,7 +341,7 @@ public class DatasetController {
                     HttpStatus.BAD_REQUEST
             );
         }
-        datasetUploader.pull(projectUrl, datasetUrl, versionUrl, partName, httpResponse);
+        datasetUploader.pull(projectUrl, datasetUrl, versionUrl, partName, range, httpRequest, httpResponse);
     }
 
     @Operation(summary = "Upload a hashed BLOB to dataset object store",
@@ -394,16 +399,14 @@ public class DatasetController {
             @PathVariable String projectName,
             @PathVariable String datasetName,
             @PathVariable String hash,
+            @RequestHeader(name = "Range", required = false) String range,
+            HttpServletRequest httpRequest,
             HttpServletResponse httpResponse
     ) {
-        try (
-                var inputStream = hashNamedDatasetObjectStoreFactory.of(projectName, datasetName).get(hash.trim());
-                var outputStream = httpResponse.getOutputStream()
-        ) {
-            httpResponse.addHeader("Content-Disposition", "attachment; filename=\"" + hash + "\"");
-            httpResponse.addHeader("Content-Length", String.valueOf(inputStream.getSize()));
-            inputStream.transferTo(outputStream);
-            outputStream.flush();
+        try {
+            var objectStore = hashNamedDatasetObjectStoreFactory.of(projectName, datasetName);
+            DownloadUtil.download(range, httpRequest, httpResponse, hash,
+                    DownloadUtil.reader(objectStore, hash.trim()));
         } catch (IOException e) {
             throw new SwProcessException(ErrorType.STORAGE, "pull file from storage failed", e);
         }
@@ -23,6 +23,7 @@ import ai.starwhale.mlops.api.protocol.evaluation.ConfigRequest;
 import ai.starwhale.mlops.api.protocol.evaluation.ConfigVo;
 import ai.starwhale.mlops.api.protocol.evaluation.SummaryVo;
 import ai.starwhale.mlops.common.PageParams;
+import ai.starwhale.mlops.common.util.DownloadUtil;
 import ai.starwhale.mlops.domain.evaluation.EvaluationFileStorage;
 import ai.starwhale.mlops.domain.evaluation.EvaluationService;
 import ai.starwhale.mlops.domain.evaluation.bo.ConfigQuery;
@@ -41,6 +42,7 @@ import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
@@ -52,6 +54,7 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
@@ -200,16 +203,14 @@ public class EvaluationController {
             @PathVariable(name = "projectUrl") String projectUrl,
             @PathVariable(name = "version") String version,
             @PathVariable(name = "hash") String hash,
+            @RequestHeader(name = "Range", required = false) String range,
+            HttpServletRequest httpRequest,
             HttpServletResponse httpResponse
     ) {
-        try (
-                var inputStream = evaluationFileStorage.hashObjectStore(projectUrl, version).get(hash.trim());
-                var outputStream = httpResponse.getOutputStream()
-        ) {
-            httpResponse.addHeader("Content-Disposition", "attachment; filename=\"" + hash + "\"");
-            httpResponse.addHeader("Content-Length", String.valueOf(inputStream.getSize()));
-            inputStream.transferTo(outputStream);
-            outputStream.flush();
+        try {
+            var objectStore = evaluationFileStorage.hashObjectStore(projectUrl, version);
+            DownloadUtil.download(range, httpRequest, httpResponse, hash,
+                    DownloadUtil.reader(objectStore, hash.trim()));
         } catch (IOException e) {
             throw new SwProcessException(ErrorType.STORAGE, "pull file from storage failed", e);
         }
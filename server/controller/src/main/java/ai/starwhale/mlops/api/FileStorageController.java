@@ -32,7 +32,6 @@ import io.swagger.v3.oas.annotations.tags.Tag;
 import java.io.IOException;
 import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletResponse;
 import lombok.extern.slf4j.Slf4j;
@@ -125,14 +124,6 @@ public class FileStorageController {
             @RequestParam(name = "expTimeMillis")
             Long expTimeMillis
     ) {
-        return ResponseEntity.ok(
-                Code.success.asResponse(
-                        uris.stream().collect(Collectors.toMap(
-                                u -> u,
-                                u -> uriAccessor.linkOf(
-                                        u,
-                                        expTimeMillis
-                                )
-                        ))));
+        return ResponseEntity.ok(Code.success.asResponse(uriAccessor.linksOf(uris, expTimeMillis)));
     }
 }
@@ -16,6 +16,7 @@
 
 package ai.starwhale.mlops.api;
 
+import ai.starwhale.mlops.common.util.DownloadUtil;
 import ai.starwhale.mlops.exception.SwProcessException;
 import ai.starwhale.mlops.exception.SwProcessException.ErrorType;
 import ai.starwhale.mlops.exception.SwValidationException;
@@ -25,8 +26,6 @@ import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import io.vavr.Tuple2;
 import java.io.IOException;
-import java.io.InputStream;
-import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import lombok.extern.slf4j.Slf4j;
@@ -67,34 +66,13 @@ public class ObjectStoreController {
         if (expTimeMillis < System.currentTimeMillis()) {
             throw new SwValidationException(ValidSubject.OBJECT_STORE, "link expired");
         }
-        Long start = 0L;
-        Long end = 0L;
-        boolean withRange;
-        if (null != range) {
-            String[] split = range.split("="); //"start-end"
-            if (split.length < 2) {
-                withRange = false;
-            } else {
-                start = Long.valueOf(split[1].split("-")[0]);
-                end = Long.valueOf(split[1].split("-")[1]);
-                withRange = true;
-            }
-        } else {
-            withRange = false;
-        }
-
-        try (InputStream fileInputStream = withRange ? storageAccessService.get(path, start, end - start + 1) :
-                storageAccessService.get(path);
-                ServletOutputStream outputStream = httpResponse.getOutputStream()) {
-            long length = fileInputStream.transferTo(outputStream);
-            httpResponse.addHeader("Content-Disposition", "attachment; filename=\"content\"");
-            httpResponse.addHeader("Content-Length", String.valueOf(length));
-            outputStream.flush();
+        try {
+            DownloadUtil.download(range, httpServletRequest, httpResponse, "content",
+                    DownloadUtil.reader(storageAccessService, path));
         } catch (IOException e) {
             log.error("download file from storage failed {}", path, e);
             throw new SwProcessException(ErrorType.STORAGE, "download file from storage failed", e);
         }
-
     }
 
     private Tuple2<Long, String> extractInfoFromUri(HttpServletRequest request) {
@@ -35,4 +35,5 @@ public class QueryTableRequest {
     private boolean encodeWithType;
     private boolean ignoreNonExistingTable = true;
     private String revision;
+    private String cursor;
 }
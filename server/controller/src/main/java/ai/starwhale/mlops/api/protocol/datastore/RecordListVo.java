@@ -38,4 +38,5 @@ public class RecordListVo {
     private Map<String, ColumnHintsDesc> columnHints;
     private List<Map<String, Object>> records;
     private String lastKey;
+    private String cursor;
 }
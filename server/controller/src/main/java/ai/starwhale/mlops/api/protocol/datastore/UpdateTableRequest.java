@@ -26,4 +26,6 @@ public class UpdateTableRequest {
     private String tableName;
     private TableSchemaDesc tableSchemaDesc;
     private List<RecordDesc> records;
+    // async, local-fsync or remote-ack. use the server default if not set
+    private String durability;
 }
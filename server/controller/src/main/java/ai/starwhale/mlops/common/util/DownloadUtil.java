@@ -0,0 +1,184 @@
+/*
+ * Copyright 2022 Starwhale, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.starwhale.mlops.common.util;
+
+import ai.starwhale.mlops.domain.storage.HashNamedObjectStore;
+import ai.starwhale.mlops.storage.FileRegionInputStream;
+import ai.starwhale.mlops.storage.LengthAbleInputStream;
+import ai.starwhale.mlops.storage.StorageAccessService;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.List;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+
+/**
+ * Writes objects to the http response with the support of single range requests.
+ *
+ * <p>Local files are handed over to tomcat with sendfile if the connector supports it, or transferred with
+ * {@link java.nio.channels.FileChannel#transferTo} otherwise, so they are not copied through the heap.
+ */
+public class DownloadUtil {
+
+    public interface ObjectReader {
+
+        LengthAbleInputStream read() throws IOException;
+
+        LengthAbleInputStream read(long offset, long size) throws IOException;
+
+        /**
+         * @return the size of the object, only called for range requests
+         */
+        long size() throws IOException;
+    }
+
+    static final String SENDFILE_SUPPORTED_ATTR = "org.apache.tomcat.sendfile.support";
+    static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
+    // the same as the default servlet of tomcat, it is cheaper to write smaller files directly
+    static final long SENDFILE_MIN_SIZE = 48 * 1024;
+
+    public static ObjectReader reader(StorageAccessService storageAccessService, String path) {
+        return new ObjectReader() {
+            @Override
+            public LengthAbleInputStream read() throws IOException {
+                return storageAccessService.get(path);
+            }
+
+            @Override
+            public LengthAbleInputStream read(long offset, long size) throws IOException {
+                return storageAccessService.get(path, offset, size);
+            }
+
+            @Override
+            public long size() throws IOException {
+                var info = storageAccessService.head(path);
+                if (!info.isExists()) {
+                    throw new FileNotFoundException(path);
+                }
+                return info.getContentLength();
+            }
+        };
+    }
+
+    public static ObjectReader reader(HashNamedObjectStore objectStore, String blobHash) {
+        return new ObjectReader() {
+            @Override
+            public LengthAbleInputStream read() throws IOException {
+                return objectStore.get(blobHash);
+            }
+
+            @Override
+            public LengthAbleInputStream read(long offset, long size) throws IOException {
+                return objectStore.get(blobHash, offset, size);
+            }
+
+            @Override
+            public long size() throws IOException {
+                return objectStore.size(blobHash);
+            }
+        };
+    }
+
+    /**
+     * Write the object or the requested range of it to the response.
+     *
+     * <p>Multiple ranges and malformed range headers are ignored and the whole object is returned, which is allowed
+     * by RFC 7233. 416 is returned if the range is not satisfiable.
+     *
+     * @param range    the value of the Range header, or null
+     * @param filename the file name in the Content-Disposition header
+     */
+    public static void download(String range,
+            HttpServletRequest request,
+            HttpServletResponse response,
+            String filename,
+            ObjectReader reader) throws IOException {
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"");
+        var httpRange = parseRange(range);
+        LengthAbleInputStream inputStream;
+        if (httpRange == null) {
+            inputStream = reader.read();
+        } else {
+            var size = reader.size();
+            long start;
+            long end;
+            try {
+                start = httpRange.getRangeStart(size);
+                end = httpRange.getRangeEnd(size);
+            } catch (IllegalArgumentException e) {
+                start = 0;
+                end = -1;
+            }
+            if (start > end) {
+                response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+                return;
+            }
+            response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + size);
+            inputStream = reader.read(start, end - start + 1);
+        }
+        try (inputStream) {
+            response.setContentLengthLong(inputStream.getSize());
+            if (inputStream instanceof FileRegionInputStream) {
+                transfer(request, response, (FileRegionInputStream) inputStream);
+            } else {
+                var outputStream = response.getOutputStream();
+                inputStream.transferTo(outputStream);
+                outputStream.flush();
+            }
+        }
+    }
+
+    private static HttpRange parseRange(String range) {
+        if (range == null || range.isBlank()) {
+            return null;
+        }
+        List<HttpRange> ranges;
+        try {
+            ranges = HttpRange.parseRanges(range);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        return ranges.size() == 1 ? ranges.get(0) : null;
+    }
+
+    private static void transfer(HttpServletRequest request,
+            HttpServletResponse response,
+            FileRegionInputStream inputStream) throws IOException {
+        if (inputStream.getPath() != null
+                && inputStream.getSize() >= SENDFILE_MIN_SIZE
+                && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED_ATTR))) {
+            // tomcat opens the file again and sends it after the request is processed
+            request.setAttribute(SENDFILE_FILENAME_ATTR, inputStream.getPath().toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START_ATTR, inputStream.getPosition());
+            request.setAttribute(SENDFILE_END_ATTR, inputStream.getPosition() + inputStream.getSize());
+            return;
+        }
+        var outputStream = response.getOutputStream();
+        inputStream.transferTo(Channels.newChannel(outputStream));
+        outputStream.flush();
+    }
+}
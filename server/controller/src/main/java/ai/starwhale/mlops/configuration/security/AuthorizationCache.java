@@ -0,0 +1,173 @@
+/*
+ * Copyright 2022 Starwhale, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.starwhale.mlops.configuration.security;
+
+import ai.starwhale.mlops.domain.project.bo.Project;
+import ai.starwhale.mlops.domain.user.bo.Role;
+import ai.starwhale.mlops.domain.user.bo.User;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.function.Supplier;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Caches the users, projects and roles resolved by {@link JwtTokenFilter} for a short time, so that the requests
+ * of the same user on the same projects do not query the database again and again.
+ *
+ * <p>The entries expire after the ttl. The services changing users, projects or memberships invalidate the cache
+ * explicitly, so the changes take effect immediately in this instance. Other instances see them after the ttl.
+ */
+@Slf4j
+@Component
+public class AuthorizationCache {
+
+    /**
+     * The resolved authorization of a user on a set of projects. The user is null for anonymous requests.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Authorization {
+
+        private final User user;
+
+        private final Set<Project> projects;
+
+        private final Set<Role> roles;
+
+        // false if some of the projects failed to be resolved, which is not cached
+        private final boolean complete;
+    }
+
+    @EqualsAndHashCode
+    @AllArgsConstructor
+    private static class Key {
+
+        private final String username;
+
+        private final Set<String> projects;
+    }
+
+    @AllArgsConstructor
+    private static class Item {
+
+        private final Authorization authorization;
+
+        private final long expireTime;
+    }
+
+    private final long ttlMillis;
+
+    private final int maxSize;
+
+    // in access order, the eldest entry is the least recently used one
+    private final LinkedHashMap<Key, Item> items = new LinkedHashMap<>(16, 0.75f, true);
+
+    // increased on every invalidation, the results loaded before that are dropped
+    private long generation;
+
+    private final Counter hitCounter;
+
+    private final Counter missCounter;
+
+    private final Timer filterTimer;
+
+    public AuthorizationCache(JwtProperties jwtProperties, MeterRegistry meterRegistry) {
+        this.ttlMillis = jwtProperties.getAuthCacheTtl().toMillis();
+        this.maxSize = jwtProperties.getAuthCacheMaxSize();
+        this.hitCounter = meterRegistry.counter("sw.auth.cache.hits");
+        this.missCounter = meterRegistry.counter("sw.auth.cache.misses");
+        this.filterTimer = meterRegistry.timer("sw.auth.filter.latency");
+        meterRegistry.gauge("sw.auth.cache.size", this, AuthorizationCache::size);
+    }
+
+    /**
+     * @param username null for anonymous requests
+     * @param loader   loads the authorization on cache misses
+     */
+    public Authorization get(String username, Set<String> projects, Supplier<Authorization> loader) {
+        if (this.ttlMillis <= 0 || this.maxSize <= 0) {
+            return loader.get();
+        }
+        var key = new Key(username, projects);
+        long gen;
+        synchronized (this.items) {
+            var item = this.items.get(key);
+            if (item != null && item.expireTime > System.currentTimeMillis()) {
+                this.hitCounter.increment();
+                return item.authorization;
+            }
+            gen = this.generation;
+        }
+        this.missCounter.increment();
+        var ret = loader.get();
+        if (ret.isComplete()) {
+            synchronized (this.items) {
+                if (gen == this.generation) {
+                    this.items.put(key, new Item(ret, System.currentTimeMillis() + this.ttlMillis));
+                    var it = this.items.values().iterator();
+                    while (this.items.size() > this.maxSize) {
+                        it.next();
+                        it.remove();
+                    }
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Drop all the cached entries. If it is called in a transaction, the cache is cleared again after the commit,
+     * so that the entries loaded by other requests before the commit are not kept.
+     */
+    public void invalidateAll() {
+        this.clear();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    AuthorizationCache.this.clear();
+                }
+            });
+        }
+    }
+
+    public Timer getFilterTimer() {
+        return this.filterTimer;
+    }
+
+    private void clear() {
+        synchronized (this.items) {
+            ++this.generation;
+            this.items.clear();
+        }
+    }
+
+    private int size() {
+        synchronized (this.items) {
+            return this.items.size();
+        }
+    }
+}
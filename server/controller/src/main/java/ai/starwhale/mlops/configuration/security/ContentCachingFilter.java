@@ -16,10 +16,14 @@
 
 package ai.starwhale.mlops.configuration.security;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
 import javax.servlet.FilterChain;
 import javax.servlet.ReadListener;
 import javax.servlet.ServletException;
@@ -27,49 +31,107 @@ import javax.servlet.ServletInputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletRequestWrapper;
 import javax.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
 import org.jetbrains.annotations.NotNull;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
-import org.springframework.util.StreamUtils;
 import org.springframework.util.StringUtils;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.filter.OncePerRequestFilter;
 
+@Slf4j
 @Component
 public class ContentCachingFilter extends OncePerRequestFilter {
 
     private final String apiPrefix;
 
-    public ContentCachingFilter(@Value("${sw.controller.api-prefix}") String apiPrefix) {
+    // the protobuf stream is applied while it is being read, its table name is in the query string
+    private final String ingestPath;
+
+    private final int memoryThreshold;
+
+    public ContentCachingFilter(@Value("${sw.controller.api-prefix}") String apiPrefix,
+            @Value("${sw.controller.body-memory-threshold}") String memoryThreshold) {
         this.apiPrefix = StringUtils.trimTrailingCharacter(apiPrefix, '/') + "/datastore";
+        this.ingestPath = this.apiPrefix + "/ingestTable";
+        this.memoryThreshold = Math.toIntExact(DataSize.parse(memoryThreshold).toBytes());
     }
 
 
     @Override
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
             throws ServletException, IOException {
-        if (request.getRequestURI().startsWith(apiPrefix)) {
-            filterChain.doFilter(new CachedBodyHttpServletRequest(request), response);
+        var uri = request.getRequestURI();
+        if (uri.startsWith(apiPrefix) && !uri.equals(this.ingestPath)) {
+            var cachedRequest = new CachedBodyHttpServletRequest(request, this.memoryThreshold);
+            try {
+                filterChain.doFilter(cachedRequest, response);
+            } finally {
+                cachedRequest.release();
+            }
         } else {
             filterChain.doFilter(request, response);
         }
 
     }
 
+    /**
+     * Keeps the body so that it can be read more than once. Bodies not larger than the threshold are kept in memory,
+     * the larger ones, like big updateTable batches, are spilled to a temporary file which is deleted by
+     * {@link #release()}.
+     */
     public static class CachedBodyHttpServletRequest extends HttpServletRequestWrapper {
 
         private byte[] cachedBody;
 
-        public CachedBodyHttpServletRequest(HttpServletRequest request) throws IOException {
+        private Path cachedFile;
+
+        public CachedBodyHttpServletRequest(HttpServletRequest request, int memoryThreshold) throws IOException {
             super(request);
             InputStream requestInputStream = request.getInputStream();
-            this.cachedBody = StreamUtils.copyToByteArray(requestInputStream);
+            byte[] head = new byte[0];
+            if (request.getContentLengthLong() <= memoryThreshold) {
+                head = requestInputStream.readNBytes(memoryThreshold);
+                int next = requestInputStream.read();
+                if (next < 0) {
+                    this.cachedBody = head;
+                    return;
+                }
+                head = Arrays.copyOf(head, head.length + 1);
+                head[head.length - 1] = (byte) next;
+            }
+            this.cachedFile = Files.createTempFile("sw-body-", ".tmp");
+            try (var out = Files.newOutputStream(this.cachedFile)) {
+                out.write(head);
+                requestInputStream.transferTo(out);
+            } catch (IOException | RuntimeException e) {
+                this.release();
+                throw e;
+            }
         }
 
         @Override
         public ServletInputStream getInputStream() throws IOException {
-            return new CachedBodyServletInputStream(this.cachedBody);
+            if (this.cachedFile != null) {
+                return new CachedBodyServletInputStream(new BufferedInputStream(Files.newInputStream(this.cachedFile)));
+            }
+            return new CachedBodyServletInputStream(new ByteArrayInputStream(this.cachedBody));
+        }
+
+        public boolean isSpilled() {
+            return this.cachedFile != null;
         }
 
+        public void release() {
+            if (this.cachedFile != null) {
+                try {
+                    Files.deleteIfExists(this.cachedFile);
+                } catch (IOException e) {
+                    log.warn("failed to delete {}", this.cachedFile, e);
+                }
+                this.cachedFile = null;
+            }
+        }
     }
 
 
@@ -77,8 +139,8 @@ public class ContentCachingFilter extends OncePerRequestFilter {
 
         private InputStream cachedBodyInputStream;
 
-        public CachedBodyServletInputStream(byte[] cachedBody) {
-            this.cachedBodyInputStream = new ByteArrayInputStream(cachedBody);
+        public CachedBodyServletInputStream(InputStream cachedBodyInputStream) {
+            this.cachedBodyInputStream = cachedBodyInputStream;
         }
 
         @Override
@@ -16,6 +16,7 @@
 
 package ai.starwhale.mlops.configuration.security;
 
+import java.time.Duration;
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
@@ -31,4 +32,10 @@ public class JwtProperties {
 
     /* jwt expire time,by minutes */
     private Long expireMinutes = 24 * 60L;
+
+    /* the time to keep the resolved user, projects and roles of requests, 0 to disable the cache */
+    private Duration authCacheTtl = Duration.ofSeconds(10);
+
+    /* the max number of the cached (user, projects) authorizations */
+    private int authCacheMaxSize = 10000;
 }
@@ -20,6 +20,7 @@ import static ai.starwhale.mlops.common.util.HttpUtil.error;
 
 import ai.starwhale.mlops.api.protocol.Code;
 import ai.starwhale.mlops.common.util.JwtTokenUtil;
+import ai.starwhale.mlops.configuration.security.AuthorizationCache.Authorization;
 import ai.starwhale.mlops.domain.project.ProjectService;
 import ai.starwhale.mlops.domain.project.bo.Project;
 import ai.starwhale.mlops.domain.user.UserService;
@@ -29,8 +30,10 @@ import ai.starwhale.mlops.exception.StarwhaleException;
 import ai.starwhale.mlops.exception.SwValidationException;
 import io.jsonwebtoken.Claims;
 import java.io.IOException;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
@@ -55,18 +58,22 @@ public class JwtTokenFilter extends OncePerRequestFilter {
 
     private final List<JwtClaimValidator> jwtClaimValidators;
 
+    private final AuthorizationCache authorizationCache;
+
     private static final String AUTH_HEADER = "Authorization";
 
     public JwtTokenFilter(JwtTokenUtil jwtTokenUtil, UserService userService, ProjectService projectService,
-            List<JwtClaimValidator> jwtClaimValidators) {
+            List<JwtClaimValidator> jwtClaimValidators, AuthorizationCache authorizationCache) {
         this.jwtTokenUtil = jwtTokenUtil;
         this.userService = userService;
         this.projectService = projectService;
         this.jwtClaimValidators = jwtClaimValidators;
+        this.authorizationCache = authorizationCache;
     }
 
     boolean allowAnonymous(HttpServletRequest request) {
-        var projects = getProjects(request);
+        var projects = authorizationCache.get(null, getProjectUrls(request),
+                () -> new Authorization(null, getProjects(request), Set.of(), true)).getProjects();
         // only for public project
         return projects.stream().allMatch(p -> p.getPrivacy() == Project.Privacy.PUBLIC);
     }
@@ -75,6 +82,23 @@ public class JwtTokenFilter extends OncePerRequestFilter {
     protected void doFilterInternal(HttpServletRequest httpServletRequest,
             @NonNull HttpServletResponse httpServletResponse,
             @NonNull FilterChain filterChain) throws ServletException, IOException {
+        boolean authenticated;
+        long start = System.nanoTime();
+        try {
+            authenticated = authenticate(httpServletRequest, httpServletResponse);
+        } finally {
+            authorizationCache.getFilterTimer().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        if (authenticated) {
+            filterChain.doFilter(httpServletRequest, httpServletResponse);
+        }
+    }
+
+    /**
+     * @return false if the request is rejected and the error has been written to the response
+     */
+    private boolean authenticate(HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse)
+            throws IOException {
         String header = httpServletRequest.getHeader(AUTH_HEADER);
 
         if (!checkHeader(header)) {
@@ -90,7 +114,7 @@ public class JwtTokenFilter extends OncePerRequestFilter {
                 SecurityContextHolder.getContext().setAuthentication(jwtLoginToken);
             } else {
                 error(httpServletResponse, HttpStatus.UNAUTHORIZED.value(), Code.Unauthorized, "Not logged in.");
-                return;
+                return false;
             }
         } else {
             String token = header.split(" ")[1].trim();
@@ -101,46 +125,58 @@ public class JwtTokenFilter extends OncePerRequestFilter {
             } catch (SwValidationException e) {
                 error(httpServletResponse, HttpStatus.UNAUTHORIZED.value(), Code.Unauthorized,
                         "JWT token is expired or invalid.");
-                return;
+                return false;
             }
 
-            User user = userService.loadUserByUsername(jwtTokenUtil.getUsername(claims));
+            String username = jwtTokenUtil.getUsername(claims);
+            User user = authorizationCache.get(username, getProjectUrls(httpServletRequest),
+                    () -> loadAuthorization(username, httpServletRequest)).getUser();
             try {
                 user.defaultChecks();
             } catch (AccountStatusException e) {
                 error(httpServletResponse, HttpStatus.FORBIDDEN.value(), Code.accessDenied, e.getMessage());
-                return;
-            }
-            // Get the roles of System(whether it has owner role)
-            List<Role> sysRoles = userService.getProjectRolesOfUser(user, Project.system());
-            Set<Role> roles = sysRoles.stream().filter(
-                    role -> role.getAuthority().equals(Role.CODE_OWNER)).collect(Collectors.toSet());
-            // Get project roles
-            try {
-                Set<Project> projects = getProjects(httpServletRequest);
-                Set<Role> rolesOfUser = userService.getProjectsRolesOfUser(user, projects);
-                roles.addAll(rolesOfUser);
-            } catch (StarwhaleException e) {
-                logger.error(e.getMessage());
+                return false;
             }
-            user.setRoles(roles);
             // Build jwt token with user
             JwtLoginToken jwtLoginToken = new JwtLoginToken(user, "", user.getRoles());
             jwtLoginToken.setDetails(new WebAuthenticationDetails(httpServletRequest));
             SecurityContextHolder.getContext().setAuthentication(jwtLoginToken);
         }
-        filterChain.doFilter(httpServletRequest, httpServletResponse);
+        return true;
+    }
+
+    private Authorization loadAuthorization(String username, HttpServletRequest httpServletRequest) {
+        User user = userService.loadUserByUsername(username);
+        // Get the roles of System(whether it has owner role)
+        List<Role> sysRoles = userService.getProjectRolesOfUser(user, Project.system());
+        Set<Role> roles = sysRoles.stream().filter(
+                role -> role.getAuthority().equals(Role.CODE_OWNER)).collect(Collectors.toSet());
+        // Get project roles
+        Set<Project> projects = Set.of();
+        boolean complete = true;
+        try {
+            projects = getProjects(httpServletRequest);
+            Set<Role> rolesOfUser = userService.getProjectsRolesOfUser(user, projects);
+            roles.addAll(rolesOfUser);
+        } catch (StarwhaleException e) {
+            logger.error(e.getMessage());
+            complete = false;
+        }
+        user.setRoles(roles);
+        return new Authorization(user, projects, roles, complete);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Set<String> getProjectUrls(HttpServletRequest httpServletRequest) {
+        return new HashSet<>((Set<String>) httpServletRequest.getAttribute(ProjectDetectionFilter.ATTRIBUTE_PROJECT));
     }
 
     @NotNull
     private Set<Project> getProjects(HttpServletRequest httpServletRequest) {
-        @SuppressWarnings("unchecked")
-        Set<Project> projects = ((Set<String>) httpServletRequest
-                .getAttribute(ProjectDetectionFilter.ATTRIBUTE_PROJECT))
+        return getProjectUrls(httpServletRequest)
                 .stream()
                 .map(projectService::findProject)
                 .collect(Collectors.toSet());
-        return projects;
     }
 
     private boolean checkHeader(String header) {
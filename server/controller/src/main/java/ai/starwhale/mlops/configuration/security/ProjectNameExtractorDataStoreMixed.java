@@ -16,10 +16,6 @@
 
 package ai.starwhale.mlops.configuration.security;
 
-import ai.starwhale.mlops.api.protocol.datastore.ListTablesRequest;
-import ai.starwhale.mlops.api.protocol.datastore.QueryTableRequest;
-import ai.starwhale.mlops.api.protocol.datastore.ScanTableRequest;
-import ai.starwhale.mlops.api.protocol.datastore.UpdateTableRequest;
 import ai.starwhale.mlops.common.IdConverter;
 import ai.starwhale.mlops.common.util.HttpUtil;
 import ai.starwhale.mlops.common.util.HttpUtil.Resources;
@@ -34,19 +30,17 @@ import ai.starwhale.mlops.domain.report.ReportDao;
 import ai.starwhale.mlops.domain.runtime.RuntimeDao;
 import ai.starwhale.mlops.exception.SwNotFoundException;
 import cn.hutool.core.util.StrUtil;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.URLDecoder;
 import java.nio.charset.Charset;
+import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
-import javax.servlet.ServletInputStream;
 import javax.servlet.http.HttpServletRequest;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
@@ -55,7 +49,7 @@ import org.springframework.util.StringUtils;
 
 
 /**
- * this implementation relays on ContentCachingFilter
+ * this implementation relays on ContentCachingFilter, the body of datastore requests is read again by the controller
  */
 @Slf4j
 @Component
@@ -79,6 +73,7 @@ public class ProjectNameExtractorDataStoreMixed implements ProjectNameExtractor
     static final String PATH_UPDATE_TABLE = "/datastore/updateTable";
     static final String PATH_QUERY_TABLE = "/datastore/queryTable";
     static final String PATH_SCAN_TABLE = "/datastore/scanTable";
+    static final String PATH_INGEST_TABLE = "/datastore/ingestTable";
 
     private static final Pattern RESOURCE_PATTERN =
             Pattern.compile("^/project/([^/]+)/(runtime|job|dataset|model|report|template)/([^/]+).*$");
@@ -112,30 +107,23 @@ public class ProjectNameExtractorDataStoreMixed implements ProjectNameExtractor
 
     private Set<String> projectsOfDatastore(HttpServletRequest request) {
         String path = request.getRequestURI().replace(apiPrefix, "");
-        try {
-            ServletInputStream wrappedInputStream = request.getInputStream();
-            byte[] bytes = inputStreamToBytes(wrappedInputStream);
+        if (PATH_INGEST_TABLE.equals(path)) {
+            // the body is not cached, the table name is a query parameter
+            var tableNames = request.getParameterValues("tableName");
+            return tableNames == null ? Set.of() : this.tableNames2ProjectNames(List.of(tableNames));
+        }
+        try (JsonParser parser = objectMapper.getFactory().createParser(request.getInputStream())) {
+            List<String> tableNames;
             if (PATH_LIST_TABLES.equals(path)) {
-                ListTablesRequest req = objectMapper.readValue(bytes, ListTablesRequest.class);
-                return req.getPrefixes().stream()
-                        .map(this::tableName2ProjectName)
-                        .filter(Objects::nonNull)
-                        .collect(Collectors.toSet());
-            } else if (PATH_UPDATE_TABLE.equals(path)) {
-                UpdateTableRequest req = objectMapper.readValue(bytes, UpdateTableRequest.class);
-                return singleToSet(tableName2ProjectName(req.getTableName()));
-            } else if (path.startsWith(PATH_QUERY_TABLE)) {
-                QueryTableRequest req = objectMapper.readValue(bytes, QueryTableRequest.class);
-                return singleToSet(tableName2ProjectName(req.getTableName()));
+                tableNames = TableNameExtractor.prefixes(parser);
+            } else if (PATH_UPDATE_TABLE.equals(path) || path.startsWith(PATH_QUERY_TABLE)) {
+                tableNames = TableNameExtractor.tableNames(parser);
             } else if (PATH_SCAN_TABLE.equals(path)) {
-                ScanTableRequest req = objectMapper.readValue(bytes, ScanTableRequest.class);
-                return req.getTables().stream()
-                        .map(tableDesc -> tableName2ProjectName(tableDesc.getTableName()))
-                        .filter(Objects::nonNull)
-                        .collect(Collectors.toSet());
+                tableNames = TableNameExtractor.scanTableNames(parser);
             } else {
                 return Set.of();
             }
+            return this.tableNames2ProjectNames(tableNames);
         } catch (IOException e) {
             log.error("", e);
 
@@ -143,19 +131,6 @@ public class ProjectNameExtractorDataStoreMixed implements ProjectNameExtractor
         return Set.of();
     }
 
-    byte[] inputStreamToBytes(InputStream is) throws IOException {
-        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-
-        int read;
-        byte[] data = new byte[16384];
-
-        while ((read = is.read(data, 0, data.length)) != -1) {
-            buffer.write(data, 0, read);
-        }
-
-        return buffer.toByteArray();
-    }
-
     static final Pattern PATTERN_TABLE_NAME = Pattern.compile("^project\\/([^\\/]*)\\/?.*$");
 
     String tableName2ProjectName(String tableName) {
@@ -168,11 +143,11 @@ public class ProjectNameExtractorDataStoreMixed implements ProjectNameExtractor
         }
     }
 
-    Set<String> singleToSet(String project) {
-        if (!StringUtils.hasText(project)) {
-            return Set.of();
-        }
-        return Set.of(project);
+    private Set<String> tableNames2ProjectNames(List<String> tableNames) {
+        return tableNames.stream()
+                .map(this::tableName2ProjectName)
+                .filter(StringUtils::hasText)
+                .collect(Collectors.toSet());
     }
 
     boolean isDataStore(HttpServletRequest request) {
@@ -84,6 +84,9 @@ public class SecurityConfiguration extends WebSecurityConfigurerAdapter {
     @Resource
     private ContentCachingFilter contentCachingFilter;
 
+    @Resource
+    private AuthorizationCache authorizationCache;
+
 
     public SecurityConfiguration() {
         super();
@@ -135,7 +138,8 @@ public class SecurityConfiguration extends WebSecurityConfigurerAdapter {
                 .formLogin()
                 .and()
                 .addFilterAt(jwtLoginFilter, UsernamePasswordAuthenticationFilter.class)
-                .addFilterAfter(new JwtTokenFilter(jwtTokenUtil, userService, projectService, jwtClaimValidators),
+                .addFilterAfter(new JwtTokenFilter(jwtTokenUtil, userService, projectService, jwtClaimValidators,
+                                authorizationCache),
                         JwtLoginFilter.class)
                 .addFilterBefore(projectDetectionFilter, JwtTokenFilter.class)
                 .addFilterBefore(contentCachingFilter, ProjectDetectionFilter.class)
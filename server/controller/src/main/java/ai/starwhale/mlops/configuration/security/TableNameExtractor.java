@@ -0,0 +1,122 @@
+/*
+ * Copyright 2022 Starwhale, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.starwhale.mlops.configuration.security;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the table names from the json body of the datastore requests with the streaming api of jackson.
+ *
+ * <p>Only the fields holding table names are read, the others, like the records of updateTable, are skipped token by
+ * token without being deserialized. The parser does not stop at the first table name: jackson takes the last one if
+ * a field is duplicated, so all the occurrences are returned to make sure the table used by the controller is
+ * authorized as well.
+ */
+class TableNameExtractor {
+
+    private interface FieldReader {
+
+        void read(JsonParser parser, List<String> result) throws IOException;
+    }
+
+    private static final Map<String, FieldReader> TABLE_NAME = Map.of("tableName", TableNameExtractor::readString);
+
+    private static final Map<String, FieldReader> TABLES = Map.of("tables", TableNameExtractor::readTables);
+
+    private static final Map<String, FieldReader> PREFIXES = Map.of(
+            "prefix", TableNameExtractor::readString,
+            "prefixes", TableNameExtractor::readStringArray);
+
+    /**
+     * @return the tableName of updateTable and queryTable requests
+     */
+    static List<String> tableNames(JsonParser parser) throws IOException {
+        return readObject(parser, TABLE_NAME);
+    }
+
+    /**
+     * @return the tables[].tableName of scanTable requests
+     */
+    static List<String> scanTableNames(JsonParser parser) throws IOException {
+        return readObject(parser, TABLES);
+    }
+
+    /**
+     * @return the prefix and prefixes of listTables requests
+     */
+    static List<String> prefixes(JsonParser parser) throws IOException {
+        return readObject(parser, PREFIXES);
+    }
+
+    private static List<String> readObject(JsonParser parser, Map<String, FieldReader> readers) throws IOException {
+        var ret = new ArrayList<String>();
+        if (parser.nextToken() == JsonToken.START_OBJECT) {
+            readFields(parser, readers, ret);
+        }
+        return ret;
+    }
+
+    private static void readFields(JsonParser parser, Map<String, FieldReader> readers, List<String> result)
+            throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            var reader = readers.get(parser.getCurrentName());
+            parser.nextToken();
+            if (reader == null) {
+                parser.skipChildren();
+            } else {
+                reader.read(parser, result);
+            }
+        }
+    }
+
+    private static void readString(JsonParser parser, List<String> result) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_STRING) {
+            result.add(parser.getText());
+        } else {
+            parser.skipChildren();
+        }
+    }
+
+    private static void readStringArray(JsonParser parser, List<String> result) throws IOException {
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            readString(parser, result);
+            return;
+        }
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            readString(parser, result);
+        }
+    }
+
+    private static void readTables(JsonParser parser, List<String> result) throws IOException {
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return;
+        }
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (parser.currentToken() == JsonToken.START_OBJECT) {
+                readFields(parser, TABLE_NAME, result);
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+}
@@ -16,6 +16,7 @@
 
 package ai.starwhale.mlops.datastore;
 
+import ai.starwhale.mlops.datastore.impl.WalRecordDecoder;
 import ai.starwhale.mlops.datastore.type.BaseValue;
 import ai.starwhale.mlops.datastore.type.ListValue;
 import ai.starwhale.mlops.datastore.type.MapValue;
@@ -49,7 +50,7 @@ public class ColumnStatistics {
     private ColumnStatistics valueStatistics;
     private Map<String, ColumnStatistics> attributesStatistics;
 
-    public void update(BaseValue value) {
+    public synchronized void update(BaseValue value) {
         var type = BaseValue.getColumnType(value);
         this.columnTypeCounter.merge(type, 1L, Long::sum);
         if (!this.columnValueCounterFull && value instanceof ScalarValue) {
@@ -89,6 +90,79 @@ public class ColumnStatistics {
         }
     }
 
+    /**
+     * Create a deep copy that is not affected by further updates of this object.
+     *
+     * @return the copy
+     */
+    public synchronized ColumnStatistics copy() {
+        var ret = new ColumnStatistics();
+        ret.columnTypeCounter.putAll(this.columnTypeCounter);
+        ret.columnValueCounter.putAll(this.columnValueCounter);
+        ret.columnValueCounterFull = this.columnValueCounterFull;
+        if (this.elementStatistics != null) {
+            ret.elementStatistics = this.elementStatistics.copy();
+        }
+        if (this.keyStatistics != null) {
+            ret.keyStatistics = this.keyStatistics.copy();
+        }
+        if (this.valueStatistics != null) {
+            ret.valueStatistics = this.valueStatistics.copy();
+        }
+        if (this.attributesStatistics != null) {
+            ret.attributesStatistics = new HashMap<>();
+            this.attributesStatistics.forEach((k, v) -> ret.attributesStatistics.put(k, v.copy()));
+        }
+        return ret;
+    }
+
+    public synchronized TableMeta.ColumnStatisticsDesc toProto() {
+        var builder = TableMeta.ColumnStatisticsDesc.newBuilder()
+                .setValueCounterFull(this.columnValueCounterFull);
+        this.columnTypeCounter.forEach((k, v) -> builder.putTypeCounts(k.getIndex(), v));
+        this.columnValueCounter.forEach((k, v) -> builder.addValueCounts(TableMeta.ColumnValueCount.newBuilder()
+                .setValue(BaseValue.encodeWal(k))
+                .setCount(v)));
+        if (this.elementStatistics != null) {
+            builder.setElement(this.elementStatistics.toProto());
+        }
+        if (this.keyStatistics != null) {
+            builder.setKey(this.keyStatistics.toProto());
+        }
+        if (this.valueStatistics != null) {
+            builder.setValue(this.valueStatistics.toProto());
+        }
+        if (this.attributesStatistics != null) {
+            this.attributesStatistics.forEach((k, v) -> builder.putAttributes(k, v.toProto()));
+        }
+        return builder.build();
+    }
+
+    public static ColumnStatistics fromProto(TableMeta.ColumnStatisticsDesc desc) {
+        var ret = new ColumnStatistics();
+        desc.getTypeCountsMap().forEach((k, v) -> ret.columnTypeCounter.put(ColumnType.getTypeByIndex(k), v));
+        for (var valueCount : desc.getValueCountsList()) {
+            ret.columnValueCounter.put(WalRecordDecoder.decodeValue(null, valueCount.getValue()),
+                    valueCount.getCount());
+        }
+        ret.columnValueCounterFull = desc.getValueCounterFull();
+        if (desc.hasElement()) {
+            ret.elementStatistics = ColumnStatistics.fromProto(desc.getElement());
+        }
+        if (desc.hasKey()) {
+            ret.keyStatistics = ColumnStatistics.fromProto(desc.getKey());
+        }
+        if (desc.hasValue()) {
+            ret.valueStatistics = ColumnStatistics.fromProto(desc.getValue());
+        }
+        if (desc.getAttributesCount() > 0) {
+            ret.attributesStatistics = new HashMap<>();
+            desc.getAttributesMap()
+                    .forEach((k, v) -> ret.attributesStatistics.put(k, ColumnStatistics.fromProto(v)));
+        }
+        return ret;
+    }
+
     public ColumnSchema createSchema(@NonNull String name, int index) {
         var ret = new ColumnSchema(name, index);
         ret.setType(ColumnType.UNKNOWN);
@@ -18,8 +18,10 @@ package ai.starwhale.mlops.datastore;
 
 import ai.starwhale.mlops.datastore.ParquetConfig.CompressionCodec;
 import ai.starwhale.mlops.datastore.impl.MemoryTableImpl;
+import ai.starwhale.mlops.datastore.impl.RecordLayout;
 import ai.starwhale.mlops.datastore.impl.RecordEncoder;
 import ai.starwhale.mlops.datastore.type.BaseValue;
+import ai.starwhale.mlops.datastore.wal.WalDurability;
 import ai.starwhale.mlops.datastore.wal.WalManager;
 import ai.starwhale.mlops.domain.upgrade.rollup.OrderedRollingUpdateStatusListener;
 import ai.starwhale.mlops.domain.upgrade.rollup.aspectcut.WriteOperation;
@@ -27,23 +29,36 @@ import ai.starwhale.mlops.exception.SwProcessException;
 import ai.starwhale.mlops.exception.SwProcessException.ErrorType;
 import ai.starwhale.mlops.exception.SwValidationException;
 import ai.starwhale.mlops.storage.StorageAccessService;
+import io.micrometer.core.instrument.MeterRegistry;
 import java.io.IOException;
-import java.lang.ref.SoftReference;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -64,13 +79,30 @@ public class DataStore implements OrderedRollingUpdateStatusListener {
 
     public static final Integer QUERY_LIMIT = 1000;
 
+    private static final int SCAN_BATCH_SIZE = 256;
+
+    // the records of an ingest stream are applied once either limit is reached
+    private static final int INGEST_CHUNK_RECORDS = 1000;
+
+    private static final long INGEST_CHUNK_BYTES = 4 * 1024 * 1024;
+
+    private static final int REPLAY_BATCH_SIZE = 256;
+
+    private static final int REPLAY_QUEUE_SIZE = 1024;
+
+    private static final long REPLAY_PROGRESS_INTERVAL_MILLIS = 10000;
+
+    // tells a replay worker that there is no more entry
+    private static final Wal.WalEntry REPLAY_END = Wal.WalEntry.newBuilder().setId(-1).build();
+
     private WalManager walManager;
     private final StorageAccessService storageAccessService;
 
-    private final Map<String, SoftReference<MemoryTable>> tables = new ConcurrentHashMap<>();
+    private final TableCache tables;
     private final Set<MemoryTable> dirtyTables = new HashSet<>();
     private final String snapshotRootPath;
     private final ParquetConfig parquetConfig;
+    private final RecordLayout recordLayout;
 
     private final Set<String> loadingTables = new HashSet<>();
 
@@ -84,6 +116,14 @@ public class DataStore implements OrderedRollingUpdateStatusListener {
 
     private final int ossMaxAttempts;
 
+    private final ExecutorService scanExecutor;
+
+    private final int replayThreads;
+
+    private final WalDurability walDurability;
+
+    private final MeterRegistry meterRegistry;
+
     public DataStore(StorageAccessService storageAccessService,
             @Value("${sw.datastore.wal-max-file-size}") int walMaxFileSize,
             @Value("#{T(java.nio.file.Paths).get('${sw.datastore.wal-local-cache-dir:wal_cache}')}")
@@ -96,7 +136,15 @@ public class DataStore implements OrderedRollingUpdateStatusListener {
             @Value("${sw.datastore.parquet.compression-codec:SNAPPY}") String compressionCodec,
             @Value("${sw.datastore.parquet.row-group-size:128MB}") String rowGroupSize,
             @Value("${sw.datastore.parquet.page-size:1MB}") String pageSize,
-            @Value("${sw.datastore.parquet.page-row-count-limit:20000}") int pageRowCountLimit) {
+            @Value("${sw.datastore.parquet.page-row-count-limit:20000}") int pageRowCountLimit,
+            @Value("${sw.datastore.parquet.delta-compaction-ratio:0.5}") double deltaCompactionRatio,
+            @Value("${sw.datastore.parquet.max-delta-count:16}") int maxDeltaCount,
+            @Value("${sw.datastore.record-layout:ROW}") String recordLayout,
+            @Value("${sw.datastore.scan-threads:8}") int scanThreads,
+            @Value("${sw.datastore.replay-threads:4}") int replayThreads,
+            @Value("${sw.datastore.wal-durability:async}") String walDurability,
+            @Value("${sw.datastore.memory-budget:0}") String memoryBudget,
+            MeterRegistry meterRegistry) {
         this.storageAccessService = storageAccessService;
         if (!dataRootPath.isEmpty() && !dataRootPath.endsWith("/")) {
             dataRootPath += "/";
@@ -111,6 +159,37 @@ public class DataStore implements OrderedRollingUpdateStatusListener {
         this.parquetConfig.setRowGroupSize(DataSize.parse(rowGroupSize).toBytes());
         this.parquetConfig.setPageSize((int) DataSize.parse(pageSize).toBytes());
         this.parquetConfig.setPageRowCountLimit(pageRowCountLimit);
+        this.parquetConfig.setDeltaCompactionRatio(deltaCompactionRatio);
+        this.parquetConfig.setMaxDeltaCount(maxDeltaCount);
+        this.recordLayout = RecordLayout.valueOf(recordLayout);
+        this.walDurability = WalDurability.parse(walDurability);
+        this.meterRegistry = meterRegistry;
+        // 0 means half of the max heap size
+        var memoryBudgetBytes = DataSize.parse(memoryBudget).toBytes();
+        if (memoryBudgetBytes <= 0) {
+            memoryBudgetBytes = Runtime.getRuntime().maxMemory() / 2;
+        }
+        this.tables = new TableCache(memoryBudgetBytes, table -> {
+            synchronized (this.dirtyTables) {
+                return !this.dirtyTables.contains(table);
+            }
+        }, meterRegistry);
+        // a full pool makes the caller read the table itself rather than queueing without bound
+        var threadCount = new AtomicInteger();
+        var scanExecutor = new ThreadPoolExecutor(scanThreads,
+                scanThreads,
+                60,
+                TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(scanThreads * 4),
+                runnable -> {
+                    var thread = new Thread(runnable, "datastore-scan-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        scanExecutor.allowCoreThreadTimeOut(true);
+        this.scanExecutor = scanExecutor;
+        this.replayThreads = Math.max(1, replayThreads);
         this.dumpThread = new DumpThread(DurationStyle.detectAndParse(dumpInterval).toMillis(),
                 DurationStyle.detectAndParse(minNoUpdatePeriod).toMillis(),
                 minWalIdGap);
@@ -127,33 +206,118 @@ public class DataStore implements OrderedRollingUpdateStatusListener {
                         this.walMaxFileSize,
                         this.walLocalCacheDir,
                         this.dataRootPath + "wal/",
-                        this.ossMaxAttempts
+                        this.ossMaxAttempts,
+                        this.meterRegistry
                 );
             } catch (IOException e) {
                 throw new SwProcessException(ErrorType.DATASTORE, "failed to create wal manager", e);
             }
-            var it = this.walManager.readAll();
             log.info("Start to load wal log...");
+            this.replayWal();
+            log.info("Finished load wal log...");
+            this.dumpThread.start();
+        }
+        return this;
+    }
+
+    /**
+     * Replay the WAL in a pipeline. One thread reads and decompresses the log files ahead, and the entries are
+     * partitioned by table name onto the workers. Each table is loaded and updated by one worker in the log order,
+     * while different tables are replayed in parallel.
+     */
+    private void replayWal() {
+        var threadCount = new AtomicInteger();
+        // one more thread for reading the log files
+        var executor = Executors.newFixedThreadPool(this.replayThreads + 1, runnable -> {
+            var thread = new Thread(runnable, "datastore-replay-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        var replayedCounter = this.meterRegistry.counter("sw.datastore.wal.replay.entries");
+        var pendingEntries = this.meterRegistry.gauge("sw.datastore.wal.replay.pending", new AtomicLong());
+        try {
+            var queues = new ArrayList<BlockingQueue<Wal.WalEntry>>();
+            var workers = new ArrayList<CompletableFuture<Void>>();
+            for (int i = 0; i < this.replayThreads; ++i) {
+                var queue = new ArrayBlockingQueue<Wal.WalEntry>(REPLAY_QUEUE_SIZE);
+                queues.add(queue);
+                workers.add(CompletableFuture.runAsync(() -> {
+                    for (; ; ) {
+                        Wal.WalEntry entry;
+                        try {
+                            entry = queue.take();
+                        } catch (InterruptedException e) {
+                            throw new SwProcessException(ErrorType.DATASTORE, "interrupted", e);
+                        }
+                        if (entry == REPLAY_END) {
+                            return;
+                        }
+                        pendingEntries.decrementAndGet();
+                        var table = this.getTable(entry.getTableName(), true, true);
+                        //noinspection ConstantConditions
+                        table.updateFromWal(entry);
+                        if (table.getFirstWalLogId() >= 0) {
+                            synchronized (this.dirtyTables) {
+                                this.dirtyTables.add(table);
+                            }
+                        }
+                        replayedCounter.increment();
+                    }
+                }, executor));
+            }
+            var it = new PrefetchIterator<>(this.walManager.readAll(), REPLAY_BATCH_SIZE, executor);
+            var startTime = System.currentTimeMillis();
+            var lastLogTime = startTime;
+            long count = 0;
             while (it.hasNext()) {
                 var entry = it.next();
-                var table = this.getTable(entry.getTableName(), true, true);
-                //noinspection ConstantConditions
-                table.updateFromWal(entry);
-                if (table.getFirstWalLogId() >= 0) {
-                    synchronized (this.dirtyTables) {
-                        this.dirtyTables.add(table);
-                    }
+                var index = Math.floorMod(entry.getTableName().hashCode(), queues.size());
+                pendingEntries.incrementAndGet();
+                DataStore.putReplayEntry(queues.get(index), entry, workers.get(index));
+                ++count;
+                var now = System.currentTimeMillis();
+                if (now - lastLogTime >= REPLAY_PROGRESS_INTERVAL_MILLIS) {
+                    log.info("read {} wal entries, {} replayed, {} entries/s",
+                            count,
+                            (long) replayedCounter.count(),
+                            (long) replayedCounter.count() * 1000 / (now - startTime));
+                    lastLogTime = now;
                 }
             }
-            log.info("Finished load wal log...");
-            this.dumpThread.start();
+            for (int i = 0; i < queues.size(); ++i) {
+                DataStore.putReplayEntry(queues.get(i), REPLAY_END, workers.get(i));
+            }
+            CompletableFuture.allOf(workers.toArray(new CompletableFuture[0])).join();
+            log.info("replayed {} wal entries in {}ms", count, System.currentTimeMillis() - startTime);
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new SwProcessException(ErrorType.DATASTORE, "failed to replay wal", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void putReplayEntry(BlockingQueue<Wal.WalEntry> queue,
+            Wal.WalEntry entry,
+            CompletableFuture<Void> worker) {
+        try {
+            while (!queue.offer(entry, 100, TimeUnit.MILLISECONDS)) {
+                if (worker.isDone()) {
+                    // a worker only stops early on failure, this throws the failure
+                    worker.join();
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new SwProcessException(ErrorType.DATASTORE, "interrupted", e);
         }
-        return this;
     }
 
     public void terminate() {
         this.dumpThread.terminate();
         this.walManager.terminate();
+        this.scanExecutor.shutdown();
     }
 
     public List<String> list(Set<String> prefixes) {
@@ -171,7 +335,7 @@ public class DataStore implements OrderedRollingUpdateStatusListener {
                                                 return path.substring(0, index);
                                             }
                                         }),
-                                tables.keySet().stream().filter(name -> name.startsWith(prefix))
+                                tables.getTableNames().stream().filter(name -> name.startsWith(prefix))
                         );
                     } catch (IOException e) {
                         throw new SwProcessException(ErrorType.DATASTORE, "failed to list", e);
@@ -186,36 +350,138 @@ public class DataStore implements OrderedRollingUpdateStatusListener {
     public String update(String tableName,
             TableSchemaDesc schema,
             List<Map<String, Object>> records) {
+        return this.update(tableName, schema, records, this.walDurability);
+    }
+
+    /**
+     * Update the table and wait until the WAL entries reach the durability.
+     *
+     * <p>The wait happens after the table lock is released, so that concurrent updates are committed together.
+     */
+    @WriteOperation
+    public String update(String tableName,
+            TableSchemaDesc schema,
+            List<Map<String, Object>> records,
+            WalDurability durability) {
         if (schema != null && schema.getColumnSchemaList() != null) {
             for (var col : schema.getColumnSchemaList()) {
-                if (col.getName() != null && !COLUMN_NAME_PATTERN.matcher(col.getName()).matches()) {
-                    throw new SwValidationException(SwValidationException.ValidSubject.DATASTORE,
-                            "invalid column name " + col.getName()
-                                    + ". only alphabets, digits, hyphen(-), underscore(_), "
-                                    + "slash(/), colon(:), and space are allowed.");
-                }
+                DataStore.checkColumnName(col.getName());
             }
         }
         // this line would fail and cause bugs when updateHandler has Integer.MAX_VALUE elements,
         // but let's assume that would never happen
         this.updateHandle.offer(new Object());
-        var table = this.getTable(tableName, true, true);
-        //noinspection ConstantConditions
-        table.lock();
+        long ts;
+        long walEntryId;
         try {
-            var ts = table.update(schema, records);
+            var table = this.getTable(tableName, true, true);
+            //noinspection ConstantConditions
+            ts = table.update(schema, records);
+            // not less than the id of the entry appended above
+            walEntryId = this.walManager.getMaxEntryId();
             synchronized (this.dirtyTables) {
                 this.dirtyTables.add(table);
             }
-            return Long.toString(ts);
         } finally {
-            this.updateHandle.poll();
-            synchronized (updateHandle) {
-                updateHandle.notifyAll();
+            this.releaseUpdateHandle();
+        }
+        this.commit(walEntryId, durability);
+        return Long.toString(ts);
+    }
+
+    @WriteOperation
+    public String ingest(String tableName, InputStream inputStream) throws IOException {
+        return this.ingest(tableName, inputStream, this.walDurability);
+    }
+
+    /**
+     * Update the table with a stream of length-delimited protobuf messages: a {@link Wal.TableSchema} followed by
+     * any number of {@link Wal.Record}s, the column indexes of which refer to the schema in the stream.
+     *
+     * <p>The records are applied in chunks as soon as they are read, so the stream is never held in memory as a
+     * whole. Each chunk is a separate revision, the chunks applied before a failure are kept. The commit is waited
+     * once after the last chunk.
+     *
+     * @return the revision of the last chunk
+     */
+    @WriteOperation
+    public String ingest(String tableName, InputStream inputStream, WalDurability durability) throws IOException {
+        var walSchema = Wal.TableSchema.parseDelimitedFrom(inputStream);
+        if (walSchema == null) {
+            throw new SwValidationException(SwValidationException.ValidSubject.DATASTORE,
+                    "table schema should not be null");
+        }
+        for (var col : walSchema.getColumnsList()) {
+            DataStore.checkColumnName(col.getColumnName());
+        }
+        var schema = new TableSchema(walSchema);
+        long ts = -1;
+        var chunk = new ArrayList<Wal.Record>();
+        long chunkSize = 0;
+        for (; ; ) {
+            var record = Wal.Record.parseDelimitedFrom(inputStream);
+            if (record != null) {
+                chunk.add(record);
+                chunkSize += record.getSerializedSize();
+            }
+            if (record == null || chunk.size() >= INGEST_CHUNK_RECORDS || chunkSize >= INGEST_CHUNK_BYTES) {
+                // the schema is applied even if there is no record
+                if (!chunk.isEmpty() || ts < 0) {
+                    ts = this.ingestChunk(tableName, schema, chunk);
+                }
+                chunk = new ArrayList<>();
+                chunkSize = 0;
+            }
+            if (record == null) {
+                break;
+            }
+        }
+        // not less than the ids of the entries appended above
+        this.commit(this.walManager.getMaxEntryId(), durability);
+        return Long.toString(ts);
+    }
+
+    /**
+     * The update handle is only held while the chunk is applied rather than while the stream is read, so a slow
+     * uploader does not hold up the handover of a rolling update.
+     */
+    private long ingestChunk(String tableName, TableSchema schema, List<Wal.Record> chunk) {
+        this.updateHandle.offer(new Object());
+        try {
+            var table = this.getTable(tableName, true, true);
+            //noinspection ConstantConditions
+            var ts = table.ingest(schema, chunk);
+            synchronized (this.dirtyTables) {
+                this.dirtyTables.add(table);
             }
-            table.unlock();
+            return ts;
+        } finally {
+            this.releaseUpdateHandle();
+        }
+    }
+
+    private static void checkColumnName(String name) {
+        if (name != null && !COLUMN_NAME_PATTERN.matcher(name).matches()) {
+            throw new SwValidationException(SwValidationException.ValidSubject.DATASTORE,
+                    "invalid column name " + name
+                            + ". only alphabets, digits, hyphen(-), underscore(_), "
+                            + "slash(/), colon(:), and space are allowed.");
         }
+    }
 
+    private void releaseUpdateHandle() {
+        this.updateHandle.poll();
+        synchronized (updateHandle) {
+            updateHandle.notifyAll();
+        }
+    }
+
+    private void commit(long walEntryId, WalDurability durability) {
+        try {
+            this.walManager.commit(walEntryId, durability).join();
+        } catch (CompletionException e) {
+            throw new SwProcessException(ErrorType.DATASTORE, "failed to commit update", e.getCause());
+        }
     }
 
     public void flush() {
@@ -227,34 +493,40 @@ public class DataStore implements OrderedRollingUpdateStatusListener {
         if (table == null) {
             return new RecordList(Collections.emptyMap(), Collections.emptyMap(), Collections.emptyList(), null, null);
         }
-        table.lock();
-        try {
-            int skipCount = req.getStart();
-            if (skipCount < 0) {
-                skipCount = 0;
-            }
-            int limitCount = req.getLimit();
-            if (limitCount > QUERY_LIMIT) {
-                throw new SwValidationException(SwValidationException.ValidSubject.DATASTORE,
-                        "limit must be less or equal to " + QUERY_LIMIT + ". request=" + req);
-            }
-            if (limitCount < 0) {
-                limitCount = QUERY_LIMIT;
-            }
-            var schema = table.getSchema();
-            var columns = this.getColumnAliases(schema, req.getColumns());
-            var results = new ArrayList<RecordResult>();
-            var revision = req.getRevision();
-            if (revision == 0) {
-                revision = table.getLastRevision();
-            }
-            var iterator = table.query(
-                    revision,
-                    columns,
-                    req.getOrderBy(),
-                    req.getFilter(),
-                    req.isKeepNone(),
-                    req.isRawResult());
+        int skipCount = req.getStart();
+        if (skipCount < 0) {
+            skipCount = 0;
+        }
+        int limitCount = req.getLimit();
+        if (limitCount > QUERY_LIMIT) {
+            throw new SwValidationException(SwValidationException.ValidSubject.DATASTORE,
+                    "limit must be less or equal to " + QUERY_LIMIT + ". request=" + req);
+        }
+        if (limitCount < 0) {
+            limitCount = QUERY_LIMIT;
+        }
+        var schema = table.getSchema();
+        var columns = this.getColumnAliases(schema, req.getColumns());
+        var results = new ArrayList<RecordResult>();
+        QueryCursor cursor = null;
+        var revision = req.getRevision();
+        if (req.getCursor() != null) {
+            cursor = QueryCursor.decode(req.getCursor());
+            revision = cursor.getRevision();
+        } else if (revision == 0) {
+            revision = table.getLastRevision();
+        }
+        boolean hasMore;
+        try (var iterator = table.query(
+                revision,
+                columns,
+                req.getOrderBy(),
+                req.getFilter(),
+                req.isKeepNone(),
+                req.isRawResult(),
+                cursor,
+                // one more record to tell if there is a next page
+                skipCount + limitCount + 1)) {
             while (iterator.hasNext() && skipCount > 0) {
                 iterator.next();
                 --skipCount;
@@ -267,43 +539,98 @@ public class DataStore implements OrderedRollingUpdateStatusListener {
                 results.add(r);
                 --limitCount;
             }
-            String lastKey;
-            String lastKeyType;
-            if (results.isEmpty()) {
-                lastKey = null;
-                lastKeyType = null;
-            } else {
-                var last = results.get(results.size() - 1).getKey();
-                lastKey = (String) BaseValue.encode(
+            hasMore = iterator.hasNext();
+        }
+        String lastKey;
+        String lastKeyType;
+        String nextCursor = null;
+        if (results.isEmpty()) {
+            lastKey = null;
+            lastKeyType = null;
+        } else {
+            var lastResult = results.get(results.size() - 1);
+            var last = lastResult.getKey();
+            lastKey = (String) BaseValue.encode(
+                    last,
+                    req.isRawResult(),
+                    false);
+            lastKeyType = BaseValue.getColumnType(last).name();
+            if (hasMore) {
+                var orderByValues = lastResult.getOrderByValues();
+                nextCursor = new QueryCursor(revision,
                         last,
-                        req.isRawResult(),
-                        false);
-                lastKeyType = BaseValue.getColumnType(last).name();
-            }
-            Map<String, ColumnSchema> columnSchemaMap;
-            if (!req.isEncodeWithType()) {
-                columnSchemaMap = table.getSchema().getColumnSchemaList().stream()
-                        .filter(col -> columns.containsKey(col.getName()))
-                        .map(col -> {
-                            var ret = new ColumnSchema(col);
-                            ret.setName(columns.get(col.getName()));
-                            return ret;
-                        })
-                        .collect(Collectors.toMap(ColumnSchema::getName, Function.identity()));
-            } else {
-                columnSchemaMap = null;
-            }
-            var records = results.stream()
-                    .map(r -> RecordEncoder.encodeRecord(r.getValues(), req.isRawResult(), req.isEncodeWithType()))
-                    .collect(Collectors.toList());
-            return new RecordList(columnSchemaMap,
-                    table.getColumnStatistics(columns).entrySet().stream()
-                            .collect(Collectors.toMap(Entry::getKey, entry -> entry.getValue().toColumnHintsDesc())),
-                    records,
-                    lastKey,
-                    lastKeyType);
-        } finally {
-            table.unlock();
+                        orderByValues == null ? List.of() : orderByValues).encode();
+            }
+        }
+        Map<String, ColumnSchema> columnSchemaMap;
+        if (!req.isEncodeWithType()) {
+            columnSchemaMap = DataStore.getColumnSchemaMap(schema, columns);
+        } else {
+            columnSchemaMap = null;
+        }
+        var records = results.stream()
+                .map(r -> RecordEncoder.encodeRecord(r.getValues(), req.isRawResult(), req.isEncodeWithType()))
+                .collect(Collectors.toList());
+        return new RecordList(columnSchemaMap,
+                table.getColumnStatistics(columns).entrySet().stream()
+                        .collect(Collectors.toMap(Entry::getKey, entry -> entry.getValue().toColumnHintsDesc())),
+                records,
+                lastKey,
+                lastKeyType,
+                nextCursor);
+    }
+
+    /**
+     * Pass the query results to the writer one by one.
+     *
+     * <p>Unlike {@link #query(DataStoreQueryRequest)}, the records are not limited by {@link #QUERY_LIMIT} and no
+     * cursor is returned. They are written as soon as they are read from the table, so a slow reader slows down the
+     * query instead of piling records up in memory. The values are passed as they are, encodeWithType is left to the
+     * writer.
+     */
+    public void query(DataStoreQueryRequest req, RecordWriter writer) throws IOException {
+        var table = this.getTable(req.getTableName(), req.isIgnoreNonExistingTable(), false);
+        if (table == null) {
+            writer.writeSchema(DataStore.createResultSchema(null, List.of()));
+            return;
+        }
+        var schema = table.getSchema();
+        var columns = this.getColumnAliases(schema, req.getColumns());
+        QueryCursor cursor = null;
+        var revision = req.getRevision();
+        if (req.getCursor() != null) {
+            cursor = QueryCursor.decode(req.getCursor());
+            revision = cursor.getRevision();
+        } else if (revision == 0) {
+            revision = table.getLastRevision();
+        }
+        int skipCount = Math.max(req.getStart(), 0);
+        int limitCount = req.getLimit() < 0 ? Integer.MAX_VALUE : req.getLimit();
+        try (var iterator = table.query(
+                revision,
+                columns,
+                req.getOrderBy(),
+                req.getFilter(),
+                req.isKeepNone(),
+                req.isRawResult(),
+                cursor,
+                // deleted records are returned if there is no limit
+                req.getLimit() < 0 ? -1 : (int) Math.min((long) skipCount + limitCount, Integer.MAX_VALUE))) {
+            writer.writeSchema(DataStore.createResultSchema(
+                    columns.getOrDefault(schema.getKeyColumn(), schema.getKeyColumn()),
+                    DataStore.getColumnSchemaMap(schema, columns).values()));
+            while (iterator.hasNext() && limitCount > 0) {
+                var r = iterator.next();
+                if (r.isDeleted()) {
+                    continue;
+                }
+                if (skipCount > 0) {
+                    --skipCount;
+                    continue;
+                }
+                writer.write(r.getValues());
+                --limitCount;
+            }
         }
     }
 
@@ -316,122 +643,224 @@ public class DataStore implements OrderedRollingUpdateStatusListener {
         if (limit < 0) {
             limit = QUERY_LIMIT;
         }
+        var tables = this.getScanTables(req);
+        if (tables.isEmpty()) {
+            return new RecordList(Collections.emptyMap(), Collections.emptyMap(), Collections.emptyList(),
+                    null, null);
+        }
+        Map<String, ColumnSchema> columnSchemaMap;
+        if (req.isEncodeWithType()) {
+            columnSchemaMap = null;
+        } else {
+            columnSchemaMap = DataStore.mergeColumnSchemas(tables);
+        }
+        var rawResult = req.isRawResult();
+        var encodeWithType = req.isEncodeWithType();
+        List<Map<String, Object>> ret = new ArrayList<>();
+        var lastKey = this.mergeScan(req,
+                tables,
+                limit,
+                values -> RecordEncoder.encodeRecord(values, rawResult, encodeWithType),
+                ret::add);
+        var columnStatistics = new HashMap<String, ColumnStatistics>();
+        for (var table : tables) {
+            table.table.getColumnStatistics(table.columns)
+                    .forEach((k, v) -> columnStatistics.computeIfAbsent(k, x -> new ColumnStatistics()).merge(v));
+        }
+        return new RecordList(columnSchemaMap,
+                columnStatistics.entrySet().stream()
+                        .collect(Collectors.toMap(Entry::getKey, entry -> entry.getValue().toColumnHintsDesc())),
+                ret,
+                (String) BaseValue.encode(lastKey, false, false),
+                BaseValue.getColumnType(lastKey).name());
+    }
 
-        var tablesToLock =
-                req.getTables()
-                        .stream()
-                        .map(DataStoreScanRequest.TableInfo::getTableName)
-                        .sorted() // prevent deadlock
-                        .map(i -> getTable(i, req.isIgnoreNonExistingTable(), false))
-                        .filter(Objects::nonNull)
-                        .collect(Collectors.toList());
-
-        for (var table : tablesToLock) {
-            table.lock();
+    /**
+     * Pass the scanned records to the writer one by one.
+     *
+     * <p>Unlike {@link #scan(DataStoreScanRequest)}, the records are not limited by {@link #QUERY_LIMIT}. They are
+     * written as soon as they are merged, so a slow reader slows down the scan instead of piling records up in
+     * memory. The values are passed as they are, rawResult and encodeWithType are left to the writer.
+     */
+    public void scan(DataStoreScanRequest req, RecordWriter writer) throws IOException {
+        var tables = this.getScanTables(req);
+        if (tables.isEmpty()) {
+            writer.writeSchema(DataStore.createResultSchema(null, List.of()));
+            return;
         }
+        var keyColumn = tables.get(0).schema.getKeyColumn();
+        writer.writeSchema(DataStore.createResultSchema(tables.get(0).columns.getOrDefault(keyColumn, keyColumn),
+                DataStore.mergeColumnSchemas(tables).values()));
         try {
-            class TableMeta {
-
-                String tableName;
-                long revision;
-                MemoryTable table;
-                TableSchema schema;
-                Map<String, String> columns;
-                Map<String, ColumnSchema> columnSchemaMap;
-                boolean keepNone;
-            }
-
-            var tables = req.getTables().stream().map(info -> {
-                var ret = new TableMeta();
-                ret.tableName = info.getTableName();
-                ret.table = this.getTable(info.getTableName(), req.isIgnoreNonExistingTable(), false);
-                if (ret.table == null) {
-                    return null;
-                }
-                if (info.getRevision() > 0) {
-                    ret.revision = info.getRevision();
-                } else if (req.getRevision() > 0) {
-                    ret.revision = req.getRevision();
-                } else {
-                    ret.revision = ret.table.getLastRevision();
-                }
-                ret.schema = ret.table.getSchema();
-                ret.columns = this.getColumnAliases(ret.schema, info.getColumns());
-                if (info.getColumnPrefix() != null) {
-                    ret.columns = ret.columns.entrySet().stream()
-                            .collect(Collectors.toMap(Entry::getKey,
-                                    entry -> info.getColumnPrefix() + entry.getValue()));
-                }
-                ret.columnSchemaMap = ret.schema.getColumnSchemaList().stream()
-                        .filter(c -> ret.columns.containsKey(c.getName()))
-                        .map(c -> {
-                            var schema = new ColumnSchema(c);
-                            schema.setName(ret.columns.get(c.getName()));
-                            return schema;
-                        })
-                        .collect(Collectors.toMap(ColumnSchema::getName, Function.identity()));
-                ret.keepNone = info.isKeepNone();
-                return ret;
-            }).filter(Objects::nonNull).collect(Collectors.toList());
-            if (tables.isEmpty()) {
-                return new RecordList(Collections.emptyMap(), Collections.emptyMap(), Collections.emptyList(),
-                        null, null);
-            }
-            Map<String, ColumnSchema> columnSchemaMap;
-            if (req.isEncodeWithType()) {
-                columnSchemaMap = null;
+            this.mergeScan(req,
+                    tables,
+                    req.getLimit() < 0 ? Integer.MAX_VALUE : req.getLimit(),
+                    Function.identity(),
+                    record -> {
+                        try {
+                            writer.write(record);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static class ScanTable {
+
+        String tableName;
+        long revision;
+        MemoryTable table;
+        TableSchema schema;
+        Map<String, String> columns;
+        Map<String, ColumnSchema> columnSchemaMap;
+        boolean keepNone;
+    }
+
+    private List<ScanTable> getScanTables(DataStoreScanRequest req) {
+        return req.getTables().stream().map(info -> {
+            var ret = new ScanTable();
+            ret.tableName = info.getTableName();
+            ret.table = this.getTable(info.getTableName(), req.isIgnoreNonExistingTable(), false);
+            if (ret.table == null) {
+                return null;
+            }
+            if (info.getRevision() > 0) {
+                ret.revision = info.getRevision();
+            } else if (req.getRevision() > 0) {
+                ret.revision = req.getRevision();
             } else {
-                columnSchemaMap = new HashMap<>();
-                for (var table : tables) {
-                    if (!table.schema.getKeyColumnSchema().isSameType(tables.get(0).schema.getKeyColumnSchema())) {
-                        throw new SwValidationException(SwValidationException.ValidSubject.DATASTORE,
-                                MessageFormat.format(
-                                        "conflicting key column type. {0}: key={1}, type={2}, {3}: key={4}, type={5}",
-                                        tables.get(0).tableName,
-                                        tables.get(0).schema.getKeyColumn(),
-                                        tables.get(0).schema.getKeyColumnSchema(),
-                                        table.tableName,
-                                        table.schema.getKeyColumn(),
-                                        table.schema.getKeyColumnSchema()));
-                    }
-                    for (var entry : table.columnSchemaMap.entrySet()) {
-                        var columnName = entry.getKey();
-                        var columnSchema = entry.getValue();
-                        var old = columnSchemaMap.putIfAbsent(columnName, columnSchema);
-                        if (old != null && !old.isSameType(columnSchema)) {
-                            for (var t : tables) {
-                                if (t.columnSchemaMap.get(columnName) != null) {
-                                    throw new SwValidationException(SwValidationException.ValidSubject.DATASTORE,
-                                            MessageFormat.format(
-                                                    "conflicting column type. {0}: column={1}, alias={2}, type={3}, "
-                                                            + "{4}: column={5}, alias={6}, type={7}",
-                                                    t.tableName,
-                                                    columnName,
-                                                    t.columns.get(columnName),
-                                                    t.columnSchemaMap.get(columnName),
-                                                    table.tableName,
-                                                    columnName,
-                                                    table.columns.get(columnName),
-                                                    table.columnSchemaMap.get(columnName)));
-                                }
-                            }
+                ret.revision = ret.table.getLastRevision();
+            }
+            ret.schema = ret.table.getSchema();
+            ret.columns = this.getColumnAliases(ret.schema, info.getColumns());
+            if (info.getColumnPrefix() != null) {
+                ret.columns = ret.columns.entrySet().stream()
+                        .collect(Collectors.toMap(Entry::getKey,
+                                entry -> info.getColumnPrefix() + entry.getValue()));
+            }
+            ret.columnSchemaMap = DataStore.getColumnSchemaMap(ret.schema, ret.columns);
+            ret.keepNone = info.isKeepNone();
+            return ret;
+        }).filter(Objects::nonNull).collect(Collectors.toList());
+    }
+
+    /**
+     * @return the schemas of the result columns by their aliases
+     */
+    private static Map<String, ColumnSchema> getColumnSchemaMap(TableSchema schema, Map<String, String> columns) {
+        return schema.getColumnSchemaList().stream()
+                .filter(col -> columns.containsKey(col.getName()))
+                .map(col -> {
+                    var ret = new ColumnSchema(col);
+                    ret.setName(columns.get(col.getName()));
+                    return ret;
+                })
+                .collect(Collectors.toMap(ColumnSchema::getName, Function.identity()));
+    }
+
+    /**
+     * @param keyColumn null if there is no table
+     * @param columns   the schemas of the result columns named by their aliases
+     */
+    private static TableSchema createResultSchema(String keyColumn, Collection<ColumnSchema> columns) {
+        var builder = Wal.TableSchema.newBuilder();
+        if (keyColumn != null) {
+            builder.setKeyColumn(keyColumn);
+        }
+        var sorted = new ArrayList<>(columns);
+        sorted.sort(Comparator.comparing(ColumnSchema::getName));
+        int index = 0;
+        for (var col : sorted) {
+            builder.addColumns(col.toWal().setColumnName(col.getName()).setColumnIndex(index++));
+        }
+        return new TableSchema(builder.build());
+    }
+
+    private static Map<String, ColumnSchema> mergeColumnSchemas(List<ScanTable> tables) {
+        var columnSchemaMap = new HashMap<String, ColumnSchema>();
+        for (var table : tables) {
+            if (!table.schema.getKeyColumnSchema().isSameType(tables.get(0).schema.getKeyColumnSchema())) {
+                throw new SwValidationException(SwValidationException.ValidSubject.DATASTORE,
+                        MessageFormat.format(
+                                "conflicting key column type. {0}: key={1}, type={2}, {3}: key={4}, type={5}",
+                                tables.get(0).tableName,
+                                tables.get(0).schema.getKeyColumn(),
+                                tables.get(0).schema.getKeyColumnSchema(),
+                                table.tableName,
+                                table.schema.getKeyColumn(),
+                                table.schema.getKeyColumnSchema()));
+            }
+            for (var entry : table.columnSchemaMap.entrySet()) {
+                var columnName = entry.getKey();
+                var columnSchema = entry.getValue();
+                var old = columnSchemaMap.putIfAbsent(columnName, columnSchema);
+                if (old != null && !old.isSameType(columnSchema)) {
+                    for (var t : tables) {
+                        if (t.columnSchemaMap.get(columnName) != null) {
+                            throw new SwValidationException(SwValidationException.ValidSubject.DATASTORE,
+                                    MessageFormat.format(
+                                            "conflicting column type. {0}: column={1}, alias={2}, type={3}, "
+                                                    + "{4}: column={5}, alias={6}, type={7}",
+                                            t.tableName,
+                                            columnName,
+                                            t.columns.get(columnName),
+                                            t.columnSchemaMap.get(columnName),
+                                            table.tableName,
+                                            columnName,
+                                            table.columns.get(columnName),
+                                            table.columnSchemaMap.get(columnName)));
                         }
                     }
                 }
             }
+        }
+        return columnSchemaMap;
+    }
 
-            class TableRecords {
+    /**
+     * Merge the records of the tables by their keys.
+     *
+     * @param encoder  converts the values of a record, called in parallel if there are multiple tables
+     * @param consumer receives the merged records in the key order
+     * @return the key of the last record
+     */
+    private <T> BaseValue mergeScan(DataStoreScanRequest req,
+            List<ScanTable> tables,
+            int limit,
+            Function<Map<String, BaseValue>, Map<String, T>> encoder,
+            Consumer<Map<String, T>> consumer) {
 
-                TableMeta meta;
-                Iterator<RecordResult> iterator;
-                RecordResult record;
-            }
+        class EncodedRecord {
 
-            var records = new ArrayList<TableRecords>();
-            for (var table : tables) {
-                var r = new TableRecords();
-                r.meta = table;
-                r.iterator = table.table.scan(table.revision,
+            BaseValue key;
+            boolean deleted;
+            Map<String, T> values;
+        }
+
+        class TableRecords {
+
+            int index;
+            CloseableIterator<EncodedRecord> iterator;
+            EncodedRecord record;
+        }
+
+        // every table contributes at most limit records, and one more to find the key of the next page
+        int batchSize = Math.min(limit == Integer.MAX_VALUE ? limit : limit + 1, SCAN_BATCH_SIZE);
+        // ties are broken by the table order, so that columns of later tables override earlier ones
+        var queue = new PriorityQueue<TableRecords>(tables.size(), (a, b) -> {
+            var result = a.record.key.compareTo(b.record.key);
+            return result != 0 ? result : Integer.compare(a.index, b.index);
+        });
+        // the iterators may hold open snapshot files, they are closed even if the merge stops early
+        var opened = new ArrayList<TableRecords>();
+        try {
+            for (int i = 0; i < tables.size(); ++i) {
+                var table = tables.get(i);
+                // the snapshot revision of each table is fixed here on the calling thread
+                var scanIterator = table.table.scan(table.revision,
                         table.columns,
                         req.getStart(),
                         req.getStartType(),
@@ -440,63 +869,82 @@ public class DataStore implements OrderedRollingUpdateStatusListener {
                         req.getEndType(),
                         req.isEndInclusive(),
                         table.keepNone);
+                CloseableIterator<EncodedRecord> iterator = new CloseableIterator<>() {
+                    @Override
+                    public boolean hasNext() {
+                        return scanIterator.hasNext();
+                    }
+
+                    @Override
+                    public EncodedRecord next() {
+                        var record = scanIterator.next();
+                        var ret = new EncodedRecord();
+                        ret.key = record.getKey();
+                        ret.deleted = record.isDeleted();
+                        if (!ret.deleted) {
+                            ret.values = encoder.apply(record.getValues());
+                        }
+                        return ret;
+                    }
+
+                    @Override
+                    public void close() {
+                        scanIterator.close();
+                    }
+                };
+                if (tables.size() > 1) {
+                    // read and encode the tables in parallel while merging
+                    iterator = new PrefetchIterator<>(iterator, batchSize, this.scanExecutor);
+                }
+                var r = new TableRecords();
+                r.index = i;
+                r.iterator = iterator;
+                opened.add(r);
                 if (r.iterator.hasNext()) {
                     r.record = r.iterator.next();
-                    records.add(r);
+                    queue.add(r);
                 }
             }
             BaseValue lastKey = null;
-            List<Map<String, Object>> ret = new ArrayList<>();
-            while (!records.isEmpty() && ret.size() < limit) {
-                lastKey = Collections.min(records, (a, b) -> {
-                    var x = a.record.getKey();
-                    var y = b.record.getKey();
-                    return x.compareTo(y);
-                }).record.getKey();
-                Map<String, Object> record = null;
-                for (var r : records) {
-                    if (r.record.getKey().equals(lastKey)) {
-                        if (r.record.isDeleted()) {
-                            record = null;
-                        } else {
-                            if (record == null) {
-                                record = new HashMap<>();
-                            }
-                            record.putAll(
-                                    RecordEncoder.encodeRecord(r.record.getValues(),
-                                            req.isRawResult(),
-                                            req.isEncodeWithType()));
-                        }
-                        if (r.iterator.hasNext()) {
-                            r.record = r.iterator.next();
-                        } else {
-                            r.record = null;
+            int count = 0;
+            var group = new ArrayList<TableRecords>();
+            while (!queue.isEmpty() && count < limit) {
+                lastKey = queue.peek().record.key;
+                // keys of different types may be compared as equal, only the ones equal to the first key are merged
+                group.clear();
+                while (!queue.isEmpty() && queue.peek().record.key.compareTo(lastKey) == 0) {
+                    group.add(queue.poll());
+                }
+                Map<String, T> record = null;
+                for (var r : group) {
+                    if (!r.record.key.equals(lastKey)) {
+                        queue.add(r);
+                        continue;
+                    }
+                    if (r.record.deleted) {
+                        record = null;
+                    } else {
+                        if (record == null) {
+                            record = new HashMap<>();
                         }
+                        record.putAll(r.record.values);
+                    }
+                    if (r.iterator.hasNext()) {
+                        r.record = r.iterator.next();
+                        queue.add(r);
                     }
                 }
                 if (record != null) {
                     if (!req.isKeepNone()) {
                         record.entrySet().removeIf(x -> x.getValue() == null);
                     }
-                    ret.add(record);
+                    consumer.accept(record);
+                    ++count;
                 }
-                records.removeIf(r -> r.record == null);
-            }
-            var columnStatistics = new HashMap<String, ColumnStatistics>();
-            for (var table : tables) {
-                table.table.getColumnStatistics(table.columns)
-                        .forEach((k, v) -> columnStatistics.computeIfAbsent(k, x -> new ColumnStatistics()).merge(v));
-            }
-            return new RecordList(columnSchemaMap,
-                    columnStatistics.entrySet().stream()
-                            .collect(Collectors.toMap(Entry::getKey, entry -> entry.getValue().toColumnHintsDesc())),
-                    ret,
-                    (String) BaseValue.encode(lastKey, false, false),
-                    BaseValue.getColumnType(lastKey).name());
-        } finally {
-            for (var table : tablesToLock) {
-                table.unlock();
             }
+            return lastKey;
+        } finally {
+            opened.forEach(r -> r.iterator.close());
         }
     }
 
@@ -520,8 +968,7 @@ public class DataStore implements OrderedRollingUpdateStatusListener {
 
     private MemoryTable getTable(String tableName, boolean allowNull, boolean createIfNull) {
         for (; ; ) {
-            var tableRef = this.tables.get(tableName);
-            var table = tableRef == null ? null : tableRef.get();
+            var table = this.tables.get(tableName);
             if (table == null) {
                 synchronized (this.loadingTables) {
                     if (this.loadingTables.contains(tableName)) {
@@ -535,13 +982,17 @@ public class DataStore implements OrderedRollingUpdateStatusListener {
                     this.loadingTables.add(tableName);
                 }
                 try {
+                    var startTime = System.nanoTime();
                     table = new MemoryTableImpl(tableName,
                             this.walManager,
                             this.storageAccessService,
                             this.snapshotRootPath + tableName + PATH_SEPARATOR,
-                            this.parquetConfig);
+                            this.parquetConfig,
+                            this.recordLayout,
+                            true);
+                    this.tables.recordLoad(System.nanoTime() - startTime);
                     if (table.getSchema().getKeyColumn() != null || createIfNull) {
-                        this.tables.put(tableName, new SoftReference<>(table));
+                        this.tables.put(tableName, table);
                     } else if (table.getSchema().getKeyColumn() == null) {
                         if (allowNull) {
                             return null;
@@ -550,7 +1001,7 @@ public class DataStore implements OrderedRollingUpdateStatusListener {
                                     "invalid table name " + tableName);
                         }
                     } else {
-                        this.tables.put(tableName, new SoftReference<>(table));
+                        this.tables.put(tableName, table);
                     }
                 } finally {
                     synchronized (this.loadingTables) {
@@ -620,11 +1071,12 @@ public class DataStore implements OrderedRollingUpdateStatusListener {
 
     private void clearWalLogFiles() {
         long minWalLogIdToRetain = this.walManager.getMaxEntryId() + 1;
-        for (var tableRef : this.tables.values()) {
-            var table = tableRef.get();
-            if (table == null) {
-                continue;
-            }
+        // dirty tables are never evicted from the cache, but they may be evicted before being marked as dirty
+        var tables = new HashSet<>(this.tables.getTables());
+        synchronized (this.dirtyTables) {
+            tables.addAll(this.dirtyTables);
+        }
+        for (var table : tables) {
             table.lock();
             try {
                 if (table.getFirstWalLogId() >= 0 && table.getFirstWalLogId() < minWalLogIdToRetain) {
@@ -688,6 +1140,8 @@ public class DataStore implements OrderedRollingUpdateStatusListener {
                 try {
                     saveTables(this.minNoUpdatePeriodMillis, this.minWalIdGap);
                     clearWalLogFiles();
+                    // saved tables become evictable
+                    tables.evict();
                 } catch (Throwable t) {
                     log.error("failed to save table", t);
                 }
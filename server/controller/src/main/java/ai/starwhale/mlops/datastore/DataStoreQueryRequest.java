@@ -44,4 +44,6 @@ public class DataStoreQueryRequest {
     private boolean rawResult;
     private boolean ignoreNonExistingTable;
     private boolean encodeWithType;
+    // the cursor returned by the previous query, the query continues after the last record of the previous one
+    private String cursor;
 }
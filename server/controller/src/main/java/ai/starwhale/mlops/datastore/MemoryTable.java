@@ -17,7 +17,6 @@
 package ai.starwhale.mlops.datastore;
 
 import java.io.IOException;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -32,14 +31,33 @@ public interface MemoryTable {
     // update records, returns the timestamp in milliseconds
     long update(TableSchemaDesc schema, List<Map<String, Object>> records);
 
-    Iterator<RecordResult> query(long timestamp,
+    // update records encoded in the WAL format, the column indexes of which refer to the schema
+    // rather than the table schema. returns the timestamp in milliseconds
+    long ingest(TableSchema schema, List<Wal.Record> records);
+
+    default CloseableIterator<RecordResult> query(long timestamp,
+            Map<String, String> columns,
+            List<OrderByDesc> orderBy,
+            TableQueryFilter filter,
+            boolean keepNone,
+            boolean rawResult) {
+        return this.query(timestamp, columns, orderBy, filter, keepNone, rawResult, null, -1);
+    }
+
+    // query records after the cursor, all records are returned if the cursor is null.
+    // if limit is not negative, at most limit records are returned and deleted records are not included.
+    // the returned iterator should be closed if it is not read to the end
+    CloseableIterator<RecordResult> query(long timestamp,
             Map<String, String> columns,
             List<OrderByDesc> orderBy,
             TableQueryFilter filter,
             boolean keepNone,
-            boolean rawResult);
+            boolean rawResult,
+            QueryCursor cursor,
+            int limit);
 
-    Iterator<RecordResult> scan(
+    // the returned iterator should be closed if it is not read to the end
+    CloseableIterator<RecordResult> scan(
             long timestamp,
             Map<String, String> columns,
             String start,
@@ -62,5 +80,8 @@ public interface MemoryTable {
 
     long getLastRevision();
 
+    // the estimated heap size in bytes
+    long getEstimatedSize();
+
     Map<String, ColumnStatistics> getColumnStatistics(Map<String, String> columnMapping);
 }
@@ -34,4 +34,8 @@ public class ParquetConfig {
     private long rowGroupSize;
     private int pageSize;
     private int pageRowCountLimit;
+    // a full snapshot replaces the deltas once their rows reach this ratio of the rows in the base snapshot
+    private double deltaCompactionRatio = 0.5;
+    // a full snapshot replaces the deltas once there are so many of them
+    private int maxDeltaCount = 16;
 }
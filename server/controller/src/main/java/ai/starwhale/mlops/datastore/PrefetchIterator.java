@@ -0,0 +1,112 @@
+/*
+ * Copyright 2022 Starwhale, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.starwhale.mlops.datastore;
+
+import ai.starwhale.mlops.exception.SwProcessException;
+import ai.starwhale.mlops.exception.SwProcessException.ErrorType;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * An iterator which reads the source iterator in batches on an executor, one batch ahead of the consumer.
+ *
+ * <p>The source iterator is only accessed by one task at a time, and the next batch is not requested until the
+ * previous one is done, so the source does not need to be thread safe.
+ *
+ * <p>Closing the iterator waits for the pending batch and closes the source if it is a {@link CloseableIterator}.
+ */
+class PrefetchIterator<T> implements CloseableIterator<T> {
+
+    private final Iterator<T> source;
+
+    private final int batchSize;
+
+    private final Executor executor;
+
+    private List<T> batch = List.of();
+
+    private int index;
+
+    // null if the source is exhausted
+    private CompletableFuture<List<T>> nextBatch;
+
+    PrefetchIterator(Iterator<T> source, int batchSize, Executor executor) {
+        this.source = source;
+        this.batchSize = batchSize;
+        this.executor = executor;
+        this.nextBatch = this.fetch();
+    }
+
+    private CompletableFuture<List<T>> fetch() {
+        return CompletableFuture.supplyAsync(() -> {
+            var ret = new ArrayList<T>(this.batchSize);
+            while (ret.size() < this.batchSize && this.source.hasNext()) {
+                ret.add(this.source.next());
+            }
+            return ret;
+        }, this.executor);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (this.index >= this.batch.size()) {
+            if (this.nextBatch == null) {
+                return false;
+            }
+            try {
+                this.batch = this.nextBatch.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new SwProcessException(ErrorType.DATASTORE, "failed to read records", e.getCause());
+            }
+            this.index = 0;
+            // a partial batch means the source is exhausted
+            this.nextBatch = this.batch.size() < this.batchSize ? null : this.fetch();
+        }
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (!this.hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return this.batch.get(this.index++);
+    }
+
+    @Override
+    public void close() {
+        if (this.nextBatch != null) {
+            try {
+                this.nextBatch.join();
+            } catch (CompletionException e) {
+                // ignore
+            }
+            this.nextBatch = null;
+        }
+        if (this.source instanceof CloseableIterator) {
+            ((CloseableIterator<?>) this.source).close();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2022 Starwhale, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.starwhale.mlops.datastore;
+
+import ai.starwhale.mlops.datastore.impl.WalRecordDecoder;
+import ai.starwhale.mlops.datastore.type.BaseValue;
+import ai.starwhale.mlops.exception.SwValidationException;
+import com.google.protobuf.InvalidProtocolBufferException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * The position of the last record returned by a query, used to continue the query from the next record.
+ *
+ * <p>A cursor is encoded as an opaque string which contains the revision of the snapshot being read, the key of the
+ * last record and its values of the order by columns. All pages are read from the same snapshot.
+ */
+@Getter
+@AllArgsConstructor
+public class QueryCursor {
+
+    private final long revision;
+    private final BaseValue key;
+    private final List<BaseValue> orderByValues;
+
+    public String encode() {
+        var builder = Wal.Column.newBuilder()
+                .addListValue(Wal.Column.newBuilder().setIntValue(this.revision))
+                .addListValue(BaseValue.encodeWal(this.key));
+        for (var value : this.orderByValues) {
+            builder.addListValue(BaseValue.encodeWal(value));
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(builder.build().toByteArray());
+    }
+
+    public static QueryCursor decode(String cursor) {
+        try {
+            var values = Wal.Column.parseFrom(Base64.getUrlDecoder().decode(cursor)).getListValueList();
+            if (values.size() < 2) {
+                throw new IllegalArgumentException("too few values");
+            }
+            var orderByValues = new ArrayList<BaseValue>();
+            for (int i = 2; i < values.size(); ++i) {
+                orderByValues.add(WalRecordDecoder.decodeValue(null, values.get(i)));
+            }
+            return new QueryCursor(values.get(0).getIntValue(),
+                    WalRecordDecoder.decodeValue(null, values.get(1)),
+                    orderByValues);
+        } catch (IllegalArgumentException | IndexOutOfBoundsException | InvalidProtocolBufferException e) {
+            throw new SwValidationException(SwValidationException.ValidSubject.DATASTORE,
+                    "invalid cursor " + cursor, e);
+        }
+    }
+}
@@ -34,4 +34,14 @@ public class RecordList {
     private List<Map<String, Object>> records;
     private String lastKey;
     private String lastKeyType;
+    // used to get the next page by query, null if there are no more records
+    private String cursor;
+
+    public RecordList(Map<String, ColumnSchema> columnSchemaMap,
+            Map<String, ColumnHintsDesc> columnHints,
+            List<Map<String, Object>> records,
+            String lastKey,
+            String lastKeyType) {
+        this(columnSchemaMap, columnHints, records, lastKey, lastKeyType, null);
+    }
 }
@@ -17,9 +17,12 @@
 package ai.starwhale.mlops.datastore;
 
 import ai.starwhale.mlops.datastore.type.BaseValue;
+import java.util.List;
 import java.util.Map;
 import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
 
 @Data
 @AllArgsConstructor
@@ -28,4 +31,12 @@ public class RecordResult {
     private BaseValue key;
     private boolean deleted;
     private Map<String, BaseValue> values;
+    // the values of the order by columns, used to build the query cursor
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private List<BaseValue> orderByValues;
+
+    public RecordResult(BaseValue key, boolean deleted, Map<String, BaseValue> values) {
+        this(key, deleted, values, null);
+    }
 }
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2022 Starwhale, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.starwhale.mlops.datastore;
+
+import ai.starwhale.mlops.datastore.impl.WalRecordEncoder;
+import ai.starwhale.mlops.datastore.type.BaseValue;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import lombok.NonNull;
+
+/**
+ * Writes records as length-delimited protobuf messages: a {@link Wal.TableSchema} of the result columns first, then a
+ * {@link Wal.Record} for each record. It is the same format accepted by {@link DataStore#ingest}.
+ *
+ * <p>The column types in the schema are the latest ones of the table. Every column in the records also carries the
+ * type of its own value, which may differ if the type of the column has been changed. {@link DataStore#ingest} decodes
+ * such values by their own types, so the output can be ingested as it is.
+ */
+public class RecordStreamWriter implements RecordWriter {
+
+    private final OutputStream outputStream;
+
+    private TableSchema schema;
+
+    public RecordStreamWriter(@NonNull OutputStream outputStream) {
+        this.outputStream = outputStream;
+    }
+
+    @Override
+    public void writeSchema(TableSchema schema) throws IOException {
+        this.schema = schema;
+        schema.toWal().build().writeDelimitedTo(this.outputStream);
+    }
+
+    @Override
+    public void write(Map<String, BaseValue> record) throws IOException {
+        WalRecordEncoder.encodeRecord(this.schema, record).build().writeDelimitedTo(this.outputStream);
+    }
+}
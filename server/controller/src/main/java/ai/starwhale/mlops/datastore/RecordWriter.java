@@ -0,0 +1,38 @@
+/*
+ * Copyright 2022 Starwhale, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.starwhale.mlops.datastore;
+
+import ai.starwhale.mlops.datastore.type.BaseValue;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Receives the results of the streaming query and scan of {@link DataStore} one record at a time, in the order they
+ * are read from the tables.
+ */
+public interface RecordWriter {
+
+    /**
+     * Called once before any record.
+     *
+     * @param schema the schema of the result columns named by their aliases, columns are indexed by their names in
+     *               order. The key column is empty if there is no table.
+     */
+    void writeSchema(TableSchema schema) throws IOException;
+
+    void write(Map<String, BaseValue> record) throws IOException;
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2022 Starwhale, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.starwhale.mlops.datastore;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A cache of memory tables which keeps the estimated heap size of all tables within a budget.
+ *
+ * <p>When the budget is exceeded, the least recently used tables are evicted. Tables rejected by the evictable
+ * predicate, e.g. the ones with updates not saved yet, are never evicted.
+ *
+ * <p>An evicted table may still be used by an ongoing query or update. It is kept by a weak reference and put back
+ * to the cache on the next access while it is still alive, so that there is never more than one instance of a table.
+ */
+@Slf4j
+class TableCache {
+
+    private static final long EVICTION_INTERVAL_MILLIS = 1000;
+
+    private final long memoryBudget;
+
+    private final Predicate<MemoryTable> evictable;
+
+    // in access order, the eldest entry is the least recently used one
+    private final LinkedHashMap<String, MemoryTable> tables = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final Map<String, WeakReference<MemoryTable>> evictedTables = new HashMap<>();
+
+    private long lastEvictionTime;
+
+    private final Counter hitCounter;
+
+    private final Counter missCounter;
+
+    private final Counter evictionCounter;
+
+    private final Timer loadTimer;
+
+    private final AtomicLong residentBytes;
+
+    TableCache(long memoryBudget, Predicate<MemoryTable> evictable, MeterRegistry meterRegistry) {
+        this.memoryBudget = memoryBudget;
+        this.evictable = evictable;
+        this.hitCounter = meterRegistry.counter("sw.datastore.table.cache.hits");
+        this.missCounter = meterRegistry.counter("sw.datastore.table.cache.misses");
+        this.evictionCounter = meterRegistry.counter("sw.datastore.table.cache.evictions");
+        this.loadTimer = meterRegistry.timer("sw.datastore.table.load.time");
+        this.residentBytes = meterRegistry.gauge("sw.datastore.table.resident.bytes", new AtomicLong());
+    }
+
+    /**
+     * @return the cached table, or null if it is not cached
+     */
+    synchronized MemoryTable get(String tableName) {
+        var table = this.tables.get(tableName);
+        if (table == null) {
+            var ref = this.evictedTables.remove(tableName);
+            table = ref == null ? null : ref.get();
+            if (table == null) {
+                return null;
+            }
+            this.tables.put(tableName, table);
+        }
+        this.hitCounter.increment();
+        if (System.currentTimeMillis() - this.lastEvictionTime >= EVICTION_INTERVAL_MILLIS) {
+            this.evict();
+        }
+        return table;
+    }
+
+    /**
+     * Record a cache miss which takes loadTimeNanos to load the table from the storage.
+     */
+    void recordLoad(long loadTimeNanos) {
+        this.missCounter.increment();
+        this.loadTimer.record(loadTimeNanos, TimeUnit.NANOSECONDS);
+    }
+
+    synchronized void put(String tableName, MemoryTable table) {
+        this.tables.put(tableName, table);
+        this.evictedTables.remove(tableName);
+        this.evict();
+    }
+
+    synchronized List<String> getTableNames() {
+        var ret = new ArrayList<>(this.tables.keySet());
+        this.evictedTables.forEach((name, ref) -> {
+            if (ref.get() != null) {
+                ret.add(name);
+            }
+        });
+        return ret;
+    }
+
+    synchronized List<MemoryTable> getTables() {
+        return new ArrayList<>(this.tables.values());
+    }
+
+    /**
+     * Evict the least recently used tables until the estimated size of all tables is within the budget. The most
+     * recently used table is always kept.
+     */
+    synchronized void evict() {
+        this.lastEvictionTime = System.currentTimeMillis();
+        this.evictedTables.values().removeIf(ref -> ref.get() == null);
+        long total = 0;
+        for (var table : this.tables.values()) {
+            total += table.getEstimatedSize();
+        }
+        var it = this.tables.entrySet().iterator();
+        for (int i = this.tables.size(); total > this.memoryBudget && i > 1; --i) {
+            var entry = it.next();
+            var table = entry.getValue();
+            if (!this.evictable.test(table)) {
+                continue;
+            }
+            log.debug("evict table {}, estimated size {}", entry.getKey(), table.getEstimatedSize());
+            total -= table.getEstimatedSize();
+            it.remove();
+            this.evictedTables.put(entry.getKey(), new WeakReference<>(table));
+            this.evictionCounter.increment();
+        }
+        this.residentBytes.set(total);
+    }
+}
@@ -34,6 +34,11 @@ public class TableQueryFilter {
         GREATER_EQUAL,
         LESS,
         LESS_EQUAL,
+        // column IN (constant, ...)
+        IN,
+        // column LIKE 'pattern', where '%' matches any sequence of characters and '_' matches any single character
+        LIKE,
+        IS_NULL,
     }
 
     @Data
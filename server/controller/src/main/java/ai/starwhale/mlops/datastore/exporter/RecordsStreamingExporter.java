@@ -13,19 +13,43 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-
 package ai.starwhale.mlops.datastore.exporter;
 
-import ai.starwhale.mlops.datastore.RecordList;
+import ai.starwhale.mlops.datastore.RecordWriter;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.OutputStream;
 
+/**
+ * Exports the results of the streaming query and scan of the datastore as a file. The records are written while they
+ * are read from the tables, so nothing but the buffers of the format is kept in memory.
+ */
 public interface RecordsStreamingExporter {
 
-    int exportTo(RecordList recordList, OutputStream outputStream)  throws IOException;
+    /**
+     * {@link #close()} finishes the file and closes the output stream. It should not be called if the export fails,
+     * so that a broken file is not made to look complete.
+     */
+    interface ExportWriter extends RecordWriter, Closeable {
+
+    }
+
+    /**
+     * @param rawResult      the same as the one of the query and scan requests, ignored by binary formats
+     * @param encodeWithType the same as the one of the query and scan requests, ignored by binary formats
+     */
+    ExportWriter createWriter(OutputStream outputStream, boolean rawResult, boolean encodeWithType)
+            throws IOException;
 
     String getFileSuffix();
 
     String getWebMediaType();
 
+    /**
+     * @return true if the format is compressed by itself and is not worth compressing again with the content encoding
+     */
+    default boolean isCompressed() {
+        return false;
+    }
+
 }
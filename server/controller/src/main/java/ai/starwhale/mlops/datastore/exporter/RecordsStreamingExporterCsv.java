@@ -13,71 +13,91 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-
 package ai.starwhale.mlops.datastore.exporter;
 
-import ai.starwhale.mlops.datastore.RecordList;
-import ai.starwhale.mlops.exception.SwProcessException;
-import ai.starwhale.mlops.exception.SwProcessException.ErrorType;
+import ai.starwhale.mlops.datastore.ColumnSchema;
+import ai.starwhale.mlops.datastore.TableSchema;
+import ai.starwhale.mlops.datastore.type.BaseValue;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
-import java.util.Map.Entry;
+import java.util.Map;
 import java.util.stream.Collectors;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVPrinter;
 import org.springframework.stereotype.Component;
-import org.springframework.util.CollectionUtils;
 
 
 @Component
 @Slf4j
 public class RecordsStreamingExporterCsv implements RecordsStreamingExporter {
 
+    static final int BUFFER_SIZE = 64 * 1024;
+
     final ObjectMapper objectMapper;
 
     public RecordsStreamingExporterCsv(ObjectMapper objectMapper) {
         this.objectMapper = objectMapper;
     }
 
-    public int exportTo(RecordList recordList, OutputStream outputStream) throws IOException {
-        StringBuilder stringBuilder = new StringBuilder();
-        if (CollectionUtils.isEmpty(recordList.getRecords())) {
-            return 0;
-        }
-        try (final CSVPrinter printer = new CSVPrinter(stringBuilder, CSVFormat.RFC4180)) {
-            List<String> headers = recordList.getRecords().get(0).entrySet().stream().sorted(Entry.comparingByKey())
-                    .map(Entry::getKey).collect(Collectors.toList());
-            printer.printRecord(headers);
-            recordList.getRecords().forEach(r -> {
-                List<String> values = r.entrySet().stream().sorted(Entry.comparingByKey()).map(record -> {
-                    if (record.getValue() instanceof String) {
-                        return (String) record.getValue();
-                    }
-                    String v;
-                    try {
-                        v = objectMapper.writeValueAsString(record.getValue());
-                    } catch (JsonProcessingException e) {
-                        log.warn("can't jsonlize record value {} , error message is dumped", record.getValue(), e);
-                        v = e.getMessage();
+    @Override
+    public ExportWriter createWriter(OutputStream outputStream, boolean rawResult, boolean encodeWithType)
+            throws IOException {
+        var printer = new CSVPrinter(
+                new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8), BUFFER_SIZE),
+                CSVFormat.RFC4180);
+        var jsonWriter = this.objectMapper.writer();
+        return new ExportWriter() {
+            // the columns are fixed by the schema, so that all the rows have the same cells in the same order
+            private List<String> headers;
+
+            @Override
+            public void writeSchema(TableSchema schema) throws IOException {
+                this.headers = schema.getColumnSchemaList().stream()
+                        .map(ColumnSchema::getName)
+                        .collect(Collectors.toList());
+                if (!this.headers.isEmpty()) {
+                    printer.printRecord(this.headers);
+                }
+            }
+
+            @Override
+            public void write(Map<String, BaseValue> record) throws IOException {
+                for (var header : this.headers) {
+                    if (record.containsKey(header)) {
+                        printer.print(RecordsStreamingExporterCsv.encode(
+                                jsonWriter, BaseValue.encode(record.get(header), rawResult, encodeWithType)));
+                    } else {
+                        printer.print(null);
                     }
-                    return v;
-                }).collect(Collectors.toList());
-                try {
-                    printer.printRecord(values.toArray());
-                } catch (IOException e) {
-                    log.error("printing error", e);
-                    throw new SwProcessException(ErrorType.SYSTEM);
                 }
-            });
+                printer.println();
+            }
+
+            @Override
+            public void close() throws IOException {
+                printer.close();
+            }
+        };
+    }
+
+    private static String encode(ObjectWriter jsonWriter, Object value) {
+        if (value == null || value instanceof String) {
+            return (String) value;
+        }
+        try {
+            return jsonWriter.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            log.warn("can't jsonlize record value {} , error message is dumped", value, e);
+            return e.getMessage();
         }
-        byte[] bytes = stringBuilder.toString().getBytes(StandardCharsets.UTF_8);
-        outputStream.write(bytes);
-        return bytes.length;
     }
 
     @Override
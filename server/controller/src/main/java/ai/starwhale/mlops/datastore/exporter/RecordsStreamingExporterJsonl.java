@@ -0,0 +1,92 @@
+/*
+ * Copyright 2022 Starwhale, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ai.starwhale.mlops.datastore.exporter;
+
+import ai.starwhale.mlops.datastore.ColumnSchema;
+import ai.starwhale.mlops.datastore.TableSchema;
+import ai.starwhale.mlops.datastore.type.BaseValue;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.springframework.stereotype.Component;
+
+/**
+ * Writes a json object per line. The fields are in the order of the column names, and the ones not in a record are
+ * omitted instead of being written as null.
+ */
+@Component
+public class RecordsStreamingExporterJsonl implements RecordsStreamingExporter {
+
+    final ObjectMapper objectMapper;
+
+    public RecordsStreamingExporterJsonl(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public ExportWriter createWriter(OutputStream outputStream, boolean rawResult, boolean encodeWithType)
+            throws IOException {
+        var generator = this.objectMapper.getFactory().createGenerator(new BufferedWriter(
+                new OutputStreamWriter(outputStream, StandardCharsets.UTF_8),
+                RecordsStreamingExporterCsv.BUFFER_SIZE));
+        // the lines are separated by the line breaks
+        generator.setRootValueSeparator(null);
+        return new ExportWriter() {
+            private List<String> columns;
+
+            @Override
+            public void writeSchema(TableSchema schema) {
+                this.columns = schema.getColumnSchemaList().stream()
+                        .map(ColumnSchema::getName)
+                        .collect(Collectors.toList());
+            }
+
+            @Override
+            public void write(Map<String, BaseValue> record) throws IOException {
+                generator.writeStartObject();
+                for (var column : this.columns) {
+                    if (record.containsKey(column)) {
+                        generator.writeFieldName(column);
+                        generator.writeObject(BaseValue.encode(record.get(column), rawResult, encodeWithType));
+                    }
+                }
+                generator.writeEndObject();
+                generator.writeRaw('\n');
+            }
+
+            @Override
+            public void close() throws IOException {
+                generator.close();
+            }
+        };
+    }
+
+    @Override
+    public String getFileSuffix() {
+        return "jsonl";
+    }
+
+    @Override
+    public String getWebMediaType() {
+        return "application/x-ndjson;charset=utf-8";
+    }
+}
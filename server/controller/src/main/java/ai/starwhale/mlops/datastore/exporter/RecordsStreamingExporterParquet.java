@@ -0,0 +1,99 @@
+/*
+ * Copyright 2022 Starwhale, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ai.starwhale.mlops.datastore.exporter;
+
+import ai.starwhale.mlops.datastore.ColumnSchema;
+import ai.starwhale.mlops.datastore.ParquetConfig;
+import ai.starwhale.mlops.datastore.ParquetConfig.CompressionCodec;
+import ai.starwhale.mlops.datastore.TableSchema;
+import ai.starwhale.mlops.datastore.parquet.SwParquetWriterBuilder;
+import ai.starwhale.mlops.datastore.parquet.SwStreamOutputFile;
+import ai.starwhale.mlops.datastore.type.BaseValue;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.springframework.stereotype.Component;
+
+/**
+ * Writes the records in the same parquet layout as the snapshots of the datastore, so the values keep their types and
+ * the file can be read back by {@link ai.starwhale.mlops.datastore.parquet.SwParquetReaderBuilder}.
+ */
+@Component
+public class RecordsStreamingExporterParquet implements RecordsStreamingExporter {
+
+    private static final ParquetConfig PARQUET_CONFIG = new ParquetConfig();
+
+    static {
+        PARQUET_CONFIG.setCompressionCodec(CompressionCodec.SNAPPY);
+        // a row group is buffered in memory until it is full, keep it much smaller than the one of the snapshots
+        PARQUET_CONFIG.setRowGroupSize(16 * 1024 * 1024);
+        PARQUET_CONFIG.setPageSize(1024 * 1024);
+        PARQUET_CONFIG.setPageRowCountLimit(20000);
+    }
+
+    @Override
+    public ExportWriter createWriter(OutputStream outputStream, boolean rawResult, boolean encodeWithType) {
+        return new ExportWriter() {
+            private SwParquetWriterBuilder builder;
+
+            private ParquetWriter<Map<String, BaseValue>> writer;
+
+            @Override
+            public void writeSchema(TableSchema schema) throws IOException {
+                this.builder = new SwParquetWriterBuilder(new SwStreamOutputFile(outputStream),
+                        schema.getColumnSchemaList().stream()
+                                .collect(Collectors.toMap(ColumnSchema::getName, Function.identity())),
+                        schema.toJsonString(),
+                        "",
+                        PARQUET_CONFIG);
+                this.writer = this.builder.build();
+            }
+
+            @Override
+            public void write(Map<String, BaseValue> record) throws IOException {
+                this.writer.write(record);
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (this.writer == null) {
+                    outputStream.close();
+                    return;
+                }
+                this.builder.success();
+                this.writer.close();
+            }
+        };
+    }
+
+    @Override
+    public String getFileSuffix() {
+        return "parquet";
+    }
+
+    @Override
+    public String getWebMediaType() {
+        return "application/octet-stream";
+    }
+
+    @Override
+    public boolean isCompressed() {
+        return true;
+    }
+}
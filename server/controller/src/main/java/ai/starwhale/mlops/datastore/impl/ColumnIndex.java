@@ -0,0 +1,374 @@
+/*
+ * Copyright 2022 Starwhale, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.starwhale.mlops.datastore.impl;
+
+import ai.starwhale.mlops.datastore.ColumnType;
+import ai.starwhale.mlops.datastore.TableQueryFilter;
+import ai.starwhale.mlops.datastore.type.BaseValue;
+import ai.starwhale.mlops.datastore.type.BoolValue;
+import ai.starwhale.mlops.datastore.type.Float32Value;
+import ai.starwhale.mlops.datastore.type.Float64Value;
+import ai.starwhale.mlops.datastore.type.FloatValue;
+import ai.starwhale.mlops.datastore.type.Int16Value;
+import ai.starwhale.mlops.datastore.type.Int32Value;
+import ai.starwhale.mlops.datastore.type.Int64Value;
+import ai.starwhale.mlops.datastore.type.Int8Value;
+import ai.starwhale.mlops.datastore.type.IntValue;
+import ai.starwhale.mlops.datastore.type.StringValue;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Collections;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import lombok.Getter;
+
+/**
+ * A secondary index of a column, which maps each value of the column to the keys of the records having that value.
+ *
+ * <p>The index is not versioned, it only holds the latest version of each record. Every key of the table is in the
+ * group of its latest value, or in the null group if the record has no value of the column or is deleted. A key
+ * being updated is added to the group of its new value before it is removed from the old one, so a concurrent lookup
+ * returns a superset of the matching keys at the latest revision, and the caller should check the records again
+ * against the filter.
+ *
+ * <p>A hash index only supports EQUAL and IS_NULL. An ordered index supports range predicates and prefix LIKE as
+ * well.
+ *
+ * <p>Only one thread is allowed to add keys at any time, while lookups can be done concurrently without locking.
+ */
+class ColumnIndex {
+
+    @Getter
+    private final String columnName;
+
+    @Getter
+    private final boolean ordered;
+
+    private final Map<BaseValue, KeySet> valueMap;
+
+    // keys of the records which have no value or a null value of the column, or are deleted
+    private final KeySet nullKeys = new KeySet();
+
+    // the number of keys in all groups
+    private final AtomicInteger size = new AtomicInteger();
+
+    // the type of all non-null values, null if there is no such value yet
+    private volatile ColumnType type;
+
+    // the index is useless if the column has values of different types, because the filter converts values between
+    // types before comparing them
+    private volatile boolean mixedTypes;
+
+    ColumnIndex(String columnName, boolean ordered) {
+        this.columnName = columnName;
+        this.ordered = ordered;
+        if (ordered) {
+            this.valueMap = new ConcurrentSkipListMap<>();
+        } else {
+            this.valueMap = new ConcurrentHashMap<>();
+        }
+    }
+
+    void add(BaseValue key, BaseValue value) {
+        KeySet keys;
+        if (value == null) {
+            keys = this.nullKeys;
+        } else {
+            var valueType = value.getColumnType();
+            if (this.type == null) {
+                this.type = valueType;
+            } else if (this.type != valueType) {
+                this.mixedTypes = true;
+            }
+            keys = this.valueMap.computeIfAbsent(value, k -> new KeySet());
+        }
+        if (keys.add(key)) {
+            this.size.incrementAndGet();
+        }
+    }
+
+    void remove(BaseValue key, BaseValue value) {
+        if (value == null) {
+            if (this.nullKeys.remove(key)) {
+                this.size.decrementAndGet();
+            }
+            return;
+        }
+        var keys = this.valueMap.get(value);
+        if (keys != null && keys.remove(key)) {
+            this.size.decrementAndGet();
+            if (keys.isEmpty()) {
+                this.valueMap.remove(value);
+            }
+        }
+    }
+
+    /**
+     * Get the number of keys in the index, which is the number of records in the table, including the deleted ones.
+     */
+    int size() {
+        return this.size.get();
+    }
+
+    /**
+     * Find the keys of the records whose value of the column may satisfy {@code column op value}. For LIKE, the value
+     * is the literal prefix of the pattern. For IS_NULL, the value is ignored.
+     *
+     * @return the keys in ascending order, or null if the index can not be used for the predicate
+     */
+    NavigableSet<BaseValue> lookup(TableQueryFilter.Operator op, BaseValue value) {
+        value = this.convert(op, value);
+        if (!this.supports(op, value)) {
+            return null;
+        }
+        if (op == TableQueryFilter.Operator.IS_NULL) {
+            return this.nullKeys;
+        }
+        if (op == TableQueryFilter.Operator.EQUAL) {
+            var keys = this.valueMap.get(value);
+            if (keys == null) {
+                return Collections.emptyNavigableSet();
+            }
+            return keys;
+        }
+        // do not use addAll, which relies on the size of the source set, and it may be changing concurrently
+        var ret = new TreeSet<BaseValue>();
+        if (ColumnIndex.includesNull(op)) {
+            this.nullKeys.forEach(ret::add);
+        }
+        for (var keys : this.range(op, value).values()) {
+            keys.forEach(ret::add);
+        }
+        return ret;
+    }
+
+    /**
+     * Estimate the number of keys returned by {@link #lookup}.
+     *
+     * @return -1 if the index can not be used for the predicate
+     */
+    long estimate(TableQueryFilter.Operator op, BaseValue value) {
+        value = this.convert(op, value);
+        if (!this.supports(op, value)) {
+            return -1;
+        }
+        if (op == TableQueryFilter.Operator.IS_NULL) {
+            return this.nullKeys.size();
+        }
+        if (op == TableQueryFilter.Operator.EQUAL) {
+            var keys = this.valueMap.get(value);
+            return keys == null ? 0 : keys.size();
+        }
+        long ret = ColumnIndex.includesNull(op) ? this.nullKeys.size() : 0;
+        for (var keys : this.range(op, value).values()) {
+            ret += keys.size();
+        }
+        return ret;
+    }
+
+    /**
+     * Convert the constant to the type of the indexed values, as the filter does before comparing them. For example,
+     * an integer constant is compared with values of any integer type numerically, and a string constant is parsed
+     * for values of numeric or bool types.
+     *
+     * @return the constant of the type of the indexed values, or the original one if it can not be converted exactly
+     */
+    private BaseValue convert(TableQueryFilter.Operator op, BaseValue value) {
+        var type = this.type;
+        // the prefix of LIKE is always compared as a string
+        if (op == TableQueryFilter.Operator.LIKE || value == null || type == null || value.getColumnType() == type) {
+            return value;
+        }
+        switch (type) {
+            case BOOL:
+                return ColumnIndex.convertString(value, BoolValue.FALSE);
+            case INT8:
+            case INT16:
+            case INT32:
+            case INT64: {
+                var converted = ColumnIndex.convertString(value, new Int64Value(0));
+                if (!(converted instanceof IntValue)) {
+                    return value;
+                }
+                var v = ((IntValue) converted).longValue();
+                switch (type) {
+                    case INT8:
+                        return v == (byte) v ? new Int8Value((byte) v) : value;
+                    case INT16:
+                        return v == (short) v ? new Int16Value((short) v) : value;
+                    case INT32:
+                        return v == (int) v ? new Int32Value((int) v) : value;
+                    default:
+                        return new Int64Value(v);
+                }
+            }
+            case FLOAT32:
+            case FLOAT64: {
+                var converted = ColumnIndex.convertString(value, new Float64Value(0));
+                if (!(converted instanceof FloatValue)) {
+                    return value;
+                }
+                var v = ((FloatValue) converted).doubleValue();
+                if (type == ColumnType.FLOAT32) {
+                    return (float) v == v ? new Float32Value((float) v) : value;
+                }
+                return new Float64Value(v);
+            }
+            default:
+                return value;
+        }
+    }
+
+    private static BaseValue convertString(BaseValue value, BaseValue other) {
+        if (value instanceof StringValue) {
+            return CompiledFilter.convertStringToOtherType((StringValue) value, other);
+        }
+        return value;
+    }
+
+    private boolean supports(TableQueryFilter.Operator op, BaseValue value) {
+        if (op == TableQueryFilter.Operator.IS_NULL) {
+            return true;
+        }
+        if (value == null || this.mixedTypes || this.type != null && this.type != value.getColumnType()) {
+            return false;
+        }
+        switch (op) {
+            case EQUAL:
+                return true;
+            case LESS:
+            case LESS_EQUAL:
+            case GREATER:
+            case GREATER_EQUAL:
+                return this.ordered;
+            case LIKE:
+                return this.ordered && value instanceof StringValue;
+            default:
+                return false;
+        }
+    }
+
+    private NavigableMap<BaseValue, KeySet> range(TableQueryFilter.Operator op, BaseValue value) {
+        var map = (NavigableMap<BaseValue, KeySet>) this.valueMap;
+        switch (op) {
+            case LESS:
+                return map.headMap(value, false);
+            case LESS_EQUAL:
+                return map.headMap(value, true);
+            case GREATER:
+                return map.tailMap(value, false);
+            case GREATER_EQUAL:
+                return map.tailMap(value, true);
+            case LIKE: {
+                // all strings starting with the prefix are in [prefix, upper), where upper is the prefix with its last
+                // character increased by one after removing trailing '\uffff'
+                var prefix = ((StringValue) value).getValue();
+                int end = prefix.length();
+                while (end > 0 && prefix.charAt(end - 1) == Character.MAX_VALUE) {
+                    --end;
+                }
+                if (end == 0) {
+                    return map.tailMap(value, true);
+                }
+                var upper = prefix.substring(0, end - 1) + (char) (prefix.charAt(end - 1) + 1);
+                return map.subMap(value, true, new StringValue(upper), false);
+            }
+            default:
+                throw new IllegalArgumentException("unexpected operator " + op);
+        }
+    }
+
+    /**
+     * Get the keys grouped by values in the order of the values. Null is less than any value, so the group of null is
+     * the first one in ascending order, and its value is null. Only available for ordered indexes.
+     */
+    Stream<Map.Entry<BaseValue, NavigableSet<BaseValue>>> groups(boolean descending) {
+        var map = (NavigableMap<BaseValue, KeySet>) this.valueMap;
+        if (descending) {
+            return Stream.concat(ColumnIndex.groupStream(map.descendingMap()), Stream.of(this.nullGroup()));
+        }
+        return Stream.concat(Stream.of(this.nullGroup()), ColumnIndex.groupStream(map));
+    }
+
+    /**
+     * Same as {@link #groups}, but starts from the group of the specified value, which may be null.
+     */
+    Stream<Map.Entry<BaseValue, NavigableSet<BaseValue>>> groupsFrom(boolean descending, BaseValue from) {
+        var map = (NavigableMap<BaseValue, KeySet>) this.valueMap;
+        if (from == null) {
+            return descending ? Stream.of(this.nullGroup()) : this.groups(false);
+        }
+        if (descending) {
+            return Stream.concat(ColumnIndex.groupStream(map.headMap(from, true).descendingMap()),
+                    Stream.of(this.nullGroup()));
+        }
+        return ColumnIndex.groupStream(map.tailMap(from, true));
+    }
+
+    private Map.Entry<BaseValue, NavigableSet<BaseValue>> nullGroup() {
+        return new SimpleImmutableEntry<>(null, this.nullKeys);
+    }
+
+    private static Stream<Map.Entry<BaseValue, NavigableSet<BaseValue>>> groupStream(
+            NavigableMap<BaseValue, KeySet> map) {
+        return map.entrySet().stream()
+                .map(entry -> new SimpleImmutableEntry<BaseValue, NavigableSet<BaseValue>>(
+                        entry.getKey(), entry.getValue()));
+    }
+
+    // null is less than any value when filtering
+    private static boolean includesNull(TableQueryFilter.Operator op) {
+        return op == TableQueryFilter.Operator.LESS || op == TableQueryFilter.Operator.LESS_EQUAL;
+    }
+
+    /**
+     * A concurrent sorted key set which counts its size in O(1).
+     */
+    private static class KeySet extends ConcurrentSkipListSet<BaseValue> {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public boolean add(BaseValue key) {
+            if (super.add(key)) {
+                this.count.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public boolean remove(Object key) {
+            if (super.remove(key)) {
+                this.count.decrementAndGet();
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public int size() {
+            return this.count.get();
+        }
+    }
+}
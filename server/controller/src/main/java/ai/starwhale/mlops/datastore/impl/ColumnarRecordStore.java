@@ -0,0 +1,485 @@
+/*
+ * Copyright 2022 Starwhale, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.starwhale.mlops.datastore.impl;
+
+import ai.starwhale.mlops.datastore.ColumnType;
+import ai.starwhale.mlops.datastore.type.BaseValue;
+import ai.starwhale.mlops.datastore.type.BoolValue;
+import ai.starwhale.mlops.datastore.type.Float32Value;
+import ai.starwhale.mlops.datastore.type.Float64Value;
+import ai.starwhale.mlops.datastore.type.FloatValue;
+import ai.starwhale.mlops.datastore.type.Int16Value;
+import ai.starwhale.mlops.datastore.type.Int32Value;
+import ai.starwhale.mlops.datastore.type.Int64Value;
+import ai.starwhale.mlops.datastore.type.Int8Value;
+import ai.starwhale.mlops.datastore.type.IntValue;
+import ai.starwhale.mlops.datastore.type.StringValue;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+
+/**
+ * Stores versions in a column-oriented layout.
+ *
+ * <p>Every version gets a version id. The revision, the deleted flag and the previous version of the same record are
+ * kept in primitive arrays indexed by the version id, so the versions of a record form a chain starting from the
+ * latest one. Each column keeps a type tag and a primitive payload per version, strings are dictionary encoded and
+ * only values that have no primitive representation (bytes, list, tuple, map and object) are kept as references.
+ *
+ * <p>All arrays are split into fixed size chunks which are allocated on demand, so growing the store never copies
+ * the existing data.
+ *
+ * <p>There is only one writer at a time, but readers do not lock. A writer fills in all data of a new version before
+ * publishing it as the head of the record through a volatile write, so everything reachable from a head is visible to
+ * the readers, and the versions newer than the revision of a reader are skipped.
+ */
+class ColumnarRecordStore implements RecordStore {
+
+    private static final int CHUNK_BITS = 12;
+
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private static final byte TAG_ABSENT = 0;
+
+    private static final byte TAG_NULL = 1;
+
+    private static final int TAG_TYPE_OFFSET = 2;
+
+    private static final ColumnType[] TYPES = ColumnType.values();
+
+    private final ConcurrentSkipListMap<BaseValue, Integer> rowIndex = new ConcurrentSkipListMap<>();
+
+    private final HeadChunks heads = new HeadChunks();
+
+    private final LongChunks revisions = new LongChunks();
+
+    private final IntChunks previous = new IntChunks(-1);
+
+    private final ByteChunks deletedFlags = new ByteChunks();
+
+    private final Map<String, ColumnVector> columns = new ConcurrentHashMap<>();
+
+    private int rowCount;
+
+    private int versionCount;
+
+    @Override
+    public boolean isEmpty() {
+        return this.rowIndex.isEmpty();
+    }
+
+    @Override
+    public BaseValue firstKey() {
+        return this.rowIndex.firstKey();
+    }
+
+    @Override
+    public BaseValue lastKey() {
+        return this.rowIndex.lastKey();
+    }
+
+    @Override
+    public void append(BaseValue key, MemoryRecord record) {
+        var rowId = this.rowIndex.get(key);
+        var newRow = rowId == null;
+        if (newRow) {
+            rowId = this.rowCount++;
+        }
+        var versionId = this.versionCount++;
+        this.revisions.set(versionId, record.getRevision());
+        this.previous.set(versionId, this.heads.get(rowId));
+        if (record.isDeleted()) {
+            this.deletedFlags.set(versionId, (byte) 1);
+        } else if (record.getValues() != null) {
+            for (var entry : record.getValues().entrySet()) {
+                this.columns.computeIfAbsent(entry.getKey(), k -> new ColumnVector())
+                        .set(versionId, entry.getValue());
+            }
+        }
+        this.heads.set(rowId, versionId);
+        if (newRow) {
+            // publish the new row after its head is set
+            this.rowIndex.put(key, rowId);
+        }
+    }
+
+    @Override
+    public MemoryRecord get(BaseValue key, long revision) {
+        var rowId = this.rowIndex.get(key);
+        if (rowId == null) {
+            return null;
+        }
+        return this.merge(rowId, revision);
+    }
+
+    @Override
+    public Stream<Map.Entry<BaseValue, MemoryRecord>> query(BaseValue start,
+            boolean startInclusive,
+            BaseValue end,
+            boolean endInclusive,
+            long revision) {
+        NavigableMap<BaseValue, Integer> target;
+        if (start != null && end != null) {
+            target = this.rowIndex.subMap(start, startInclusive, end, endInclusive);
+        } else if (start != null) {
+            target = this.rowIndex.tailMap(start, startInclusive);
+        } else if (end != null) {
+            target = this.rowIndex.headMap(end, endInclusive);
+        } else {
+            target = this.rowIndex;
+        }
+        return target.entrySet().stream()
+                .map(entry -> {
+                    var record = this.merge(entry.getValue(), revision);
+                    if (record == null) {
+                        return null;
+                    }
+                    return (Map.Entry<BaseValue, MemoryRecord>) new SimpleImmutableEntry<>(entry.getKey(), record);
+                })
+                .filter(Objects::nonNull);
+    }
+
+    @Override
+    public BaseValue dump(BaseValue fromKey,
+            int maxKeys,
+            long maxRevision,
+            BiConsumer<BaseValue, MemoryRecord> visitor) {
+        NavigableMap<BaseValue, Integer> target;
+        if (fromKey == null) {
+            target = this.rowIndex;
+        } else {
+            target = this.rowIndex.tailMap(fromKey, false);
+        }
+        BaseValue lastKey = null;
+        int count = 0;
+        var versionIds = new ArrayList<Integer>();
+        for (var entry : target.entrySet()) {
+            lastKey = entry.getKey();
+            versionIds.clear();
+            for (int v = this.heads.get(entry.getValue()); v >= 0; v = this.previous.get(v)) {
+                versionIds.add(v);
+            }
+            for (int i = versionIds.size() - 1; i >= 0; --i) {
+                var record = this.getVersion(versionIds.get(i));
+                if (record.getRevision() > maxRevision) {
+                    break;
+                }
+                visitor.accept(entry.getKey(), record);
+            }
+            if (++count == maxKeys) {
+                break;
+            }
+        }
+        return lastKey;
+    }
+
+    private MemoryRecord getVersion(int versionId) {
+        var builder = MemoryRecord.builder().revision(this.revisions.get(versionId));
+        if (this.deletedFlags.get(versionId) != 0) {
+            return builder.deleted(true).build();
+        }
+        var values = new HashMap<String, BaseValue>();
+        for (var entry : this.columns.entrySet()) {
+            var column = entry.getValue();
+            if (column.has(versionId)) {
+                values.put(entry.getKey(), column.get(versionId));
+            }
+        }
+        return builder.values(values).build();
+    }
+
+    private MemoryRecord merge(int rowId, long revision) {
+        int top = this.heads.get(rowId);
+        while (top >= 0 && this.revisions.get(top) > revision) {
+            top = this.previous.get(top);
+        }
+        if (top < 0) {
+            return null;
+        }
+        var values = new HashMap<String, BaseValue>();
+        var builder = MemoryRecord.builder()
+                .revision(this.revisions.get(top))
+                .values(values);
+        if (this.deletedFlags.get(top) != 0) {
+            return builder.deleted(true).build();
+        }
+        // walk back from the latest version, the first value found for a column wins
+        for (int v = top; v >= 0 && values.size() < this.columns.size(); v = this.previous.get(v)) {
+            if (this.revisions.get(v) > revision) {
+                continue;
+            }
+            if (this.deletedFlags.get(v) != 0) {
+                break;
+            }
+            for (var entry : this.columns.entrySet()) {
+                var column = entry.getValue();
+                if (column.has(v) && !values.containsKey(entry.getKey())) {
+                    values.put(entry.getKey(), column.get(v));
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    private static class ColumnVector {
+
+        private final ByteChunks tags = new ByteChunks();
+
+        private final LongChunks bits = new LongChunks();
+
+        private final ObjectChunks<BaseValue> refs = new ObjectChunks<>();
+
+        private final StringDictionary dictionary = new StringDictionary();
+
+        boolean has(int index) {
+            return this.tags.get(index) != TAG_ABSENT;
+        }
+
+        void set(int index, BaseValue value) {
+            if (value == null) {
+                this.tags.set(index, TAG_NULL);
+                return;
+            }
+            var type = value.getColumnType();
+            switch (type) {
+                case BOOL:
+                    this.bits.set(index, ((BoolValue) value).isValue() ? 1 : 0);
+                    break;
+                case INT8:
+                case INT16:
+                case INT32:
+                case INT64:
+                    this.bits.set(index, ((IntValue) value).longValue());
+                    break;
+                case FLOAT32:
+                    this.bits.set(index, Float.floatToRawIntBits(((Float32Value) value).getValue()));
+                    break;
+                case FLOAT64:
+                    this.bits.set(index, Double.doubleToRawLongBits(((FloatValue) value).doubleValue()));
+                    break;
+                case STRING:
+                    var str = ((StringValue) value).getValue();
+                    if (str == null) {
+                        this.refs.set(index, value);
+                    } else {
+                        this.bits.set(index, this.dictionary.encode(str));
+                    }
+                    break;
+                default:
+                    this.refs.set(index, value);
+                    break;
+            }
+            this.tags.set(index, (byte) (type.ordinal() + TAG_TYPE_OFFSET));
+        }
+
+        BaseValue get(int index) {
+            var tag = this.tags.get(index);
+            if (tag == TAG_NULL) {
+                return null;
+            }
+            var ref = this.refs.get(index);
+            if (ref != null) {
+                return ref;
+            }
+            var bits = this.bits.get(index);
+            switch (TYPES[tag - TAG_TYPE_OFFSET]) {
+                case BOOL:
+                    return BaseValue.valueOf(bits != 0);
+                case INT8:
+                    return new Int8Value((byte) bits);
+                case INT16:
+                    return new Int16Value((short) bits);
+                case INT32:
+                    return new Int32Value((int) bits);
+                case INT64:
+                    return new Int64Value(bits);
+                case FLOAT32:
+                    return new Float32Value(Float.intBitsToFloat((int) bits));
+                case FLOAT64:
+                    return new Float64Value(Double.longBitsToDouble(bits));
+                case STRING:
+                    return new StringValue(this.dictionary.decode((int) bits));
+                default:
+                    throw new IllegalStateException("invalid tag " + tag);
+            }
+        }
+    }
+
+    private static class StringDictionary {
+
+        private final Map<String, Integer> ids = new HashMap<>();
+
+        private final ObjectChunks<String> values = new ObjectChunks<>();
+
+        int encode(String value) {
+            return this.ids.computeIfAbsent(value, k -> {
+                var id = this.ids.size();
+                this.values.set(id, k);
+                return id;
+            });
+        }
+
+        String decode(int id) {
+            return this.values.get(id);
+        }
+    }
+
+    /**
+     * Head version ids of the records. The ids are stored with an offset of one, so that zero means no version.
+     */
+    private static class HeadChunks {
+
+        private volatile AtomicIntegerArray[] chunks = new AtomicIntegerArray[0];
+
+        int get(int index) {
+            var chunk = index >>> CHUNK_BITS;
+            var current = this.chunks;
+            if (chunk >= current.length || current[chunk] == null) {
+                return -1;
+            }
+            return current[chunk].get(index & CHUNK_MASK) - 1;
+        }
+
+        void set(int index, int value) {
+            var chunk = index >>> CHUNK_BITS;
+            var current = this.chunks;
+            if (chunk >= current.length || current[chunk] == null) {
+                current = Arrays.copyOf(current, Math.max(chunk + 1, current.length));
+                current[chunk] = new AtomicIntegerArray(CHUNK_SIZE);
+                this.chunks = current;
+            }
+            current[chunk].set(index & CHUNK_MASK, value + 1);
+        }
+    }
+
+    private static class LongChunks {
+
+        private long[][] chunks = new long[0][];
+
+        long get(int index) {
+            var chunk = index >>> CHUNK_BITS;
+            if (chunk >= this.chunks.length || this.chunks[chunk] == null) {
+                return 0;
+            }
+            return this.chunks[chunk][index & CHUNK_MASK];
+        }
+
+        void set(int index, long value) {
+            var chunk = index >>> CHUNK_BITS;
+            if (chunk >= this.chunks.length) {
+                this.chunks = Arrays.copyOf(this.chunks, Math.max(chunk + 1, this.chunks.length * 2));
+            }
+            if (this.chunks[chunk] == null) {
+                this.chunks[chunk] = new long[CHUNK_SIZE];
+            }
+            this.chunks[chunk][index & CHUNK_MASK] = value;
+        }
+    }
+
+    private static class IntChunks {
+
+        private final int defaultValue;
+
+        private int[][] chunks = new int[0][];
+
+        IntChunks(int defaultValue) {
+            this.defaultValue = defaultValue;
+        }
+
+        int get(int index) {
+            var chunk = index >>> CHUNK_BITS;
+            if (chunk >= this.chunks.length || this.chunks[chunk] == null) {
+                return this.defaultValue;
+            }
+            return this.chunks[chunk][index & CHUNK_MASK];
+        }
+
+        void set(int index, int value) {
+            var chunk = index >>> CHUNK_BITS;
+            if (chunk >= this.chunks.length) {
+                this.chunks = Arrays.copyOf(this.chunks, Math.max(chunk + 1, this.chunks.length * 2));
+            }
+            if (this.chunks[chunk] == null) {
+                this.chunks[chunk] = new int[CHUNK_SIZE];
+                if (this.defaultValue != 0) {
+                    Arrays.fill(this.chunks[chunk], this.defaultValue);
+                }
+            }
+            this.chunks[chunk][index & CHUNK_MASK] = value;
+        }
+    }
+
+    private static class ByteChunks {
+
+        private byte[][] chunks = new byte[0][];
+
+        byte get(int index) {
+            var chunk = index >>> CHUNK_BITS;
+            if (chunk >= this.chunks.length || this.chunks[chunk] == null) {
+                return 0;
+            }
+            return this.chunks[chunk][index & CHUNK_MASK];
+        }
+
+        void set(int index, byte value) {
+            var chunk = index >>> CHUNK_BITS;
+            if (chunk >= this.chunks.length) {
+                this.chunks = Arrays.copyOf(this.chunks, Math.max(chunk + 1, this.chunks.length * 2));
+            }
+            if (this.chunks[chunk] == null) {
+                this.chunks[chunk] = new byte[CHUNK_SIZE];
+            }
+            this.chunks[chunk][index & CHUNK_MASK] = value;
+        }
+    }
+
+    private static class ObjectChunks<T> {
+
+        private Object[][] chunks = new Object[0][];
+
+        @SuppressWarnings("unchecked")
+        T get(int index) {
+            var chunk = index >>> CHUNK_BITS;
+            if (chunk >= this.chunks.length || this.chunks[chunk] == null) {
+                return null;
+            }
+            return (T) this.chunks[chunk][index & CHUNK_MASK];
+        }
+
+        void set(int index, T value) {
+            var chunk = index >>> CHUNK_BITS;
+            if (chunk >= this.chunks.length) {
+                this.chunks = Arrays.copyOf(this.chunks, Math.max(chunk + 1, this.chunks.length * 2));
+            }
+            if (this.chunks[chunk] == null) {
+                this.chunks[chunk] = new Object[CHUNK_SIZE];
+            }
+            this.chunks[chunk][index & CHUNK_MASK] = value;
+        }
+    }
+}
@@ -0,0 +1,662 @@
+/*
+ * Copyright 2022 Starwhale, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.starwhale.mlops.datastore.impl;
+
+import ai.starwhale.mlops.datastore.ColumnType;
+import ai.starwhale.mlops.datastore.TableQueryFilter;
+import ai.starwhale.mlops.datastore.TableQueryFilter.Operator;
+import ai.starwhale.mlops.datastore.TableSchema;
+import ai.starwhale.mlops.datastore.type.BaseValue;
+import ai.starwhale.mlops.datastore.type.BoolValue;
+import ai.starwhale.mlops.datastore.type.Float64Value;
+import ai.starwhale.mlops.datastore.type.FloatValue;
+import ai.starwhale.mlops.datastore.type.Int64Value;
+import ai.starwhale.mlops.datastore.type.IntValue;
+import ai.starwhale.mlops.datastore.type.StringValue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A filter compiled once per query.
+ *
+ * <p>Constants are converted to the types they are compared with when the filter is compiled, and each comparison is
+ * specialized for the type of its column, so matching a record neither converts constants nor allocates. Values of
+ * unexpected types, which are allowed in a column, fall back to the generic comparison with the same result as
+ * before.
+ *
+ * <p>The only per-record conversion left is a string value compared with a non-string constant, because the value
+ * itself has to be parsed.
+ */
+abstract class CompiledFilter {
+
+    abstract boolean test(Map<String, BaseValue> record);
+
+    /**
+     * Compile the filter for the schema.
+     *
+     * @throws IllegalArgumentException if the filter is invalid
+     */
+    static CompiledFilter compile(TableQueryFilter filter, TableSchema schema) {
+        var operands = filter.getOperands();
+        switch (filter.getOperator()) {
+            case NOT:
+                CompiledFilter.checkOperandCount(filter, 1, 1);
+                return new Not(CompiledFilter.compile(CompiledFilter.getFilter(operands.get(0)), schema));
+            case AND:
+                CompiledFilter.checkOperandCount(filter, 0, Integer.MAX_VALUE);
+                return new And(CompiledFilter.compileAll(operands, schema));
+            case OR:
+                CompiledFilter.checkOperandCount(filter, 0, Integer.MAX_VALUE);
+                return new Or(CompiledFilter.compileAll(operands, schema));
+            case EQUAL:
+            case LESS:
+            case LESS_EQUAL:
+            case GREATER:
+            case GREATER_EQUAL:
+                CompiledFilter.checkOperandCount(filter, 2, 2);
+                return CompiledFilter.compileComparison(filter.getOperator(), operands.get(0), operands.get(1),
+                        schema);
+            case IN:
+                CompiledFilter.checkOperandCount(filter, 2, Integer.MAX_VALUE);
+                return In.compile(CompiledFilter.getColumnName(operands.get(0)),
+                        operands.subList(1, operands.size()),
+                        schema);
+            case LIKE:
+                CompiledFilter.checkOperandCount(filter, 2, 2);
+                if (!(operands.get(1) instanceof TableQueryFilter.Constant)
+                        || !(((TableQueryFilter.Constant) operands.get(1)).getValue() instanceof String)) {
+                    throw new IllegalArgumentException("the pattern of LIKE should be a string constant");
+                }
+                return new Like(CompiledFilter.getColumnName(operands.get(0)),
+                        (String) ((TableQueryFilter.Constant) operands.get(1)).getValue());
+            case IS_NULL:
+                CompiledFilter.checkOperandCount(filter, 1, 1);
+                return new IsNull(CompiledFilter.getColumnName(operands.get(0)));
+            default:
+                throw new IllegalArgumentException("Unexpected operator: " + filter.getOperator());
+        }
+    }
+
+    /**
+     * Add the names of all columns used by the filter to the set.
+     */
+    static void collectColumns(TableQueryFilter filter, Set<String> columns) {
+        if (filter.getOperands() == null) {
+            return;
+        }
+        for (var operand : filter.getOperands()) {
+            if (operand instanceof TableQueryFilter) {
+                CompiledFilter.collectColumns((TableQueryFilter) operand, columns);
+            } else if (operand instanceof TableQueryFilter.Column) {
+                columns.add(((TableQueryFilter.Column) operand).getName());
+            }
+        }
+    }
+
+    private static void checkOperandCount(TableQueryFilter filter, int min, int max) {
+        var operands = filter.getOperands();
+        if (operands == null || operands.size() < min || operands.size() > max) {
+            throw new IllegalArgumentException("invalid operand count for operator " + filter.getOperator());
+        }
+    }
+
+    private static CompiledFilter[] compileAll(List<Object> operands, TableSchema schema) {
+        var ret = new CompiledFilter[operands.size()];
+        for (int i = 0; i < ret.length; ++i) {
+            ret[i] = CompiledFilter.compile(CompiledFilter.getFilter(operands.get(i)), schema);
+        }
+        return ret;
+    }
+
+    private static TableQueryFilter getFilter(Object operand) {
+        if (!(operand instanceof TableQueryFilter)) {
+            throw new IllegalArgumentException("invalid operand " + operand + ", a filter is expected");
+        }
+        return (TableQueryFilter) operand;
+    }
+
+    private static String getColumnName(Object operand) {
+        if (!(operand instanceof TableQueryFilter.Column)) {
+            throw new IllegalArgumentException("invalid operand " + operand + ", a column is expected");
+        }
+        return ((TableQueryFilter.Column) operand).getName();
+    }
+
+    private static BaseValue getConstant(Object operand) {
+        if (operand == null) {
+            return null;
+        }
+        if (!(operand instanceof TableQueryFilter.Constant)) {
+            throw new IllegalArgumentException("invalid operand " + operand + ", a constant is expected");
+        }
+        return BaseValue.valueOf(((TableQueryFilter.Constant) operand).getValue());
+    }
+
+    private static ColumnType getColumnType(String columnName, TableSchema schema) {
+        var columnSchema = schema.getColumnSchemaByName(columnName);
+        return columnSchema == null ? ColumnType.UNKNOWN : columnSchema.getType();
+    }
+
+    private static CompiledFilter compileComparison(Operator op, Object left, Object right, TableSchema schema) {
+        if (left instanceof TableQueryFilter.Column && !(right instanceof TableQueryFilter.Column)) {
+            var column = ((TableQueryFilter.Column) left).getName();
+            return ColumnComparison.create(column, op, CompiledFilter.getConstant(right), false,
+                    CompiledFilter.getColumnType(column, schema));
+        }
+        if (right instanceof TableQueryFilter.Column && !(left instanceof TableQueryFilter.Column)) {
+            var column = ((TableQueryFilter.Column) right).getName();
+            return ColumnComparison.create(column, op, CompiledFilter.getConstant(left), true,
+                    CompiledFilter.getColumnType(column, schema));
+        }
+        return new OperandComparison(op,
+                left instanceof TableQueryFilter.Column ? ((TableQueryFilter.Column) left).getName() : null,
+                left instanceof TableQueryFilter.Column ? null : CompiledFilter.getConstant(left),
+                right instanceof TableQueryFilter.Column ? ((TableQueryFilter.Column) right).getName() : null,
+                right instanceof TableQueryFilter.Column ? null : CompiledFilter.getConstant(right));
+    }
+
+    /**
+     * Get the literal prefix of a LIKE pattern, which all matching strings start with.
+     */
+    static String getLikePrefix(String pattern) {
+        return new Like("", pattern).prefix;
+    }
+
+    static boolean matches(Operator op, int result) {
+        switch (op) {
+            case EQUAL:
+                return result == 0;
+            case LESS:
+                return result < 0;
+            case LESS_EQUAL:
+                return result <= 0;
+            case GREATER:
+                return result > 0;
+            case GREATER_EQUAL:
+                return result >= 0;
+            default:
+                throw new IllegalArgumentException("Unexpected value: " + op);
+        }
+    }
+
+    /**
+     * Convert a string to the type of the other value if possible, so that "5" equals 5 and "true" equals true.
+     */
+    static BaseValue convertStringToOtherType(StringValue value, BaseValue other) {
+        var v = value.getValue();
+        if (other instanceof BoolValue) {
+            if (v.equalsIgnoreCase("true")) {
+                return BoolValue.TRUE;
+            }
+            if (v.equalsIgnoreCase("false")) {
+                return BoolValue.FALSE;
+            }
+        }
+        try {
+            if (other instanceof IntValue) {
+                return new Int64Value(Long.parseLong(v));
+            }
+            if (other instanceof FloatValue) {
+                return new Float64Value(Double.parseDouble(v));
+            }
+        } catch (NumberFormatException e) {
+            // just ignore it
+        }
+        return value;
+    }
+
+    private static class Not extends CompiledFilter {
+
+        private final CompiledFilter operand;
+
+        Not(CompiledFilter operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        boolean test(Map<String, BaseValue> record) {
+            return !this.operand.test(record);
+        }
+    }
+
+    private static class And extends CompiledFilter {
+
+        private final CompiledFilter[] operands;
+
+        And(CompiledFilter[] operands) {
+            this.operands = operands;
+        }
+
+        @Override
+        boolean test(Map<String, BaseValue> record) {
+            for (var operand : this.operands) {
+                if (!operand.test(record)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static class Or extends CompiledFilter {
+
+        private final CompiledFilter[] operands;
+
+        Or(CompiledFilter[] operands) {
+            this.operands = operands;
+        }
+
+        @Override
+        boolean test(Map<String, BaseValue> record) {
+            for (var operand : this.operands) {
+                if (operand.test(record)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static class IsNull extends CompiledFilter {
+
+        private final String column;
+
+        IsNull(String column) {
+            this.column = column;
+        }
+
+        @Override
+        boolean test(Map<String, BaseValue> record) {
+            return record.get(this.column) == null;
+        }
+    }
+
+    /**
+     * A comparison between two operands which are not a column and a constant, e.g. two columns.
+     */
+    private static class OperandComparison extends CompiledFilter {
+
+        private final Operator op;
+        private final String leftColumn;
+        private final BaseValue leftConstant;
+        private final String rightColumn;
+        private final BaseValue rightConstant;
+
+        OperandComparison(Operator op,
+                String leftColumn,
+                BaseValue leftConstant,
+                String rightColumn,
+                BaseValue rightConstant) {
+            this.op = op;
+            this.leftColumn = leftColumn;
+            this.leftConstant = leftConstant;
+            this.rightColumn = rightColumn;
+            this.rightConstant = rightConstant;
+        }
+
+        @Override
+        boolean test(Map<String, BaseValue> record) {
+            var v1 = this.leftColumn == null ? this.leftConstant : record.get(this.leftColumn);
+            var v2 = this.rightColumn == null ? this.rightConstant : record.get(this.rightColumn);
+            if (v1 instanceof StringValue) {
+                v1 = CompiledFilter.convertStringToOtherType((StringValue) v1, v2);
+            } else if (v2 instanceof StringValue) {
+                v2 = CompiledFilter.convertStringToOtherType((StringValue) v2, v1);
+            }
+            return CompiledFilter.matches(this.op, BaseValue.compare(v1, v2));
+        }
+    }
+
+    /**
+     * A comparison between a column and a constant. This is the generic implementation which handles values of any
+     * type. The subclasses add fast paths for the type of the column.
+     */
+    private static class ColumnComparison extends CompiledFilter {
+
+        protected final String column;
+        protected final Operator op;
+        // true if the constant is the left operand
+        protected final boolean reversed;
+        private final BaseValue constant;
+        // the constant converted for values of each type if it is a string
+        private final BaseValue boolConstant;
+        private final BaseValue intConstant;
+        private final BaseValue floatConstant;
+
+        ColumnComparison(String column, Operator op, BaseValue constant, boolean reversed) {
+            this.column = column;
+            this.op = op;
+            this.reversed = reversed;
+            this.constant = constant;
+            this.boolConstant = ColumnComparison.convertConstant(constant, BoolValue.FALSE);
+            this.intConstant = ColumnComparison.convertConstant(constant, new Int64Value(0));
+            this.floatConstant = ColumnComparison.convertConstant(constant, new Float64Value(0));
+        }
+
+        static ColumnComparison create(String column,
+                Operator op,
+                BaseValue constant,
+                boolean reversed,
+                ColumnType columnType) {
+            switch (columnType) {
+                case INT8:
+                case INT16:
+                case INT32:
+                case INT64:
+                    var intConstant = ColumnComparison.convertConstant(constant, new Int64Value(0));
+                    if (intConstant instanceof IntValue) {
+                        return new IntComparison(column, op, constant, reversed, (IntValue) intConstant);
+                    }
+                    break;
+                case FLOAT32:
+                case FLOAT64:
+                    var floatConstant = ColumnComparison.convertConstant(constant, new Float64Value(0));
+                    if (floatConstant instanceof FloatValue) {
+                        return new FloatComparison(column, op, constant, reversed, (FloatValue) floatConstant);
+                    }
+                    break;
+                case STRING:
+                    if (constant instanceof StringValue) {
+                        return new StringComparison(column, op, constant, reversed);
+                    }
+                    break;
+                default:
+                    break;
+            }
+            return new ColumnComparison(column, op, constant, reversed);
+        }
+
+        static BaseValue convertConstant(BaseValue constant, BaseValue other) {
+            if (constant instanceof StringValue) {
+                return CompiledFilter.convertStringToOtherType((StringValue) constant, other);
+            }
+            return constant;
+        }
+
+        @Override
+        boolean test(Map<String, BaseValue> record) {
+            return CompiledFilter.matches(this.op, this.compare(record.get(this.column)));
+        }
+
+        protected int compare(BaseValue value) {
+            var c = this.constant;
+            if (value instanceof StringValue) {
+                value = CompiledFilter.convertStringToOtherType((StringValue) value, c);
+            } else if (c instanceof StringValue) {
+                if (value instanceof BoolValue) {
+                    c = this.boolConstant;
+                } else if (value instanceof IntValue) {
+                    c = this.intConstant;
+                } else if (value instanceof FloatValue) {
+                    c = this.floatConstant;
+                }
+            }
+            return this.reversed ? BaseValue.compare(c, value) : BaseValue.compare(value, c);
+        }
+
+        protected boolean matches(int result) {
+            return CompiledFilter.matches(this.op, this.reversed ? -result : result);
+        }
+    }
+
+    private static class IntComparison extends ColumnComparison {
+
+        private final long value;
+
+        IntComparison(String column, Operator op, BaseValue constant, boolean reversed, IntValue value) {
+            super(column, op, constant, reversed);
+            this.value = value.longValue();
+        }
+
+        @Override
+        boolean test(Map<String, BaseValue> record) {
+            var v = record.get(this.column);
+            if (v instanceof IntValue) {
+                return this.matches(Long.compare(((IntValue) v).longValue(), this.value));
+            }
+            return CompiledFilter.matches(this.op, this.compare(v));
+        }
+    }
+
+    private static class FloatComparison extends ColumnComparison {
+
+        private final double value;
+
+        FloatComparison(String column, Operator op, BaseValue constant, boolean reversed, FloatValue value) {
+            super(column, op, constant, reversed);
+            this.value = value.doubleValue();
+        }
+
+        @Override
+        boolean test(Map<String, BaseValue> record) {
+            var v = record.get(this.column);
+            if (v instanceof FloatValue) {
+                return this.matches(Double.compare(((FloatValue) v).doubleValue(), this.value));
+            }
+            return CompiledFilter.matches(this.op, this.compare(v));
+        }
+    }
+
+    private static class StringComparison extends ColumnComparison {
+
+        private final String value;
+
+        StringComparison(String column, Operator op, BaseValue constant, boolean reversed) {
+            super(column, op, constant, reversed);
+            this.value = ((StringValue) constant).getValue();
+        }
+
+        @Override
+        boolean test(Map<String, BaseValue> record) {
+            var v = record.get(this.column);
+            if (v instanceof StringValue) {
+                return this.matches(((StringValue) v).getValue().compareTo(this.value));
+            }
+            return CompiledFilter.matches(this.op, this.compare(v));
+        }
+    }
+
+    /**
+     * Check whether the value of a column equals any of the constants. The constants are kept in sorted arrays for
+     * values of int, float and string types, and are compared one by one for values of other types.
+     */
+    private static class In extends CompiledFilter {
+
+        private final String column;
+        private final ColumnComparison[] comparisons;
+        // null if the constants can not be matched by binary search for values of the type
+        private final long[] longs;
+        private final double[] doubles;
+        private final String[] strings;
+        private final boolean hasNull;
+
+        private In(String column,
+                ColumnComparison[] comparisons,
+                long[] longs,
+                double[] doubles,
+                String[] strings,
+                boolean hasNull) {
+            this.column = column;
+            this.comparisons = comparisons;
+            this.longs = longs;
+            this.doubles = doubles;
+            this.strings = strings;
+            this.hasNull = hasNull;
+        }
+
+        static In compile(String column, List<Object> operands, TableSchema schema) {
+            var columnType = CompiledFilter.getColumnType(column, schema);
+            var comparisons = new ColumnComparison[operands.size()];
+            var longs = new ArrayList<Long>();
+            var doubles = new ArrayList<Double>();
+            var strings = new ArrayList<String>();
+            boolean longsUsable = true;
+            boolean doublesUsable = true;
+            boolean stringsUsable = true;
+            boolean hasNull = false;
+            for (int i = 0; i < comparisons.length; ++i) {
+                var constant = CompiledFilter.getConstant(operands.get(i));
+                comparisons[i] = ColumnComparison.create(column, Operator.EQUAL, constant, false, columnType);
+                if (constant == null) {
+                    hasNull = true;
+                    continue;
+                }
+                // int and float values are compared with each other numerically with special rules, so give up the
+                // fast path if both types appear
+                var intConstant = ColumnComparison.convertConstant(constant, new Int64Value(0));
+                if (intConstant instanceof IntValue) {
+                    longs.add(((IntValue) intConstant).longValue());
+                } else if (intConstant instanceof FloatValue) {
+                    longsUsable = false;
+                }
+                var floatConstant = ColumnComparison.convertConstant(constant, new Float64Value(0));
+                if (floatConstant instanceof FloatValue) {
+                    doubles.add(((FloatValue) floatConstant).doubleValue());
+                } else if (floatConstant instanceof IntValue) {
+                    doublesUsable = false;
+                }
+                // a string value is converted to the type of a non-string constant before comparing
+                if (constant instanceof StringValue) {
+                    strings.add(((StringValue) constant).getValue());
+                } else {
+                    stringsUsable = false;
+                }
+            }
+            var sortedStrings = strings.toArray(new String[0]);
+            Arrays.sort(sortedStrings);
+            return new In(column,
+                    comparisons,
+                    longsUsable ? longs.stream().mapToLong(Long::longValue).sorted().toArray() : null,
+                    doublesUsable ? doubles.stream().mapToDouble(Double::doubleValue).sorted().toArray() : null,
+                    stringsUsable ? sortedStrings : null,
+                    hasNull);
+        }
+
+        @Override
+        boolean test(Map<String, BaseValue> record) {
+            var v = record.get(this.column);
+            if (v == null) {
+                return this.hasNull;
+            }
+            if (v instanceof IntValue && this.longs != null) {
+                return Arrays.binarySearch(this.longs, ((IntValue) v).longValue()) >= 0;
+            }
+            if (v instanceof FloatValue && this.doubles != null) {
+                return Arrays.binarySearch(this.doubles, ((FloatValue) v).doubleValue()) >= 0;
+            }
+            if (v instanceof StringValue && this.strings != null) {
+                return Arrays.binarySearch(this.strings, ((StringValue) v).getValue()) >= 0;
+            }
+            for (var comparison : this.comparisons) {
+                if (comparison.compare(v) == 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Match a string column against a SQL LIKE pattern, where '%' matches any sequence of characters and '_' matches
+     * any single character. A wildcard is escaped by '\'. Values which are not strings never match.
+     */
+    private static class Like extends CompiledFilter {
+
+        private final String column;
+        // the pattern with escapes removed
+        private final char[] pattern;
+        // true if the character at the same position of the pattern is a wildcard
+        private final boolean[] wildcards;
+        // the literal prefix before the first wildcard
+        private final String prefix;
+        // true if the pattern is a literal prefix followed by a single '%'
+        private final boolean prefixOnly;
+
+        Like(String column, String pattern) {
+            this.column = column;
+            var chars = new StringBuilder();
+            var wildcards = new ArrayList<Boolean>();
+            for (int i = 0; i < pattern.length(); ++i) {
+                char c = pattern.charAt(i);
+                if (c == '\\' && i + 1 < pattern.length()) {
+                    chars.append(pattern.charAt(++i));
+                    wildcards.add(false);
+                } else {
+                    chars.append(c);
+                    wildcards.add(c == '%' || c == '_');
+                }
+            }
+            this.pattern = chars.toString().toCharArray();
+            this.wildcards = new boolean[this.pattern.length];
+            for (int i = 0; i < this.wildcards.length; ++i) {
+                this.wildcards[i] = wildcards.get(i);
+            }
+            int prefixLength = wildcards.indexOf(true);
+            if (prefixLength < 0) {
+                prefixLength = this.pattern.length;
+            }
+            this.prefix = new String(this.pattern, 0, prefixLength);
+            this.prefixOnly = prefixLength == this.pattern.length - 1 && this.pattern[prefixLength] == '%';
+        }
+
+        @Override
+        boolean test(Map<String, BaseValue> record) {
+            var v = record.get(this.column);
+            if (!(v instanceof StringValue)) {
+                return false;
+            }
+            var s = ((StringValue) v).getValue();
+            if (!s.startsWith(this.prefix)) {
+                return false;
+            }
+            if (this.prefixOnly) {
+                return true;
+            }
+            return this.matchFrom(s, this.prefix.length());
+        }
+
+        private boolean matchFrom(String s, int start) {
+            // the classic greedy matching with backtracking to the last '%'
+            int i = start;
+            int p = start;
+            int starP = -1;
+            int starI = -1;
+            while (i < s.length()) {
+                if (p < this.pattern.length && this.wildcards[p] && this.pattern[p] == '%') {
+                    starP = p++;
+                    starI = i;
+                } else if (p < this.pattern.length
+                        && (this.wildcards[p] || this.pattern[p] == s.charAt(i))) {
+                    ++p;
+                    ++i;
+                } else if (starP >= 0) {
+                    p = starP + 1;
+                    i = ++starI;
+                } else {
+                    return false;
+                }
+            }
+            while (p < this.pattern.length && this.wildcards[p] && this.pattern[p] == '%') {
+                ++p;
+            }
+            return p == this.pattern.length;
+        }
+    }
+}
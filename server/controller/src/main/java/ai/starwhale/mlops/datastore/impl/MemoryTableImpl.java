@@ -16,12 +16,14 @@
 
 package ai.starwhale.mlops.datastore.impl;
 
+import ai.starwhale.mlops.datastore.CloseableIterator;
 import ai.starwhale.mlops.datastore.ColumnSchema;
 import ai.starwhale.mlops.datastore.ColumnStatistics;
 import ai.starwhale.mlops.datastore.ColumnType;
 import ai.starwhale.mlops.datastore.MemoryTable;
 import ai.starwhale.mlops.datastore.OrderByDesc;
 import ai.starwhale.mlops.datastore.ParquetConfig;
+import ai.starwhale.mlops.datastore.QueryCursor;
 import ai.starwhale.mlops.datastore.RecordResult;
 import ai.starwhale.mlops.datastore.TableMeta;
 import ai.starwhale.mlops.datastore.TableQueryFilter;
@@ -34,11 +36,7 @@ import ai.starwhale.mlops.datastore.parquet.SwReadSupport;
 import ai.starwhale.mlops.datastore.parquet.SwWriter;
 import ai.starwhale.mlops.datastore.type.BaseValue;
 import ai.starwhale.mlops.datastore.type.BoolValue;
-import ai.starwhale.mlops.datastore.type.Float64Value;
-import ai.starwhale.mlops.datastore.type.FloatValue;
 import ai.starwhale.mlops.datastore.type.Int64Value;
-import ai.starwhale.mlops.datastore.type.IntValue;
-import ai.starwhale.mlops.datastore.type.StringValue;
 import ai.starwhale.mlops.datastore.wal.WalManager;
 import ai.starwhale.mlops.exception.SwProcessException;
 import ai.starwhale.mlops.exception.SwProcessException.ErrorType;
@@ -48,25 +46,32 @@ import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.util.JsonFormat;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
+import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.NavigableMap;
-import java.util.Objects;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.TimeZone;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import lombok.Getter;
 import lombok.NonNull;
 import lombok.Setter;
@@ -76,10 +81,14 @@ import org.apache.hadoop.conf.Configuration;
 @Slf4j
 public class MemoryTableImpl implements MemoryTable {
 
-    private static final String REVISION_COLUMN_NAME = "^";
+    static final String REVISION_COLUMN_NAME = "^";
 
     static final String DELETED_FLAG_COLUMN_NAME = "-";
 
+    private static final String MANIFEST_NAME = "manifest";
+
+    private static final String DELTA_SUFFIX = ".delta";
+
     static final Pattern ATTRIBUTE_NAME_PATTERN = Pattern.compile("^[\\p{Alnum}_]+$");
 
     @Getter
@@ -92,9 +101,9 @@ public class MemoryTableImpl implements MemoryTable {
     private final ParquetConfig parquetConfig;
 
     @Getter
-    private TableSchema schema = new TableSchema();
+    private volatile TableSchema schema = new TableSchema();
 
-    private final Map<String, ColumnStatistics> statisticsMap = new HashMap<>();
+    private final Map<String, ColumnStatistics> statisticsMap = new ConcurrentHashMap<>();
 
     @Getter
     private volatile long firstWalLogId = -1;
@@ -110,25 +119,155 @@ public class MemoryTableImpl implements MemoryTable {
     @Setter
     private boolean useTimestampAsRevision = false; // unittest only
 
+    @Setter
+    private boolean autoIndex = true; // disabled by benchmarks only
+
     private static final long MIN_TIMESTAMP = 86400L * 1000 * 365 * 50;
     private static final long MAX_TIMESTAMP = 86400L * 1000 * 365 * 100;
 
-    private final TreeMap<BaseValue, List<MemoryRecord>> recordMap = new TreeMap<>();
+    private final RecordStore recordStore;
+
+    // the estimated heap size of all records, only updated by the writer
+    @Getter
+    private volatile long estimatedSize;
+
+    private final TableIndexes indexes = new TableIndexes();
 
     private final Lock lock = new ReentrantLock();
 
+    // the snapshot files written by this table, null if there is no manifest yet. only accessed by load and save
+    private TableMeta.SnapshotManifest manifest;
+
+    // false if the records are not loaded into the record store yet, queries go to the snapshot files in this case
+    private volatile boolean loaded;
+
+    // reads the snapshot files directly before the table is loaded
+    private SnapshotReader snapshotReader;
+
     public MemoryTableImpl(String tableName,
             WalManager walManager,
             StorageAccessService storageAccessService,
             String dataPathPrefix,
             ParquetConfig parquetConfig) {
+        this(tableName, walManager, storageAccessService, dataPathPrefix, parquetConfig, RecordLayout.ROW);
+    }
+
+    public MemoryTableImpl(String tableName,
+            WalManager walManager,
+            StorageAccessService storageAccessService,
+            String dataPathPrefix,
+            ParquetConfig parquetConfig,
+            RecordLayout recordLayout) {
+        this(tableName, walManager, storageAccessService, dataPathPrefix, parquetConfig, recordLayout, false);
+    }
+
+    /**
+     * @param lazy if true, the records are not loaded until the first write. Queries and scans before that read the
+     *             snapshot files directly.
+     */
+    public MemoryTableImpl(String tableName,
+            WalManager walManager,
+            StorageAccessService storageAccessService,
+            String dataPathPrefix,
+            ParquetConfig parquetConfig,
+            RecordLayout recordLayout,
+            boolean lazy) {
         this.tableName = tableName;
+        this.recordStore = recordLayout.createStore();
         this.walManager = walManager;
         this.storageAccessService = storageAccessService;
         this.parquetConfig = parquetConfig;
         this.dataPathPrefix = dataPathPrefix;
         this.dataPathSuffixFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+        if (!lazy || !this.openSnapshots()) {
+            this.load();
+            this.loaded = true;
+        }
+    }
+
+    /**
+     * Read the metadata of the current snapshot files without loading any record.
+     *
+     * @return false if the snapshot files can not be queried directly, e.g. they are written by an old version without
+     *     column statistics, and the table should be loaded instead
+     */
+    private boolean openSnapshots() {
+        List<String> paths;
+        try {
+            var files = this.storageAccessService.list(dataPathPrefix).collect(Collectors.toSet());
+            if (files.contains(this.getManifestPath())) {
+                this.manifest = this.readManifest();
+                paths = new ArrayList<>();
+                paths.add(this.manifest.getBase().getPath());
+                for (var delta : this.manifest.getDeltasList()) {
+                    paths.add(delta.getPath());
+                }
+            } else {
+                var path = files.stream()
+                        .filter(p -> !p.endsWith(DELTA_SUFFIX))
+                        .max(Comparator.naturalOrder())
+                        .orElse(null);
+                if (path == null) {
+                    // a new table
+                    this.loaded = true;
+                    return true;
+                }
+                paths = List.of(path);
+            }
+            // the last file has the latest schema and metadata
+            var footer = SwParquetReaderBuilder.readKeyValueMetaData(this.storageAccessService,
+                    paths.get(paths.size() - 1));
+            if (Boolean.parseBoolean(footer.get(SwReadSupport.ERROR_FLAG_KEY))
+                    || footer.get(SwReadSupport.SCHEMA_KEY) == null
+                    || footer.get(SwReadSupport.META_DATA_KEY) == null) {
+                return false;
+            }
+            var metaBuilder = TableMeta.MetaData.newBuilder();
+            JsonFormat.parser().merge(footer.get(SwReadSupport.META_DATA_KEY), metaBuilder);
+            var metadata = metaBuilder.build();
+            if (metadata.getStatisticsCount() == 0) {
+                return false;
+            }
+            var schema = TableSchema.fromJsonString(footer.get(SwReadSupport.SCHEMA_KEY));
+            var keyColumn = schema.getKeyColumn();
+            metadata.getStatisticsMap().forEach((k, v) -> this.statisticsMap.put(k, ColumnStatistics.fromProto(v)));
+            // the key range is pushed down to the parquet reader only if all keys are of the same type, otherwise the
+            // order of keys in the file is not the order of their physical values. parquet filters take dot separated
+            // column paths, so keys with dots in their names are compared in the memory as well
+            ColumnType keyType = null;
+            var keyStatistics = this.statisticsMap.get(keyColumn);
+            if (keyStatistics != null && keyStatistics.getColumnTypeCounter().size() == 1 && !keyColumn.contains(".")) {
+                keyType = keyStatistics.getColumnTypeCounter().keySet().iterator().next();
+            }
+            this.schema = schema;
+            this.lastWalLogId = metadata.getLastWalLogId();
+            this.lastUpdateTime = metadata.getLastUpdateTime();
+            this.lastRevision = metadata.getLastRevision();
+            this.snapshotReader = new SnapshotReader(this.storageAccessService,
+                    paths,
+                    keyColumn,
+                    keyType,
+                    this::normalizeRevision);
+            return true;
+        } catch (RuntimeException | IOException e) {
+            log.warn("fail to open snapshots of table {}, load it instead", this.tableName, e);
+            this.manifest = null;
+            this.statisticsMap.clear();
+            return false;
+        }
+    }
+
+    /**
+     * Load the records into the record store before the first write. The table lock should be held by the caller.
+     */
+    private void ensureLoaded() {
+        if (this.loaded) {
+            return;
+        }
+        // the statistics are rebuilt from the records
+        this.statisticsMap.clear();
         this.load();
+        this.loaded = true;
     }
 
     private void load() {
@@ -138,58 +277,115 @@ public class MemoryTableImpl implements MemoryTable {
         } catch (IOException e) {
             throw new SwProcessException(ErrorType.DATASTORE, "failed to load " + this.tableName, e);
         }
-
-        while (!paths.isEmpty()) {
-            var path = paths.stream().max(Comparator.naturalOrder()).orElse(null);
+        TableMeta.MetaData metadata = null;
+        if (paths.contains(this.getManifestPath())) {
             try {
-                var conf = new Configuration();
-                try (var reader = new SwParquetReaderBuilder(this.storageAccessService, path).withConf(conf).build()) {
-                    for (; ; ) {
-                        var record = reader.read();
-                        if (this.schema.getKeyColumn() == null) {
-                            this.schema = TableSchema.fromJsonString(conf.get(SwReadSupport.SCHEMA_KEY));
-                            var metaBuilder = TableMeta.MetaData.newBuilder();
-                            try {
-                                JsonFormat.parser().merge(conf.get(SwReadSupport.META_DATA_KEY), metaBuilder);
-                            } catch (InvalidProtocolBufferException e) {
-                                throw new SwProcessException(ErrorType.DATASTORE, "failed to parse metadata", e);
-                            }
-                            var metadata = metaBuilder.build();
-                            this.lastWalLogId = metadata.getLastWalLogId();
-                            this.lastUpdateTime = metadata.getLastUpdateTime();
-                            this.lastRevision = metadata.getLastRevision();
-                        }
-                        if (record == null) {
-                            break;
-                        }
-                        var key = record.remove(this.schema.getKeyColumn());
-                        this.statisticsMap.computeIfAbsent(this.schema.getKeyColumn(), k -> new ColumnStatistics())
-                                .update(key);
-                        var revision = (Int64Value) record.remove(REVISION_COLUMN_NAME);
-                        var deletedFlag = (BoolValue) record.remove(DELETED_FLAG_COLUMN_NAME);
-                        this.recordMap.computeIfAbsent(key, k -> new ArrayList<>())
-                                .add(MemoryRecord.builder()
-                                        .revision(this.normalizeRevision(revision.getValue()))
-                                        .deleted(deletedFlag.isValue())
-                                        .values(record)
-                                        .build());
-                        for (var entry : record.entrySet()) {
-                            this.statisticsMap.computeIfAbsent(entry.getKey(), k -> new ColumnStatistics())
-                                    .update(entry.getValue());
-                        }
-                    }
+                this.manifest = this.readManifest();
+                metadata = this.loadSnapshotFile(this.manifest.getBase().getPath());
+                for (var delta : this.manifest.getDeltasList()) {
+                    metadata = this.loadSnapshotFile(delta.getPath());
                 }
-                break;
-            } catch (SwValidationException e) {
-                log.warn("fail to load table:{} with path:{}, because it is invalid, try to load previous file again.",
-                        this.tableName, path);
-                paths.remove(path);
             } catch (RuntimeException | IOException e) {
                 throw new SwProcessException(ErrorType.DATASTORE, "failed to load " + this.tableName, e);
             }
+        } else {
+            // snapshots written before manifests were introduced, each of them is a full snapshot
+            paths.removeIf(path -> path.endsWith(DELTA_SUFFIX));
+            while (!paths.isEmpty()) {
+                var path = paths.stream().max(Comparator.naturalOrder()).orElse(null);
+                try {
+                    metadata = this.loadSnapshotFile(path);
+                    break;
+                } catch (SwValidationException e) {
+                    log.warn("fail to load table:{} with path:{}, because it is invalid, "
+                                    + "try to load previous file again.",
+                            this.tableName, path);
+                    paths.remove(path);
+                } catch (RuntimeException | IOException e) {
+                    throw new SwProcessException(ErrorType.DATASTORE, "failed to load " + this.tableName, e);
+                }
+            }
+        }
+        if (metadata != null) {
+            // records loaded from the snapshot do not go through insertRecords, so indexes are built after loading
+            for (var indexDesc : metadata.getIndexesList()) {
+                this.indexes.build(indexDesc.getColumnName(), indexDesc.getOrdered(), this.recordStore);
+            }
+        }
+    }
+
+    /**
+     * Append all records in the snapshot file to the record store. The schema and the metadata of the table are
+     * replaced by the ones in the file.
+     *
+     * @return the metadata in the file
+     */
+    private TableMeta.MetaData loadSnapshotFile(String path) throws IOException {
+        var conf = new Configuration();
+        TableMeta.MetaData metadata = null;
+        try (var reader = new SwParquetReaderBuilder(this.storageAccessService, path).withConf(conf).build()) {
+            for (; ; ) {
+                var record = reader.read();
+                if (metadata == null) {
+                    this.schema = TableSchema.fromJsonString(conf.get(SwReadSupport.SCHEMA_KEY));
+                    var metaBuilder = TableMeta.MetaData.newBuilder();
+                    try {
+                        JsonFormat.parser().merge(conf.get(SwReadSupport.META_DATA_KEY), metaBuilder);
+                    } catch (InvalidProtocolBufferException e) {
+                        throw new SwProcessException(ErrorType.DATASTORE, "failed to parse metadata", e);
+                    }
+                    metadata = metaBuilder.build();
+                    this.lastWalLogId = metadata.getLastWalLogId();
+                    this.lastUpdateTime = metadata.getLastUpdateTime();
+                    this.lastRevision = metadata.getLastRevision();
+                }
+                if (record == null) {
+                    break;
+                }
+                var key = record.remove(this.schema.getKeyColumn());
+                this.updateStatistics(this.schema.getKeyColumn(), key);
+                var revision = (Int64Value) record.remove(REVISION_COLUMN_NAME);
+                var deletedFlag = (BoolValue) record.remove(DELETED_FLAG_COLUMN_NAME);
+                var memoryRecord = MemoryRecord.builder()
+                        .revision(this.normalizeRevision(revision.getValue()))
+                        .deleted(deletedFlag.isValue())
+                        .values(record)
+                        .build();
+                this.recordStore.append(key, memoryRecord);
+                this.estimatedSize += MemoryTableImpl.estimateRecordSize(key, memoryRecord);
+                for (var entry : record.entrySet()) {
+                    this.updateStatistics(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        return metadata;
+    }
+
+    private String getManifestPath() {
+        return this.dataPathPrefix + MANIFEST_NAME;
+    }
+
+    private TableMeta.SnapshotManifest readManifest() throws IOException {
+        try (var in = this.storageAccessService.get(this.getManifestPath())) {
+            return TableMeta.SnapshotManifest.parseFrom(in.readAllBytes());
         }
     }
 
+    /**
+     * Check whether the next snapshot should be a full one which replaces the current base and deltas.
+     */
+    private boolean isCompactionDue(TableMeta.SnapshotManifest manifest) {
+        if (manifest.getDeltasCount() >= this.parquetConfig.getMaxDeltaCount()) {
+            return true;
+        }
+        long deltaRows = 0;
+        for (var delta : manifest.getDeltasList()) {
+            deltaRows += delta.getRowCount();
+        }
+        return deltaRows > 0
+                && deltaRows >= manifest.getBase().getRowCount() * this.parquetConfig.getDeltaCompactionRatio();
+    }
+
     @Override
     public void save() throws IOException {
         String metadata;
@@ -198,14 +394,32 @@ public class MemoryTableImpl implements MemoryTable {
         var lastRevision = this.lastRevision;
         var firstWalLogId = this.firstWalLogId;
         this.firstWalLogId = -1;
+        var manifest = this.manifest;
+        // a delta only contains versions newer than the previous snapshot
+        var full = manifest == null || this.isCompactionDue(manifest);
+        long minRevision;
+        if (full) {
+            minRevision = Long.MIN_VALUE;
+        } else if (manifest.getDeltasCount() == 0) {
+            minRevision = manifest.getBase().getLastRevision();
+        } else {
+            minRevision = manifest.getDeltas(manifest.getDeltasCount() - 1).getLastRevision();
+        }
+        var rowCount = new AtomicLong();
         try {
             try {
                 try {
-                    metadata = JsonFormat.printer().print(TableMeta.MetaData.newBuilder()
+                    var metaBuilder = TableMeta.MetaData.newBuilder()
                             .setLastWalLogId(this.lastWalLogId)
                             .setLastUpdateTime(this.lastUpdateTime)
-                            .setLastRevision(this.lastRevision)
-                            .build());
+                            .setLastRevision(this.lastRevision);
+                    for (var index : this.indexes.getIndexes()) {
+                        metaBuilder.addIndexes(TableMeta.IndexDesc.newBuilder()
+                                .setColumnName(index.getColumnName())
+                                .setOrdered(index.isOrdered()));
+                    }
+                    this.statisticsMap.forEach((name, stats) -> metaBuilder.putStatistics(name, stats.toProto()));
+                    metadata = JsonFormat.printer().print(metaBuilder.build());
                 } catch (InvalidProtocolBufferException e) {
                     throw new SwProcessException(ErrorType.DATASTORE, "failed to print table meta", e);
                 }
@@ -223,7 +437,7 @@ public class MemoryTableImpl implements MemoryTable {
                 this.unlock();
             }
             var currentSnapshots = this.storageAccessService.list(this.dataPathPrefix).collect(Collectors.toList());
-            var path = this.dataPathPrefix + this.dataPathSuffixFormat.format(new Date());
+            var path = this.dataPathPrefix + this.dataPathSuffixFormat.format(new Date()) + (full ? "" : DELTA_SUFFIX);
             SwWriter.writeWithBuilder(
                     new SwParquetWriterBuilder(this.storageAccessService,
                             columnSchema,
@@ -257,44 +471,68 @@ public class MemoryTableImpl implements MemoryTable {
                         private void getNext() {
                             MemoryTableImpl.this.lock();
                             try {
-                                NavigableMap<BaseValue, List<MemoryRecord>> target;
-                                if (this.lastKey == null) {
-                                    target = MemoryTableImpl.this.recordMap;
-                                } else {
-                                    target = MemoryTableImpl.this.recordMap.tailMap(this.lastKey, false);
-                                }
-                                int count = 0;
-                                for (var entry : target.entrySet()) {
-                                    this.lastKey = entry.getKey();
-                                    for (var record : entry.getValue()) {
-                                        if (record.getRevision() > lastRevision) {
-                                            break;
-                                        }
-                                        var recordMap = new HashMap<String, BaseValue>();
-                                        if (record.getValues() != null) {
-                                            recordMap.putAll(record.getValues());
-                                        }
-                                        recordMap.put(MemoryTableImpl.this.schema.getKeyColumn(), entry.getKey());
-                                        recordMap.put(REVISION_COLUMN_NAME, new Int64Value(record.getRevision()));
-                                        recordMap.put(DELETED_FLAG_COLUMN_NAME, BaseValue.valueOf(record.isDeleted()));
-                                        this.candidates.add(recordMap);
-                                    }
-                                    if (++count == 1000) {
+                                // keep going until there are candidates, all versions of the visited keys may be
+                                // newer than lastRevision
+                                while (this.candidates.isEmpty()) {
+                                    var last = MemoryTableImpl.this.recordStore.dump(this.lastKey,
+                                            1000,
+                                            lastRevision,
+                                            (key, record) -> {
+                                                if (record.getRevision() <= minRevision) {
+                                                    return;
+                                                }
+                                                rowCount.incrementAndGet();
+                                                var recordMap = new HashMap<String, BaseValue>();
+                                                if (record.getValues() != null) {
+                                                    recordMap.putAll(record.getValues());
+                                                }
+                                                recordMap.put(MemoryTableImpl.this.schema.getKeyColumn(), key);
+                                                recordMap.put(REVISION_COLUMN_NAME,
+                                                        new Int64Value(record.getRevision()));
+                                                recordMap.put(DELETED_FLAG_COLUMN_NAME,
+                                                        BaseValue.valueOf(record.isDeleted()));
+                                                this.candidates.add(recordMap);
+                                            });
+                                    if (last == null) {
                                         break;
                                     }
+                                    this.lastKey = last;
                                 }
                             } finally {
                                 MemoryTableImpl.this.unlock();
                             }
                         }
                     });
-            for (var snapshot : currentSnapshots) {
-                try {
-                    if (!snapshot.equals(path)) {
+            var file = TableMeta.SnapshotFile.newBuilder()
+                    .setPath(path)
+                    .setLastRevision(lastRevision)
+                    .setRowCount(rowCount.get())
+                    .build();
+            TableMeta.SnapshotManifest newManifest;
+            if (full) {
+                newManifest = TableMeta.SnapshotManifest.newBuilder().setBase(file).build();
+            } else {
+                newManifest = manifest.toBuilder().addDeltas(file).build();
+            }
+            // the new file takes effect once the manifest is written
+            this.storageAccessService.put(this.getManifestPath(), newManifest.toByteArray());
+            this.manifest = newManifest;
+            if (full) {
+                // also removes deltas left by failed saves
+                for (var snapshot : currentSnapshots) {
+                    if (snapshot.equals(path) || snapshot.equals(this.getManifestPath())) {
+                        continue;
+                    }
+                    if (this.snapshotReader != null && this.snapshotReader.getPaths().contains(snapshot)) {
+                        // queries started before the table was loaded may still be reading it
+                        this.snapshotReader.deleteWhenClosed(snapshot);
+                        continue;
+                    }
+                    try {
                         this.storageAccessService.delete(snapshot);
+                    } catch (IOException e) {
+                        log.warn("fail to delete {}", snapshot, e);
                     }
-                } catch (IOException e) {
-                    log.warn("fail to delete {}", snapshot, e);
                 }
             }
         } catch (Throwable e) {
@@ -319,8 +557,11 @@ public class MemoryTableImpl implements MemoryTable {
         if (entry.getId() <= this.lastWalLogId) {
             return;
         }
+        this.ensureLoaded();
         if (entry.hasTableSchema()) {
-            this.schema.update(entry.getTableSchema());
+            var schema = new TableSchema(this.schema);
+            schema.update(entry.getTableSchema());
+            this.schema = schema;
         }
         var recordList = entry.getRecordsList();
         if (!recordList.isEmpty()) {
@@ -337,155 +578,268 @@ public class MemoryTableImpl implements MemoryTable {
 
     @Override
     public long update(TableSchemaDesc schema, @NonNull List<Map<String, Object>> records) {
+        var keyColumn = this.getKeyColumn(schema);
         var decodedRecords = new ArrayList<Map<String, BaseValue>>();
-        String keyColumn;
-        if (schema.getKeyColumn() == null) {
-            if (this.schema.getKeyColumn() == null) {
+        for (var record : records) {
+            Map<String, BaseValue> decodedRecord;
+            try {
+                decodedRecord = RecordDecoder.decodeRecord(schema, record);
+            } catch (Exception e) {
                 throw new SwValidationException(SwValidationException.ValidSubject.DATASTORE,
-                        "no key column in schema " + schema);
+                        "failed to decode record " + record, e);
             }
-            keyColumn = this.schema.getKeyColumn();
-        } else {
-            keyColumn = schema.getKeyColumn();
+            MemoryTableImpl.checkKey(keyColumn, decodedRecord, record);
+            decodedRecords.add(decodedRecord);
+        }
+        return this.update(schema, decodedRecords, null, null);
+    }
+
+    @Override
+    public long ingest(@NonNull TableSchema schema, @NonNull List<Wal.Record> records) {
+        if (schema.getColumnSchemaList().contains(null)) {
+            throw new SwValidationException(SwValidationException.ValidSubject.DATASTORE,
+                    "column indexes are not continuous in schema " + schema);
         }
+        var schemaDesc = schema.toTableSchemaDesc();
+        var keyColumn = this.getKeyColumn(schemaDesc);
+        var decodedRecords = new ArrayList<Map<String, BaseValue>>(records.size());
         for (var record : records) {
             Map<String, BaseValue> decodedRecord;
             try {
-                decodedRecord = RecordDecoder.decodeRecord(schema, record);
+                decodedRecord = WalRecordDecoder.decodeRecord(schema, record);
             } catch (Exception e) {
                 throw new SwValidationException(SwValidationException.ValidSubject.DATASTORE,
                         "failed to decode record " + record, e);
             }
-            var key = decodedRecord.get(keyColumn);
-            if (key == null) {
-                throw new SwValidationException(SwValidationException.ValidSubject.DATASTORE,
-                        "no key column in record " + record);
+            MemoryTableImpl.checkKey(keyColumn, decodedRecord, record);
+            decodedRecords.add(decodedRecord);
+        }
+        return this.update(schemaDesc, decodedRecords, schema, records);
+    }
+
+    private String getKeyColumn(TableSchemaDesc schema) {
+        if (schema.getKeyColumn() != null) {
+            return schema.getKeyColumn();
+        }
+        if (this.schema.getKeyColumn() == null) {
+            throw new SwValidationException(SwValidationException.ValidSubject.DATASTORE,
+                    "no key column in schema " + schema);
+        }
+        return this.schema.getKeyColumn();
+    }
+
+    private static void checkKey(String keyColumn, Map<String, BaseValue> decodedRecord, Object record) {
+        var key = decodedRecord.get(keyColumn);
+        if (key == null) {
+            throw new SwValidationException(SwValidationException.ValidSubject.DATASTORE,
+                    "no key column in record " + record);
+        }
+        if (key instanceof List || key instanceof Map) {
+            throw new SwValidationException(SwValidationException.ValidSubject.DATASTORE,
+                    "invalid key type " + key.getClass() + ". record: " + record);
+        }
+    }
+
+    /**
+     * @param walSchema  the schema of walRecords, or null
+     * @param walRecords the records already encoded in the WAL format, they are put into the WAL entry with the
+     *                   column indexes rewritten instead of being encoded again from decodedRecords, unless the
+     *                   types of their columns differ from the table schema
+     */
+    private long update(TableSchemaDesc schema,
+            List<Map<String, BaseValue>> decodedRecords,
+            TableSchema walSchema,
+            List<Wal.Record> walRecords) {
+        // readers never take the lock, it only serializes writers
+        this.lock();
+        try {
+            this.ensureLoaded();
+            var revision = this.useTimestampAsRevision ? System.currentTimeMillis() : this.lastRevision + 1;
+            var logEntryBuilder = Wal.WalEntry.newBuilder()
+                    .setEntryType(Wal.WalEntry.Type.UPDATE)
+                    .setTableName(this.tableName)
+                    .setRevision(revision);
+            var logSchemaBuilder = this.schema.getDiff(schema);
+            if (logSchemaBuilder != null) {
+                logEntryBuilder.setTableSchema(logSchemaBuilder);
             }
-            if (key instanceof List || key instanceof Map) {
-                throw new SwValidationException(SwValidationException.ValidSubject.DATASTORE,
-                        "invalid key type " + key.getClass() + ". record: " + record);
+            TableSchema recordSchema;
+            if (logSchemaBuilder == null) {
+                recordSchema = this.schema;
+            } else {
+                recordSchema = new TableSchema(this.schema);
+                recordSchema.update(logSchemaBuilder.build());
             }
-            decodedRecords.add(decodedRecord);
+            var columnIndexes = walSchema == null ? null : MemoryTableImpl.mapColumnIndexes(walSchema, recordSchema);
+            for (int i = 0; i < decodedRecords.size(); ++i) {
+                if (columnIndexes != null && MemoryTableImpl.addWalRecord(logEntryBuilder,
+                        walRecords.get(i),
+                        columnIndexes)) {
+                    continue;
+                }
+                logEntryBuilder.addRecords(WalRecordEncoder.encodeRecord(recordSchema, decodedRecords.get(i)));
+            }
+            this.lastWalLogId = this.walManager.append(logEntryBuilder);
+            if (this.firstWalLogId < 0) {
+                this.firstWalLogId = this.lastWalLogId;
+            }
+            this.lastUpdateTime = System.currentTimeMillis();
+            this.schema = recordSchema;
+            if (!decodedRecords.isEmpty()) {
+                this.insertRecords(revision, decodedRecords);
+            }
+            return revision;
+        } finally {
+            this.unlock();
         }
-        var revision = this.useTimestampAsRevision ? System.currentTimeMillis() : this.lastRevision + 1;
-        var logEntryBuilder = Wal.WalEntry.newBuilder()
-                .setEntryType(Wal.WalEntry.Type.UPDATE)
-                .setTableName(this.tableName)
-                .setRevision(revision);
-        var logSchemaBuilder = this.schema.getDiff(schema);
-        if (logSchemaBuilder != null) {
-            logEntryBuilder.setTableSchema(logSchemaBuilder);
-        }
-        TableSchema recordSchema;
-        if (logSchemaBuilder == null) {
-            recordSchema = this.schema;
-        } else {
-            recordSchema = new TableSchema(this.schema);
-            recordSchema.update(logSchemaBuilder.build());
+    }
+
+    /**
+     * @return the index in the target schema of each column in the source schema, or -1 if the column types differ
+     */
+    private static int[] mapColumnIndexes(TableSchema source, TableSchema target) {
+        var columns = source.getColumnSchemaList();
+        var ret = new int[columns.size()];
+        for (int i = 0; i < ret.length; ++i) {
+            var col = target.getColumnSchemaByName(columns.get(i).getName());
+            ret[i] = col != null && col.isSameType(columns.get(i)) ? col.getIndex() : -1;
         }
-        for (var record : decodedRecords) {
-            logEntryBuilder.addRecords(WalRecordEncoder.encodeRecord(recordSchema, record));
+        return ret;
+    }
+
+    private static boolean addWalRecord(Wal.WalEntry.Builder builder, Wal.Record record, int[] columnIndexes) {
+        var sameIndexes = true;
+        for (var col : record.getColumnsList()) {
+            // negative indexes are deleted flags
+            if (col.getIndex() >= 0) {
+                var index = columnIndexes[col.getIndex()];
+                if (index < 0) {
+                    return false;
+                }
+                sameIndexes = sameIndexes && index == col.getIndex();
+            }
         }
-        this.lastWalLogId = this.walManager.append(logEntryBuilder);
-        if (this.firstWalLogId < 0) {
-            this.firstWalLogId = this.lastWalLogId;
+        if (sameIndexes) {
+            builder.addRecords(record);
+            return true;
         }
-        this.lastUpdateTime = System.currentTimeMillis();
-        this.schema = recordSchema;
-        if (!decodedRecords.isEmpty()) {
-            this.insertRecords(revision, decodedRecords);
+        var ret = record.toBuilder();
+        for (var col : ret.getColumnsBuilderList()) {
+            if (col.getIndex() >= 0) {
+                col.setIndex(columnIndexes[col.getIndex()]);
+            }
         }
-        return revision;
+        builder.addRecords(ret);
+        return true;
     }
 
     private long normalizeRevision(long revision) {
         return revision >= MIN_TIMESTAMP && !this.useTimestampAsRevision ? revision - MAX_TIMESTAMP : revision;
     }
 
+    /**
+     * Readers do not lock the table. Versions newer than the last published revision may belong to an update that is
+     * still in progress, so they are never visible.
+     */
+    private long getSnapshotRevision(long revision) {
+        return Math.min(this.normalizeRevision(revision), this.lastRevision);
+    }
+
     private void insertRecords(long revision, List<Map<String, BaseValue>> records) {
         revision = this.normalizeRevision(revision);
-        if (revision > this.lastRevision) {
-            this.lastRevision = revision;
-        }
         for (var record : records) {
             var newRecord = new HashMap<>(record);
             var key = newRecord.remove(this.schema.getKeyColumn());
-            this.statisticsMap.computeIfAbsent(this.schema.getKeyColumn(), k -> new ColumnStatistics()).update(key);
+            this.updateStatistics(this.schema.getKeyColumn(), key);
             var deletedFlag = newRecord.remove(DELETED_FLAG_COLUMN_NAME) != null;
-            var versions = this.recordMap.computeIfAbsent(key, k -> new ArrayList<>());
             if (deletedFlag) {
-                if (versions.isEmpty() || !versions.get(versions.size() - 1).isDeleted()) {
-                    versions.add(MemoryRecord.builder()
+                var latest = this.recordStore.get(key, Long.MAX_VALUE);
+                if (latest == null || !latest.isDeleted()) {
+                    var memoryRecord = MemoryRecord.builder()
                             .revision(revision)
                             .deleted(true)
-                            .build());
+                            .build();
+                    this.recordStore.append(key, memoryRecord);
+                    this.estimatedSize += MemoryTableImpl.estimateRecordSize(key, memoryRecord);
+                    this.indexes.append(key, latest, memoryRecord);
                 }
             } else {
-                var old = this.getRecordMap(key, versions, revision);
-                if (old != null) {
+                var old = this.recordStore.get(key, revision);
+                if (old != null && !old.isDeleted()) {
+                    var oldValues = old.getValues();
                     for (var it = newRecord.entrySet().iterator(); it.hasNext(); ) {
                         var entry = it.next();
-                        if (old.containsKey(entry.getKey())) {
-                            var oldValue = old.get(entry.getKey());
+                        if (oldValues.containsKey(entry.getKey())) {
+                            var oldValue = oldValues.get(entry.getKey());
                             if (BaseValue.compare(oldValue, entry.getValue()) == 0) {
                                 it.remove();
                             }
                         }
                     }
                 }
-                if (versions.isEmpty() || !newRecord.isEmpty()) {
-                    versions.add(MemoryRecord.builder()
+                if (!newRecord.isEmpty() || (old == null && this.recordStore.get(key, Long.MAX_VALUE) == null)) {
+                    // the indexes hold the latest versions, which may be newer than this one if revisions are
+                    // timestamps
+                    var latest = revision >= this.lastRevision ? old : this.recordStore.get(key, Long.MAX_VALUE);
+                    var memoryRecord = MemoryRecord.builder()
                             .revision(revision)
                             .values(newRecord)
-                            .build());
+                            .build();
+                    this.recordStore.append(key, memoryRecord);
+                    this.estimatedSize += MemoryTableImpl.estimateRecordSize(key, memoryRecord);
+                    this.indexes.append(key, latest, memoryRecord);
                 }
                 for (var entry : newRecord.entrySet()) {
-                    this.statisticsMap.computeIfAbsent(entry.getKey(), k -> new ColumnStatistics())
-                            .update(entry.getValue());
+                    this.updateStatistics(entry.getKey(), entry.getValue());
                 }
             }
         }
+        // publish the revision after all records are inserted, so that readers never see a partial update
+        if (revision > this.lastRevision) {
+            this.lastRevision = revision;
+        }
+        this.indexes.publish();
     }
 
-
-    private Map<String, BaseValue> getRecordMap(BaseValue key, List<MemoryRecord> versions, long revision) {
-        revision = this.normalizeRevision(revision);
-        var ret = new HashMap<String, BaseValue>();
-        boolean deleted = false;
-        boolean hasVersion = false;
-        for (var record : versions) {
-            if (record.getRevision() <= revision) {
-                // record may be empty, use hasVersion to mark if there is a record
-                hasVersion = true;
-                if (record.isDeleted()) {
-                    deleted = true;
-                    ret.clear();
-                } else {
-                    deleted = false;
-                    ret.putAll(record.getValues());
-                }
+    private static long estimateRecordSize(BaseValue key, MemoryRecord record) {
+        // the entry in the record store and the record itself
+        long ret = 80 + BaseValue.estimateSize(key);
+        if (record.getValues() != null) {
+            ret += 64;
+            for (var value : record.getValues().values()) {
+                ret += 40 + BaseValue.estimateSize(value);
             }
         }
-        if (!hasVersion) {
-            return null;
-        }
+        return ret;
+    }
+
+    private void updateStatistics(String columnName, BaseValue value) {
+        this.statisticsMap.computeIfAbsent(columnName, k -> new ColumnStatistics()).update(value);
+    }
+
+
+    private Map<String, BaseValue> getRecordMap(BaseValue key, MemoryRecord record) {
+        var ret = record.getValues();
         ret.put(this.schema.getKeyColumn(), key);
-        if (deleted) {
+        if (record.isDeleted()) {
             ret.put(DELETED_FLAG_COLUMN_NAME, BoolValue.TRUE);
         }
         return ret;
     }
 
     @Override
-    public Iterator<RecordResult> query(
+    public CloseableIterator<RecordResult> query(
             long revision,
             @NonNull Map<String, String> columns,
             List<OrderByDesc> orderBy,
             TableQueryFilter filter,
             boolean keepNone,
-            boolean rawResult) {
-        if (this.schema.getKeyColumn() == null) {
-            return Collections.emptyIterator();
+            boolean rawResult,
+            QueryCursor cursor,
+            int limit) {
+        var keyColumn = this.schema.getKeyColumn();
+        if (keyColumn == null) {
+            return CloseableIterator.empty();
         }
         if (orderBy != null) {
             for (var col : orderBy) {
@@ -500,14 +854,40 @@ public class MemoryTableImpl implements MemoryTable {
                 }
             }
         }
+        var compiledFilter = filter == null ? null : CompiledFilter.compile(filter, this.schema);
+        if (cursor != null && cursor.getOrderByValues().size() != (orderBy == null ? 0 : orderBy.size())) {
+            throw new SwValidationException(SwValidationException.ValidSubject.DATASTORE,
+                    "the cursor does not match the order by columns");
+        }
+        this.createIndexes(filter, orderBy);
+        // the indexes only hold the latest versions, so they are not used for old revisions. The index version is
+        // read before the last revision, so that it changes if any key visible at the revision is removed later
+        var indexVersion = this.indexes.getVersion();
+        var lastRevision = this.lastRevision;
+        var snapshotRevision = Math.min(this.normalizeRevision(revision), lastRevision);
+        var useIndexes = snapshotRevision == lastRevision;
+        var candidates = filter == null || !useIndexes ? null : this.indexes.lookup(filter);
+        // only the columns used by the query are read from the snapshot files of a cold table
+        var queryColumns = new HashSet<>(columns.keySet());
+        queryColumns.add(keyColumn);
         if (filter != null) {
-            this.checkFilter(filter);
+            CompiledFilter.collectColumns(filter, queryColumns);
         }
-        var stream = this.recordMap.entrySet().stream()
-                .map(entry -> this.getRecordMap(entry.getKey(), entry.getValue(), revision))
-                .filter(record -> record != null && (filter == null || this.match(filter, record)));
         if (orderBy != null) {
-            stream = stream.sorted((a, b) -> {
+            orderBy.forEach(col -> queryColumns.add(col.getColumnName()));
+        }
+        Stream<Map<String, BaseValue>> stream;
+        if (orderBy == null || orderBy.isEmpty()) {
+            // records are in key order if there is no order by column, so we can seek to the cursor directly
+            stream = this.queryInKeyOrder(candidates,
+                            cursor == null ? null : cursor.getKey(),
+                            snapshotRevision,
+                            indexVersion,
+                            queryColumns)
+                    .filter(record -> compiledFilter == null || compiledFilter.test(record));
+        } else {
+            // the key is used as the last order by column so that the order is total and a cursor is unambiguous
+            Comparator<Map<String, BaseValue>> comparator = (a, b) -> {
                 for (var col : orderBy) {
                     var result = BaseValue.compare(
                             a.get(col.getColumnName()),
@@ -519,15 +899,177 @@ public class MemoryTableImpl implements MemoryTable {
                         return result;
                     }
                 }
-                return 0;
+                return BaseValue.compare(a.get(keyColumn), b.get(keyColumn));
+            };
+            Map<String, BaseValue> position = null;
+            if (cursor != null) {
+                position = new HashMap<>();
+                for (int i = 0; i < orderBy.size(); ++i) {
+                    position.put(orderBy.get(i).getColumnName(), cursor.getOrderByValues().get(i));
+                }
+                position.put(keyColumn, cursor.getKey());
+            }
+            var orderIndex = this.indexes.getIndex(orderBy.get(0).getColumnName());
+            List<Map<String, BaseValue>> topK = null;
+            if (limit >= 0 && useIndexes && candidates == null && orderIndex != null && orderIndex.isOrdered()) {
+                topK = this.queryTopKByIndex(orderIndex,
+                        orderBy.get(0).isDescending(),
+                        comparator,
+                        compiledFilter,
+                        position,
+                        limit,
+                        snapshotRevision,
+                        indexVersion);
+            }
+            if (topK != null) {
+                stream = topK.stream();
+            } else {
+                var afterPosition = position;
+                stream = this.queryInKeyOrder(candidates, null, snapshotRevision, indexVersion, queryColumns)
+                        .filter(record -> compiledFilter == null || compiledFilter.test(record))
+                        .filter(record -> afterPosition == null || comparator.compare(record, afterPosition) > 0);
+                if (limit >= 0) {
+                    stream = MemoryTableImpl.topK(
+                            stream.filter(record -> record.get(DELETED_FLAG_COLUMN_NAME) == null),
+                            comparator,
+                            limit).stream();
+                } else {
+                    stream = stream.sorted(comparator);
+                }
+            }
+        }
+        if (limit >= 0) {
+            stream = stream.filter(record -> record.get(DELETED_FLAG_COLUMN_NAME) == null).limit(limit);
+        }
+        return CloseableIterator.of(stream.map(record -> {
+            var result = this.toRecordResult(record, columns, keepNone);
+            if (orderBy != null) {
+                result.setOrderByValues(orderBy.stream()
+                        .map(col -> record.get(col.getColumnName()))
+                        .collect(Collectors.toList()));
+            }
+            return result;
+        }));
+    }
+
+    /**
+     * Get the records after the start key in key order. Only the candidate keys are visited if they are not null.
+     *
+     * @param columns the columns to read from the snapshot files if the table is not loaded
+     */
+    private Stream<Map<String, BaseValue>> queryInKeyOrder(NavigableSet<BaseValue> candidates,
+            BaseValue start,
+            long snapshotRevision,
+            long indexVersion,
+            Set<String> columns) {
+        Stream<Map.Entry<BaseValue, MemoryRecord>> entries;
+        if (candidates != null) {
+            // the candidates are a superset of the matching keys, the filter should be checked by the caller
+            var iterator = new CandidateIterator(candidates, start, snapshotRevision, indexVersion);
+            entries = StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+                    Spliterator.ORDERED | Spliterator.NONNULL), false);
+        } else {
+            entries = this.queryRecords(start, false, null, true, snapshotRevision, columns);
+        }
+        return entries.map(entry -> this.getRecordMap(entry.getKey(), entry.getValue()));
+    }
+
+    /**
+     * Same as {@link RecordStore#query}, but reads the snapshot files directly if the table is not loaded yet.
+     *
+     * @param columns the columns to read from the snapshot files, or null to read all columns
+     */
+    private Stream<Map.Entry<BaseValue, MemoryRecord>> queryRecords(BaseValue start,
+            boolean startInclusive,
+            BaseValue end,
+            boolean endInclusive,
+            long snapshotRevision,
+            Set<String> columns) {
+        if (this.loaded) {
+            return this.recordStore.query(start, startInclusive, end, endInclusive, snapshotRevision);
+        }
+        return this.snapshotReader.query(start, startInclusive, end, endInclusive, snapshotRevision, columns);
+    }
+
+    /**
+     * Keep the first k records in a bounded heap instead of sorting all of them. The stream is closed on return.
+     */
+    static List<Map<String, BaseValue>> topK(Stream<Map<String, BaseValue>> stream,
+            Comparator<Map<String, BaseValue>> comparator,
+            int k) {
+        try (stream) {
+            if (k == 0) {
+                return List.of();
+            }
+            // the head of the heap is the last one of the first k records
+            var heap = new PriorityQueue<>(Math.min(k, 1024) + 1, comparator.reversed());
+            stream.forEach(record -> {
+                if (heap.size() < k) {
+                    heap.add(record);
+                } else if (comparator.compare(record, heap.peek()) < 0) {
+                    heap.poll();
+                    heap.add(record);
+                }
             });
+            var ret = new ArrayList<>(heap);
+            ret.sort(comparator);
+            return ret;
         }
-        return stream.map(record -> this.toRecordResult(record, columns, keepNone)).iterator();
+    }
+
+    /**
+     * Get the first k records by walking the ordered index of the first order by column. The records of each value
+     * are sorted by the remaining order by columns, and the walk stops once k records are collected.
+     *
+     * @return null if keys are removed from the index during the walk, the records should be scanned instead
+     */
+    private List<Map<String, BaseValue>> queryTopKByIndex(ColumnIndex index,
+            boolean descending,
+            Comparator<Map<String, BaseValue>> comparator,
+            CompiledFilter filter,
+            Map<String, BaseValue> position,
+            int k,
+            long snapshotRevision,
+            long indexVersion) {
+        var column = index.getColumnName();
+        var ret = new ArrayList<Map<String, BaseValue>>();
+        var groups = position == null
+                ? index.groups(descending)
+                : index.groupsFrom(descending, position.get(column));
+        for (var it = groups.iterator(); it.hasNext() && ret.size() < k; ) {
+            var group = it.next();
+            var records = new ArrayList<Map<String, BaseValue>>();
+            for (var key : group.getValue()) {
+                var record = this.recordStore.get(key, snapshotRevision);
+                if (record == null || record.isDeleted()) {
+                    continue;
+                }
+                var recordMap = this.getRecordMap(key, record);
+                // a key being updated is in the groups of both its old and new values, the record is visited again
+                // with its current value
+                if (BaseValue.compare(recordMap.get(column), group.getKey()) != 0) {
+                    continue;
+                }
+                if (filter != null && !filter.test(recordMap)) {
+                    continue;
+                }
+                if (position != null && comparator.compare(recordMap, position) <= 0) {
+                    continue;
+                }
+                records.add(recordMap);
+            }
+            records.sort(comparator);
+            ret.addAll(records);
+        }
+        if (this.indexes.getVersion() != indexVersion) {
+            return null;
+        }
+        return ret.size() > k ? ret.subList(0, k) : ret;
     }
 
 
     @Override
-    public Iterator<RecordResult> scan(
+    public CloseableIterator<RecordResult> scan(
             long revision,
             @NonNull Map<String, String> columns,
             String start,
@@ -538,15 +1080,12 @@ public class MemoryTableImpl implements MemoryTable {
             boolean endInclusive,
             boolean keepNone) {
         if (this.schema.getKeyColumn() == null) {
-            return Collections.emptyIterator();
-        }
-        if (this.recordMap.isEmpty()) {
-            return Collections.emptyIterator();
+            return CloseableIterator.empty();
         }
         BaseValue startKey;
         BaseValue endKey;
         if (start == null) {
-            startKey = this.recordMap.firstKey();
+            startKey = null;
             startInclusive = true;
         } else {
             ColumnType startKeyType;
@@ -568,7 +1107,7 @@ public class MemoryTableImpl implements MemoryTable {
             }
         }
         if (end == null) {
-            endKey = this.recordMap.lastKey();
+            endKey = null;
             endInclusive = true;
         } else {
             ColumnType endKeyType;
@@ -589,124 +1128,34 @@ public class MemoryTableImpl implements MemoryTable {
                         "invalid end " + end, e);
             }
         }
-        if (startKey.compareTo(endKey) > 0) {
-            return Collections.emptyIterator();
-        }
-        var iterator = this.recordMap.subMap(startKey, startInclusive, endKey, endInclusive).entrySet().stream()
-                .map(entry -> this.getRecordMap(entry.getKey(), entry.getValue(), revision))
-                .filter(Objects::nonNull)
-                .iterator();
-        return new Iterator<>() {
-
-            @Override
-            public boolean hasNext() {
-                return iterator.hasNext();
-            }
-
-            @Override
-            public RecordResult next() {
-                return toRecordResult(iterator.next(), columns, keepNone);
-            }
-        };
-    }
-
-    private boolean match(TableQueryFilter filter, Map<String, BaseValue> record) {
-        switch (filter.getOperator()) {
-            case NOT:
-                return !this.match((TableQueryFilter) filter.getOperands().get(0), record);
-            case AND:
-                for (Object operand : filter.getOperands()) {
-                    if (!this.match((TableQueryFilter) operand, record)) {
-                        return false;
-                    }
-                }
-                return true;
-            case OR:
-                for (Object operand : filter.getOperands()) {
-                    if (this.match((TableQueryFilter) operand, record)) {
-                        return true;
-                    }
-                }
-                return false;
-            default:
-                var v1 = this.getValue(filter.getOperands().get(0), record);
-                var v2 = this.getValue(filter.getOperands().get(1), record);
-                if (v1 instanceof StringValue || v2 instanceof StringValue) {
-                    if (v1 instanceof StringValue) {
-                        v1 = this.convertStringToOtherType((StringValue) v1, v2);
-                    } else {
-                        v2 = this.convertStringToOtherType((StringValue) v2, v1);
-                    }
-                }
-                var result = BaseValue.compare(v1, v2);
-                switch (filter.getOperator()) {
-                    case EQUAL:
-                        return result == 0;
-                    case LESS:
-                        return result < 0;
-                    case LESS_EQUAL:
-                        return result <= 0;
-                    case GREATER:
-                        return result > 0;
-                    case GREATER_EQUAL:
-                        return result >= 0;
-                    default:
-                        throw new IllegalArgumentException("Unexpected value: " + filter.getOperator());
-                }
+        if (startKey != null && endKey != null && startKey.compareTo(endKey) > 0) {
+            return CloseableIterator.empty();
         }
+        return CloseableIterator.of(this.queryRecords(startKey,
+                        startInclusive,
+                        endKey,
+                        endInclusive,
+                        this.getSnapshotRevision(revision),
+                        columns.keySet())
+                .map(entry -> this.toRecordResult(this.getRecordMap(entry.getKey(), entry.getValue()),
+                        columns,
+                        keepNone)));
     }
 
-    private BaseValue convertStringToOtherType(StringValue value, BaseValue other) {
-        var v = value.getValue();
-        if (other instanceof BoolValue) {
-            if (v.equalsIgnoreCase("true")) {
-                return BoolValue.TRUE;
-            }
-            if (v.equalsIgnoreCase("false")) {
-                return BoolValue.FALSE;
-            }
+    private void createIndexes(TableQueryFilter filter, List<OrderByDesc> orderBy) {
+        // indexes are built from the record store, cold tables are scanned instead
+        if (!this.autoIndex || !this.loaded) {
+            return;
         }
-        try {
-            if (other instanceof IntValue) {
-                return new Int64Value(Long.parseLong(v));
-            }
-            if (other instanceof FloatValue) {
-                return new Float64Value(Double.parseDouble(v));
+        for (var entry : this.indexes.observe(filter, orderBy, this.schema).entrySet()) {
+            this.lock();
+            try {
+                this.indexes.build(entry.getKey(), entry.getValue(), this.recordStore);
+            } finally {
+                this.unlock();
             }
-        } catch (NumberFormatException e) {
-            // just ignore it
-        }
-        return value;
-
-    }
-
-    private BaseValue getValue(Object operand, Map<String, BaseValue> record) {
-        if (operand instanceof TableQueryFilter.Column) {
-            return record.get(((TableQueryFilter.Column) operand).getName());
-        } else if (operand instanceof TableQueryFilter.Constant) {
-            return BaseValue.valueOf(((TableQueryFilter.Constant) operand).getValue());
-        } else {
-            throw new IllegalArgumentException("invalid operand type " + operand.getClass());
-        }
-    }
-
-    private void checkFilter(TableQueryFilter filter) {
-        switch (filter.getOperator()) {
-            case NOT:
-            case AND:
-            case OR:
-                for (var op : filter.getOperands()) {
-                    this.checkFilter((TableQueryFilter) op);
-                }
-                break;
-            case EQUAL:
-            case LESS:
-            case LESS_EQUAL:
-            case GREATER:
-            case GREATER_EQUAL:
-                break;
-            default:
-                throw new IllegalArgumentException("Unexpected operator: " + filter.getOperator());
+            log.info("{} index created for column {} of table {}",
+                    entry.getValue() ? "ordered" : "hash", entry.getKey(), this.tableName);
         }
     }
 
@@ -734,7 +1183,79 @@ public class MemoryTableImpl implements MemoryTable {
         return this.statisticsMap.entrySet().stream()
                 .filter(entry -> columnMapping.containsKey(entry.getKey()))
                 .collect(Collectors.toMap(entry -> columnMapping.get(entry.getKey()),
-                        Entry::getValue));
+                        entry -> entry.getValue().copy()));
     }
 
+    /**
+     * Visit the records of the candidate keys in key order. If keys are removed from the indexes after the candidates
+     * are looked up, some keys visible at the snapshot revision may be missing from the candidates, so the records
+     * after the last visited key are scanned instead.
+     */
+    private class CandidateIterator implements Iterator<Map.Entry<BaseValue, MemoryRecord>> {
+
+        private final Iterator<BaseValue> keys;
+
+        private final long snapshotRevision;
+
+        private final long indexVersion;
+
+        private BaseValue lastKey;
+
+        // the records after the last visited key if the candidates can not be trusted any more
+        private Iterator<Map.Entry<BaseValue, MemoryRecord>> rest;
+
+        private Map.Entry<BaseValue, MemoryRecord> next;
+
+        CandidateIterator(NavigableSet<BaseValue> candidates,
+                BaseValue start,
+                long snapshotRevision,
+                long indexVersion) {
+            this.keys = (start == null ? candidates : candidates.tailSet(start, false)).iterator();
+            this.snapshotRevision = snapshotRevision;
+            this.indexVersion = indexVersion;
+            this.lastKey = start;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (this.next == null) {
+                if (this.rest != null) {
+                    if (!this.rest.hasNext()) {
+                        return false;
+                    }
+                    this.next = this.rest.next();
+                    break;
+                }
+                // the version is checked after moving forward, so that a key removed before the move is not missed
+                var key = this.keys.hasNext() ? this.keys.next() : null;
+                if (MemoryTableImpl.this.indexes.getVersion() != this.indexVersion) {
+                    this.rest = MemoryTableImpl.this.recordStore.query(this.lastKey,
+                            false,
+                            null,
+                            true,
+                            this.snapshotRevision).iterator();
+                    continue;
+                }
+                if (key == null) {
+                    return false;
+                }
+                this.lastKey = key;
+                var record = MemoryTableImpl.this.recordStore.get(key, this.snapshotRevision);
+                if (record != null) {
+                    this.next = new SimpleImmutableEntry<>(key, record);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public Map.Entry<BaseValue, MemoryRecord> next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            var ret = this.next;
+            this.next = null;
+            return ret;
+        }
+    }
 }
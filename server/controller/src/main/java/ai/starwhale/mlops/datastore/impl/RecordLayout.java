@@ -0,0 +1,42 @@
+/*
+ * Copyright 2022 Starwhale, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.starwhale.mlops.datastore.impl;
+
+/**
+ * The in-memory layout of the records of a memory table.
+ */
+public enum RecordLayout {
+    /**
+     * Each version of a record is a map from column names to values.
+     */
+    ROW,
+    /**
+     * Values are kept in per column primitive arrays, which takes much less memory for large tables.
+     */
+    COLUMNAR;
+
+    RecordStore createStore() {
+        switch (this) {
+            case ROW:
+                return new RowRecordStore();
+            case COLUMNAR:
+                return new ColumnarRecordStore();
+            default:
+                throw new IllegalArgumentException("unknown layout " + this);
+        }
+    }
+}
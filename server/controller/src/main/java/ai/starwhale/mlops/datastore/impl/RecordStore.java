@@ -0,0 +1,71 @@
+/*
+ * Copyright 2022 Starwhale, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.starwhale.mlops.datastore.impl;
+
+import ai.starwhale.mlops.datastore.type.BaseValue;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+
+/**
+ * The physical storage of all versions of all records in a memory table.
+ *
+ * <p>Each version is stored as a delta, which means it only contains the columns changed by that version. A
+ * deleted version has no values.
+ */
+interface RecordStore {
+
+    boolean isEmpty();
+
+    BaseValue firstKey();
+
+    BaseValue lastKey();
+
+    /**
+     * Append a new version to the record identified by the key.
+     *
+     * @param key    the key of the record
+     * @param record the version to append, its values only contain the changed columns
+     */
+    void append(BaseValue key, MemoryRecord record);
+
+    /**
+     * Get the record merged from all versions whose revisions are not greater than the specified revision.
+     *
+     * @return null if there is no such version. The values of the returned record are held in a newly created map
+     *         which can be modified by the caller freely.
+     */
+    MemoryRecord get(BaseValue key, long revision);
+
+    /**
+     * Get the merged records in the key range. Null start or end means unbounded.
+     */
+    Stream<Map.Entry<BaseValue, MemoryRecord>> query(BaseValue start,
+            boolean startInclusive,
+            BaseValue end,
+            boolean endInclusive,
+            long revision);
+
+    /**
+     * Visit the raw versions of at most maxKeys records whose keys are greater than fromKey, or of the first maxKeys
+     * records if fromKey is null. For each record, the versions are visited in the order they were appended and the
+     * visit stops at the first version whose revision is greater than maxRevision.
+     *
+     * @return the last key visited, or null if there is no record left
+     */
+    BaseValue dump(BaseValue fromKey, int maxKeys, long maxRevision, BiConsumer<BaseValue, MemoryRecord> visitor);
+}
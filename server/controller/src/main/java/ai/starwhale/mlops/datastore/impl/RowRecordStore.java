@@ -0,0 +1,156 @@
+/*
+ * Copyright 2022 Starwhale, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.starwhale.mlops.datastore.impl;
+
+import ai.starwhale.mlops.datastore.type.BaseValue;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+
+/**
+ * Stores each version as a {@link MemoryRecord} holding a map of the changed columns.
+ *
+ * <p>The version lists are copied on write, so readers can iterate without locking while a writer is appending.
+ */
+class RowRecordStore implements RecordStore {
+
+    private final ConcurrentSkipListMap<BaseValue, List<MemoryRecord>> recordMap = new ConcurrentSkipListMap<>();
+
+    @Override
+    public boolean isEmpty() {
+        return this.recordMap.isEmpty();
+    }
+
+    @Override
+    public BaseValue firstKey() {
+        return this.recordMap.firstKey();
+    }
+
+    @Override
+    public BaseValue lastKey() {
+        return this.recordMap.lastKey();
+    }
+
+    @Override
+    public void append(BaseValue key, MemoryRecord record) {
+        var old = this.recordMap.get(key);
+        List<MemoryRecord> versions;
+        if (old == null) {
+            versions = List.of(record);
+        } else {
+            versions = new ArrayList<>(old.size() + 1);
+            versions.addAll(old);
+            versions.add(record);
+        }
+        this.recordMap.put(key, versions);
+    }
+
+    @Override
+    public MemoryRecord get(BaseValue key, long revision) {
+        var versions = this.recordMap.get(key);
+        if (versions == null) {
+            return null;
+        }
+        return RowRecordStore.merge(versions, revision);
+    }
+
+    @Override
+    public Stream<Map.Entry<BaseValue, MemoryRecord>> query(BaseValue start,
+            boolean startInclusive,
+            BaseValue end,
+            boolean endInclusive,
+            long revision) {
+        NavigableMap<BaseValue, List<MemoryRecord>> target;
+        if (start != null && end != null) {
+            target = this.recordMap.subMap(start, startInclusive, end, endInclusive);
+        } else if (start != null) {
+            target = this.recordMap.tailMap(start, startInclusive);
+        } else if (end != null) {
+            target = this.recordMap.headMap(end, endInclusive);
+        } else {
+            target = this.recordMap;
+        }
+        return target.entrySet().stream()
+                .map(entry -> {
+                    var record = RowRecordStore.merge(entry.getValue(), revision);
+                    if (record == null) {
+                        return null;
+                    }
+                    return (Map.Entry<BaseValue, MemoryRecord>) new SimpleImmutableEntry<>(entry.getKey(), record);
+                })
+                .filter(Objects::nonNull);
+    }
+
+    @Override
+    public BaseValue dump(BaseValue fromKey,
+            int maxKeys,
+            long maxRevision,
+            BiConsumer<BaseValue, MemoryRecord> visitor) {
+        NavigableMap<BaseValue, List<MemoryRecord>> target;
+        if (fromKey == null) {
+            target = this.recordMap;
+        } else {
+            target = this.recordMap.tailMap(fromKey, false);
+        }
+        BaseValue lastKey = null;
+        int count = 0;
+        for (var entry : target.entrySet()) {
+            lastKey = entry.getKey();
+            for (var record : entry.getValue()) {
+                if (record.getRevision() > maxRevision) {
+                    break;
+                }
+                visitor.accept(entry.getKey(), record);
+            }
+            if (++count == maxKeys) {
+                break;
+            }
+        }
+        return lastKey;
+    }
+
+    static MemoryRecord merge(List<MemoryRecord> versions, long revision) {
+        var values = new HashMap<String, BaseValue>();
+        MemoryRecord last = null;
+        for (var record : versions) {
+            if (record.getRevision() <= revision) {
+                // record may be empty, use last to mark if there is a record
+                last = record;
+                if (record.isDeleted()) {
+                    values.clear();
+                } else {
+                    values.putAll(record.getValues());
+                }
+            }
+        }
+        if (last == null) {
+            return null;
+        }
+        return MemoryRecord.builder()
+                .revision(last.getRevision())
+                .deleted(last.isDeleted())
+                .values(values)
+                .build();
+    }
+}
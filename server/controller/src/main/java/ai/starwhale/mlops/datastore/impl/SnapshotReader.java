@@ -0,0 +1,376 @@
+/*
+ * Copyright 2022 Starwhale, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.starwhale.mlops.datastore.impl;
+
+import ai.starwhale.mlops.datastore.ColumnType;
+import ai.starwhale.mlops.datastore.parquet.SwParquetReaderBuilder;
+import ai.starwhale.mlops.datastore.parquet.SwReadSupport;
+import ai.starwhale.mlops.datastore.type.BaseValue;
+import ai.starwhale.mlops.datastore.type.BoolValue;
+import ai.starwhale.mlops.datastore.type.Int64Value;
+import ai.starwhale.mlops.datastore.type.IntValue;
+import ai.starwhale.mlops.datastore.type.StringValue;
+import ai.starwhale.mlops.exception.SwProcessException;
+import ai.starwhale.mlops.exception.SwProcessException.ErrorType;
+import ai.starwhale.mlops.storage.StorageAccessService;
+import java.io.IOException;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.LongUnaryOperator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.parquet.filter2.compat.FilterCompat;
+import org.apache.parquet.filter2.predicate.FilterApi;
+import org.apache.parquet.filter2.predicate.FilterPredicate;
+import org.apache.parquet.filter2.predicate.Operators.Column;
+import org.apache.parquet.filter2.predicate.Operators.SupportsLtGt;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.apache.parquet.io.api.Binary;
+
+/**
+ * Reads the records of a table from its snapshot files without loading them into memory.
+ *
+ * <p>Each file holds the versions of the records in key order, and the versions of a key are in revision order. The
+ * files are merged by key, and the versions in the base snapshot go before the ones in the deltas. Only the requested
+ * columns are read, and the row groups out of the key range are skipped by the column statistics of the key column.
+ *
+ * <p>The files may be replaced by a full save of the table while queries are still reading them, so their deletion is
+ * deferred until all these queries are done.
+ */
+@Slf4j
+class SnapshotReader {
+
+    private final StorageAccessService storageAccessService;
+
+    // the base snapshot followed by the deltas
+    private final List<String> paths;
+
+    private final String keyColumn;
+
+    // null if the key range can not be pushed down to the parquet reader
+    private final ColumnType keyType;
+
+    private final LongUnaryOperator revisionNormalizer;
+
+    // the number of queries which are neither closed nor read to the end
+    private int openQueries;
+
+    // the files to delete once there is no open query
+    private final Set<String> obsoletePaths = new HashSet<>();
+
+    SnapshotReader(StorageAccessService storageAccessService,
+            List<String> paths,
+            String keyColumn,
+            ColumnType keyType,
+            LongUnaryOperator revisionNormalizer) {
+        this.storageAccessService = storageAccessService;
+        this.paths = paths;
+        this.keyColumn = keyColumn;
+        this.keyType = keyType;
+        this.revisionNormalizer = revisionNormalizer;
+    }
+
+    List<String> getPaths() {
+        return this.paths;
+    }
+
+    /**
+     * Delete the file once there is no open query. It is called after the table is loaded, when no more query comes.
+     */
+    void deleteWhenClosed(String path) {
+        synchronized (this) {
+            this.obsoletePaths.add(path);
+            if (this.openQueries > 0) {
+                return;
+            }
+        }
+        this.deleteObsoletePaths();
+    }
+
+    private void deleteObsoletePaths() {
+        List<String> paths;
+        synchronized (this) {
+            paths = new ArrayList<>(this.obsoletePaths);
+            this.obsoletePaths.clear();
+        }
+        for (var path : paths) {
+            try {
+                this.storageAccessService.delete(path);
+            } catch (IOException e) {
+                log.warn("fail to delete {}", path, e);
+            }
+        }
+    }
+
+    private void release() {
+        synchronized (this) {
+            if (--this.openQueries > 0) {
+                return;
+            }
+        }
+        this.deleteObsoletePaths();
+    }
+
+    /**
+     * Same as {@link RecordStore#query}, except that only the columns in the given set are guaranteed to be read. The
+     * files are open until the returned stream is closed or read to the end.
+     *
+     * @param columns the columns to read, or null to read all columns
+     */
+    Stream<Map.Entry<BaseValue, MemoryRecord>> query(BaseValue start,
+            boolean startInclusive,
+            BaseValue end,
+            boolean endInclusive,
+            long revision,
+            Set<String> columns) {
+        var conf = new Configuration();
+        if (columns != null) {
+            var requested = new HashSet<>(columns);
+            requested.add(this.keyColumn);
+            requested.add(MemoryTableImpl.REVISION_COLUMN_NAME);
+            requested.add(MemoryTableImpl.DELETED_FLAG_COLUMN_NAME);
+            conf.set(SwReadSupport.REQUESTED_COLUMNS_KEY, String.join(",", requested));
+        }
+        var predicate = this.createKeyPredicate(start, startInclusive, end, endInclusive);
+        var cursors = new PriorityQueue<FileCursor>(Comparator.<FileCursor, BaseValue>comparing(c -> c.key)
+                .thenComparingInt(c -> c.index));
+        synchronized (this) {
+            ++this.openQueries;
+        }
+        var closed = new AtomicBoolean();
+        Runnable close = () -> {
+            cursors.forEach(FileCursor::close);
+            cursors.clear();
+            if (closed.compareAndSet(false, true)) {
+                this.release();
+            }
+        };
+        try {
+            for (int i = 0; i < this.paths.size(); ++i) {
+                var builder = new SwParquetReaderBuilder(this.storageAccessService, this.paths.get(i)).withConf(conf);
+                if (predicate != null) {
+                    builder.withFilter(FilterCompat.get(predicate));
+                }
+                var cursor = new FileCursor(i, builder.build());
+                if (cursor.next()) {
+                    cursors.add(cursor);
+                }
+            }
+        } catch (IOException e) {
+            close.run();
+            throw new SwProcessException(ErrorType.DATASTORE, "failed to read snapshot", e);
+        } catch (RuntimeException e) {
+            close.run();
+            throw e;
+        }
+        var iterator = new Iterator<Map.Entry<BaseValue, MemoryRecord>>() {
+            private Map.Entry<BaseValue, MemoryRecord> nextEntry;
+
+            {
+                this.getNext();
+            }
+
+            @Override
+            public boolean hasNext() {
+                return this.nextEntry != null;
+            }
+
+            @Override
+            public Map.Entry<BaseValue, MemoryRecord> next() {
+                if (this.nextEntry == null) {
+                    throw new NoSuchElementException();
+                }
+                var ret = this.nextEntry;
+                this.getNext();
+                return ret;
+            }
+
+            private void getNext() {
+                this.nextEntry = null;
+                while (this.nextEntry == null && !cursors.isEmpty()) {
+                    var key = cursors.peek().key;
+                    var versions = new ArrayList<MemoryRecord>();
+                    // the cursors are ordered by the file index for the same key
+                    while (!cursors.isEmpty() && cursors.peek().key.equals(key)) {
+                        var cursor = cursors.poll();
+                        do {
+                            versions.add(cursor.record);
+                        } while (cursor.next() && cursor.key.equals(key));
+                        if (cursor.key != null) {
+                            cursors.add(cursor);
+                        }
+                    }
+                    if (end != null) {
+                        var result = key.compareTo(end);
+                        if (result > 0 || result == 0 && !endInclusive) {
+                            break;
+                        }
+                    }
+                    if (start != null) {
+                        var result = key.compareTo(start);
+                        if (result < 0 || result == 0 && !startInclusive) {
+                            continue;
+                        }
+                    }
+                    var record = RowRecordStore.merge(versions, revision);
+                    if (record != null) {
+                        this.nextEntry = new SimpleImmutableEntry<>(key, record);
+                    }
+                }
+                if (this.nextEntry == null) {
+                    close.run();
+                }
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+                        Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(close);
+    }
+
+    private FilterPredicate createKeyPredicate(BaseValue start,
+            boolean startInclusive,
+            BaseValue end,
+            boolean endInclusive) {
+        if (this.keyType == null) {
+            return null;
+        }
+        // the key column is stored as a group of a null flag and the value
+        var columnPath = this.keyColumn + ".value";
+        switch (this.keyType) {
+            case INT8:
+            case INT16:
+            case INT32:
+                return this.createRangePredicate(FilterApi.intColumn(columnPath),
+                        v -> (int) ((IntValue) v).longValue(),
+                        start,
+                        startInclusive,
+                        end,
+                        endInclusive);
+            case INT64:
+                return this.createRangePredicate(FilterApi.longColumn(columnPath),
+                        v -> ((IntValue) v).longValue(),
+                        start,
+                        startInclusive,
+                        end,
+                        endInclusive);
+            case STRING:
+                // parquet compares binaries as unsigned UTF-8 bytes, which is the order of code points, while strings
+                // are compared by UTF-16 code units. The two orders agree on how a string compares with a bound which
+                // has no character from U+D800 on, other bounds are only checked in the memory
+                return this.createRangePredicate(FilterApi.binaryColumn(columnPath),
+                        v -> Binary.fromString(((StringValue) v).getValue()),
+                        SnapshotReader.isUtf8Ordered(start) ? start : null,
+                        startInclusive,
+                        SnapshotReader.isUtf8Ordered(end) ? end : null,
+                        endInclusive);
+            default:
+                return null;
+        }
+    }
+
+    private static boolean isUtf8Ordered(BaseValue value) {
+        if (!(value instanceof StringValue)) {
+            return true;
+        }
+        return ((StringValue) value).getValue().chars().allMatch(c -> c < Character.MIN_SURROGATE);
+    }
+
+    private <T extends Comparable<T>, C extends Column<T> & SupportsLtGt> FilterPredicate createRangePredicate(
+            C column,
+            Function<BaseValue, T> converter,
+            BaseValue start,
+            boolean startInclusive,
+            BaseValue end,
+            boolean endInclusive) {
+        FilterPredicate ret = null;
+        // keys of other types are compared in the memory
+        if (start != null && start.getColumnType() == this.keyType) {
+            var value = converter.apply(start);
+            ret = startInclusive ? FilterApi.gtEq(column, value) : FilterApi.gt(column, value);
+        }
+        if (end != null && end.getColumnType() == this.keyType) {
+            var value = converter.apply(end);
+            var predicate = endInclusive ? FilterApi.ltEq(column, value) : FilterApi.lt(column, value);
+            ret = ret == null ? predicate : FilterApi.and(ret, predicate);
+        }
+        return ret;
+    }
+
+    private class FileCursor {
+
+        private final int index;
+
+        private final ParquetReader<Map<String, BaseValue>> reader;
+
+        // null if the file is exhausted
+        private BaseValue key;
+
+        private MemoryRecord record;
+
+        FileCursor(int index, ParquetReader<Map<String, BaseValue>> reader) {
+            this.index = index;
+            this.reader = reader;
+        }
+
+        boolean next() {
+            Map<String, BaseValue> values;
+            try {
+                values = this.reader.read();
+            } catch (IOException e) {
+                this.close();
+                throw new SwProcessException(ErrorType.DATASTORE, "failed to read snapshot", e);
+            }
+            if (values == null) {
+                this.key = null;
+                this.record = null;
+                this.close();
+                return false;
+            }
+            this.key = values.remove(SnapshotReader.this.keyColumn);
+            var revision = (Int64Value) values.remove(MemoryTableImpl.REVISION_COLUMN_NAME);
+            var deletedFlag = (BoolValue) values.remove(MemoryTableImpl.DELETED_FLAG_COLUMN_NAME);
+            this.record = MemoryRecord.builder()
+                    .revision(SnapshotReader.this.revisionNormalizer.applyAsLong(revision.getValue()))
+                    .deleted(deletedFlag.isValue())
+                    .values(values)
+                    .build();
+            return true;
+        }
+
+        void close() {
+            try {
+                this.reader.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+}
@@ -0,0 +1,495 @@
+/*
+ * Copyright 2022 Starwhale, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.starwhale.mlops.datastore.impl;
+
+import ai.starwhale.mlops.datastore.OrderByDesc;
+import ai.starwhale.mlops.datastore.TableQueryFilter;
+import ai.starwhale.mlops.datastore.TableSchema;
+import ai.starwhale.mlops.datastore.type.BaseValue;
+import ai.starwhale.mlops.datastore.type.StringValue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The secondary indexes of a memory table and a simple planner which uses them to find the candidate keys of a
+ * filter.
+ *
+ * <p>Indexes are created automatically for columns which are filtered or ordered by frequently. A hash index is
+ * created for a column compared by EQUAL only, and an ordered index for a column compared by range predicates or
+ * used to order the records.
+ *
+ * <p>Indexes are built and updated by writers holding the table lock. Readers never lock. A key is removed from the
+ * group of its old value only after the revision which changes the value is published, and {@link #getVersion} is
+ * increased before that. A reader which reads the version before the last revision of the table can tell whether
+ * keys visible at its revision may have been removed by checking the version again.
+ */
+class TableIndexes {
+
+    static final int AUTO_INDEX_THRESHOLD = 3;
+
+    // the indexes are not used if the lookup is expected to return more than 1/SCAN_RATIO of the records, visiting
+    // so many keys one by one is slower than scanning the table
+    private static final int SCAN_RATIO = 4;
+
+    private static final int BUILD_BATCH_SIZE = 1000;
+
+    private final Map<String, ColumnIndex> indexMap = new ConcurrentHashMap<>();
+
+    private final Map<String, AtomicInteger> equalFilterCounts = new ConcurrentHashMap<>();
+
+    private final Map<String, AtomicInteger> rangeFilterCounts = new ConcurrentHashMap<>();
+
+    // the keys to remove from the groups of their old values once the revision updating them is published
+    private final Map<ColumnIndex, Map<BaseValue, PendingUpdate>> pendingUpdates = new HashMap<>();
+
+    private final AtomicLong version = new AtomicLong();
+
+    Collection<ColumnIndex> getIndexes() {
+        return this.indexMap.values();
+    }
+
+    ColumnIndex getIndex(String columnName) {
+        return this.indexMap.get(columnName);
+    }
+
+    /**
+     * Get the number of times keys are removed from the indexes.
+     */
+    long getVersion() {
+        return this.version.get();
+    }
+
+    /**
+     * Build an index from the latest versions in the record store and replace the existing one of the column if any.
+     *
+     * <p>The caller should hold the table lock.
+     */
+    void build(String columnName, boolean ordered, RecordStore recordStore) {
+        var index = new ColumnIndex(columnName, ordered);
+        var state = new Object() {
+            BaseValue lastKey;
+            BaseValue value;
+        };
+        BaseValue fromKey = null;
+        do {
+            fromKey = recordStore.dump(fromKey, BUILD_BATCH_SIZE, Long.MAX_VALUE, (key, record) -> {
+                if (!key.equals(state.lastKey)) {
+                    if (state.lastKey != null) {
+                        index.add(state.lastKey, state.value);
+                    }
+                    state.lastKey = key;
+                    state.value = null;
+                }
+                var values = record.getValues();
+                if (record.isDeleted()) {
+                    state.value = null;
+                } else if (values != null && values.containsKey(columnName)) {
+                    state.value = values.get(columnName);
+                }
+            });
+        } while (fromKey != null);
+        if (state.lastKey != null) {
+            index.add(state.lastKey, state.value);
+        }
+        this.indexMap.put(columnName, index);
+    }
+
+    /**
+     * Update all indexes for a newly appended version. The key is added to the groups of its new values at once,
+     * and removed from the groups of its old values by {@link #publish}.
+     *
+     * @param latest the record merged from all versions before this one, or null if there is no such version
+     * @param record the newly appended version
+     */
+    void append(BaseValue key, MemoryRecord latest, MemoryRecord record) {
+        for (var index : this.indexMap.values()) {
+            var column = index.getColumnName();
+            var values = record.getValues();
+            BaseValue value;
+            if (record.isDeleted()) {
+                value = null;
+            } else if (values != null && values.containsKey(column)) {
+                value = values.get(column);
+            } else if (latest == null || latest.isDeleted()) {
+                // the columns not in this version have no value
+                value = null;
+            } else {
+                continue;
+            }
+            if (latest == null) {
+                index.add(key, value);
+                continue;
+            }
+            var oldValue = latest.isDeleted() || latest.getValues() == null ? null : latest.getValues().get(column);
+            if (!Objects.equals(oldValue, value)) {
+                index.add(key, value);
+                // the key may be updated more than once before publishing, and even back to an old value
+                var update = this.pendingUpdates.computeIfAbsent(index, k -> new HashMap<>())
+                        .computeIfAbsent(key, k -> new PendingUpdate());
+                update.oldValues.add(oldValue);
+                update.value = value;
+            }
+        }
+    }
+
+    /**
+     * Remove the keys from the groups of their old values after the revision of the appended versions is published.
+     */
+    void publish() {
+        if (this.pendingUpdates.isEmpty()) {
+            return;
+        }
+        this.version.incrementAndGet();
+        for (var indexEntry : this.pendingUpdates.entrySet()) {
+            var index = indexEntry.getKey();
+            for (var entry : indexEntry.getValue().entrySet()) {
+                var update = entry.getValue();
+                for (var oldValue : update.oldValues) {
+                    if (!Objects.equals(oldValue, update.value)) {
+                        index.remove(entry.getKey(), oldValue);
+                    }
+                }
+            }
+        }
+        this.pendingUpdates.clear();
+    }
+
+    /**
+     * Count the columns used by the filter and the first order by column, and decide which indexes should be
+     * created. Ordering by a column counts as a range predicate.
+     *
+     * @return a map from the column names to whether the indexes should be ordered
+     */
+    Map<String, Boolean> observe(TableQueryFilter filter, List<OrderByDesc> orderBy, TableSchema schema) {
+        var ret = new HashMap<String, Boolean>();
+        if (filter != null) {
+            this.observe(filter, schema, ret);
+        }
+        if (orderBy != null && !orderBy.isEmpty()) {
+            this.observeRange(orderBy.get(0).getColumnName(), schema, ret);
+        }
+        return ret;
+    }
+
+    private void observe(TableQueryFilter filter, TableSchema schema, Map<String, Boolean> ret) {
+        switch (filter.getOperator()) {
+            case NOT:
+            case AND:
+            case OR:
+                for (var operand : filter.getOperands()) {
+                    this.observe((TableQueryFilter) operand, schema, ret);
+                }
+                return;
+            default:
+                var predicate = Predicate.parse(filter);
+                if (predicate == null || !TableIndexes.isIndexable(predicate.column, schema)) {
+                    return;
+                }
+                if (predicate.op == TableQueryFilter.Operator.EQUAL || predicate.op == TableQueryFilter.Operator.IN) {
+                    if (this.indexMap.get(predicate.column) == null && this.equalFilterCounts
+                            .computeIfAbsent(predicate.column, k -> new AtomicInteger())
+                            .incrementAndGet() == AUTO_INDEX_THRESHOLD) {
+                        ret.putIfAbsent(predicate.column, false);
+                    }
+                } else if (Predicate.isRange(predicate.op) || predicate.op == TableQueryFilter.Operator.LIKE) {
+                    this.observeRange(predicate.column, schema, ret);
+                }
+        }
+    }
+
+    private void observeRange(String column, TableSchema schema, Map<String, Boolean> ret) {
+        if (!TableIndexes.isIndexable(column, schema)) {
+            return;
+        }
+        var index = this.indexMap.get(column);
+        if ((index == null || !index.isOrdered()) && this.rangeFilterCounts
+                .computeIfAbsent(column, k -> new AtomicInteger())
+                .incrementAndGet() == AUTO_INDEX_THRESHOLD) {
+            ret.put(column, true);
+        }
+    }
+
+    private static boolean isIndexable(String column, TableSchema schema) {
+        return !column.equals(schema.getKeyColumn()) && schema.getColumnSchemaByName(column) != null;
+    }
+
+    /**
+     * Find the candidate keys of the records which may match the filter at the latest revision by indexes.
+     *
+     * @return the candidate keys in ascending order, or null if the filter can not be served by indexes or scanning
+     *         the table is expected to be faster
+     */
+    NavigableSet<BaseValue> lookup(TableQueryFilter filter) {
+        var estimate = this.estimate(filter);
+        if (estimate < 0) {
+            return null;
+        }
+        var size = this.indexMap.values().stream().mapToLong(ColumnIndex::size).max().orElse(0);
+        if (estimate * SCAN_RATIO > size) {
+            return null;
+        }
+        return this.lookupByIndexes(filter);
+    }
+
+    private NavigableSet<BaseValue> lookupByIndexes(TableQueryFilter filter) {
+        switch (filter.getOperator()) {
+            case AND: {
+                // use the most selective operand, the other ones are checked against the records later
+                TableQueryFilter best = null;
+                long bestEstimate = -1;
+                for (var operand : filter.getOperands()) {
+                    var estimate = this.estimate((TableQueryFilter) operand);
+                    if (estimate >= 0 && (best == null || estimate < bestEstimate)) {
+                        best = (TableQueryFilter) operand;
+                        bestEstimate = estimate;
+                    }
+                }
+                return best == null ? null : this.lookupByIndexes(best);
+            }
+            case OR: {
+                var keySets = new ArrayList<NavigableSet<BaseValue>>();
+                for (var operand : filter.getOperands()) {
+                    var keys = this.lookupByIndexes((TableQueryFilter) operand);
+                    if (keys == null) {
+                        return null;
+                    }
+                    keySets.add(keys);
+                }
+                if (keySets.size() == 1) {
+                    return keySets.get(0);
+                }
+                var ret = new TreeSet<BaseValue>();
+                for (var keys : keySets) {
+                    keys.forEach(ret::add);
+                }
+                return ret;
+            }
+            case NOT:
+                return null;
+            default: {
+                var predicate = Predicate.parse(filter);
+                if (predicate == null) {
+                    return null;
+                }
+                var index = this.indexMap.get(predicate.column);
+                if (index == null) {
+                    return null;
+                }
+                if (predicate.op != TableQueryFilter.Operator.IN) {
+                    return index.lookup(predicate.op, predicate.values.get(0));
+                }
+                var ret = new TreeSet<BaseValue>();
+                for (var value : predicate.values) {
+                    var keys = index.lookup(Predicate.equalOrNull(value), value);
+                    if (keys == null) {
+                        return null;
+                    }
+                    keys.forEach(ret::add);
+                }
+                return ret;
+            }
+        }
+    }
+
+    /**
+     * Estimate the number of keys returned by {@link #lookup}.
+     *
+     * @return -1 if the filter can not be served by indexes
+     */
+    long estimate(TableQueryFilter filter) {
+        switch (filter.getOperator()) {
+            case AND: {
+                long ret = -1;
+                for (var operand : filter.getOperands()) {
+                    var estimate = this.estimate((TableQueryFilter) operand);
+                    if (estimate >= 0 && (ret < 0 || estimate < ret)) {
+                        ret = estimate;
+                    }
+                }
+                return ret;
+            }
+            case OR: {
+                long ret = 0;
+                for (var operand : filter.getOperands()) {
+                    var estimate = this.estimate((TableQueryFilter) operand);
+                    if (estimate < 0) {
+                        return -1;
+                    }
+                    ret += estimate;
+                }
+                return ret;
+            }
+            case NOT:
+                return -1;
+            default: {
+                var predicate = Predicate.parse(filter);
+                if (predicate == null) {
+                    return -1;
+                }
+                var index = this.indexMap.get(predicate.column);
+                if (index == null) {
+                    return -1;
+                }
+                if (predicate.op != TableQueryFilter.Operator.IN) {
+                    return index.estimate(predicate.op, predicate.values.get(0));
+                }
+                long ret = 0;
+                for (var value : predicate.values) {
+                    var estimate = index.estimate(Predicate.equalOrNull(value), value);
+                    if (estimate < 0) {
+                        return -1;
+                    }
+                    ret += estimate;
+                }
+                return ret;
+            }
+        }
+    }
+
+    private static class PendingUpdate {
+
+        // may contain null
+        final List<BaseValue> oldValues = new ArrayList<>();
+        BaseValue value;
+    }
+
+    /**
+     * A predicate on a column, normalized as {@code column op value}. IN has one value for each constant, LIKE has
+     * the literal prefix of the pattern, and IS_NULL has a null value.
+     */
+    private static class Predicate {
+
+        String column;
+        TableQueryFilter.Operator op;
+        List<BaseValue> values;
+
+        static Predicate parse(TableQueryFilter filter) {
+            List<Object> operands = filter.getOperands();
+            if (operands == null || operands.isEmpty()) {
+                return null;
+            }
+            var ret = new Predicate();
+            switch (filter.getOperator()) {
+                case IS_NULL:
+                    if (!(operands.get(0) instanceof TableQueryFilter.Column)) {
+                        return null;
+                    }
+                    ret.column = ((TableQueryFilter.Column) operands.get(0)).getName();
+                    ret.op = filter.getOperator();
+                    ret.values = Collections.singletonList(null);
+                    return ret;
+                case IN:
+                    if (!(operands.get(0) instanceof TableQueryFilter.Column)) {
+                        return null;
+                    }
+                    ret.column = ((TableQueryFilter.Column) operands.get(0)).getName();
+                    ret.op = filter.getOperator();
+                    ret.values = new ArrayList<>();
+                    for (var operand : operands.subList(1, operands.size())) {
+                        if (operand != null && !(operand instanceof TableQueryFilter.Constant)) {
+                            return null;
+                        }
+                        ret.values.add(operand == null
+                                ? null
+                                : BaseValue.valueOf(((TableQueryFilter.Constant) operand).getValue()));
+                    }
+                    return ret;
+                case LIKE:
+                    if (operands.size() != 2
+                            || !(operands.get(0) instanceof TableQueryFilter.Column)
+                            || !(operands.get(1) instanceof TableQueryFilter.Constant)
+                            || !(((TableQueryFilter.Constant) operands.get(1)).getValue() instanceof String)) {
+                        return null;
+                    }
+                    ret.column = ((TableQueryFilter.Column) operands.get(0)).getName();
+                    ret.op = filter.getOperator();
+                    ret.values = Collections.singletonList(new StringValue(CompiledFilter.getLikePrefix(
+                            (String) ((TableQueryFilter.Constant) operands.get(1)).getValue())));
+                    return ret;
+                default:
+                    break;
+            }
+            if (operands.size() != 2) {
+                return null;
+            }
+            Object constant;
+            if (operands.get(0) instanceof TableQueryFilter.Column
+                    && operands.get(1) instanceof TableQueryFilter.Constant) {
+                ret.column = ((TableQueryFilter.Column) operands.get(0)).getName();
+                ret.op = filter.getOperator();
+                constant = operands.get(1);
+            } else if (operands.get(0) instanceof TableQueryFilter.Constant
+                    && operands.get(1) instanceof TableQueryFilter.Column) {
+                ret.column = ((TableQueryFilter.Column) operands.get(1)).getName();
+                ret.op = Predicate.flip(filter.getOperator());
+                constant = operands.get(0);
+            } else {
+                return null;
+            }
+            if (ret.op == null) {
+                return null;
+            }
+            ret.values = Collections.singletonList(
+                    BaseValue.valueOf(((TableQueryFilter.Constant) constant).getValue()));
+            return ret;
+        }
+
+        // a null constant of IN matches null values only
+        static TableQueryFilter.Operator equalOrNull(BaseValue value) {
+            return value == null ? TableQueryFilter.Operator.IS_NULL : TableQueryFilter.Operator.EQUAL;
+        }
+
+        static boolean isRange(TableQueryFilter.Operator op) {
+            switch (op) {
+                case LESS:
+                case LESS_EQUAL:
+                case GREATER:
+                case GREATER_EQUAL:
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        private static TableQueryFilter.Operator flip(TableQueryFilter.Operator op) {
+            switch (op) {
+                case EQUAL:
+                    return op;
+                case LESS:
+                    return TableQueryFilter.Operator.GREATER;
+                case LESS_EQUAL:
+                    return TableQueryFilter.Operator.GREATER_EQUAL;
+                case GREATER:
+                    return TableQueryFilter.Operator.LESS;
+                case GREATER_EQUAL:
+                    return TableQueryFilter.Operator.LESS_EQUAL;
+                default:
+                    return null;
+            }
+        }
+    }
+}
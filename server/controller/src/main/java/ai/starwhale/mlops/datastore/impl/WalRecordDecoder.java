@@ -67,9 +67,18 @@ public class WalRecordDecoder {
         if (col.getNullValue()) {
             return null;
         }
+        if (col.getType() < 0 || col.getType() >= ColumnType.values().length) {
+            throw new IllegalArgumentException("invalid type " + col.getType());
+        }
         ColumnType type;
         if (columnSchema != null) {
             type = columnSchema.getType();
+            // values keep their own types after the type of the column is changed, e.g. the scanned ones of old
+            // records. the type is not set in wal written by old versions
+            if (col.getType() != ColumnType.UNKNOWN.getIndex() && col.getType() != type.getIndex()) {
+                columnSchema = null;
+                type = ColumnType.getTypeByIndex(col.getType());
+            }
         } else {
             type = ColumnType.getTypeByIndex(col.getType());
         }
@@ -20,6 +20,7 @@ import ai.starwhale.mlops.datastore.type.BaseValue;
 import ai.starwhale.mlops.storage.StorageAccessService;
 import java.io.IOException;
 import java.util.Map;
+import org.apache.parquet.hadoop.ParquetFileReader;
 import org.apache.parquet.hadoop.ParquetReader;
 import org.apache.parquet.hadoop.api.ReadSupport;
 
@@ -33,4 +34,14 @@ public class SwParquetReaderBuilder extends ParquetReader.Builder<Map<String, Ba
     protected ReadSupport<Map<String, BaseValue>> getReadSupport() {
         return new SwReadSupport();
     }
+
+    /**
+     * Read the key value metadata in the footer without reading any record.
+     */
+    public static Map<String, String> readKeyValueMetaData(StorageAccessService storageAccessService, String path)
+            throws IOException {
+        try (var reader = ParquetFileReader.open(new SwInputFile(storageAccessService, path))) {
+            return reader.getFooter().getFileMetaData().getKeyValueMetaData();
+        }
+    }
 }
@@ -28,6 +28,7 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.parquet.hadoop.ParquetWriter;
 import org.apache.parquet.hadoop.api.WriteSupport;
 import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.apache.parquet.io.OutputFile;
 
 public class SwParquetWriterBuilder extends ParquetWriter.Builder<Map<String, BaseValue>, SwParquetWriterBuilder> {
 
@@ -43,7 +44,16 @@ public class SwParquetWriterBuilder extends ParquetWriter.Builder<Map<String, Ba
             String metadata,
             String path,
             ParquetConfig config) {
-        super(new SwOutputFile(storageAccessService, path));
+        this(new SwOutputFile(storageAccessService, path), schema, tableSchema, metadata, config);
+    }
+
+    public SwParquetWriterBuilder(
+            OutputFile file,
+            Map<String, ColumnSchema> schema,
+            String tableSchema,
+            String metadata,
+            ParquetConfig config) {
+        super(file);
         this.schema = schema;
         this.tableSchema = tableSchema;
         this.metadata = metadata;
@@ -45,6 +45,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
@@ -72,9 +73,32 @@ public class SwReadSupport extends ReadSupport<Map<String, BaseValue>> {
 
     public static final String ERROR_FLAG_KEY = "error";
 
+    // comma separated column names to read, all columns are read if it is not set
+    public static final String REQUESTED_COLUMNS_KEY = "sw_requested_columns";
+
+    private static final String WAL_COLUMN_NAME = "wal";
+
     @Override
     public ReadContext init(InitContext context) {
-        return new ReadContext(context.getFileSchema());
+        var requestedColumns = SwReadSupport.getRequestedColumns(context.getConfiguration());
+        var fileSchema = context.getFileSchema();
+        if (requestedColumns == null) {
+            return new ReadContext(fileSchema);
+        }
+        // the wal column may contain values of any column
+        return new ReadContext(new MessageType(fileSchema.getName(),
+                fileSchema.getFields().stream()
+                        .filter(field -> requestedColumns.contains(field.getName())
+                                || field.getName().equals(WAL_COLUMN_NAME))
+                        .collect(Collectors.toList())));
+    }
+
+    private static Set<String> getRequestedColumns(Configuration configuration) {
+        var value = configuration.get(REQUESTED_COLUMNS_KEY);
+        if (value == null) {
+            return null;
+        }
+        return Set.of(value.split(","));
     }
 
     @Override
@@ -113,6 +137,10 @@ public class SwReadSupport extends ReadSupport<Map<String, BaseValue>> {
             schema = TableSchema.fromJsonString(schemaStr).getColumnSchemaList().stream()
                     .collect(Collectors.toMap(ColumnSchema::getName, Function.identity()));
         }
+        var requestedColumns = SwReadSupport.getRequestedColumns(configuration);
+        if (requestedColumns != null) {
+            schema.keySet().retainAll(requestedColumns);
+        }
         var record = new AtomicReference<ObjectValue>();
         var wal = new AtomicReference<Wal.Column>();
         var converter = SwReadSupport.createObjectConverter(schema, v -> record.set((ObjectValue) v));
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2022 Starwhale, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ai.starwhale.mlops.datastore.parquet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import lombok.NonNull;
+import org.apache.parquet.io.OutputFile;
+import org.apache.parquet.io.PositionOutputStream;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Writes a parquet file to an output stream which can not be sought, like the body of a http response.
+ */
+public class SwStreamOutputFile implements OutputFile {
+
+    private final OutputStream outputStream;
+
+    public SwStreamOutputFile(@NonNull OutputStream outputStream) {
+        this.outputStream = outputStream;
+    }
+
+    @Override
+    public PositionOutputStream create(long blockSizeHint) {
+        return this.createOrOverwrite(blockSizeHint);
+    }
+
+    @Override
+    public PositionOutputStream createOrOverwrite(long blockSizeHint) {
+        var out = this.outputStream;
+        return new PositionOutputStream() {
+            private long pos;
+
+            @Override
+            public long getPos() {
+                return this.pos;
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                ++this.pos;
+            }
+
+            @Override
+            public void write(@NotNull byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                this.pos += len;
+            }
+
+            @Override
+            public void flush() throws IOException {
+                out.flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+                out.close();
+            }
+        };
+    }
+
+    @Override
+    public boolean supportsBlockSize() {
+        return false;
+    }
+
+    @Override
+    public long defaultBlockSize() {
+        return 0;
+    }
+}
@@ -149,4 +149,40 @@ public interface BaseValue extends Comparable<BaseValue> {
         return value1.compareTo(value2);
     }
 
+    /**
+     * Roughly estimate the heap size of the value in bytes, including the object headers and the references.
+     */
+    static long estimateSize(BaseValue value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof StringValue) {
+            return 56 + ((StringValue) value).getValue().length();
+        }
+        if (value instanceof BytesValue) {
+            return 64 + ((BytesValue) value).getValue().capacity();
+        }
+        if (value instanceof ListValue) {
+            long ret = 40;
+            for (var element : (ListValue) value) {
+                ret += 8 + BaseValue.estimateSize(element);
+            }
+            return ret;
+        }
+        if (value instanceof MapValue) {
+            long ret = 64;
+            for (var entry : ((MapValue) value).entrySet()) {
+                ret += 40 + BaseValue.estimateSize(entry.getKey()) + BaseValue.estimateSize(entry.getValue());
+            }
+            return ret;
+        }
+        if (value instanceof ObjectValue) {
+            long ret = 64 + 56 + ((ObjectValue) value).getPythonType().length();
+            for (var entry : ((ObjectValue) value).entrySet()) {
+                ret += 40 + 56 + entry.getKey().length() + BaseValue.estimateSize(entry.getValue());
+            }
+            return ret;
+        }
+        return 16;
+    }
 }
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2022 Starwhale, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.starwhale.mlops.datastore.wal;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Tracks the largest entry id which has reached a durability level, and the writers waiting for their entries to
+ * reach it.
+ *
+ * <p>Only one thread advances the tracker at any time, while any thread can wait.
+ */
+class CommitTracker {
+
+    private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+
+    private volatile long committedId;
+
+    private final ConcurrentSkipListMap<Long, CompletableFuture<Void>> waiters = new ConcurrentSkipListMap<>();
+
+    long getCommittedId() {
+        return this.committedId;
+    }
+
+    /**
+     * Get a future which is completed once the entry id is committed. Writers waiting for the same id share the
+     * future.
+     */
+    CompletableFuture<Void> waitFor(long entryId) {
+        if (entryId <= this.committedId) {
+            return DONE;
+        }
+        var ret = this.waiters.computeIfAbsent(entryId, k -> new CompletableFuture<>());
+        // the tracker may have been advanced before the future was added
+        if (entryId <= this.committedId) {
+            this.completeWaiters();
+        }
+        return ret;
+    }
+
+    /**
+     * Check whether any writer is waiting for an entry id not greater than the specified one.
+     */
+    boolean hasWaitersUpTo(long entryId) {
+        var first = this.waiters.firstEntry();
+        return first != null && first.getKey() <= entryId;
+    }
+
+    void advance(long entryId) {
+        if (entryId > this.committedId) {
+            this.committedId = entryId;
+        }
+        this.completeWaiters();
+    }
+
+    void failAll(Throwable cause) {
+        for (var entry = this.waiters.pollFirstEntry(); entry != null; entry = this.waiters.pollFirstEntry()) {
+            entry.getValue().completeExceptionally(cause);
+        }
+    }
+
+    private void completeWaiters() {
+        for (var entry = this.waiters.firstEntry();
+                entry != null && entry.getKey() <= this.committedId;
+                entry = this.waiters.firstEntry()) {
+            this.waiters.remove(entry.getKey(), entry.getValue());
+            entry.getValue().complete(null);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2022 Starwhale, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.starwhale.mlops.datastore.wal;
+
+import ai.starwhale.mlops.exception.SwValidationException;
+import java.util.Locale;
+
+/**
+ * When an update is acknowledged to the writer.
+ */
+public enum WalDurability {
+    /**
+     * As soon as the entry is queued. The entry may be lost if the server crashes.
+     */
+    ASYNC,
+    /**
+     * After the entry is written to the local log file and the file is synced to the disk.
+     */
+    LOCAL_FSYNC,
+    /**
+     * After the log file containing the entry is pushed to the object storage.
+     */
+    REMOTE_ACK;
+
+    /**
+     * Parse the durability from its name, which is case-insensitive and may use '-' instead of '_', e.g. local-fsync.
+     */
+    public static WalDurability parse(String value) {
+        try {
+            return WalDurability.valueOf(value.toUpperCase(Locale.ROOT).replace('-', '_'));
+        } catch (IllegalArgumentException e) {
+            throw new SwValidationException(SwValidationException.ValidSubject.DATASTORE,
+                    "invalid durability " + value + ", should be one of async, local-fsync and remote-ack", e);
+        }
+    }
+}
@@ -46,6 +46,8 @@ public class WalLocalFileManager {
 
     private LogFileInfo logFileInfo;
 
+    private FileChannel channel;
+
     private OutputStream outputStream;
 
     private int currentFileSize;
@@ -111,6 +113,7 @@ public class WalLocalFileManager {
             } else {
                 var ch = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
                 ch.truncate(this.currentFileSize);
+                this.channel = ch;
                 this.outputStream = Channels.newOutputStream(ch);
             }
         }
@@ -150,6 +153,7 @@ public class WalLocalFileManager {
                     log.error("failed to close", e1);
                 }
                 this.outputStream = null;
+                this.channel = null;
             }
             throw e;
         }
@@ -159,6 +163,18 @@ public class WalLocalFileManager {
         return ret;
     }
 
+    /**
+     * Force all entries written so far to the disk. Log files before the current one are synced when they are
+     * closed.
+     *
+     * @throws IOException if the sync failed
+     */
+    public void sync() throws IOException {
+        if (this.channel != null) {
+            this.channel.force(false);
+        }
+    }
+
     public Iterator<WalEntry> readAll(int maxUncompressedSize, List<LogFileInfo> infoList) {
         return new WalEntryReader(this.indexes, maxUncompressedSize, true) {
 
@@ -200,6 +216,7 @@ public class WalLocalFileManager {
     private void initLogFile() {
         if (this.outputStream != null) {
             try {
+                this.sync();
                 this.outputStream.close();
             } catch (IOException e) {
                 log.error("failed to close", e);
@@ -209,10 +226,11 @@ public class WalLocalFileManager {
         this.logFileInfo = new LogFileInfo(this.logFileIndex);
         for (int i = 0; ; i++) {
             try {
-                this.outputStream = Files.newOutputStream(this.logFileInfo.getPath(),
+                this.channel = FileChannel.open(this.logFileInfo.getPath(),
                         StandardOpenOption.CREATE,
                         StandardOpenOption.WRITE,
                         StandardOpenOption.TRUNCATE_EXISTING);
+                this.outputStream = Channels.newOutputStream(this.channel);
                 this.outputStream.write(WalManager.HEADER, 0, WalManager.HEADER.length);
                 return;
             } catch (IOException e) {
@@ -22,15 +22,28 @@ import ai.starwhale.mlops.exception.SwProcessException.ErrorType;
 import ai.starwhale.mlops.exception.SwValidationException;
 import ai.starwhale.mlops.storage.StorageAccessService;
 import com.google.protobuf.CodedOutputStream;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Path;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import lombok.extern.slf4j.Slf4j;
@@ -44,34 +57,79 @@ public class WalManager extends Thread {
 
     public static final byte[] HEADER = new byte[]{'s', 'w', 'l', NO_COMPRESSION};
 
-    private static final long FLUSH_ID = -12345;
+    private static final int RING_CAPACITY = 1 << 12;
+
+    private static final int RING_MASK = RING_CAPACITY - 1;
+
+    // the writer thread also wakes up periodically in case of a missed unpark
+    private static final long WRITER_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final long APPENDER_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    /**
+     * Entries waiting to be written, indexed by entry id modulo the capacity.
+     *
+     * <p>Appenders reserve consecutive ids by CAS on lastEntryId and publish their entries to the slots. The writer
+     * thread is the only consumer and takes entries in id order, stopping at the first slot not published yet. An
+     * appender whose slot is still occupied by an entry of the previous round waits until the writer consumes it.
+     */
+    private final AtomicReferenceArray<WalEntry> ring = new AtomicReferenceArray<>(RING_CAPACITY);
+
+    // the id of the last entry appended
+    private final AtomicLong lastEntryId = new AtomicLong();
+
+    // the id of the last entry taken out of the ring by the writer thread
+    private volatile long consumedId;
+
+    private final AtomicInteger activeAppenders = new AtomicInteger();
+
+    private final CommitTracker written = new CommitTracker();
+
+    private final CommitTracker synced = new CommitTracker();
+
+    private final CommitTracker pushed = new CommitTracker();
 
-    private final LinkedList<WalEntry> entriesToWrite = new LinkedList<>();
     private final int walMaxFileSize;
     private final int walMaxFileSizeNoHeader;
     private volatile boolean terminated;
 
-    private long maxEntryId;
-
     private final WalLocalFileManager walLocalFileManager;
 
     private final WalRemoteFileManager walRemoteFileManager;
 
+    private final DistributionSummary batchSizeSummary;
+
+    private final Map<WalDurability, Timer> commitTimers = new EnumMap<>(WalDurability.class);
+
 
     public WalManager(StorageAccessService storageAccessService,
             int walMaxFileSize,
             Path walLocalCacheDir,
             String walPrefix,
-            int ossMaxAttempts) throws IOException {
+            int ossMaxAttempts,
+            MeterRegistry meterRegistry) throws IOException {
         this.walMaxFileSize = walMaxFileSize;
         this.walMaxFileSizeNoHeader = walMaxFileSize - WalManager.HEADER.length;
         this.walRemoteFileManager = new WalRemoteFileManager(storageAccessService,
                 ossMaxAttempts,
                 walPrefix + "wal.log."
         );
+        this.walRemoteFileManager.setPushListener(this.pushed::advance);
         this.walLocalFileManager = new WalLocalFileManager(walLocalCacheDir,
                 walMaxFileSize,
                 this.walRemoteFileManager.getMaxIndex() + 1);
+        this.batchSizeSummary = DistributionSummary.builder("sw.datastore.wal.batch.size")
+                .description("number of entries written to the local log file at a time")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        for (var durability : WalDurability.values()) {
+            this.commitTimers.put(durability, Timer.builder("sw.datastore.wal.commit.latency")
+                    .description("time from requesting a commit to the entry reaching the durability")
+                    .tags(Tags.of("durability", durability.name().toLowerCase(Locale.ROOT).replace('_', '-')))
+                    .publishPercentileHistogram()
+                    .register(meterRegistry));
+        }
+        this.setName("wal-writer");
         this.start();
     }
 
@@ -88,6 +146,11 @@ public class WalManager extends Thread {
             public boolean hasNext() {
                 var ret = remoteReader.hasNext() || localReader.hasNext();
                 if (!ret) {
+                    // entries read back are all on the local disk or the storage already
+                    var maxEntryId = WalManager.this.lastEntryId.get();
+                    WalManager.this.written.advance(maxEntryId);
+                    WalManager.this.synced.advance(maxEntryId);
+                    WalManager.this.pushed.advance(maxEntryId);
                     for (var info : infoList) {
                         WalManager.this.walRemoteFileManager.push(info);
                     }
@@ -103,68 +166,101 @@ public class WalManager extends Thread {
                 } else {
                     entry = localReader.next();
                 }
-                WalManager.this.maxEntryId = entry.getId();
+                WalManager.this.lastEntryId.set(entry.getId());
+                WalManager.this.consumedId = entry.getId();
                 return entry;
             }
         };
     }
 
     public long getMaxEntryId() {
-        synchronized (this.entriesToWrite) {
-            return this.maxEntryId;
-        }
+        return this.lastEntryId.get();
     }
 
     public long append(WalEntry.Builder builder) {
-        synchronized (this.entriesToWrite) {
+        this.activeAppenders.incrementAndGet();
+        try {
             if (this.terminated) {
                 throw new SwProcessException(SwProcessException.ErrorType.DATASTORE, "terminated");
             }
-            var entry = builder.setId(this.maxEntryId + 1).build();
-            if (CodedOutputStream.computeMessageSizeNoTag(entry) <= this.walMaxFileSizeNoHeader) {
-                this.entriesToWrite.add(entry);
-                ++this.maxEntryId;
-            } else {
-                this.splitEntryAndAppend(entry);
+            List<WalEntry> entries;
+            long firstId;
+            do {
+                // entry ids affect the entry sizes, so the entries are rebuilt if the ids are taken by others
+                firstId = this.lastEntryId.get() + 1;
+                var entry = builder.setId(firstId).build();
+                if (CodedOutputStream.computeMessageSizeNoTag(entry) <= this.walMaxFileSizeNoHeader) {
+                    entries = List.of(entry);
+                } else {
+                    entries = this.splitEntry(entry);
+                }
+            } while (!this.lastEntryId.compareAndSet(firstId - 1, firstId + entries.size() - 1));
+            for (var entry : entries) {
+                this.publish(entry);
             }
-            this.entriesToWrite.notifyAll();
-            return this.maxEntryId;
+            LockSupport.unpark(this);
+            return firstId + entries.size() - 1;
+        } finally {
+            this.activeAppenders.decrementAndGet();
+        }
+    }
+
+    /**
+     * Get a future which is completed once the entry and all entries before it reach the durability.
+     *
+     * @param entryId    the entry id returned by {@link #append(WalEntry.Builder)}
+     * @param durability the durability to wait for
+     * @return the future
+     */
+    public CompletableFuture<Void> commit(long entryId, WalDurability durability) {
+        var start = System.nanoTime();
+        CompletableFuture<Void> ret;
+        switch (durability) {
+            case ASYNC:
+                ret = CompletableFuture.completedFuture(null);
+                break;
+            case LOCAL_FSYNC:
+                ret = this.synced.waitFor(entryId);
+                // the writer may be idle with everything written but not synced
+                LockSupport.unpark(this);
+                break;
+            case REMOTE_ACK:
+                ret = this.pushed.waitFor(entryId);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown durability " + durability);
         }
+        var timer = this.commitTimers.get(durability);
+        return ret.whenComplete((v, e) -> timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
     }
 
     public void flush() {
-        var entry = WalEntry.newBuilder().setId(FLUSH_ID).build();
-        //noinspection SynchronizationOnLocalVariableOrMethodParameter
-        synchronized (entry) {
-            synchronized (this.entriesToWrite) {
-                if (this.terminated) {
-                    throw new SwProcessException(SwProcessException.ErrorType.DATASTORE, "terminated");
-                }
-                this.entriesToWrite.add(entry);
-                this.entriesToWrite.notifyAll();
-            }
-            try {
-                entry.wait();
-            } catch (InterruptedException e) {
-                log.error("interrupted", e);
-            }
+        if (this.terminated) {
+            throw new SwProcessException(SwProcessException.ErrorType.DATASTORE, "terminated");
+        }
+        try {
+            this.written.waitFor(this.lastEntryId.get()).join();
+        } catch (CompletionException e) {
+            log.error("failed to flush", e.getCause());
         }
     }
 
     public void terminate() {
-        synchronized (this.entriesToWrite) {
-            if (this.terminated) {
-                return;
-            }
-            this.terminated = true;
-            this.entriesToWrite.notifyAll();
+        if (this.terminated) {
+            return;
         }
+        this.terminated = true;
+        LockSupport.unpark(this);
         try {
             this.join();
         } catch (InterruptedException e) {
             log.warn("interrupted", e);
         }
         this.walRemoteFileManager.terminate();
+        var e = new SwProcessException(SwProcessException.ErrorType.DATASTORE, "terminated");
+        this.written.failAll(e);
+        this.synced.failAll(e);
+        this.pushed.failAll(e);
     }
 
     /**
@@ -183,67 +279,92 @@ public class WalManager extends Thread {
 
     @Override
     public void run() {
+        var batch = new ArrayList<WalEntry>();
         for (; ; ) {
-            List<WalEntry> entriesBatch = new ArrayList<>();
-            List<WalEntry> entriesToNotify = new ArrayList<>();
-            synchronized (this.entriesToWrite) {
-                while (!this.terminated && this.entriesToWrite.isEmpty()) {
-                    try {
-                        this.entriesToWrite.wait();
-                    } catch (InterruptedException e) {
-                        log.warn("interrupted", e);
-                    }
-                }
-                if (this.entriesToWrite.isEmpty()) {
-                    // terminated
+            batch.clear();
+            var nextId = this.consumedId + 1;
+            for (; ; ++nextId) {
+                var index = (int) (nextId & RING_MASK);
+                var entry = this.ring.get(index);
+                if (entry == null || entry.getId() != nextId) {
                     break;
                 }
-                for (var entry : this.entriesToWrite) {
-                    if (entry.getId() == FLUSH_ID) {
-                        entriesToNotify.add(entry);
-                    } else {
-                        entriesBatch.add(entry);
-                    }
+                this.ring.compareAndSet(index, entry, null);
+                batch.add(entry);
+            }
+            if (batch.isEmpty()) {
+                var writtenId = this.written.getCommittedId();
+                if (this.synced.hasWaitersUpTo(writtenId) && this.sync(writtenId)) {
+                    continue;
                 }
-                this.entriesToWrite.clear();
+                // appenders check terminated after registering themselves, so no entry comes after this check
+                if (this.terminated && this.activeAppenders.get() == 0
+                        && this.lastEntryId.get() == this.consumedId) {
+                    break;
+                }
+                LockSupport.parkNanos(this, WRITER_PARK_NANOS);
+                continue;
             }
-            if (!entriesBatch.isEmpty()) {
-                for (int i = 0; ; ++i) {
+            this.consumedId = nextId - 1;
+            this.batchSizeSummary.record(batch.size());
+            List<WalEntry> entriesToWrite = batch;
+            for (int i = 0; ; ++i) {
+                try {
+                    int n = this.walLocalFileManager.write(entriesToWrite);
+                    this.walRemoteFileManager.push(this.walLocalFileManager.getCurrentLogFileInfo());
+                    if (n == entriesToWrite.size()) {
+                        break;
+                    }
+                    entriesToWrite = entriesToWrite.subList(n, entriesToWrite.size());
+                    i = 0;
+                } catch (IOException e) {
+                    if (i % 30 == 0) {
+                        log.error("fail to write wal log", e);
+                    }
                     try {
-                        int n = this.walLocalFileManager.write(entriesBatch);
-                        this.walRemoteFileManager.push(this.walLocalFileManager.getCurrentLogFileInfo());
-                        if (n == entriesBatch.size()) {
-                            break;
-                        }
-                        entriesBatch = entriesBatch.subList(n, entriesBatch.size());
-                        i = 0;
-                    } catch (IOException e) {
-                        if (i % 30 == 0) {
-                            log.error("fail to write wal log", e);
-                        }
-                        try {
-                            //noinspection BusyWait
-                            Thread.sleep(Math.min((1 << i) * 10, 10000));
-                        } catch (InterruptedException e1) {
-                            // ignore
-                        }
+                        //noinspection BusyWait
+                        Thread.sleep(Math.min((1 << i) * 10, 10000));
+                    } catch (InterruptedException e1) {
+                        // ignore
                     }
                 }
             }
-            for (var entry : entriesToNotify) {
-                //noinspection SynchronizationOnLocalVariableOrMethodParameter
-                synchronized (entry) {
-                    entry.notify();
-                }
+            if (this.synced.hasWaitersUpTo(this.consumedId)) {
+                this.sync(this.consumedId);
             }
+            this.written.advance(this.consumedId);
         }
+        this.sync(this.consumedId);
     }
 
+    private boolean sync(long entryId) {
+        if (entryId <= this.synced.getCommittedId()) {
+            return true;
+        }
+        try {
+            this.walLocalFileManager.sync();
+            this.synced.advance(entryId);
+            return true;
+        } catch (IOException e) {
+            log.error("fail to sync wal log", e);
+            return false;
+        }
+    }
+
+    private void publish(WalEntry entry) {
+        var id = entry.getId();
+        while (id - RING_CAPACITY > this.consumedId) {
+            LockSupport.unpark(this);
+            LockSupport.parkNanos(APPENDER_PARK_NANOS);
+        }
+        this.ring.set((int) (id & RING_MASK), entry);
+    }
 
-    private void splitEntryAndAppend(WalEntry entry) {
+    private List<WalEntry> splitEntry(WalEntry entry) {
         List<WalEntry> entries = new ArrayList<>();
+        var firstId = entry.getId();
         var builder = WalEntry.newBuilder()
-                .setId(this.maxEntryId + 1)
+                .setId(firstId)
                 .setEntryType(WalEntry.Type.UPDATE)
                 .setTableName(entry.getTableName());
         if (entry.hasTableSchema()) {
@@ -264,7 +385,7 @@ public class WalManager extends Thread {
                 entries.add(builder.build());
                 builder.clearTableSchema();
                 builder.clearRecords();
-                builder.setId(this.maxEntryId + entries.size() + 1);
+                builder.setId(firstId + entries.size());
                 currentEntrySize = builder.build().getSerializedSize() + recordSize;
                 if (currentEntrySize + CodedOutputStream.computeUInt32SizeNoTag(currentEntrySize)
                         > this.walMaxFileSizeNoHeader) {
@@ -283,8 +404,7 @@ public class WalManager extends Thread {
                         "invalid entry size " + e.getSerializedSize());
             }
         }
-        this.entriesToWrite.addAll(entries);
-        this.maxEntryId += entries.size();
+        return entries;
     }
 
     static List<Long> parseIndexes(Stream<String> stream) {
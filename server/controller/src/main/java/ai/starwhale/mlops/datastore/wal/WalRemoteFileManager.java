@@ -25,16 +25,23 @@ import io.github.resilience4j.core.IntervalFunction;
 import io.github.resilience4j.retry.Retry;
 import io.github.resilience4j.retry.RetryConfig;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.StandardOpenOption;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.TreeMap;
+import java.util.function.LongConsumer;
 import java.util.stream.Collectors;
 import lombok.extern.slf4j.Slf4j;
 import org.xerial.snappy.Snappy;
@@ -42,6 +49,8 @@ import org.xerial.snappy.Snappy;
 @Slf4j
 public class WalRemoteFileManager extends Thread {
 
+    private static final String CHUNK_INFIX = ".chunk.";
+
     private volatile boolean terminated;
     private final StorageAccessService storageAccessService;
 
@@ -54,18 +63,33 @@ public class WalRemoteFileManager extends Thread {
 
     private final TreeMap<Long, Long> indexEntryIdMap = new TreeMap<>();
 
+    // chunk keys of each log file, the content of a log file is its sealed object followed by its chunks
+    private final TreeMap<Long, List<String>> chunkKeys = new TreeMap<>();
+
+    // the size of each local log file which has been uploaded by this process, only accessed by the push thread
+    private final Map<Long, Integer> uploadedSizes = new HashMap<>();
+
+    // called with the max entry id of each log file pushed
+    private volatile LongConsumer pushListener;
+
     public WalRemoteFileManager(StorageAccessService storageAccessService, int ossMaxAttempts, String logFilePrefix) {
         this.storageAccessService = storageAccessService;
         this.ossMaxAttempts = ossMaxAttempts;
         this.logFilePrefix = logFilePrefix;
         try {
-            var indexes = WalManager.parseIndexes(Retry.decorateCheckedSupplier(
+            var keys = Retry.decorateCheckedSupplier(
                             this.createRetry("list"),
-                            () -> this.storageAccessService.list(this.logFilePrefix))
-                    .apply());
-            for (var index : indexes) {
+                            () -> this.storageAccessService.list(this.logFilePrefix).collect(Collectors.toList()))
+                    .apply();
+            for (var index : WalManager.parseIndexes(keys.stream())) {
                 this.indexEntryIdMap.put(index, -1L);
             }
+            for (var key : keys) {
+                var chunk = this.parseChunkKey(key);
+                if (chunk != null) {
+                    this.chunkKeys.computeIfAbsent(chunk[0], k -> new ArrayList<>()).add(key);
+                }
+            }
         } catch (Throwable e) {
             throw new SwProcessException(SwProcessException.ErrorType.DATASTORE, "fail to list WAL", e);
         }
@@ -82,6 +106,10 @@ public class WalRemoteFileManager extends Thread {
     }
 
 
+    public void setPushListener(LongConsumer pushListener) {
+        this.pushListener = pushListener;
+    }
+
     public void terminate() {
         this.terminated = true;
         synchronized (this.logFileToPush) {
@@ -109,30 +137,93 @@ public class WalRemoteFileManager extends Thread {
             }
 
             protected byte[] readLogFile(long logIndex) {
-                try {
-                    return Retry.decorateCheckedSupplier(
-                                    WalRemoteFileManager.this.createRetry("get"),
-                                    () -> {
-                                        try (var input = WalRemoteFileManager.this.storageAccessService.get(
-                                                WalRemoteFileManager.this.logFilePrefix + logIndex)) {
-                                            int len = Math.toIntExact(input.getSize());
-                                            var ret = new byte[len];
-                                            var n = input.readNBytes(ret, 0, len);
-                                            if (n != len) {
-                                                throw new RuntimeException(
-                                                        MessageFormat.format("expected size {0}, actual {1}", len, n));
-                                            }
-                                            return ret;
-                                        }
-                                    })
-                            .apply();
-                } catch (Throwable e) {
-                    throw new SwProcessException(ErrorType.DATASTORE, "fail to read from storage", e);
+                var data = WalRemoteFileManager.this.readObject(WalRemoteFileManager.this.logFilePrefix + logIndex);
+                List<String> chunks;
+                synchronized (WalRemoteFileManager.this.chunkKeys) {
+                    chunks = new ArrayList<>(WalRemoteFileManager.this.chunkKeys.getOrDefault(logIndex, List.of()));
+                }
+                if (chunks.isEmpty()) {
+                    return data;
                 }
+                return WalRemoteFileManager.this.appendChunks(data, chunks, maxUncompressedSize);
             }
         };
     }
 
+    private byte[] readObject(String key) {
+        try {
+            return Retry.decorateCheckedSupplier(
+                            this.createRetry("get"),
+                            () -> {
+                                try (var input = this.storageAccessService.get(key)) {
+                                    int len = Math.toIntExact(input.getSize());
+                                    var ret = new byte[len];
+                                    var n = input.readNBytes(ret, 0, len);
+                                    if (n != len) {
+                                        throw new RuntimeException(
+                                                MessageFormat.format("expected size {0}, actual {1}", len, n));
+                                    }
+                                    return ret;
+                                }
+                            })
+                    .apply();
+        } catch (Throwable e) {
+            throw new SwProcessException(ErrorType.DATASTORE, "fail to read from storage", e);
+        }
+    }
+
+    /**
+     * Append the chunks continuing the sealed log file, and return the merged log file without compression.
+     */
+    private byte[] appendChunks(byte[] data, List<String> chunks, int maxUncompressedSize) {
+        var buffer = new byte[maxUncompressedSize];
+        var out = new ByteArrayOutputStream();
+        try {
+            out.write(WalManager.HEADER);
+            WalManager.newWalEntryInputStream(data, buffer).transferTo(out);
+            chunks.sort(Comparator.comparingLong(key -> this.parseChunkKey(key)[1]));
+            for (var key : chunks) {
+                var chunk = this.parseChunkKey(key);
+                if (chunk[1] < out.size()) {
+                    // left by a previous process and covered by the sealed file
+                    continue;
+                }
+                if (chunk[1] > out.size()) {
+                    log.warn("ignore {} and the following chunks, expected offset {}", key, out.size());
+                    break;
+                }
+                WalManager.newWalEntryInputStream(this.readObject(key), buffer).transferTo(out);
+            }
+        } catch (IOException e) {
+            throw new SwProcessException(ErrorType.DATASTORE, "fail to merge chunks", e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Parse the chunk key in the form of {prefix}{index}.chunk.{start}-{end}, where start and end are the offsets in
+     * the local log file.
+     *
+     * @return [index, start, end], or null if the key is not a chunk key
+     */
+    private long[] parseChunkKey(String key) {
+        var name = key.substring(this.logFilePrefix.length());
+        var pos = name.indexOf(CHUNK_INFIX);
+        if (pos < 0) {
+            return null;
+        }
+        var range = name.substring(pos + CHUNK_INFIX.length()).split("-");
+        if (range.length != 2) {
+            return null;
+        }
+        try {
+            return new long[]{Long.parseLong(name.substring(0, pos)),
+                    Long.parseLong(range[0]),
+                    Long.parseLong(range[1])};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
 
     public void push(LogFileInfo info) {
         synchronized (this.logFileToPush) {
@@ -159,41 +250,14 @@ public class WalRemoteFileManager extends Thread {
                 }
             }
             try {
-                try (var in = Files.newInputStream(info.getPath(), StandardOpenOption.READ)) {
-                    var b = in.readNBytes(info.getSize());
-                    if (b.length != info.getSize()) {
-                        throw new RuntimeException(
-                                MessageFormat.format("invalid file {0}, expected size {1}, actual {2}",
-                                        info.getPath(), info.getSize(), b.length));
-                    }
-                    int compressedSize;
-                    var compressedBuffer = new byte[b.length + 100];
-                    try {
-                        compressedBuffer[0] = WalManager.HEADER[0];
-                        compressedBuffer[1] = WalManager.HEADER[1];
-                        compressedBuffer[2] = WalManager.HEADER[2];
-                        compressedBuffer[3] = WalManager.SNAPPY;
-                        compressedSize =
-                                Snappy.compress(
-                                        b,
-                                        WalManager.HEADER.length,
-                                        b.length - WalManager.HEADER.length,
-                                        compressedBuffer,
-                                        WalManager.HEADER.length);
-                        compressedSize += WalManager.HEADER.length;
-                        if (compressedSize > info.getSize()) {
-                            compressedBuffer = b;
-                            compressedSize = b.length;
-                        }
-                    } catch (IOException e) {
-                        log.warn("failed to compress", e);
-                        compressedBuffer = b;
-                        compressedSize = b.length;
-                    }
-                    this.writeToStorageAccessService(this.logFilePrefix + info.getIndex(),
-                            new ByteArrayInputStream(compressedBuffer, 0, compressedSize), compressedSize);
-                }
+                this.pushLogFile(info);
                 if (this.lastPushed != null && info.getIndex() > this.lastPushed.getIndex()) {
+                    var lastIndex = this.lastPushed.getIndex();
+                    if (this.hasChunks(lastIndex) && this.uploadedSizes.containsKey(lastIndex)) {
+                        // the log file is complete, merge its chunks into the sealed file
+                        this.uploadLogFile(this.lastPushed);
+                    }
+                    this.uploadedSizes.keySet().removeIf(index -> index <= lastIndex);
                     log.debug("remove {}", this.lastPushed.getPath());
                     Files.delete(this.lastPushed.getPath());
                 }
@@ -201,6 +265,10 @@ public class WalRemoteFileManager extends Thread {
                     this.indexEntryIdMap.put(info.getIndex(), info.getMaxEntryId());
                 }
                 this.lastPushed = info;
+                var listener = this.pushListener;
+                if (listener != null) {
+                    listener.accept(info.getMaxEntryId());
+                }
                 synchronized (this.logFileToPush) {
                     this.logFileToPush.remove(info.getIndex(), info);
                 }
@@ -214,6 +282,16 @@ public class WalRemoteFileManager extends Thread {
                 }
             }
         }
+        // merge the chunks of the last log file, so that the next start reads only one object
+        if (this.lastPushed != null
+                && this.hasChunks(this.lastPushed.getIndex())
+                && this.uploadedSizes.containsKey(this.lastPushed.getIndex())) {
+            try {
+                this.uploadLogFile(this.lastPushed);
+            } catch (Throwable e) {
+                log.warn("failed to merge chunks of {}", this.lastPushed.getPath(), e);
+            }
+        }
     }
 
     public void removeWalLogFiles(long minWalLogIdToRetain) throws IOException {
@@ -227,9 +305,13 @@ public class WalRemoteFileManager extends Thread {
                     .map(Entry::getKey)
                     .collect(Collectors.toList());
         }
+        // the log files and their chunks are deleted in one batch
+        var keys = new ArrayList<String>();
         for (var logIndex : indexesToRemove) {
-            this.storageAccessService.delete(this.logFilePrefix + logIndex);
+            keys.add(this.logFilePrefix + logIndex);
+            keys.addAll(this.removeChunkKeys(logIndex));
         }
+        this.storageAccessService.deleteAll(keys);
         synchronized (this.indexEntryIdMap) {
             for (var logIndex : indexesToRemove) {
                 this.indexEntryIdMap.remove(logIndex);
@@ -237,12 +319,97 @@ public class WalRemoteFileManager extends Thread {
         }
     }
 
-    private void writeToStorageAccessService(String key, InputStream inputStream, long size) throws Throwable {
+    /**
+     * Upload the new bytes of the local log file. The first push of a log file in this process uploads the whole
+     * file, which also replaces the chunks left by previous processes. The following pushes only upload the bytes
+     * appended since the last push as chunks.
+     */
+    private void pushLogFile(LogFileInfo info) throws Throwable {
+        var uploadedSize = this.uploadedSizes.get(info.getIndex());
+        if (uploadedSize == null) {
+            this.uploadLogFile(info);
+        } else if (info.getSize() > uploadedSize) {
+            var key = this.logFilePrefix + info.getIndex() + CHUNK_INFIX + uploadedSize + "-" + info.getSize();
+            var data = WalRemoteFileManager.readLocalFile(info, uploadedSize);
+            this.writeToStorageAccessService(key, WalRemoteFileManager.encode(data, 0, data.length));
+            synchronized (this.chunkKeys) {
+                this.chunkKeys.computeIfAbsent(info.getIndex(), k -> new ArrayList<>()).add(key);
+            }
+            this.uploadedSizes.put(info.getIndex(), info.getSize());
+        }
+    }
+
+    private void uploadLogFile(LogFileInfo info) throws Throwable {
+        var data = WalRemoteFileManager.readLocalFile(info, 0);
+        this.writeToStorageAccessService(this.logFilePrefix + info.getIndex(),
+                WalRemoteFileManager.encode(data, WalManager.HEADER.length, data.length - WalManager.HEADER.length));
+        this.uploadedSizes.put(info.getIndex(), info.getSize());
+        this.deleteChunks(info.getIndex());
+    }
+
+    private boolean hasChunks(long index) {
+        synchronized (this.chunkKeys) {
+            return this.chunkKeys.containsKey(index);
+        }
+    }
+
+    private void deleteChunks(long index) throws IOException {
+        var keys = this.removeChunkKeys(index);
+        if (!keys.isEmpty()) {
+            this.storageAccessService.deleteAll(keys);
+        }
+    }
+
+    private List<String> removeChunkKeys(long index) {
+        List<String> keys;
+        synchronized (this.chunkKeys) {
+            keys = this.chunkKeys.remove(index);
+        }
+        return keys == null ? List.of() : keys;
+    }
+
+    private static byte[] readLocalFile(LogFileInfo info, int offset) throws IOException {
+        var buf = ByteBuffer.allocate(info.getSize() - offset);
+        try (var channel = FileChannel.open(info.getPath(), StandardOpenOption.READ)) {
+            while (buf.hasRemaining()) {
+                if (channel.read(buf, offset + buf.position()) < 0) {
+                    throw new RuntimeException(
+                            MessageFormat.format("invalid file {0}, expected size {1}, actual {2}",
+                                    info.getPath(), info.getSize(), offset + buf.position()));
+                }
+            }
+        }
+        return buf.array();
+    }
+
+    /**
+     * Encode the log data with the header, the data is compressed if it gets smaller.
+     */
+    private static byte[] encode(byte[] data, int offset, int length) {
+        var header = WalManager.HEADER.length;
+        try {
+            var ret = new byte[header + Snappy.maxCompressedLength(length)];
+            var compressedSize = Snappy.compress(data, offset, length, ret, header);
+            if (compressedSize < length) {
+                System.arraycopy(WalManager.HEADER, 0, ret, 0, header);
+                ret[header - 1] = WalManager.SNAPPY;
+                return Arrays.copyOf(ret, header + compressedSize);
+            }
+        } catch (IOException e) {
+            log.warn("failed to compress", e);
+        }
+        var ret = new byte[header + length];
+        System.arraycopy(WalManager.HEADER, 0, ret, 0, header);
+        System.arraycopy(data, offset, ret, header, length);
+        return ret;
+    }
+
+    private void writeToStorageAccessService(String key, byte[] data) throws Throwable {
         Retry.decorateCheckedRunnable(
                         this.createRetry("put"),
                         () -> this.storageAccessService.put(key,
-                                inputStream,
-                                size))
+                                new ByteArrayInputStream(data),
+                                data.length))
                 .run();
     }
 
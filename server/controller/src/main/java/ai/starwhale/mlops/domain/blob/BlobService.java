@@ -18,6 +18,8 @@ package ai.starwhale.mlops.domain.blob;
 
 import ai.starwhale.mlops.storage.LengthAbleInputStream;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
 
 public interface BlobService {
 
@@ -35,5 +37,10 @@ public interface BlobService {
 
     String getSignedUrl(String blobId) throws IOException;
 
+    /**
+     * @return the signed urls of the blobs, keyed by the blob ids
+     */
+    Map<String, String> getSignedUrls(Collection<String> blobIds) throws IOException;
+
     String getSignedPutUrl(String blobId) throws IOException;
 }
@@ -25,7 +25,11 @@ import ai.starwhale.mlops.storage.StorageAccessService;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Random;
+import java.util.stream.Collectors;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.convert.DurationStyle;
 
@@ -119,6 +123,18 @@ public class BlobServiceImpl implements BlobService {
         return this.storageAccessService.signedUrl(this.getObjectPath(blobId), this.urlExpirationTimeMillis);
     }
 
+    @Override
+    public Map<String, String> getSignedUrls(Collection<String> blobIds) throws IOException {
+        var urls = this.storageAccessService.signAll(
+                blobIds.stream().map(this::getObjectPath).collect(Collectors.toList()),
+                this.urlExpirationTimeMillis);
+        var ret = new HashMap<String, String>();
+        for (var blobId : blobIds) {
+            ret.put(blobId, urls.get(this.getObjectPath(blobId)));
+        }
+        return ret;
+    }
+
 
     @Override
     public String getSignedPutUrl(String blobId) throws IOException {
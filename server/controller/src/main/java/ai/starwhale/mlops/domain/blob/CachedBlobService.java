@@ -24,7 +24,10 @@ import ai.starwhale.mlops.storage.memory.StorageAccessServiceMemory;
 import ai.starwhale.mlops.storage.qcloud.StorageAccessServiceQcloud;
 import ai.starwhale.mlops.storage.s3.StorageAccessServiceS3;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import org.springframework.stereotype.Service;
 
@@ -98,6 +101,19 @@ public class CachedBlobService implements BlobService {
         return this.getBlobServiceByBlobId(blobId).getSignedUrl(blobId);
     }
 
+    @Override
+    public Map<String, String> getSignedUrls(Collection<String> blobIds) throws IOException {
+        var groups = new HashMap<BlobService, List<String>>();
+        for (var blobId : blobIds) {
+            groups.computeIfAbsent(this.getBlobServiceByBlobId(blobId), k -> new ArrayList<>()).add(blobId);
+        }
+        var ret = new HashMap<String, String>();
+        for (var entry : groups.entrySet()) {
+            ret.putAll(entry.getKey().getSignedUrls(entry.getValue()));
+        }
+        return ret;
+    }
+
 
     public String getSignedPutUrl(String blobId) throws IOException {
         return this.getBlobServiceByBlobId(blobId).getSignedPutUrl(blobId);
@@ -438,6 +438,12 @@ public class DatasetService {
     }
 
     public Map<String, String> signLinks(String project, String datasetName, Set<String> uris, Long expTimeMillis) {
+        try {
+            return uriAccessor.linksOf(uris, expTimeMillis);
+        } catch (Exception e) {
+            log.warn("failed to sign the links in batch, sign them one by one", e);
+        }
+        // the links that fail to be signed are empty
         return uris.stream().collect(Collectors.toMap(u -> u, u -> {
             try {
                 return signLink(u, expTimeMillis);
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2022 Starwhale, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.starwhale.mlops.domain.dataset.dataloader;
+
+import ai.starwhale.mlops.domain.dataset.dataloader.bo.DataIndex;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits keys fed in key order into ranges of batchSize keys.
+ *
+ * <p>Each range starts at its first key inclusively and ends at the first key of the next range exclusively. The last
+ * range is open-ended.
+ */
+class DataIndexSplitter {
+
+    private final int batchSize;
+
+    private final List<DataIndex> indices = new ArrayList<>();
+
+    private String start;
+
+    private String startType;
+
+    private String lastType;
+
+    private int count;
+
+    DataIndexSplitter(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    void add(String key, String type) {
+        if (this.count == 0) {
+            this.start = key;
+            this.startType = type;
+        } else if (this.count == this.batchSize) {
+            this.indices.add(DataIndex.builder()
+                    .start(this.start)
+                    .startType(this.startType)
+                    .end(key)
+                    .endType(type)
+                    .size(this.batchSize)
+                    .build());
+            this.start = key;
+            this.startType = type;
+            this.count = 0;
+        }
+        this.lastType = type;
+        ++this.count;
+    }
+
+    List<DataIndex> finish() {
+        if (this.count > 0) {
+            this.indices.add(DataIndex.builder()
+                    .start(this.start)
+                    .startType(this.startType)
+                    .end(null)
+                    .endType(this.lastType)
+                    .size(this.count)
+                    .build());
+            this.count = 0;
+        }
+        return this.indices;
+    }
+}
@@ -31,11 +31,14 @@ import org.springframework.stereotype.Service;
 @Service
 public class DataLoader {
     private final DataReadManager dataReadManager;
+    private final DataReadLeaseEngine dataReadLeaseEngine;
     private final Integer lockWaitSeconds;
 
     public DataLoader(DataReadManager dataReadManager,
+                      DataReadLeaseEngine dataReadLeaseEngine,
                       @Value("${sw.dataset.load.read.lock-wait-seconds}") int lockWaitSeconds) {
         this.dataReadManager = dataReadManager;
+        this.dataReadLeaseEngine = dataReadLeaseEngine;
         this.lockWaitSeconds = lockWaitSeconds;
     }
 
@@ -56,6 +59,12 @@ public class DataLoader {
             }, "data load: session init");
         }
 
+        if (dataReadLeaseEngine.isEnabled()) {
+            // the lease engine is lock free, and writes the changes back to the database in batches
+            dataReadLeaseEngine.acknowledge(consumerId, request.getProcessedData(), session);
+            return dataReadLeaseEngine.lease(consumerId, session);
+        }
+
         dataReadManager.handleConsumerData(consumerId, request.getProcessedData(), session);
 
         // this lock can be replaced by select fot update in future
@@ -89,6 +98,10 @@ public class DataLoader {
      * @param consumerId consumer id
      */
     public void resetUnProcessed(String consumerId) {
+        if (dataReadLeaseEngine.isEnabled()) {
+            dataReadLeaseEngine.reset(consumerId);
+            return;
+        }
         dataReadManager.resetUnProcessedData(consumerId);
     }
 }
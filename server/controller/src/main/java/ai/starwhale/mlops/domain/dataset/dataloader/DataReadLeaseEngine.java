@@ -0,0 +1,326 @@
+/*
+ * Copyright 2022 Starwhale, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.starwhale.mlops.domain.dataset.dataloader;
+
+import ai.starwhale.mlops.api.protocol.dataset.dataloader.DataIndexDesc;
+import ai.starwhale.mlops.domain.dataset.dataloader.bo.DataReadLog;
+import ai.starwhale.mlops.domain.dataset.dataloader.bo.Session;
+import ai.starwhale.mlops.domain.dataset.dataloader.dao.DataReadLogDao;
+import cn.hutool.cache.impl.LRUCache;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.annotation.PreDestroy;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Assigns data ranges to consumers without locks and without touching the database on every request.
+ *
+ * <p>The unassigned ranges of a session are preloaded from the database in bulk and leased from an in-memory queue.
+ * Assignments and acknowledgements are applied to the in-memory state at once and written back to the database in
+ * batches periodically. A range leased for longer than the lease timeout is put back to the queue, so that ranges
+ * of crashed consumers are reassigned.
+ *
+ * <p>The state is local to this controller instance, like the {@link ai.starwhale.mlops.common.KeyLock}s used by the
+ * database based assignment.
+ */
+@Slf4j
+@Service
+public class DataReadLeaseEngine {
+
+    private final DataReadLogDao dataReadLogDao;
+
+    @Getter
+    private final boolean enabled;
+
+    private final long leaseTimeoutMillis;
+
+    private final int preloadSize;
+
+    private final LRUCache<Long, SessionState> sessions;
+
+    // status changes not written back to the database yet, in the order they happened
+    private final ConcurrentLinkedQueue<DataReadLog> writeBacks = new ConcurrentLinkedQueue<>();
+
+    private final Lock flushLock = new ReentrantLock();
+
+    public DataReadLeaseEngine(DataReadLogDao dataReadLogDao,
+                               @Value("${sw.dataset.load.read.lease.enabled:false}") boolean enabled,
+                               @Value("${sw.dataset.load.read.lease.timeout:30m}") String leaseTimeout,
+                               @Value("${sw.dataset.load.read.log-cache-size:1000}") int preloadSize,
+                               @Value("${sw.dataset.load.read.log-cache-capacity:1000}") int capacity,
+                               @Value("${sw.dataset.load.read.log-cache-timeout:24h}") String cacheTimeout) {
+        this.dataReadLogDao = dataReadLogDao;
+        this.enabled = enabled;
+        this.leaseTimeoutMillis = DurationStyle.detectAndParse(leaseTimeout).toMillis();
+        this.preloadSize = preloadSize;
+        this.sessions = new LRUCache<>(capacity, DurationStyle.detectAndParse(cacheTimeout).toMillis());
+    }
+
+    /**
+     * Lease the next unprocessed range of the session to the consumer
+     *
+     * @param consumerId consumer
+     * @param session session
+     * @return the leased range, or null if there is none left
+     */
+    public DataReadLog lease(String consumerId, Session session) {
+        var state = this.sessions.get(session.getId(), () -> new SessionState(session.getId()));
+        var now = System.currentTimeMillis();
+        state.expireLeases(now);
+        for (; ; ) {
+            var entry = state.queue.poll();
+            if (entry == null) {
+                if (!state.preload()) {
+                    return null;
+                }
+                continue;
+            }
+            synchronized (entry) {
+                // the entry may have been processed while it is in the queue
+                if (entry.status != EntryStatus.QUEUED) {
+                    continue;
+                }
+                entry.status = EntryStatus.LEASED;
+                entry.leaseDeadline = now + this.leaseTimeoutMillis;
+                var readLog = entry.log;
+                readLog.setConsumerId(consumerId);
+                readLog.setAssignedNum(readLog.getAssignedNum() + 1);
+                readLog.setAssignedTime(new Date(now));
+                var ret = DataReadLog.builder()
+                        .id(readLog.getId())
+                        .sessionId(readLog.getSessionId())
+                        .consumerId(consumerId)
+                        .start(readLog.getStart())
+                        .startType(readLog.getStartType())
+                        .startInclusive(readLog.isStartInclusive())
+                        .end(readLog.getEnd())
+                        .endType(readLog.getEndType())
+                        .endInclusive(readLog.isEndInclusive())
+                        .size(readLog.getSize())
+                        .assignedNum(readLog.getAssignedNum())
+                        .assignedTime(readLog.getAssignedTime())
+                        .status(Status.DataStatus.UNPROCESSED)
+                        .build();
+                this.writeBacks.add(ret);
+                log.debug("Lease data id: {} to consumer:{}", ret.getId(), consumerId);
+                return ret;
+            }
+        }
+    }
+
+    /**
+     * Mark the ranges processed by the consumer
+     *
+     * @param consumerId consumer
+     * @param processedData processed ranges
+     * @param session session
+     */
+    public void acknowledge(String consumerId, List<DataIndexDesc> processedData, Session session) {
+        if (processedData == null || processedData.isEmpty()) {
+            return;
+        }
+        var state = this.sessions.get(session.getId(), () -> new SessionState(session.getId()));
+        for (var indexDesc : processedData) {
+            var entry = state.entries.remove(Arrays.asList(indexDesc.getStart(), indexDesc.getEnd()));
+            if (entry != null) {
+                synchronized (entry) {
+                    entry.status = EntryStatus.PROCESSED;
+                }
+                state.leases.remove(entry.log.getId());
+            }
+            // ranges unknown to the memory, e.g. leased before a restart, are still written back
+            this.writeBacks.add(DataReadLog.builder()
+                    .sessionId(session.getId())
+                    .consumerId(consumerId)
+                    .start(indexDesc.getStart())
+                    .end(indexDesc.getEnd())
+                    .status(Status.DataStatus.PROCESSED)
+                    .build());
+        }
+    }
+
+    /**
+     * Put the ranges leased to the consumer back to the queues
+     *
+     * @param consumerId consumer
+     */
+    public void reset(String consumerId) {
+        for (var state : this.sessions) {
+            // the ranges reset in the database below could be loaded again
+            state.drained = false;
+            for (var entry : state.leases.values()) {
+                synchronized (entry) {
+                    if (entry.status == EntryStatus.LEASED && consumerId.equals(entry.log.getConsumerId())) {
+                        state.release(entry);
+                    }
+                }
+            }
+        }
+        // the ranges out of the memory are reset in the database, after all assignments are written
+        this.flush();
+        var res = this.dataReadLogDao.updateUnProcessedToUnAssigned(consumerId);
+        log.info("Reset unprocessed data for consumer:{}, result:{}", consumerId, res);
+    }
+
+    /**
+     * Write all status changes back to the database
+     */
+    @Scheduled(fixedDelayString = "${sw.dataset.load.read.lease.flush-interval-millis:1000}")
+    @PreDestroy
+    public void flush() {
+        this.flushLock.lock();
+        try {
+            var batch = new ArrayList<DataReadLog>();
+            for (DataReadLog readLog; (readLog = this.writeBacks.poll()) != null; ) {
+                batch.add(readLog);
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            try {
+                this.dataReadLogDao.batchWriteBack(batch);
+            } catch (RuntimeException e) {
+                // retried by the next flush, the order of the changes is kept
+                log.error("failed to write back {} data read logs", batch.size(), e);
+                var rest = new ArrayList<>(this.writeBacks);
+                this.writeBacks.clear();
+                this.writeBacks.addAll(batch);
+                this.writeBacks.addAll(rest);
+                throw e;
+            }
+        } finally {
+            this.flushLock.unlock();
+        }
+    }
+
+    private enum EntryStatus {
+        QUEUED, LEASED, PROCESSED
+    }
+
+    private static class Entry {
+
+        private final DataReadLog log;
+
+        private EntryStatus status = EntryStatus.QUEUED;
+
+        private long leaseDeadline;
+
+        Entry(DataReadLog log) {
+            this.log = log;
+        }
+    }
+
+    private class SessionState {
+
+        private final Long sessionId;
+
+        private final ConcurrentLinkedQueue<Entry> queue = new ConcurrentLinkedQueue<>();
+
+        // queued and leased entries by the start and end of their ranges
+        private final Map<List<String>, Entry> entries = new ConcurrentHashMap<>();
+
+        // leased entries by id
+        private final Map<Long, Entry> leases = new ConcurrentHashMap<>();
+
+        private final Lock preloadLock = new ReentrantLock();
+
+        // no unassigned range is left in the database
+        private volatile boolean drained;
+
+        private volatile long nextExpiryCheckTime;
+
+        SessionState(Long sessionId) {
+            this.sessionId = sessionId;
+        }
+
+        /**
+         * Load unassigned ranges from the database into the queue
+         *
+         * @return false if there is nothing to lease
+         */
+        boolean preload() {
+            if (this.drained && this.queue.isEmpty()) {
+                return false;
+            }
+            this.preloadLock.lock();
+            try {
+                if (!this.queue.isEmpty()) {
+                    return true;
+                }
+                if (this.drained) {
+                    return false;
+                }
+                // the assignments in the memory are written first, so that leased ranges are not loaded again
+                DataReadLeaseEngine.this.flush();
+                var logs = DataReadLeaseEngine.this.dataReadLogDao.selectTopsUnAssignedData(
+                        this.sessionId, DataReadLeaseEngine.this.preloadSize);
+                var added = false;
+                for (var readLog : logs) {
+                    var entry = new Entry(readLog);
+                    if (this.entries.putIfAbsent(Arrays.asList(readLog.getStart(), readLog.getEnd()), entry) == null) {
+                        this.queue.add(entry);
+                        added = true;
+                    }
+                }
+                if (logs.size() < DataReadLeaseEngine.this.preloadSize) {
+                    this.drained = true;
+                }
+                return added;
+            } finally {
+                this.preloadLock.unlock();
+            }
+        }
+
+        void expireLeases(long now) {
+            if (now < this.nextExpiryCheckTime) {
+                return;
+            }
+            // at most one check per second, the deadlines are not precise anyway
+            this.nextExpiryCheckTime = now + 1000;
+            for (var entry : this.leases.values()) {
+                synchronized (entry) {
+                    if (entry.status == EntryStatus.LEASED && entry.leaseDeadline <= now) {
+                        log.info("Lease of data id: {} by consumer:{} expired",
+                                entry.log.getId(), entry.log.getConsumerId());
+                        this.release(entry);
+                    }
+                }
+            }
+        }
+
+        /**
+         * The caller should hold the monitor of the entry
+         */
+        void release(Entry entry) {
+            entry.status = EntryStatus.QUEUED;
+            this.leases.remove(entry.log.getId());
+            this.queue.add(entry);
+        }
+    }
+}
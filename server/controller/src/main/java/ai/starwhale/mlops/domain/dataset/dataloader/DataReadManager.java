@@ -24,6 +24,8 @@ import ai.starwhale.mlops.domain.dataset.dataloader.dao.DataReadLogDao;
 import ai.starwhale.mlops.domain.dataset.dataloader.dao.SessionDao;
 import cn.hutool.cache.impl.LRUCache;
 import com.google.common.collect.Iterables;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
@@ -41,12 +43,16 @@ public class DataReadManager {
     private final SessionDao sessionDao;
     private final DataReadLogDao dataReadLogDao;
     private final DataIndexProvider dataIndexProvider;
+    private final SplitPointsIndex splitPointsIndex;
     private final LRUCache<String, LinkedList<DataReadLog>> sessionCache;
     private final Integer cacheSize;
+    private final DistributionSummary processedRowsSummary;
 
     public DataReadManager(SessionDao sessionDao,
                            DataReadLogDao dataReadLogDao,
                            DataIndexProvider dataIndexProvider,
+                           SplitPointsIndex splitPointsIndex,
+                           MeterRegistry meterRegistry,
                            @Value("${sw.dataset.load.read.log-cache-capacity:1000}") int capacity,
                            @Value("${sw.dataset.load.read.log-cache-size:1000}") int cacheSize,
                            @Value("${sw.dataset.load.read.log-cache-timeout:24h}") String cacheTimeout
@@ -54,8 +60,13 @@ public class DataReadManager {
         this.sessionDao = sessionDao;
         this.dataReadLogDao = dataReadLogDao;
         this.dataIndexProvider = dataIndexProvider;
+        this.splitPointsIndex = splitPointsIndex;
         this.cacheSize = cacheSize;
         this.sessionCache = new LRUCache<>(capacity, DurationStyle.detectAndParse(cacheTimeout).toMillis());
+        this.processedRowsSummary = DistributionSummary.builder("sw.dataset.load.processed.rows")
+                .description("number of data read logs marked processed by a request")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
     }
 
     public Session getSession(DataReadRequest request) {
@@ -81,16 +92,26 @@ public class DataReadManager {
         // insert session
         sessionDao.insert(session);
         // get data index
-        List<DataIndex> dataIndices = dataIndexProvider.returnDataIndex(
-                QueryDataIndexRequest.builder()
-                    .tableName(session.getTableName())
-                    .batchSize(session.getBatchSize())
-                    .start(session.getStart())
-                    .startInclusive(session.isStartInclusive())
-                    .end(session.getEnd())
-                    .endInclusive(session.isEndInclusive())
-                    .build()
-        );
+        List<DataIndex> dataIndices;
+        if (session.getStart() == null && session.getEnd() == null) {
+            // the whole dataset version, the split points may be persisted already
+            dataIndices = splitPointsIndex.get(request.getDatasetVersionId(), session.getBatchSize());
+            if (dataIndices == null) {
+                dataIndices = buildSplitPoints(
+                        request.getDatasetVersionId(), session.getTableName(), session.getBatchSize());
+            }
+        } else {
+            dataIndices = dataIndexProvider.returnDataIndex(
+                    QueryDataIndexRequest.builder()
+                        .tableName(session.getTableName())
+                        .batchSize(session.getBatchSize())
+                        .start(session.getStart())
+                        .startInclusive(session.isStartInclusive())
+                        .end(session.getEnd())
+                        .endInclusive(session.isEndInclusive())
+                        .build()
+            );
+        }
         Long sid = session.getId();
         Iterables.partition(
                 dataIndices.stream()
@@ -112,6 +133,34 @@ public class DataReadManager {
 
     }
 
+    /**
+     * Split the whole dataset version by the batch size and persist the split points
+     *
+     * @param datasetVersionId dataset version
+     * @param tableName index table of the dataset version
+     * @param batchSize batch size
+     * @return data indices
+     */
+    public List<DataIndex> buildSplitPoints(Long datasetVersionId, String tableName, int batchSize) {
+        var dataIndices = dataIndexProvider.returnDataIndex(
+                QueryDataIndexRequest.builder()
+                    .tableName(tableName)
+                    .batchSize(batchSize)
+                    .build()
+        );
+        splitPointsIndex.put(datasetVersionId, batchSize, dataIndices);
+        return dataIndices;
+    }
+
+    /**
+     * Drop the persisted split points of all batch sizes, e.g. when the dataset version is uploaded again
+     *
+     * @param datasetVersionId dataset version
+     */
+    public void clearSplitPoints(Long datasetVersionId) {
+        splitPointsIndex.clear(datasetVersionId);
+    }
+
     /**
      * Assign data for consumer
      *
@@ -143,9 +192,13 @@ public class DataReadManager {
         var sid = session.getId();
         // update processed data
         if (CollectionUtils.isNotEmpty(processedData)) {
-            for (DataIndexDesc indexDesc : processedData) {
-                dataReadLogDao.updateToProcessed(sid, consumerId, indexDesc.getStart(), indexDesc.getEnd());
-            }
+            var ranges = processedData.stream()
+                    .map(indexDesc -> DataReadLog.builder()
+                            .start(indexDesc.getStart())
+                            .end(indexDesc.getEnd())
+                            .build())
+                    .collect(Collectors.toList());
+            processedRowsSummary.record(dataReadLogDao.batchUpdateToProcessed(sid, consumerId, ranges));
         }
     }
 
@@ -19,13 +19,8 @@ package ai.starwhale.mlops.domain.dataset.dataloader;
 import ai.starwhale.mlops.datastore.DataStore;
 import ai.starwhale.mlops.datastore.DataStoreScanRequest;
 import ai.starwhale.mlops.domain.dataset.dataloader.bo.DataIndex;
-import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
-import lombok.AllArgsConstructor;
-import lombok.Getter;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
@@ -52,16 +47,8 @@ public class DataStoreIndexProvider implements DataIndexProvider {
     public List<DataIndex> returnDataIndex(QueryDataIndexRequest request) {
         String start = request.getStart();
         boolean startInclusive = request.isStartInclusive();
-        // TODO: cache for dataset version
-
-        @Getter
-        @AllArgsConstructor
-        class Key {
-            String value;
-            String type;
-        }
-
-        var keys = new LinkedList<Key>();
+        // boundaries are emitted while scanning, so that the keys are never held in memory all together
+        var splitter = new DataIndexSplitter(request.getBatchSize());
         for (; ; ) {
             var result = dataStore.scan(DataStoreScanRequest.builder()
                     // start params must use the current cursor
@@ -84,47 +71,17 @@ public class DataStoreIndexProvider implements DataIndexProvider {
             );
             if (result.getRecords().size() == 0) {
                 break;
-            } else {
-                keys.addAll(
-                        result.getRecords()
-                                .stream()
-                                .map(r -> new Key(
-                                        (String) ((Map<?, ?>) r.get(KeyColumn)).get("value"),
-                                        (String) ((Map<?, ?>) r.get(KeyColumn)).get("type"))
-                                )
-                                .collect(Collectors.toList())
-                );
-                if (result.getRecords().size() < maxBatchSize) {
-                    break;
-                }
-                start = result.getLastKey();
-                startInclusive = false;
             }
-        }
-        var index = 0;
-        var batchSize = request.getBatchSize();
-        var indices = new ArrayList<DataIndex>();
-        while (index < keys.size()) {
-            if (index + batchSize < keys.size()) {
-                indices.add(DataIndex.builder()
-                        .start(keys.get(index).value)
-                        .startType(keys.get(index).type)
-                        .end(keys.get(index + batchSize).value)
-                        .endType(keys.get(index + batchSize).type)
-                        .size(batchSize)
-                        .build());
-                index += batchSize;
-            } else {
-                indices.add(DataIndex.builder()
-                        .start(keys.get(index).value)
-                        .startType(keys.get(index).type)
-                        .end(null)
-                        .endType(keys.get(keys.size() - 1).type)
-                        .size(keys.size() - index)
-                        .build());
-                index = keys.size();
+            for (var record : result.getRecords()) {
+                var key = (Map<?, ?>) record.get(KeyColumn);
+                splitter.add((String) key.get("value"), (String) key.get("type"));
+            }
+            if (result.getRecords().size() < maxBatchSize) {
+                break;
             }
+            start = result.getLastKey();
+            startInclusive = false;
         }
-        return indices;
+        return splitter.finish();
     }
 }
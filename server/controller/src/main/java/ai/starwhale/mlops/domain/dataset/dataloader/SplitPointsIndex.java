@@ -0,0 +1,103 @@
+/*
+ * Copyright 2022 Starwhale, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.starwhale.mlops.domain.dataset.dataloader;
+
+import ai.starwhale.mlops.common.Constants;
+import ai.starwhale.mlops.domain.dataset.dataloader.bo.DataIndex;
+import ai.starwhale.mlops.domain.storage.StoragePathCoordinator;
+import ai.starwhale.mlops.storage.StorageAccessService;
+import com.fasterxml.jackson.core.type.TypeReference;
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * The persisted data indices of the whole dataset version for each batch size, so that sessions with the same batch
+ * size do not have to scan the dataset again.
+ *
+ * <p>The index is a cache only. Failures of reading or writing it are logged and ignored. A forced upload keeps the
+ * id of the dataset version, so the index of all batch sizes should be cleared once the content is replaced.
+ */
+@Slf4j
+@Service
+public class SplitPointsIndex {
+
+    private final StorageAccessService storageAccessService;
+
+    private final StoragePathCoordinator storagePathCoordinator;
+
+    private final boolean enabled;
+
+    public SplitPointsIndex(StorageAccessService storageAccessService,
+                            StoragePathCoordinator storagePathCoordinator,
+                            @Value("${sw.dataset.load.split-points.enabled:true}") boolean enabled) {
+        this.storageAccessService = storageAccessService;
+        this.storagePathCoordinator = storagePathCoordinator;
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return the persisted data indices, or null if there is none
+     */
+    public List<DataIndex> get(Long datasetVersionId, int batchSize) {
+        if (!this.enabled || datasetVersionId == null) {
+            return null;
+        }
+        var path = this.storagePathCoordinator.allocateDatasetSplitPointsPath(datasetVersionId, batchSize);
+        try {
+            if (!this.storageAccessService.head(path).isExists()) {
+                return null;
+            }
+            try (var in = this.storageAccessService.get(path)) {
+                return Constants.objectMapper.readValue(in, new TypeReference<List<DataIndex>>() {
+                });
+            }
+        } catch (IOException e) {
+            log.warn("failed to read split points {}", path, e);
+            return null;
+        }
+    }
+
+    public void put(Long datasetVersionId, int batchSize, List<DataIndex> indices) {
+        if (!this.enabled || datasetVersionId == null) {
+            return;
+        }
+        var path = this.storagePathCoordinator.allocateDatasetSplitPointsPath(datasetVersionId, batchSize);
+        try {
+            this.storageAccessService.put(path, Constants.objectMapper.writeValueAsBytes(indices));
+        } catch (IOException e) {
+            log.warn("failed to write split points {}", path, e);
+        }
+    }
+
+    public void clear(Long datasetVersionId) {
+        if (datasetVersionId == null) {
+            return;
+        }
+        var prefix = this.storagePathCoordinator.allocateDatasetSplitPointsPrefix(datasetVersionId);
+        try {
+            for (var path : this.storageAccessService.list(prefix).collect(Collectors.toList())) {
+                this.storageAccessService.delete(path);
+            }
+        } catch (IOException e) {
+            log.warn("failed to clear split points {}", prefix, e);
+        }
+    }
+}
@@ -16,11 +16,15 @@
 
 package ai.starwhale.mlops.domain.dataset.dataloader.bo;
 
+import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 
 @Data
 @Builder
+@NoArgsConstructor
+@AllArgsConstructor
 public class DataIndex {
     private String start;
     private String startType;
@@ -20,12 +20,20 @@ import ai.starwhale.mlops.domain.dataset.dataloader.Status;
 import ai.starwhale.mlops.domain.dataset.dataloader.bo.DataReadLog;
 import ai.starwhale.mlops.domain.dataset.dataloader.converter.DataReadLogConverter;
 import ai.starwhale.mlops.domain.dataset.dataloader.mapper.DataReadLogMapper;
+import ai.starwhale.mlops.domain.dataset.dataloader.po.DataReadLogEntity;
+import com.google.common.collect.Iterables;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 import java.util.stream.Collectors;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 @Service
 public class DataReadLogDao {
+    // keeps the statements within the packet size limit of the database
+    private static final int BATCH_SIZE = 500;
+
     private final DataReadLogMapper mapper;
     private final DataReadLogConverter converter;
 
@@ -50,10 +58,59 @@ public class DataReadLogDao {
         return mapper.updateToProcessed(sid, consumerId, start, end, Status.DataStatus.PROCESSED.name()) > 0;
     }
 
+    /**
+     * Mark the ranges processed with one statement per batch
+     *
+     * @param sid session
+     * @param consumerId consumer
+     * @param ranges the start and end of the processed ranges
+     * @return the number of rows updated
+     */
+    public int batchUpdateToProcessed(Long sid, String consumerId, List<DataReadLog> ranges) {
+        int count = 0;
+        for (var batch : Iterables.partition(ranges, BATCH_SIZE)) {
+            var entities = batch.stream()
+                    .map(range -> DataReadLogEntity.builder().start(range.getStart()).end(range.getEnd()).build())
+                    .collect(Collectors.toList());
+            count += mapper.batchUpdateToProcessed(sid, consumerId, entities, Status.DataStatus.PROCESSED.name());
+        }
+        return count;
+    }
+
     public boolean updateUnProcessedToUnAssigned(String consumerId) {
         return mapper.updateToUnAssignedForConsumer(consumerId, Status.DataStatus.UNPROCESSED.name()) > 0;
     }
 
+    /**
+     * Apply the status changes in order, assignments for unprocessed logs and finishes for processed ones
+     */
+    @Transactional
+    public void batchWriteBack(List<DataReadLog> dataReadLogs) {
+        // consecutive finishes of the same consumer are merged, the order of the assignments is kept
+        var processed = new ArrayList<DataReadLog>();
+        for (var dataReadLog : dataReadLogs) {
+            if (!processed.isEmpty() && (dataReadLog.getStatus() != Status.DataStatus.PROCESSED
+                    || !Objects.equals(processed.get(0).getSessionId(), dataReadLog.getSessionId())
+                    || !Objects.equals(processed.get(0).getConsumerId(), dataReadLog.getConsumerId()))) {
+                this.batchUpdateToProcessed(processed);
+            }
+            if (dataReadLog.getStatus() == Status.DataStatus.PROCESSED) {
+                processed.add(dataReadLog);
+            } else {
+                this.updateToAssigned(dataReadLog);
+            }
+        }
+        if (!processed.isEmpty()) {
+            this.batchUpdateToProcessed(processed);
+        }
+    }
+
+    private void batchUpdateToProcessed(List<DataReadLog> processed) {
+        var first = processed.get(0);
+        this.batchUpdateToProcessed(first.getSessionId(), first.getConsumerId(), processed);
+        processed.clear();
+    }
+
     public List<DataReadLog> selectTopsUnAssignedData(Long sid, Integer limit) {
         var entities = mapper.selectTopsUnAssigned(sid, Status.DataStatus.UNPROCESSED.name(), limit);
         return entities.stream().map(converter::revert).collect(Collectors.toList());
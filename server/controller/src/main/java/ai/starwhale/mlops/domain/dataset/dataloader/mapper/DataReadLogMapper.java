@@ -74,6 +74,20 @@ public interface DataReadLogMapper {
     int updateToProcessed(@Param("sessionId") Long sessionId, @Param("consumerId") String consumerId,
                           @Param("start") String start, @Param("end") String end, @Param("status") String status);
 
+    @Update({
+        "<script>",
+        "UPDATE dataset_read_log SET consumer_id=#{consumerId}, status=#{status}, finished_time=NOW() "
+            + "WHERE session_id=#{sessionId} AND ("
+            + "<foreach item='range' collection='ranges' open='' separator=' OR ' close=''>"
+            + "(start=#{range.start} AND "
+            + "<choose><when test='range.end == null'>end is null</when><otherwise>end=#{range.end}</otherwise></choose>"
+            + ")"
+            + "</foreach>"
+            + ")",
+        "</script>"})
+    int batchUpdateToProcessed(@Param("sessionId") Long sessionId, @Param("consumerId") String consumerId,
+                               @Param("ranges") List<DataReadLogEntity> ranges, @Param("status") String status);
+
     @Update("UPDATE dataset_read_log SET "
             + "consumer_id=null "
             + "WHERE session_id=#{sessionId} and consumer_id=#{consumerId} and status=#{status}")
@@ -20,6 +20,7 @@ import ai.starwhale.mlops.api.protocol.dataset.upload.DatasetUploadRequest;
 import ai.starwhale.mlops.common.Constants;
 import ai.starwhale.mlops.common.IdConverter;
 import ai.starwhale.mlops.common.VersionAliasConverter;
+import ai.starwhale.mlops.common.util.DownloadUtil;
 import ai.starwhale.mlops.domain.bundle.BundleManager;
 import ai.starwhale.mlops.domain.bundle.BundleVersionUrl;
 import ai.starwhale.mlops.domain.bundle.revert.RevertManager;
@@ -27,6 +28,7 @@ import ai.starwhale.mlops.domain.bundle.tag.BundleVersionTagDao;
 import ai.starwhale.mlops.domain.dataset.DatasetDao;
 import ai.starwhale.mlops.domain.dataset.bo.DataSet;
 import ai.starwhale.mlops.domain.dataset.bo.DatasetVersion;
+import ai.starwhale.mlops.domain.dataset.dataloader.DataReadManager;
 import ai.starwhale.mlops.domain.dataset.index.datastore.DataStoreTableNameHelper;
 import ai.starwhale.mlops.domain.dataset.mapper.DatasetMapper;
 import ai.starwhale.mlops.domain.dataset.mapper.DatasetVersionMapper;
@@ -55,10 +57,13 @@ import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.Collection;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -84,6 +89,8 @@ public class DatasetUploader {
     final DatasetDao datasetDao;
     final IdConverter idConvertor;
     final VersionAliasConverter versionAliasConvertor;
+    final DataReadManager dataReadManager;
+    final int datasetLoadBatchSize;
 
     private final BundleVersionTagDao bundleVersionTagDao;
 
@@ -99,7 +106,9 @@ public class DatasetUploader {
             DataStoreTableNameHelper dataStoreTableNameHelper,
             DatasetDao datasetDao,
             IdConverter idConvertor,
-            VersionAliasConverter versionAliasConvertor
+            VersionAliasConverter versionAliasConvertor,
+            DataReadManager dataReadManager,
+            @Value("${sw.dataset.load.batch-size}") int datasetLoadBatchSize
     ) {
         this.datasetMapper = datasetMapper;
         this.datasetVersionMapper = datasetVersionMapper;
@@ -113,6 +122,8 @@ public class DatasetUploader {
         this.datasetDao = datasetDao;
         this.idConvertor = idConvertor;
         this.versionAliasConvertor = versionAliasConvertor;
+        this.dataReadManager = dataReadManager;
+        this.datasetLoadBatchSize = datasetLoadBatchSize;
     }
 
     public void cancel(Long uploadId) {
@@ -245,14 +256,29 @@ public class DatasetUploader {
     }
 
     public void end(Long uploadId) {
+        // a forced upload keeps the version id, the split points of the old content are stale for all batch sizes
+        dataReadManager.clearSplitPoints(uploadId);
         datasetVersionMapper.updateStatus(uploadId, DatasetVersion.STATUS_AVAILABLE);
+        // split points for the default batch size, so that the first data loader session starts instantly.
+        // they are built in the background since it scans the whole index table
+        DatasetVersionEntity datasetVersionEntity = datasetVersionMapper.find(uploadId);
+        if (null != datasetVersionEntity && null != datasetVersionEntity.getIndexTable()) {
+            var indexTable = datasetVersionEntity.getIndexTable();
+            CompletableFuture.runAsync(
+                    () -> dataReadManager.buildSplitPoints(uploadId, indexTable, datasetLoadBatchSize)
+            ).exceptionally(e -> {
+                log.warn("build split points for dataset version {} failed", uploadId, e);
+                return null;
+            });
+        }
     }
 
 
     /**
      * legacy dataset file pull interface. Use
      */
-    public void pull(String project, String name, String version, String blobHash, HttpServletResponse httpResponse) {
+    public void pull(String project, String name, String version, String blobHash, String range,
+            HttpServletRequest httpRequest, HttpServletResponse httpResponse) {
         BundleManager bundleManager = new BundleManager(idConvertor, versionAliasConvertor,
                                                         projectService, datasetDao, datasetDao, this.bundleVersionTagDao
         );
@@ -273,16 +299,10 @@ public class DatasetUploader {
             }
 
         } else {
-            try (
-                    InputStream inputStream = new HashNamedObjectStore(
-                            storageAccessService,
-                            datasetVersionEntity.getStoragePath()
-                    ).get(blobHash.trim());
-                    ServletOutputStream outputStream = httpResponse.getOutputStream()) {
-                long length = inputStream.transferTo(outputStream);
-                httpResponse.addHeader("Content-Disposition", "attachment; filename=\"" + blobHash + "\"");
-                httpResponse.addHeader("Content-Length", String.valueOf(length));
-                outputStream.flush();
+            try {
+                var objectStore = new HashNamedObjectStore(storageAccessService, datasetVersionEntity.getStoragePath());
+                DownloadUtil.download(range, httpRequest, httpResponse, blobHash,
+                        DownloadUtil.reader(objectStore, blobHash.trim()));
             } catch (IOException e) {
                 throw new SwProcessException(ErrorType.STORAGE, "pull file from storage failed", e);
             }
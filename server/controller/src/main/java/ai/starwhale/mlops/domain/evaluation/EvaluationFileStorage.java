@@ -26,7 +26,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 import org.springframework.util.StringUtils;
@@ -74,7 +73,6 @@ public class EvaluationFileStorage {
     }
 
     public Map<String, String> signLinks(Set<String> uris, Long expTimeMillis) {
-        return uris.stream()
-                .collect(Collectors.toMap(u -> u, u -> uriAccessor.linkOf(u, expTimeMillis)));
+        return uriAccessor.linksOf(uris, expTimeMillis);
     }
 }
@@ -23,6 +23,7 @@ import ai.starwhale.mlops.exception.SwValidationException;
 import ai.starwhale.mlops.storage.StorageAccessService;
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
@@ -92,22 +93,24 @@ public class FileStorageService {
         if (!validatePathPrefix(pathPrefix)) {
             throw new SwValidationException(SwValidationException.ValidSubject.OBJECT_STORE, "pathPrefix is invalid");
         }
+        var paths = files.stream().collect(Collectors.toMap(file -> file, file -> standardPath(pathPrefix + file)));
+        Map<String, String> urls;
+        try {
+            urls = storageAccessService.signAllPut(
+                    Set.copyOf(paths.values()), APPLICATION_OCTET_STREAM_VALUE, urlExpirationTimeMillis);
+        } catch (IOException e) {
+            log.error("generate signed put url error", e);
+            throw new SwProcessException(SwProcessException.ErrorType.STORAGE, e.getMessage());
+        }
         Map<String, String> signedUrls = new HashMap<>();
-        for (String file : files) {
-            try {
-                var url = storageAccessService.signedPutUrl(
-                        standardPath(pathPrefix + file), APPLICATION_OCTET_STREAM_VALUE, urlExpirationTimeMillis);
-                // force to use https if server is https
-                if (isServerHttps && url.startsWith("http://")) {
-                    url = url.replaceFirst("http://", "https://");
-                }
-
-                signedUrls.put(file, url);
-            } catch (IOException e) {
-                log.error("generate signed put url error", e);
-                throw new SwProcessException(SwProcessException.ErrorType.STORAGE, e.getMessage());
+        paths.forEach((file, path) -> {
+            var url = urls.get(path);
+            // force to use https if server is https
+            if (isServerHttps && url.startsWith("http://")) {
+                url = url.replaceFirst("http://", "https://");
             }
-        }
+            signedUrls.put(file, url);
+        });
         return signedUrls;
     }
 
@@ -115,13 +118,13 @@ public class FileStorageService {
         if (!validatePathPrefix(pathPrefix)) {
             throw new SwValidationException(SwValidationException.ValidSubject.OBJECT_STORE, "path is invalid");
         }
-        for (String file : files) {
-            try {
-                storageAccessService.delete(standardPath(pathPrefix + file));
-            } catch (IOException e) {
-                log.error("delete path:{} error.", pathPrefix + file, e);
-                throw new SwProcessException(SwProcessException.ErrorType.STORAGE, e.getMessage());
-            }
+        try {
+            storageAccessService.deleteAll(files.stream()
+                    .map(file -> standardPath(pathPrefix + file))
+                    .collect(Collectors.toList()));
+        } catch (IOException e) {
+            log.error("delete files under path:{} error.", pathPrefix, e);
+            throw new SwProcessException(SwProcessException.ErrorType.STORAGE, e.getMessage());
         }
     }
 
@@ -136,22 +139,23 @@ public class FileStorageService {
         if (!validatePathPrefix(pathPrefix)) {
             throw new SwValidationException(SwValidationException.ValidSubject.OBJECT_STORE, "pathPrefix is invalid");
         }
+        List<String> filePaths;
         try {
-            return storageAccessService.list(pathPrefix)
-                    .collect(Collectors.toMap(
-                        filePath -> filePath.substring(pathPrefix.length() + (pathPrefix.endsWith("/") ? 0 : 1)),
-                        filePath -> {
-                            try {
-                                return storageAccessService.signedUrl(filePath, urlExpirationTimeMillis);
-                            } catch (IOException e) {
-                                log.error("file:{} generate signed get url error", filePath, e);
-                                throw new SwProcessException(SwProcessException.ErrorType.STORAGE, e.getMessage());
-                            }
-                        }));
+            filePaths = storageAccessService.list(pathPrefix).collect(Collectors.toList());
         } catch (IOException e) {
             log.error("path:{} list files error", pathPrefix, e);
             throw new SwProcessException(SwProcessException.ErrorType.STORAGE, e.getMessage());
         }
+        Map<String, String> urls;
+        try {
+            urls = storageAccessService.signAll(filePaths, urlExpirationTimeMillis);
+        } catch (IOException e) {
+            log.error("path:{} generate signed get url error", pathPrefix, e);
+            throw new SwProcessException(SwProcessException.ErrorType.STORAGE, e.getMessage());
+        }
+        return urls.entrySet().stream().collect(Collectors.toMap(
+                entry -> entry.getKey().substring(pathPrefix.length() + (pathPrefix.endsWith("/") ? 0 : 1)),
+                Map.Entry::getValue));
     }
 
     private String standardPath(String path) {
@@ -126,6 +126,10 @@ public class JobDao implements BundleAccessor, RecoverAccessor {
     }
 
     public List<Job> findJobByStatusIn(List<JobStatus> jobStatuses) {
+        // an empty in list is not valid sql
+        if (jobStatuses.isEmpty()) {
+            return List.of();
+        }
         return jobMapper.findJobByStatusIn(jobStatuses)
                 .stream()
                 .map(jobBoConverter::fromEntity)
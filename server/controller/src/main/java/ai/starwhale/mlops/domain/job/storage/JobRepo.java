@@ -81,6 +81,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import lombok.Builder;
 import lombok.Data;
 import org.jetbrains.annotations.NotNull;
@@ -260,20 +261,21 @@ public class JobRepo {
     }
 
     public List<JobFlattenEntity> findJobByStatusIn(List<JobStatus> jobStatuses) {
+        // IN takes at least one value
+        if (jobStatuses.isEmpty()) {
+            return List.of();
+        }
         var filter = TableQueryFilter.builder()
                 .operator(TableQueryFilter.Operator.AND)
                 .operands(
                         List.of(
                                 TableQueryFilter.builder()
-                                        .operator(TableQueryFilter.Operator.OR)
-                                        .operands(jobStatuses.stream()
-                                                .map(status -> (Object) TableQueryFilter.builder()
-                                                        .operator(TableQueryFilter.Operator.EQUAL)
-                                                        .operands(List.of(
-                                                                new TableQueryFilter.Column(JobStatusColumn),
-                                                                new TableQueryFilter.Constant(ColumnType.STRING,
-                                                                        status.name()))
-                                                        ).build())
+                                        .operator(TableQueryFilter.Operator.IN)
+                                        .operands(Stream.<Object>concat(
+                                                Stream.of(new TableQueryFilter.Column(JobStatusColumn)),
+                                                jobStatuses.stream()
+                                                        .map(status -> new TableQueryFilter.Constant(
+                                                                ColumnType.STRING, status.name())))
                                                 .collect(Collectors.toList()))
                                         .build(),
                                 TableQueryFilter.builder()
@@ -325,7 +327,6 @@ public class JobRepo {
             final DataStoreQueryRequest request = DataStoreQueryRequest.builder()
                     .tableName(table)
                     .filter(filter)
-                    .start(0)
                     .orderBy(List.of(OrderByDesc.builder().columnName(CreatedTimeColumn).descending(true).build()))
                     .rawResult(true)
                     .build();
@@ -337,13 +338,14 @@ public class JobRepo {
 
             @Override
             public List<JobFlattenEntity> next() {
-                var records = store.query(request).getRecords();
+                var recordList = store.query(request);
+                var records = recordList.getRecords();
+                // update for next request
+                request.setCursor(recordList.getCursor());
+                finished = recordList.getCursor() == null;
                 if (records.isEmpty()) {
-                    finished = true;
                     return List.of();
                 }
-                // update for next request
-                request.setStart(request.getStart() + records.size());
 
                 var entities = objectMapper.convertValue(records, new TypeReference<List<JobFlattenEntity>>() {
                 });
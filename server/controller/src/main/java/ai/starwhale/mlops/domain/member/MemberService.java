@@ -16,6 +16,7 @@
 
 package ai.starwhale.mlops.domain.member;
 
+import ai.starwhale.mlops.configuration.security.AuthorizationCache;
 import ai.starwhale.mlops.domain.member.bo.ProjectMember;
 import ai.starwhale.mlops.domain.project.mapper.ProjectMemberMapper;
 import ai.starwhale.mlops.domain.project.po.ProjectMemberEntity;
@@ -30,9 +31,12 @@ public class MemberService {
 
     private final ProjectMemberMapper projectMemberMapper;
 
+    private final AuthorizationCache authorizationCache;
 
-    public MemberService(ProjectMemberMapper projectMemberMapper) {
+
+    public MemberService(ProjectMemberMapper projectMemberMapper, AuthorizationCache authorizationCache) {
         this.projectMemberMapper = projectMemberMapper;
+        this.authorizationCache = authorizationCache;
     }
 
     public List<ProjectMember> listProjectMembersInProject(Long projectId) {
@@ -61,23 +65,27 @@ public class MemberService {
                 .projectId(projectId)
                 .build();
         int res = projectMemberMapper.insert(entity);
+        authorizationCache.invalidateAll();
         log.info("Project Role has been created ID={}", entity.getId());
         return res > 0;
     }
 
     public Boolean addProjectMember(Long projectId, Long userId, String roleName) {
         int res = projectMemberMapper.insertByRoleName(userId, projectId, roleName);
+        authorizationCache.invalidateAll();
         return res > 0;
     }
 
     public Boolean modifyProjectMember(Long projectRoleId, Long roleId) {
         int res = projectMemberMapper.updateRole(projectRoleId, roleId);
+        authorizationCache.invalidateAll();
         log.info("Project Role has been modified ID={}", projectRoleId);
         return res > 0;
     }
 
     public Boolean deleteProjectMember(Long projectRoleId) {
         int res = projectMemberMapper.delete(projectRoleId);
+        authorizationCache.invalidateAll();
         log.info("Project Role has been deleted ID={}", projectRoleId);
         return res > 0;
     }
@@ -805,13 +805,17 @@ public class ModelService {
 
     private ModelPackageStorage.MetaBlob addSignedUrls(ModelPackageStorage.MetaBlob metaBlob) {
         var builder = metaBlob.toBuilder();
+        Map<String, String> urls;
+        try {
+            urls = this.blobService.getSignedUrls(builder.getFilesList().stream()
+                    .flatMap(file -> file.getBlobIdsList().stream())
+                    .collect(Collectors.toSet()));
+        } catch (IOException e) {
+            throw new SwProcessException(ErrorType.STORAGE, "failed to sign url", e);
+        }
         for (var file : builder.getFilesBuilderList()) {
             for (var blobId : file.getBlobIdsList()) {
-                try {
-                    file.addSignedUrls(this.blobService.getSignedUrl(blobId));
-                } catch (IOException e) {
-                    throw new SwProcessException(ErrorType.STORAGE, "failed to sign url", e);
-                }
+                file.addSignedUrls(urls.get(blobId));
             }
         }
         return builder.build();
@@ -23,6 +23,7 @@ import ai.starwhale.mlops.api.protocol.user.RoleVo;
 import ai.starwhale.mlops.api.protocol.user.UserVo;
 import ai.starwhale.mlops.common.IdConverter;
 import ai.starwhale.mlops.common.OrderParams;
+import ai.starwhale.mlops.configuration.security.AuthorizationCache;
 import ai.starwhale.mlops.domain.dataset.mapper.DatasetVersionMapper;
 import ai.starwhale.mlops.domain.member.MemberService;
 import ai.starwhale.mlops.domain.member.bo.ProjectMember;
@@ -86,6 +87,8 @@ public class ProjectService implements ProjectAccessor, ApplicationContextAware
 
     private final UserService userService;
 
+    private final AuthorizationCache authorizationCache;
+
     private static final String DELETE_SUFFIX = ".deleted";
 
     private final Map<Long, Visit> visitedProjectCacheMap = new ConcurrentHashMap<>();
@@ -101,7 +104,8 @@ public class ProjectService implements ProjectAccessor, ApplicationContextAware
             UserService userService,
             RuntimeVersionMapper runtimeVersionMapper,
             ModelVersionMapper modelVersionMapper,
-            DatasetVersionMapper datasetVersionMapper
+            DatasetVersionMapper datasetVersionMapper,
+            AuthorizationCache authorizationCache
     ) {
         this.projectMapper = projectMapper;
         this.projectVisitedMapper = projectVisitedMapper;
@@ -112,6 +116,7 @@ public class ProjectService implements ProjectAccessor, ApplicationContextAware
         this.runtimeVersionMapper = runtimeVersionMapper;
         this.modelVersionMapper = modelVersionMapper;
         this.datasetVersionMapper = datasetVersionMapper;
+        this.authorizationCache = authorizationCache;
     }
 
     @Override
@@ -253,6 +258,7 @@ public class ProjectService implements ProjectAccessor, ApplicationContextAware
         entity.setProjectName(entity.getProjectName() + DELETE_SUFFIX + "." + entity.getId());
         projectMapper.update(entity);
         int res = projectMapper.remove(entity.getId());
+        authorizationCache.invalidateAll();
         log.info("Project has been deleted. ID={}", entity.getId());
         return res > 0;
     }
@@ -321,6 +327,7 @@ public class ProjectService implements ProjectAccessor, ApplicationContextAware
                 .projectName(projectName)
                 .build());
         projectMapper.recover(id);
+        authorizationCache.invalidateAll();
         log.info("Project has been recovered. Name={}", projectName);
         return id;
     }
@@ -355,6 +362,8 @@ public class ProjectService implements ProjectAccessor, ApplicationContextAware
                 .privacy(privacyEnum.getValue())
                 .build();
         int res = projectMapper.update(entity);
+        // the name and the privacy affect the authorization of the requests on the project
+        authorizationCache.invalidateAll();
         log.info("Project has been modified ID={}", entity.getId());
         return res > 0;
     }
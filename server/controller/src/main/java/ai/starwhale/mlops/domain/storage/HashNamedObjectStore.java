@@ -21,6 +21,7 @@ import ai.starwhale.mlops.exception.SwValidationException.ValidSubject;
 import ai.starwhale.mlops.storage.LengthAbleInputStream;
 import ai.starwhale.mlops.storage.StorageAccessService;
 import ai.starwhale.mlops.storage.StorageObjectInfo;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import org.springframework.util.StringUtils;
@@ -49,6 +50,23 @@ public class HashNamedObjectStore {
         return storageAccessService.get(absolutePath(blobHash));
     }
 
+    public LengthAbleInputStream get(String blobHash, long offset, long size) throws IOException {
+        return storageAccessService.get(absolutePath(blobHash), offset, size);
+    }
+
+    /**
+     * @return the size of the object
+     * @throws FileNotFoundException if the object does not exist
+     */
+    public long size(String blobHash) throws IOException {
+        String path = absolutePath(blobHash);
+        StorageObjectInfo head = storageAccessService.head(path);
+        if (!head.isExists()) {
+            throw new FileNotFoundException(path);
+        }
+        return head.getContentLength();
+    }
+
     public String head(String blobHash) throws IOException {
         String path = absolutePath(blobHash);
         StorageObjectInfo head = storageAccessService.head(path);
@@ -132,6 +132,25 @@ public class StoragePathCoordinator {
                 bundleVersion);
     }
 
+    /**
+     * where the split points of a dataset version are stored %s1 = prefix %s2 = dataset version id %s3 = batch size
+     */
+    static final String STORAGE_PATH_FORMATTER_DATASET_SPLIT_POINTS = "%s/datasetSplitPoints/%s/%s";
+
+    /**
+     * @return consistency of path is guaranteed among multiple method calls
+     */
+    public String allocateDatasetSplitPointsPath(Long datasetVersionId, int batchSize) {
+        return String.format(STORAGE_PATH_FORMATTER_DATASET_SPLIT_POINTS, prefix, datasetVersionId, batchSize);
+    }
+
+    /**
+     * @return the prefix of the split points of all batch sizes of the dataset version
+     */
+    public String allocateDatasetSplitPointsPrefix(Long datasetVersionId) {
+        return String.format(STORAGE_PATH_FORMATTER_DATASET_SPLIT_POINTS, prefix, datasetVersionId, "");
+    }
+
     static final String PLUGIN_PREFIX = "plugins";
     static final String PANEL_PREFIX = "panel";
 
@@ -28,6 +28,11 @@ import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 import lombok.extern.slf4j.Slf4j;
 import org.jetbrains.annotations.NotNull;
@@ -103,4 +108,35 @@ public class UriAccessor {
         }
     }
 
+    /**
+     * sign the uris in batches, one batch for each storage
+     *
+     * @return the links in the order of the uris
+     */
+    public Map<String, String> linksOf(Collection<String> uris, Long expTimeMillis) {
+        var ret = new LinkedHashMap<String, String>();
+        var paths = new IdentityHashMap<StorageAccessService, Map<String, String>>();
+        for (var uri : uris) {
+            StorageUri storageUri = getStorageUri(uri);
+            if (null != storageUri.getSchema() && SCHEME_HTTP.contains(storageUri.getSchema())) {
+                ret.put(uri, uri);
+                continue;
+            }
+            // keep the order of the uris, the values are filled later
+            ret.put(uri, null);
+            paths.computeIfAbsent(storageAccessParser.getStorageAccessServiceFromUri(storageUri),
+                    k -> new HashMap<>()).put(uri, storageUri.getPathAfterBucket());
+        }
+        for (var entry : paths.entrySet()) {
+            Map<String, String> links;
+            try {
+                links = entry.getKey().signAll(Set.copyOf(entry.getValue().values()), expTimeMillis);
+            } catch (IOException e) {
+                throw new SwProcessException(ErrorType.STORAGE, "error while accessing storage", e);
+            }
+            entry.getValue().forEach((uri, path) -> ret.put(uri, links.get(path)));
+        }
+        return ret;
+    }
+
 }
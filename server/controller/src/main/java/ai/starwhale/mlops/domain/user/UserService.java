@@ -22,6 +22,7 @@ import ai.starwhale.mlops.api.protocol.user.UserVo;
 import ai.starwhale.mlops.common.IdConverter;
 import ai.starwhale.mlops.common.PageParams;
 import ai.starwhale.mlops.common.util.PageUtil;
+import ai.starwhale.mlops.configuration.security.AuthorizationCache;
 import ai.starwhale.mlops.configuration.security.SwPasswordEncoder;
 import ai.starwhale.mlops.domain.member.MemberService;
 import ai.starwhale.mlops.domain.member.bo.ProjectMember;
@@ -75,15 +76,17 @@ public class UserService implements UserDetailsService {
     private final MemberService memberService;
     private final IdConverter idConvertor;
     private final SaltGenerator saltGenerator;
+    private final AuthorizationCache authorizationCache;
 
     public UserService(UserMapper userMapper, RoleMapper roleMapper,
             MemberService memberService,
-            IdConverter idConvertor, SaltGenerator saltGenerator) {
+            IdConverter idConvertor, SaltGenerator saltGenerator, AuthorizationCache authorizationCache) {
         this.userMapper = userMapper;
         this.roleMapper = roleMapper;
         this.memberService = memberService;
         this.idConvertor = idConvertor;
         this.saltGenerator = saltGenerator;
+        this.authorizationCache = authorizationCache;
     }
 
 
@@ -235,8 +238,10 @@ public class UserService implements UserDetailsService {
 
     public Boolean updateUserState(User user, Boolean isEnabled) {
         log.info("User has been {}.", isEnabled ? "enabled" : "disabled");
-        return userMapper.updateEnabled(user.getId(),
+        var res = userMapper.updateEnabled(user.getId(),
                 Optional.of(isEnabled).orElse(false) ? 1 : 0) > 0;
+        authorizationCache.invalidateAll();
+        return res;
     }
 
 
@@ -24,12 +24,7 @@ import static org.hamcrest.Matchers.notNullValue;
 import static org.hamcrest.Matchers.nullValue;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
-import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.BDDMockito.given;
-import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.times;
-import static org.mockito.Mockito.verify;
-import static org.mockito.Mockito.when;
 
 import ai.starwhale.mlops.api.protocol.datastore.ColumnDesc;
 import ai.starwhale.mlops.api.protocol.datastore.ListTablesRequest;
@@ -43,20 +38,26 @@ import ai.starwhale.mlops.api.protocol.datastore.TableQueryOperandDesc;
 import ai.starwhale.mlops.api.protocol.datastore.UpdateTableRequest;
 import ai.starwhale.mlops.datastore.ColumnHintsDesc;
 import ai.starwhale.mlops.datastore.ColumnSchemaDesc;
+import ai.starwhale.mlops.datastore.ColumnType;
 import ai.starwhale.mlops.datastore.DataStore;
 import ai.starwhale.mlops.datastore.OrderByDesc;
-import ai.starwhale.mlops.datastore.RecordList;
 import ai.starwhale.mlops.datastore.TableQueryFilter;
 import ai.starwhale.mlops.datastore.TableSchemaDesc;
-import ai.starwhale.mlops.datastore.exporter.RecordsStreamingExporter;
+import ai.starwhale.mlops.datastore.Wal;
+import ai.starwhale.mlops.datastore.exporter.RecordsStreamingExporterCsv;
+import ai.starwhale.mlops.datastore.exporter.RecordsStreamingExporterJsonl;
 import ai.starwhale.mlops.datastore.wal.WalManager;
 import ai.starwhale.mlops.exception.SwValidationException;
 import ai.starwhale.mlops.storage.memory.StorageAccessServiceMemory;
 import brave.internal.collect.Lists;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.jimfs.Configuration;
 import com.google.common.jimfs.Jimfs;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystem;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -64,18 +65,16 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.stream.Stream;
-import javax.servlet.ServletOutputStream;
-import javax.servlet.http.HttpServletResponse;
+import java.util.zip.GZIPInputStream;
 import lombok.SneakyThrows;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
-import org.junit.jupiter.params.ParameterizedTest;
-import org.junit.jupiter.params.provider.Arguments;
-import org.junit.jupiter.params.provider.MethodSource;
 import org.mockito.Mockito;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
 
 public class DataStoreControllerTest {
 
@@ -102,7 +101,15 @@ public class DataStoreControllerTest {
                         "SNAPPY",
                         "1MB",
                         "1KB",
-                        1000)
+                        1000,
+                        0.5,
+                        16,
+                        "ROW",
+                        4,
+                        4,
+                        "async",
+                        "0",
+                        new SimpleMeterRegistry())
                         .start()
         );
     }
@@ -454,6 +461,244 @@ public class DataStoreControllerTest {
                                 .build())));
     }
 
+    @Test
+    public void testIngest() throws IOException {
+        var body = new ByteArrayOutputStream();
+        Wal.TableSchema.newBuilder()
+                .setKeyColumn("k")
+                .addColumns(Wal.ColumnSchema.newBuilder()
+                        .setColumnName("a").setColumnType("STRING").setColumnIndex(0))
+                .addColumns(Wal.ColumnSchema.newBuilder()
+                        .setColumnName("k").setColumnType("INT32").setColumnIndex(1))
+                .build()
+                .writeDelimitedTo(body);
+        for (int i = 0; i < 2500; ++i) {
+            Wal.Record.newBuilder()
+                    .addColumns(Wal.Column.newBuilder().setIndex(1).setIntValue(i))
+                    .addColumns(Wal.Column.newBuilder().setIndex(0).setStringValue("v" + i))
+                    .build()
+                    .writeDelimitedTo(body);
+        }
+        var request = new MockHttpServletRequest();
+        request.setContent(body.toByteArray());
+        var resp = this.controller.ingestTable("t1", null, request);
+        assertThat(resp.getStatusCode().is2xxSuccessful(), is(true));
+        assertThat(Objects.requireNonNull(resp.getBody()).getData(), notNullValue());
+
+        var req = new ScanTableRequest();
+        req.setTables(List.of(new TableDesc() {
+            {
+                setTableName("t1");
+            }
+        }));
+        req.setEncodeWithType(false);
+        var records = Objects.requireNonNull(this.controller.scanTable(req).getBody()).getData().getRecords();
+        assertThat(records.size(), is(1000));
+        assertThat(records.get(0), is(Map.of("k", "00000000", "a", "v0")));
+        req.setStart("000009c2");
+        records = Objects.requireNonNull(this.controller.scanTable(req).getBody()).getData().getRecords();
+        assertThat(records, is(List.of(Map.of("k", "000009c2", "a", "v2498"), Map.of("k", "000009c3", "a", "v2499"))));
+
+        // the schema only
+        body.reset();
+        Wal.TableSchema.newBuilder()
+                .setKeyColumn("k")
+                .addColumns(Wal.ColumnSchema.newBuilder()
+                        .setColumnName("k").setColumnType("INT32").setColumnIndex(0))
+                .build()
+                .writeDelimitedTo(body);
+        request.setContent(body.toByteArray());
+        resp = this.controller.ingestTable("t2", "async", request);
+        assertThat(resp.getStatusCode().is2xxSuccessful(), is(true));
+        assertThat(this.controller.listTables(new ListTablesRequest()).getBody().getData().getTables(),
+                is(List.of("t1", "t2")));
+
+        request.setContent(new byte[0]);
+        assertThrows(SwValidationException.class, () -> this.controller.ingestTable("t3", null, request));
+        request.setContent(new byte[]{10, 1, 2});
+        assertThrows(SwValidationException.class, () -> this.controller.ingestTable("t3", null, request));
+    }
+
+    private void ingest(String tableName, int count) throws IOException {
+        var body = new ByteArrayOutputStream();
+        Wal.TableSchema.newBuilder()
+                .setKeyColumn("k")
+                .addColumns(Wal.ColumnSchema.newBuilder()
+                        .setColumnName("k").setColumnType("INT32").setColumnIndex(0))
+                .addColumns(Wal.ColumnSchema.newBuilder()
+                        .setColumnName("a").setColumnType("STRING").setColumnIndex(1))
+                .build()
+                .writeDelimitedTo(body);
+        for (int i = 0; i < count; ++i) {
+            Wal.Record.newBuilder()
+                    .addColumns(Wal.Column.newBuilder().setIndex(0).setIntValue(i))
+                    .addColumns(Wal.Column.newBuilder().setIndex(1).setStringValue("v" + i))
+                    .build()
+                    .writeDelimitedTo(body);
+        }
+        var request = new MockHttpServletRequest();
+        request.setContent(body.toByteArray());
+        this.controller.ingestTable(tableName, null, request);
+    }
+
+    @Test
+    public void testStream() throws IOException {
+        this.ingest("t1", 2500);
+
+        // all the records are returned in one response, no matter how many there are
+        var scanRequest = new ScanTableRequest();
+        scanRequest.setTables(List.of(new TableDesc() {
+            {
+                setTableName("t1");
+                setColumns(List.of(new ColumnDesc() {
+                    {
+                        setColumnName("k");
+                        setAlias("kk");
+                    }
+                }, new ColumnDesc() {
+                    {
+                        setColumnName("a");
+                    }
+                }));
+            }
+        }));
+        var response = new MockHttpServletResponse();
+        this.controller.scanTableStream(scanRequest, response);
+        assertThat(response.getContentType(), is(DataStoreController.PROTOBUF_STREAM));
+        var input = new ByteArrayInputStream(response.getContentAsByteArray());
+        var schema = Wal.TableSchema.parseDelimitedFrom(input);
+        assertThat(schema.getKeyColumn(), is("kk"));
+        assertThat(schema.getColumnsList(), is(List.of(
+                Wal.ColumnSchema.newBuilder().setColumnName("a").setColumnType("STRING").setColumnIndex(0).build(),
+                Wal.ColumnSchema.newBuilder().setColumnName("kk").setColumnType("INT32").setColumnIndex(1).build())));
+        for (int i = 0; i < 2500; ++i) {
+            var record = Wal.Record.parseDelimitedFrom(input);
+            assertThat(record.getColumnsList(), containsInAnyOrder(
+                    Wal.Column.newBuilder().setIndex(0).setType(ColumnType.STRING.getIndex())
+                            .setStringValue("v" + i).build(),
+                    Wal.Column.newBuilder().setIndex(1).setType(ColumnType.INT32.getIndex())
+                            .setIntValue(i).build()));
+        }
+        assertThat(Wal.Record.parseDelimitedFrom(input), nullValue());
+
+        // the output can be ingested as it is
+        var request = new MockHttpServletRequest();
+        request.setContent(response.getContentAsByteArray());
+        this.controller.ingestTable("t2", null, request);
+
+        var queryRequest = new QueryTableRequest();
+        queryRequest.setTableName("t2");
+        queryRequest.setStart(1);
+        queryRequest.setLimit(2);
+        response = new MockHttpServletResponse();
+        this.controller.queryTableStream(queryRequest, response);
+        input = new ByteArrayInputStream(response.getContentAsByteArray());
+        assertThat(Wal.TableSchema.parseDelimitedFrom(input).getKeyColumn(), is("kk"));
+        assertThat(Wal.Record.parseDelimitedFrom(input).getColumnsList(), containsInAnyOrder(
+                Wal.Column.newBuilder().setIndex(0).setType(ColumnType.STRING.getIndex())
+                        .setStringValue("v1").build(),
+                Wal.Column.newBuilder().setIndex(1).setType(ColumnType.INT32.getIndex())
+                        .setIntValue(1).build()));
+        assertThat(Wal.Record.parseDelimitedFrom(input).getColumnsList(), containsInAnyOrder(
+                Wal.Column.newBuilder().setIndex(0).setType(ColumnType.STRING.getIndex())
+                        .setStringValue("v2").build(),
+                Wal.Column.newBuilder().setIndex(1).setType(ColumnType.INT32.getIndex())
+                        .setIntValue(2).build()));
+        assertThat(Wal.Record.parseDelimitedFrom(input), nullValue());
+
+        // no such table
+        queryRequest.setTableName("t3");
+        queryRequest.setIgnoreNonExistingTable(true);
+        response = new MockHttpServletResponse();
+        this.controller.queryTableStream(queryRequest, response);
+        input = new ByteArrayInputStream(response.getContentAsByteArray());
+        assertThat(Wal.TableSchema.parseDelimitedFrom(input).getColumnsCount(), is(0));
+        assertThat(Wal.Record.parseDelimitedFrom(input), nullValue());
+
+        assertThrows(SwValidationException.class,
+                () -> this.controller.scanTableStream(new ScanTableRequest(), new MockHttpServletResponse()));
+    }
+
+    private byte[] scanStream(String tableName) throws IOException {
+        var scanRequest = new ScanTableRequest();
+        scanRequest.setTables(List.of(new TableDesc() {
+            {
+                setTableName(tableName);
+                setColumns(List.of(new ColumnDesc() {
+                    {
+                        setColumnName("k");
+                    }
+                }, new ColumnDesc() {
+                    {
+                        setColumnName("a");
+                    }
+                }));
+            }
+        }));
+        var response = new MockHttpServletResponse();
+        this.controller.scanTableStream(scanRequest, response);
+        return response.getContentAsByteArray();
+    }
+
+    @Test
+    public void testStreamAfterTypeChange() throws IOException {
+        this.ingest("t1", 2);
+        // the type of column a is changed, the old records keep their string values
+        var body = new ByteArrayOutputStream();
+        Wal.TableSchema.newBuilder()
+                .setKeyColumn("k")
+                .addColumns(Wal.ColumnSchema.newBuilder()
+                        .setColumnName("k").setColumnType("INT32").setColumnIndex(0))
+                .addColumns(Wal.ColumnSchema.newBuilder()
+                        .setColumnName("a").setColumnType("INT64").setColumnIndex(1))
+                .build()
+                .writeDelimitedTo(body);
+        Wal.Record.newBuilder()
+                .addColumns(Wal.Column.newBuilder().setIndex(0).setIntValue(2))
+                .addColumns(Wal.Column.newBuilder().setIndex(1).setIntValue(7))
+                .build()
+                .writeDelimitedTo(body);
+        var request = new MockHttpServletRequest();
+        request.setContent(body.toByteArray());
+        this.controller.ingestTable("t1", null, request);
+
+        var output = this.scanStream("t1");
+        var input = new ByteArrayInputStream(output);
+        assertThat(Wal.TableSchema.parseDelimitedFrom(input).getColumnsList(), is(List.of(
+                Wal.ColumnSchema.newBuilder().setColumnName("a").setColumnType("INT64").setColumnIndex(0).build(),
+                Wal.ColumnSchema.newBuilder().setColumnName("k").setColumnType("INT32").setColumnIndex(1).build())));
+        var expected = List.of(
+                List.of(Wal.Column.newBuilder().setIndex(0).setType(ColumnType.STRING.getIndex())
+                                .setStringValue("v0").build(),
+                        Wal.Column.newBuilder().setIndex(1).setType(ColumnType.INT32.getIndex())
+                                .setIntValue(0).build()),
+                List.of(Wal.Column.newBuilder().setIndex(0).setType(ColumnType.STRING.getIndex())
+                                .setStringValue("v1").build(),
+                        Wal.Column.newBuilder().setIndex(1).setType(ColumnType.INT32.getIndex())
+                                .setIntValue(1).build()),
+                List.of(Wal.Column.newBuilder().setIndex(0).setType(ColumnType.INT64.getIndex())
+                                .setIntValue(7).build(),
+                        Wal.Column.newBuilder().setIndex(1).setType(ColumnType.INT32.getIndex())
+                                .setIntValue(2).build()));
+        for (var columns : expected) {
+            assertThat(Wal.Record.parseDelimitedFrom(input).getColumnsList(),
+                    containsInAnyOrder(columns.toArray()));
+        }
+        assertThat(Wal.Record.parseDelimitedFrom(input), nullValue());
+
+        // the values are ingested with their own types rather than the one in the schema
+        request = new MockHttpServletRequest();
+        request.setContent(output);
+        this.controller.ingestTable("t2", null, request);
+        input = new ByteArrayInputStream(this.scanStream("t2"));
+        Wal.TableSchema.parseDelimitedFrom(input);
+        for (var columns : expected) {
+            assertThat(Wal.Record.parseDelimitedFrom(input).getColumnsList(),
+                    containsInAnyOrder(columns.toArray()));
+        }
+        assertThat(Wal.Record.parseDelimitedFrom(input), nullValue());
+    }
+
     @Nested
     public class UpdateTest {
 
@@ -1068,6 +1313,76 @@ public class DataStoreControllerTest {
 
         }
 
+        @Test
+        public void testQueryWithIndex() {
+            // integer constants from the API are INT64, while the column is INT32
+            this.req.setFilter(new TableQueryFilterDesc() {
+                {
+                    setOperator(TableQueryFilter.Operator.EQUAL.toString());
+                    setOperands(List.of(new TableQueryOperandDesc() {
+                        {
+                            setColumnName("a");
+                        }
+                    }, new TableQueryOperandDesc() {
+                        {
+                            setIntValue(3L);
+                        }
+                    }));
+                }
+            });
+            this.req.setOrderBy(null);
+            this.req.setStart(0);
+            // the index is created on the third query
+            for (int i = 0; i < 4; ++i) {
+                var resp = DataStoreControllerTest.this.controller.queryTable(this.req);
+                assertThat("test", resp.getStatusCode().is2xxSuccessful(), is(true));
+                assertThat("test",
+                        Objects.requireNonNull(resp.getBody()).getData().getRecords(),
+                        is(List.of(Map.of("k", "00000002", "b", "00000003"))));
+            }
+            DataStoreControllerTest.this.controller.updateTable(new UpdateTableRequest() {
+                {
+                    setTableName("t1");
+                    setTableSchemaDesc(new TableSchemaDesc("k",
+                            List.of(ColumnSchemaDesc.builder().name("k").type("INT32").build(),
+                                    ColumnSchemaDesc.builder().name("a").type("INT32").build())));
+                    setRecords(List.of(new RecordDesc() {
+                        {
+                            setValues(List.of(new RecordValueDesc() {
+                                {
+                                    setKey("k");
+                                    setValue("00000002");
+                                }
+                            }, new RecordValueDesc() {
+                                {
+                                    setKey("a");
+                                    setValue("00000004");
+                                }
+                            }));
+                        }
+                    }, new RecordDesc() {
+                        {
+                            setValues(List.of(new RecordValueDesc() {
+                                {
+                                    setKey("k");
+                                    setValue("00000004");
+                                }
+                            }, new RecordValueDesc() {
+                                {
+                                    setKey("a");
+                                    setValue("00000003");
+                                }
+                            }));
+                        }
+                    }));
+                }
+            });
+            var resp = DataStoreControllerTest.this.controller.queryTable(this.req);
+            assertThat("test",
+                    Objects.requireNonNull(resp.getBody()).getData().getRecords(),
+                    is(List.of(Map.of("k", "00000004", "b", "00000003"))));
+        }
+
         @Test
         public void testNullValueInOperands() {
             this.req.getFilter().setOperands(new ArrayList<>() {
@@ -1646,56 +1961,61 @@ public class DataStoreControllerTest {
         }
     }
 
-    public static Stream<Arguments> provideMultiParams() {
-        return Stream.of(
-                Arguments.of(-1, 2),
-                Arguments.of(3, 1),
-                Arguments.of(1, 1)
-        );
-    }
-
-    @ParameterizedTest
-    @MethodSource("provideMultiParams")
-    public void testExportTable(int limit, int expectedCall) throws IOException {
-        DataStoreController controller = new DataStoreController();
-        RecordsStreamingExporter exporter = mock(RecordsStreamingExporter.class);
-        controller.setRecordsExporter(exporter);
-        DataStore dataStore = mock(DataStore.class);
-        controller.setDataStore(dataStore);
-        given(exporter.exportTo(any(), any())).willAnswer(invocationOnMock -> {
-            OutputStream outstream = (OutputStream) invocationOnMock.getArgument(1);
-            outstream.write("hello".getBytes());
-            return null;
-        });
-        when(dataStore.query(any()))
-                .thenReturn(new RecordList(null, null, List.of(Map.of("r", "v")), null, null))
-                .thenReturn(new RecordList(null, null, List.of(Map.of("r", "v")), null, null))
-                .thenReturn(new RecordList(null, null, List.of(), null, null));
-        when(dataStore.scan(any()))
-                .thenReturn(new RecordList(null, null, List.of(Map.of("r", "v")), null, null))
-                .thenReturn(new RecordList(null, null, List.of(Map.of("r", "v")), null, null))
-                .thenReturn(new RecordList(null, null, List.of(), null, null));
-        HttpServletResponse response = mock(HttpServletResponse.class);
-        ServletOutputStream outputStream = mock(ServletOutputStream.class);
-        when(response.getOutputStream()).thenReturn(outputStream);
-        controller.queryAndExport(new QueryTableRequest() {
+    @Test
+    public void testExport() throws IOException {
+        this.controller.setRecordsExporters(List.of(new RecordsStreamingExporterCsv(new ObjectMapper()),
+                new RecordsStreamingExporterJsonl(new ObjectMapper())));
+        this.ingest("t1", 2500);
+
+        // more records than a page of queryTable
+        var queryRequest = new QueryTableRequest();
+        queryRequest.setTableName("t1");
+        queryRequest.setRawResult(true);
+        var request = new MockHttpServletRequest();
+        var response = new MockHttpServletResponse();
+        this.controller.queryAndExport(queryRequest, "csv", request, response);
+        assertThat(response.getHeader("Content-Disposition"), is("attachment; filename=\"t1.csv\""));
+        assertThat(response.getHeader(HttpHeaders.CONTENT_ENCODING), nullValue());
+        var lines = response.getContentAsString(StandardCharsets.UTF_8).split("\r\n");
+        assertThat(lines.length, is(2501));
+        assertThat(lines[0], is("a,k"));
+        assertThat(lines[1], is("v0,0"));
+        assertThat(lines[2500], is("v2499,2499"));
+
+        request.addHeader(HttpHeaders.ACCEPT_ENCODING, "deflate, gzip;q=0.8");
+        response = new MockHttpServletResponse();
+        this.controller.queryAndExport(queryRequest, "csv", request, response);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_ENCODING), is("gzip"));
+        var content = new String(
+                new GZIPInputStream(new ByteArrayInputStream(response.getContentAsByteArray())).readAllBytes(),
+                StandardCharsets.UTF_8);
+        assertThat(content.split("\r\n"), is(lines));
+
+        var scanRequest = new ScanTableRequest();
+        scanRequest.setTables(List.of(new TableDesc() {
             {
                 setTableName("t1");
-                setLimit(limit);
             }
-        }, response);
-        verify(outputStream, times(expectedCall)).write("hello".getBytes());
+        }));
+        scanRequest.setRawResult(true);
+        scanRequest.setLimit(2);
+        response = new MockHttpServletResponse();
+        this.controller.scanAndExport(scanRequest, "jsonl", new MockHttpServletRequest(), response);
+        assertThat(response.getHeader("Content-Disposition"), is("attachment; filename=\"t1.jsonl\""));
+        assertThat(response.getContentAsString(StandardCharsets.UTF_8),
+                is("{\"a\":\"v0\",\"k\":\"0\"}\n{\"a\":\"v1\",\"k\":\"1\"}\n"));
+
+        assertThrows(SwValidationException.class, () -> this.controller.scanAndExport(
+                scanRequest, "xlsx", new MockHttpServletRequest(), new MockHttpServletResponse()));
+    }
 
-        response = mock(HttpServletResponse.class);
-        outputStream = mock(ServletOutputStream.class);
-        when(response.getOutputStream()).thenReturn(outputStream);
-        controller.scanAndExport(new ScanTableRequest() {
-            {
-                setTables(List.of());
-                setLimit(limit);
-            }
-        }, response);
-        verify(outputStream, times(expectedCall)).write("hello".getBytes());
+    @Test
+    public void testAcceptsGzip() {
+        assertThat(DataStoreController.acceptsGzip(null), is(false));
+        assertThat(DataStoreController.acceptsGzip("gzip"), is(true));
+        assertThat(DataStoreController.acceptsGzip("br, GZIP;q=0.5"), is(true));
+        assertThat(DataStoreController.acceptsGzip("gzip;q=0"), is(false));
+        assertThat(DataStoreController.acceptsGzip("deflate"), is(false));
     }
 
 }
@@ -228,13 +228,13 @@ public class DatasetControllerTest {
         doAnswer(invocation -> {
             called.set(true);
             return null;
-        }).when(datasetUploader).pull(anyString(), anyString(), anyString(), anyString(), any());
+        }).when(datasetUploader).pull(anyString(), anyString(), anyString(), anyString(), any(), any(), any());
 
-        controller.pullDs("p1", "d1", "v1", "part", null);
+        controller.pullDs("p1", "d1", "v1", "part", null, null, null);
         assertThat(called.get(), is(true));
 
-        assertThrows(StarwhaleApiException.class, () -> controller.pullDs("p1", "", "v1", "part", null));
-        assertThrows(StarwhaleApiException.class, () -> controller.pullDs("p1", "d1", "", "part", null));
+        assertThrows(StarwhaleApiException.class, () -> controller.pullDs("p1", "", "v1", "part", null, null, null));
+        assertThrows(StarwhaleApiException.class, () -> controller.pullDs("p1", "d1", "", "part", null, null, null));
     }
 
     @Test
@@ -355,11 +355,11 @@ public class DatasetControllerTest {
         when(hashNamedObjectStore.get("h1")).thenReturn(
                 new LengthAbleInputStream(new ByteArrayInputStream("hi content".getBytes(StandardCharsets.UTF_8)), 10));
         when(hashNamedObjectStore.get("h2")).thenThrow(IOException.class);
-        controller.getHashedBlob("p", "d", "h1", response);
+        controller.getHashedBlob("p", "d", "h1", null, null, response);
         assertThat(new String(output.toByteArray()), is("hi content"));
         Assertions.assertThrows(
                 SwProcessException.class,
-                () -> controller.getHashedBlob("p", "d", "h2", mock(HttpServletResponse.class))
+                () -> controller.getHashedBlob("p", "d", "h2", null, null, mock(HttpServletResponse.class))
         );
 
     }
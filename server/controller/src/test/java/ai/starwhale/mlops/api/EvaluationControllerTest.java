@@ -201,11 +201,11 @@ public class EvaluationControllerTest {
         when(hashNamedObjectStore.get("h1")).thenReturn(
                 new LengthAbleInputStream(new ByteArrayInputStream("hi content".getBytes(StandardCharsets.UTF_8)), 10));
         when(hashNamedObjectStore.get("h2")).thenThrow(IOException.class);
-        controller.getHashedBlob(project, evalVersion, "h1", response);
+        controller.getHashedBlob(project, evalVersion, "h1", null, null, response);
         assertThat(new String(output.toByteArray()), is("hi content"));
         Assertions.assertThrows(
                 SwProcessException.class,
-                () -> controller.getHashedBlob(project, evalVersion, "h2", mock(HttpServletResponse.class))
+                () -> controller.getHashedBlob(project, evalVersion, "h2", null, null, mock(HttpServletResponse.class))
         );
 
     }
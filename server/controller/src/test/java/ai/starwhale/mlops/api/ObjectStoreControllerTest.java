@@ -22,6 +22,7 @@ import static org.mockito.Mockito.when;
 
 import ai.starwhale.mlops.storage.LengthAbleInputStream;
 import ai.starwhale.mlops.storage.StorageAccessService;
+import ai.starwhale.mlops.storage.StorageObjectInfo;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
@@ -62,7 +63,8 @@ public class ObjectStoreControllerTest {
         String content = "content";
         LengthAbleInputStream inputStream = new LengthAbleInputStream(new ByteArrayInputStream(content.getBytes()),
                 content.length());
-        when(storageAccessService.get(p, 0L, 101L)).thenReturn(inputStream);
+        when(storageAccessService.head(p)).thenReturn(new StorageObjectInfo(true, 7L, null, null));
+        when(storageAccessService.get(p, 0L, 7L)).thenReturn(inputStream);
         objectStoreController.getObjectContent(r, req, rsp);
         Assertions.assertEquals(content, outputStream.getTargetStream().toString());
 
@@ -16,14 +16,21 @@
 
 package ai.starwhale.mlops.api.config;
 
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.willAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import ai.starwhale.mlops.configuration.security.ContentCachingFilter;
 import ai.starwhale.mlops.configuration.security.ContentCachingFilter.CachedBodyHttpServletRequest;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -31,10 +38,11 @@ import javax.servlet.http.HttpServletResponse;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
+import org.springframework.mock.web.DelegatingServletInputStream;
 
 public class ContentCachingFilterTest {
 
-    ContentCachingFilter contentCachingFilter = new ContentCachingFilter("/api/v1");
+    ContentCachingFilter contentCachingFilter = new ContentCachingFilter("/api/v1", "10B");
 
     @Test
     public void testNonDatastore() throws ServletException, IOException {
@@ -52,6 +60,8 @@ public class ContentCachingFilterTest {
         HttpServletResponse response = mock(HttpServletResponse.class);
         FilterChain filterChain = mock(FilterChain.class);
         when(request.getRequestURI()).thenReturn("/api/v1/datastore/xx");
+        when(request.getInputStream()).thenReturn(new DelegatingServletInputStream(new ByteArrayInputStream(
+                "0123456789".getBytes())));
         contentCachingFilter.doFilter(request, response, filterChain);
         ArgumentCaptor<HttpServletRequest> arg = ArgumentCaptor.forClass(HttpServletRequest.class);
         verify(filterChain).doFilter(arg.capture(), eq(response));
@@ -59,4 +69,45 @@ public class ContentCachingFilterTest {
 
     }
 
+    @Test
+    public void testSpillToFile() throws ServletException, IOException {
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        FilterChain filterChain = mock(FilterChain.class);
+        List<CachedBodyHttpServletRequest> cachedRequests = new ArrayList<>();
+        willAnswer(invocation -> {
+            CachedBodyHttpServletRequest req = invocation.getArgument(0);
+            assertThat(req.isSpilled(), is(true));
+            // the body can be read more than once
+            assertThat(new String(req.getInputStream().readAllBytes()), is("01234567890"));
+            assertThat(new String(req.getInputStream().readAllBytes()), is("01234567890"));
+            cachedRequests.add(req);
+            return null;
+        }).given(filterChain).doFilter(any(), eq(response));
+
+        for (var contentLength : new long[]{11, -1}) {
+            HttpServletRequest request = mock(HttpServletRequest.class);
+            when(request.getRequestURI()).thenReturn("/api/v1/datastore/xx");
+            when(request.getContentLengthLong()).thenReturn(contentLength);
+            when(request.getInputStream()).thenReturn(new DelegatingServletInputStream(new ByteArrayInputStream(
+                    "01234567890".getBytes())));
+            contentCachingFilter.doFilter(request, response, filterChain);
+        }
+        assertThat(cachedRequests.size(), is(2));
+        for (var req : cachedRequests) {
+            // the temporary file is deleted after the request
+            assertThat(req.isSpilled(), is(false));
+        }
+    }
+
+    @Test
+    public void testInMemory() throws IOException {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getContentLengthLong()).thenReturn(-1L);
+        when(request.getInputStream()).thenReturn(new DelegatingServletInputStream(new ByteArrayInputStream(
+                "0123456789".getBytes())));
+        var req = new CachedBodyHttpServletRequest(request, 10);
+        assertThat(req.isSpilled(), is(false));
+        assertThat(new String(req.getInputStream().readAllBytes()), is("0123456789"));
+        assertThat(new String(req.getInputStream().readAllBytes()), is("0123456789"));
+    }
 }
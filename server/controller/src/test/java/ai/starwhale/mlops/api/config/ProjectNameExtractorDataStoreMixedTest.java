@@ -141,6 +141,35 @@ public class ProjectNameExtractorDataStoreMixedTest {
         assertThat(Set.of("x", "y")).hasSameElementsAs(strings);
     }
 
+    @Test
+    public void testDataStoreStreaming() throws IOException {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getRequestURI()).thenReturn("/api/v1/datastore/updateTable");
+        // the records are skipped, and all the duplicated table names are returned
+        when(request.getInputStream()).thenReturn(new DelegatingServletInputStream(new ByteArrayInputStream((
+                "{\"records\":[{\"values\":[{\"key\":\"tableName\",\"value\":\"project/z\"}]}],"
+                        + "\"tableName\":\"project/x/a\",\"tableSchemaDesc\":{\"tableName\":\"project/w\"},"
+                        + "\"tableName\":\"project/y/a\"}").getBytes())));
+        assertThat(projectNameExtractorDataStoreMixed.extractProjectName(request)).hasSameElementsAs(Set.of("x", "y"));
+
+        when(request.getRequestURI()).thenReturn("/api/v1/datastore/scanTable");
+        when(request.getInputStream()).thenReturn(new DelegatingServletInputStream(new ByteArrayInputStream((
+                "{\"tables\":[{\"columns\":[{\"tableName\":\"project/z\"}],\"tableName\":\"project/x\"},"
+                        + "{\"tableName\":null},{\"tableName\":\"invalid\"}],\"limit\":1}").getBytes())));
+        assertThat(projectNameExtractorDataStoreMixed.extractProjectName(request)).hasSameElementsAs(Set.of("x"));
+
+        when(request.getRequestURI()).thenReturn("/api/v1/datastore/listTables");
+        when(request.getInputStream()).thenReturn(new DelegatingServletInputStream(new ByteArrayInputStream(
+                "{\"prefix\":\"project/x\",\"prefixes\":[\"project/y/\",\"project/z\"]}".getBytes())));
+        assertThat(projectNameExtractorDataStoreMixed.extractProjectName(request))
+                .hasSameElementsAs(Set.of("x", "y", "z"));
+
+        // malformed body
+        when(request.getInputStream()).thenReturn(new DelegatingServletInputStream(new ByteArrayInputStream(
+                "{\"prefixes\":[\"project/x\"".getBytes())));
+        assertThat(projectNameExtractorDataStoreMixed.extractProjectName(request)).isEmpty();
+    }
+
     @Test
     public void testCheckResourceOwnerShip() {
         HttpServletRequest request = mock(HttpServletRequest.class);
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2022 Starwhale, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.starwhale.mlops.common.util;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import ai.starwhale.mlops.storage.StorageAccessService;
+import ai.starwhale.mlops.storage.fs.FsConfig;
+import ai.starwhale.mlops.storage.fs.StorageAccessServiceFile;
+import ai.starwhale.mlops.storage.memory.StorageAccessServiceMemory;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+public class DownloadUtilTest {
+
+    @TempDir
+    private File rootDir;
+
+    private StorageAccessService fileStorage;
+
+    private StorageAccessService memoryStorage;
+
+    private MockHttpServletRequest request;
+
+    private MockHttpServletResponse response;
+
+    private byte[] data;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        this.fileStorage = new StorageAccessServiceFile(new FsConfig(this.rootDir.getAbsolutePath(), ""));
+        this.memoryStorage = new StorageAccessServiceMemory();
+        this.request = new MockHttpServletRequest();
+        this.response = new MockHttpServletResponse();
+        this.data = new byte[100 * 1024];
+        for (int i = 0; i < this.data.length; ++i) {
+            this.data[i] = (byte) i;
+        }
+        this.fileStorage.put("a", this.data);
+        this.memoryStorage.put("a", this.data);
+    }
+
+    private void download(StorageAccessService storageAccessService, String range) throws IOException {
+        this.request = new MockHttpServletRequest();
+        this.response = new MockHttpServletResponse();
+        DownloadUtil.download(range, this.request, this.response, "a", DownloadUtil.reader(storageAccessService, "a"));
+    }
+
+    @Test
+    public void testWholeObject() throws IOException {
+        for (var storage : new StorageAccessService[]{this.fileStorage, this.memoryStorage}) {
+            this.download(storage, null);
+            assertThat(this.response.getStatus(), is(200));
+            assertThat(this.response.getContentLengthLong(), is((long) this.data.length));
+            assertThat(this.response.getHeader(HttpHeaders.ACCEPT_RANGES), is("bytes"));
+            assertThat(this.response.getContentAsByteArray(), is(this.data));
+
+            // malformed and multiple ranges are ignored
+            this.download(storage, "bytes=a-b");
+            assertThat(this.response.getStatus(), is(200));
+            assertThat(this.response.getContentAsByteArray(), is(this.data));
+            this.download(storage, "bytes=0-1,5-6");
+            assertThat(this.response.getStatus(), is(200));
+            assertThat(this.response.getContentAsByteArray(), is(this.data));
+        }
+    }
+
+    @Test
+    public void testRange() throws IOException {
+        for (var storage : new StorageAccessService[]{this.fileStorage, this.memoryStorage}) {
+            this.download(storage, "bytes=10-19");
+            assertThat(this.response.getStatus(), is(206));
+            assertThat(this.response.getHeader(HttpHeaders.CONTENT_RANGE), is("bytes 10-19/102400"));
+            assertThat(this.response.getContentLengthLong(), is(10L));
+            assertThat(this.response.getContentAsByteArray(), is(Arrays.copyOfRange(this.data, 10, 20)));
+
+            this.download(storage, "bytes=102000-");
+            assertThat(this.response.getStatus(), is(206));
+            assertThat(this.response.getHeader(HttpHeaders.CONTENT_RANGE), is("bytes 102000-102399/102400"));
+            assertThat(this.response.getContentAsByteArray(),
+                    is(Arrays.copyOfRange(this.data, 102000, this.data.length)));
+
+            this.download(storage, "bytes=-5");
+            assertThat(this.response.getHeader(HttpHeaders.CONTENT_RANGE), is("bytes 102395-102399/102400"));
+            assertThat(this.response.getContentAsByteArray(),
+                    is(Arrays.copyOfRange(this.data, 102395, this.data.length)));
+
+            // the end is beyond the object
+            this.download(storage, "bytes=102390-200000");
+            assertThat(this.response.getHeader(HttpHeaders.CONTENT_RANGE), is("bytes 102390-102399/102400"));
+            assertThat(this.response.getContentAsByteArray(),
+                    is(Arrays.copyOfRange(this.data, 102390, this.data.length)));
+
+            this.download(storage, "bytes=102400-");
+            assertThat(this.response.getStatus(), is(416));
+            assertThat(this.response.getHeader(HttpHeaders.CONTENT_RANGE), is("bytes */102400"));
+            assertThat(this.response.getContentAsByteArray().length, is(0));
+        }
+    }
+
+    @Test
+    public void testSendfile() throws IOException {
+        this.request = new MockHttpServletRequest();
+        this.request.setAttribute(DownloadUtil.SENDFILE_SUPPORTED_ATTR, true);
+        DownloadUtil.download("bytes=100-", this.request, this.response, "a",
+                DownloadUtil.reader(this.fileStorage, "a"));
+        assertThat(this.request.getAttribute(DownloadUtil.SENDFILE_FILENAME_ATTR),
+                is(new File(this.rootDir, "a").getAbsolutePath()));
+        assertThat(this.request.getAttribute(DownloadUtil.SENDFILE_START_ATTR), is(100L));
+        assertThat(this.request.getAttribute(DownloadUtil.SENDFILE_END_ATTR), is(102400L));
+        assertThat(this.response.getContentLengthLong(), is(102300L));
+        // the content is sent by tomcat
+        assertThat(this.response.getContentAsByteArray().length, is(0));
+
+        // too small to use sendfile
+        this.request = new MockHttpServletRequest();
+        this.request.setAttribute(DownloadUtil.SENDFILE_SUPPORTED_ATTR, true);
+        this.response = new MockHttpServletResponse();
+        DownloadUtil.download("bytes=0-99", this.request, this.response, "a",
+                DownloadUtil.reader(this.fileStorage, "a"));
+        assertThat(this.request.getAttribute(DownloadUtil.SENDFILE_FILENAME_ATTR), nullValue());
+        assertThat(this.response.getContentAsByteArray(), is(Arrays.copyOf(this.data, 100)));
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2022 Starwhale, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.starwhale.mlops.configuration.security;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+
+import ai.starwhale.mlops.configuration.security.AuthorizationCache.Authorization;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class AuthorizationCacheTest {
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private AuthorizationCache cache;
+
+    private AtomicInteger loads;
+
+    private Supplier<Authorization> loader;
+
+    @BeforeEach
+    public void setUp() {
+        this.meterRegistry = new SimpleMeterRegistry();
+        this.cache = this.createCache(Duration.ofMinutes(1), 2);
+        this.loads = new AtomicInteger();
+        this.loader = () -> {
+            this.loads.incrementAndGet();
+            return new Authorization(null, Set.of(), Set.of(), true);
+        };
+    }
+
+    private AuthorizationCache createCache(Duration ttl, int maxSize) {
+        var properties = new JwtProperties();
+        properties.setAuthCacheTtl(ttl);
+        properties.setAuthCacheMaxSize(maxSize);
+        return new AuthorizationCache(properties, this.meterRegistry);
+    }
+
+    @Test
+    public void testGet() {
+        var ret = this.cache.get("u", Set.of("1"), this.loader);
+        assertThat(this.cache.get("u", Set.of("1"), this.loader), sameInstance(ret));
+        this.cache.get("u", Set.of("2"), this.loader);
+        this.cache.get(null, Set.of("1"), this.loader);
+        assertThat(this.loads.get(), is(3));
+        assertThat(this.meterRegistry.counter("sw.auth.cache.hits").count(), is(1.0));
+        assertThat(this.meterRegistry.counter("sw.auth.cache.misses").count(), is(3.0));
+
+        // the least recently used one is evicted
+        assertThat(this.meterRegistry.get("sw.auth.cache.size").gauge().value(), is(2.0));
+        this.cache.get("u", Set.of("1"), this.loader);
+        assertThat(this.loads.get(), is(4));
+
+        this.cache.invalidateAll();
+        this.cache.get("u", Set.of("1"), this.loader);
+        assertThat(this.loads.get(), is(5));
+    }
+
+    @Test
+    public void testIncomplete() {
+        Supplier<Authorization> loader = () -> {
+            this.loads.incrementAndGet();
+            return new Authorization(null, Set.of(), Set.of(), false);
+        };
+        this.cache.get("u", Set.of("1"), loader);
+        this.cache.get("u", Set.of("1"), loader);
+        assertThat(this.loads.get(), is(2));
+    }
+
+    @Test
+    public void testInvalidatedWhileLoading() {
+        this.cache.get("u", Set.of("1"), () -> {
+            this.cache.invalidateAll();
+            return this.loader.get();
+        });
+        // the result loaded before the invalidation is dropped
+        this.cache.get("u", Set.of("1"), this.loader);
+        assertThat(this.loads.get(), is(2));
+    }
+
+    @Test
+    public void testExpire() throws InterruptedException {
+        this.cache = this.createCache(Duration.ofMillis(10), 2);
+        this.cache.get("u", Set.of("1"), this.loader);
+        Thread.sleep(20);
+        this.cache.get("u", Set.of("1"), this.loader);
+        assertThat(this.loads.get(), is(2));
+
+        // disabled
+        this.cache = this.createCache(Duration.ZERO, 2);
+        this.cache.get("u", Set.of("1"), this.loader);
+        this.cache.get("u", Set.of("1"), this.loader);
+        assertThat(this.loads.get(), is(4));
+    }
+}
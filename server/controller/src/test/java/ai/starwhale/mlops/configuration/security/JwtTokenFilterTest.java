@@ -16,10 +16,14 @@
 
 package ai.starwhale.mlops.configuration.security;
 
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.mockStatic;
 import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import ai.starwhale.mlops.api.protocol.Code;
@@ -28,9 +32,12 @@ import ai.starwhale.mlops.common.util.JwtTokenUtil;
 import ai.starwhale.mlops.domain.project.ProjectService;
 import ai.starwhale.mlops.domain.project.bo.Project;
 import ai.starwhale.mlops.domain.user.UserService;
+import ai.starwhale.mlops.domain.user.bo.Role;
+import ai.starwhale.mlops.domain.user.bo.User;
 import ai.starwhale.mlops.exception.SwValidationException;
 import ai.starwhale.mlops.exception.SwValidationException.ValidSubject;
 import io.jsonwebtoken.impl.DefaultClaims;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
@@ -47,6 +54,7 @@ import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.CsvSource;
 import org.mockito.MockedStatic;
 import org.springframework.http.HttpStatus;
+import org.springframework.security.core.context.SecurityContextHolder;
 
 public class JwtTokenFilterTest {
 
@@ -57,6 +65,8 @@ public class JwtTokenFilterTest {
     ProjectService projectService;
     List<JwtClaimValidator> jwtClaimValidators;
 
+    AuthorizationCache authorizationCache;
+
     MockedStatic<HttpUtil> httpUtilMockedStatic;
 
     @BeforeEach
@@ -69,7 +79,10 @@ public class JwtTokenFilterTest {
         doThrow(SwValidationException.class).when(jwtClaimValidator).validClaims(claims);
         jwtClaimValidators = List.of(jwtClaimValidator);
         projectService = mock(ProjectService.class);
-        jwtTokenFilter = new JwtTokenFilter(jwtTokenUtil, userService, projectService, jwtClaimValidators);
+        userService = mock(UserService.class);
+        authorizationCache = new AuthorizationCache(new JwtProperties(), new SimpleMeterRegistry());
+        jwtTokenFilter = new JwtTokenFilter(jwtTokenUtil, userService, projectService, jwtClaimValidators,
+                authorizationCache);
         httpUtilMockedStatic = mockStatic(HttpUtil.class);
     }
 
@@ -119,4 +132,51 @@ public class JwtTokenFilterTest {
                 "Not logged in."), times(errorTimes));
     }
 
+    @Test
+    public void testAuthorizationCache() throws ServletException, IOException {
+        DefaultClaims claims = new DefaultClaims(Map.of("username", "u"));
+        when(jwtTokenUtil.parseJwt("b")).thenReturn(claims);
+        when(jwtTokenUtil.getUsername(claims)).thenReturn("u");
+        when(userService.loadUserByUsername("u")).thenReturn(User.builder().id(1L).name("u").active(true).build());
+        when(userService.getProjectRolesOfUser(any(), any())).thenReturn(List.of());
+        var role = Role.builder().roleCode(Role.CODE_MAINTAINER).build();
+        when(userService.getProjectsRolesOfUser(any(), any())).thenReturn(Set.of(role));
+        when(projectService.findProject("p-1")).thenReturn(Project.builder().id(1L).build());
+
+        Runnable request = () -> {
+            var req = mock(HttpServletRequest.class);
+            when(req.getHeader("Authorization")).thenReturn("Bearer b");
+            when(req.getAttribute("PROJECT")).thenReturn(Set.of("p-1"));
+            var filterChain = mock(FilterChain.class);
+            try {
+                jwtTokenFilter.doFilterInternal(req, mock(HttpServletResponse.class), filterChain);
+                verify(filterChain).doFilter(any(), any());
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+            var user = (User) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+            assertThat(user.getRoles(), is(Set.of(role)));
+        };
+        request.run();
+        request.run();
+        verify(userService, times(1)).loadUserByUsername("u");
+        verify(projectService, times(1)).findProject("p-1");
+
+        // the changes of users, projects and members invalidate the cache
+        authorizationCache.invalidateAll();
+        request.run();
+        verify(userService, times(2)).loadUserByUsername("u");
+
+        // the requests with failed project lookups are not cached
+        when(projectService.findProject("p-1")).thenThrow(new SwValidationException(ValidSubject.PROJECT));
+        authorizationCache.invalidateAll();
+        when(userService.getProjectsRolesOfUser(any(), any())).thenReturn(Set.of());
+        for (int i = 0; i < 2; ++i) {
+            var req = mock(HttpServletRequest.class);
+            when(req.getHeader("Authorization")).thenReturn("Bearer b");
+            when(req.getAttribute("PROJECT")).thenReturn(Set.of("p-1"));
+            jwtTokenFilter.doFilterInternal(req, mock(HttpServletResponse.class), mock(FilterChain.class));
+        }
+        verify(userService, times(4)).loadUserByUsername("u");
+    }
 }
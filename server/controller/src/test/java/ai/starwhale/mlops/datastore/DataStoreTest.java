@@ -19,7 +19,9 @@ package ai.starwhale.mlops.datastore;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.hamcrest.Matchers.nullValue;
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -27,8 +29,11 @@ import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import ai.starwhale.mlops.datastore.TableQueryFilter.Constant;
 import ai.starwhale.mlops.datastore.TableQueryFilter.Operator;
+import ai.starwhale.mlops.datastore.impl.RecordLayout;
 import ai.starwhale.mlops.datastore.type.BaseValue;
 import ai.starwhale.mlops.datastore.type.BytesValue;
+import ai.starwhale.mlops.datastore.wal.WalDurability;
+import ai.starwhale.mlops.domain.upgrade.rollup.RollingUpdateStatusListener.ServerInstanceStatus;
 import ai.starwhale.mlops.exception.SwProcessException;
 import ai.starwhale.mlops.exception.SwValidationException;
 import ai.starwhale.mlops.storage.StorageAccessService;
@@ -37,7 +42,11 @@ import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.Logger;
 import com.google.common.jimfs.Configuration;
 import com.google.common.jimfs.Jimfs;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystem;
@@ -49,9 +58,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiFunction;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -62,6 +74,8 @@ import lombok.SneakyThrows;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
 import org.slf4j.LoggerFactory;
 
 public class DataStoreTest {
@@ -94,6 +108,22 @@ public class DataStoreTest {
         String pageSize = "1KB";
         @Default
         int pageRowCountLimit = 1000;
+        @Default
+        double deltaCompactionRatio = 0.5;
+        @Default
+        int maxDeltaCount = 16;
+        @Default
+        String recordLayout = "ROW";
+        @Default
+        int scanThreads = 4;
+        @Default
+        int replayThreads = 4;
+        @Default
+        String walDurability = "async";
+        @Default
+        String memoryBudget = "0";
+        @Default
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
     }
 
     @BeforeEach
@@ -118,7 +148,15 @@ public class DataStoreTest {
                 params.compressionCodec,
                 params.rowGroupSize,
                 params.pageSize,
-                params.pageRowCountLimit)
+                params.pageRowCountLimit,
+                params.deltaCompactionRatio,
+                params.maxDeltaCount,
+                params.recordLayout,
+                params.scanThreads,
+                params.replayThreads,
+                params.walDurability,
+                params.memoryBudget,
+                params.meterRegistry)
                 .start();
     }
 
@@ -148,6 +186,52 @@ public class DataStoreTest {
         assertThat("none", this.dataStore.list(Set.of("t3")), empty());
     }
 
+    @Test
+    public void testUpdateWithDurability() throws IOException {
+        this.dataStore.terminate();
+        this.createDateStore(DataStoreParams.builder().walDurability("remote-ack").build());
+        var desc = new TableSchemaDesc("k", List.of(ColumnSchemaDesc.builder().name("k").type("STRING").build()));
+        this.dataStore.update("t1", desc, List.of(Map.of("k", "0")));
+        // acknowledged only after the log file is pushed
+        assertThat(this.storageAccessService.list("wal/").collect(Collectors.toList()), is(List.of("wal/wal.log.0")));
+        this.dataStore.update("t1", desc, List.of(Map.of("k", "1")), WalDurability.ASYNC);
+        this.dataStore.update("t1", desc, List.of(Map.of("k", "2")), WalDurability.LOCAL_FSYNC);
+        assertThrows(SwValidationException.class,
+                () -> this.createDateStore(DataStoreParams.builder().walDurability("sync").build()));
+    }
+
+    @Test
+    public void testSlowIngestDoesNotBlockHandover() throws Throwable {
+        var output = new PipedOutputStream();
+        var input = new PipedInputStream(output);
+        var ingestThread = new TestThread() {
+            @Override
+            public void execute() throws Exception {
+                dataStore.ingest("t1", input);
+            }
+        };
+        ingestThread.start();
+        Wal.TableSchema.newBuilder()
+                .setKeyColumn("k")
+                .addColumns(Wal.ColumnSchema.newBuilder()
+                        .setColumnName("k").setColumnType("STRING").setColumnIndex(0))
+                .build()
+                .writeDelimitedTo(output);
+        Wal.Record.newBuilder()
+                .addColumns(Wal.Column.newBuilder().setIndex(0).setStringValue("0"))
+                .build()
+                .writeDelimitedTo(output);
+        output.flush();
+        // the uploader is still sending the body, the new instance does not wait for it
+        CompletableFuture.runAsync(() -> this.dataStore.onNewInstanceStatus(ServerInstanceStatus.BORN))
+                .get(10, TimeUnit.SECONDS);
+        output.close();
+        ingestThread.join();
+        ingestThread.checkException();
+        assertThat(this.dataStore.query(DataStoreQueryRequest.builder().tableName("t1").build()).getRecords(),
+                is(List.of(Map.of("k", "0"))));
+    }
+
     @Test
     public void testUpdate() {
         var objDesc = ColumnSchemaDesc.builder().name("v").type("OBJECT").pythonType("test-py")
@@ -417,6 +501,78 @@ public class DataStoreTest {
                         Map.of("k", Map.of("type", "STRING", "value", "0")))));
     }
 
+    @Test
+    public void testQueryWithCursor() {
+        var desc = new TableSchemaDesc("k",
+                List.of(ColumnSchemaDesc.builder().name("k").type("INT32").build(),
+                        ColumnSchemaDesc.builder().name("a").type("INT32").build()));
+        this.dataStore.update("t1",
+                desc,
+                IntStream.range(0, 100)
+                        .mapToObj(i -> Map.<String, Object>of("k", Integer.toHexString(i), "a",
+                                Integer.toHexString(i % 7)))
+                        .collect(Collectors.toList()));
+        this.dataStore.update("t1", desc, List.of(Map.of("k", "5", "-", "1")));
+
+        BiFunction<List<OrderByDesc>, Integer, List<Map<String, Object>>> queryByCursor = (orderBy, limit) -> {
+            this.dataStore.update("t1", desc, List.of(Map.of("k", "0", "a", "0")));
+            var ret = new ArrayList<Map<String, Object>>();
+            var req = DataStoreQueryRequest.builder()
+                    .tableName("t1")
+                    .filter(TableQueryFilter.builder()
+                            .operator(Operator.LESS)
+                            .operands(List.of(new TableQueryFilter.Column("k"), new Constant(ColumnType.INT32, 90)))
+                            .build())
+                    .orderBy(orderBy)
+                    .limit(limit)
+                    .build();
+            for (; ; ) {
+                var recordList = this.dataStore.query(req);
+                ret.addAll(recordList.getRecords());
+                if (recordList.getCursor() == null) {
+                    return ret;
+                }
+                assertThat(recordList.getRecords().size(), is(limit));
+                req.setCursor(recordList.getCursor());
+                // updates after the first page should be invisible
+                this.dataStore.update("t1", desc, List.of(Map.of("k", "0", "a", "ff")));
+            }
+        };
+        for (var orderBy : List.of(List.<OrderByDesc>of(),
+                List.of(new OrderByDesc("a")),
+                List.of(new OrderByDesc("a", true)),
+                List.of(new OrderByDesc("a"), new OrderByDesc("k", true)))) {
+            var expected = this.dataStore.query(DataStoreQueryRequest.builder()
+                    .tableName("t1")
+                    .filter(TableQueryFilter.builder()
+                            .operator(Operator.LESS)
+                            .operands(List.of(new TableQueryFilter.Column("k"), new Constant(ColumnType.INT32, 90)))
+                            .build())
+                    .orderBy(orderBy.isEmpty() ? null : orderBy)
+                    .build()).getRecords();
+            assertThat(expected.size(), is(89));
+            for (var limit : List.of(1, 7, 10, 89, 100)) {
+                assertThat(orderBy + " " + limit,
+                        queryByCursor.apply(orderBy.isEmpty() ? null : orderBy, limit),
+                        is(expected));
+            }
+        }
+
+        assertThrows(SwValidationException.class, () -> this.dataStore.query(DataStoreQueryRequest.builder()
+                .tableName("t1")
+                .cursor("invalid")
+                .build()));
+        var cursor = this.dataStore.query(DataStoreQueryRequest.builder()
+                .tableName("t1")
+                .orderBy(List.of(new OrderByDesc("a")))
+                .limit(1)
+                .build()).getCursor();
+        assertThrows(SwValidationException.class, () -> this.dataStore.query(DataStoreQueryRequest.builder()
+                .tableName("t1")
+                .cursor(cursor)
+                .build()));
+    }
+
     @Test
     public void testQueryMultipleTimesForBytes() {
         this.dataStore.update("t1",
@@ -850,34 +1006,127 @@ public class DataStoreTest {
     }
 
     @Test
-    public void testSoftReferences() throws Exception {
+    public void testReplayManyTables() {
+        var params = DataStoreParams.builder()
+                .dumpInterval("1h")
+                .minNoUpdatePeriod("1h")
+                .minWalIdGap(1000000);
+        this.dataStore.terminate();
+        this.createDateStore(params.build());
+        int tableCount = 30;
+        int updateCount = 20;
+        var desc = new TableSchemaDesc("k", List.of(ColumnSchemaDesc.builder().name("k").type("STRING").build(),
+                ColumnSchemaDesc.builder().name("v").type("STRING").build()));
+        for (int i = 0; i < updateCount; ++i) {
+            for (int j = 0; j < tableCount; ++j) {
+                this.dataStore.update("t" + j, desc, List.of(Map.of("k", "0", "v", "v" + i), Map.of("k", "k" + i)));
+            }
+        }
         this.dataStore.terminate();
+        var meterRegistry = new SimpleMeterRegistry();
+        this.createDateStore(params.replayThreads(3).meterRegistry(meterRegistry).build());
+        assertThat(meterRegistry.get("sw.datastore.wal.replay.entries").counter().count(),
+                is((double) tableCount * updateCount));
+        for (int j = 0; j < tableCount; ++j) {
+            var records = this.dataStore.scan(DataStoreScanRequest.builder()
+                            .tables(List.of(DataStoreScanRequest.TableInfo.builder().tableName("t" + j).build()))
+                            .build())
+                    .getRecords();
+            // the last update of each table wins
+            assertThat(records.get(0), is(Map.of("k", "0", "v", "v" + (updateCount - 1))));
+            assertThat(records.size(), is(updateCount + 1));
+        }
+    }
+
+    @Test
+    public void testScanManyTables() {
+        int tableCount = 20;
+        int keyCount = 300;
+        var tables = new ArrayList<DataStoreScanRequest.TableInfo>();
+        for (int i = 0; i < tableCount; ++i) {
+            var column = "c" + i;
+            var records = new ArrayList<Map<String, Object>>();
+            for (int k = 0; k < keyCount; k += i + 1) {
+                records.add(Map.of("k", String.format("%08x", k), column, String.format("%08x", k)));
+            }
+            this.dataStore.update("t" + i,
+                    new TableSchemaDesc("k",
+                            List.of(ColumnSchemaDesc.builder().name("k").type("INT32").build(),
+                                    ColumnSchemaDesc.builder().name(column).type("INT32").build())),
+                    records);
+            tables.add(DataStoreScanRequest.TableInfo.builder().tableName("t" + i).build());
+        }
+        // deleted records of the first table are overridden by the following tables
+        var deletes = new ArrayList<Map<String, Object>>();
+        for (int k = 0; k < keyCount; k += 10) {
+            deletes.add(Map.of("k", String.format("%08x", k), "-", "1"));
+        }
+        this.dataStore.update("t0",
+                new TableSchemaDesc("k", List.of(ColumnSchemaDesc.builder().name("k").type("INT32").build())),
+                deletes);
+
+        var expected = new ArrayList<Map<String, Object>>();
+        for (int k = 0; k < keyCount; ++k) {
+            var record = new HashMap<String, Object>();
+            for (int i = 0; i < tableCount; ++i) {
+                if (k % (i + 1) == 0 && !(i == 0 && k % 10 == 0)) {
+                    record.put("k", String.format("%08x", k));
+                    record.put("c" + i, String.format("%08x", k));
+                }
+            }
+            expected.add(record);
+        }
+
+        var results = new ArrayList<Map<String, Object>>();
+        String start = null;
+        for (; ; ) {
+            var recordList = this.dataStore.scan(DataStoreScanRequest.builder()
+                    .tables(tables)
+                    .start(start)
+                    .startInclusive(start == null)
+                    .limit(70)
+                    .build());
+            if (recordList.getRecords().isEmpty()) {
+                break;
+            }
+            results.addAll(recordList.getRecords());
+            start = recordList.getLastKey();
+        }
+        assertThat(results, is(expected));
+    }
+
+    @Test
+    public void testTableEviction() throws Exception {
+        this.dataStore.terminate();
+        var meterRegistry = new SimpleMeterRegistry();
         this.createDateStore(DataStoreParams.builder()
                 .walMaxFileSize(65536)
                 .dumpInterval("1s")
                 .minNoUpdatePeriod("1ms")
+                .memoryBudget("1KB")
+                .meterRegistry(meterRegistry)
                 .build());
-        try {
-            for (int i = 0; i < 10; ++i) {
-                this.dataStore.update("t" + i,
-                        new TableSchemaDesc("k",
-                                List.of(ColumnSchemaDesc.builder().name("k").type("STRING").build())),
-                        IntStream.range(0, 1000)
-                                .mapToObj(k -> Map.of("k", (Object) String.format("%04d", k)))
-                                .collect(Collectors.toList()));
-            }
-            // makes sure tables are dumped
-            while (this.dataStore.hasDirtyTables()) {
-                Thread.sleep(1000);
-            }
-            var buf = new ArrayList<long[]>();
-            for (; ; ) {
-                buf.add(new long[1024 * 1024 * 16]);
-            }
-        } catch (OutOfMemoryError ignored) {
-            // now all soft references are garbage collected.
+        for (int i = 0; i < 10; ++i) {
+            this.dataStore.update("t" + i,
+                    new TableSchemaDesc("k",
+                            List.of(ColumnSchemaDesc.builder().name("k").type("STRING").build())),
+                    IntStream.range(0, 1000)
+                            .mapToObj(k -> Map.of("k", (Object) String.format("%04d", k)))
+                            .collect(Collectors.toList()));
         }
-        assertThat(this.storageAccessService.list("wal/").collect(Collectors.toList()), is(List.of("wal/wal.log.1")));
+        // makes sure tables are dumped
+        while (this.dataStore.hasDirtyTables()) {
+            Thread.sleep(1000);
+        }
+        // wait for the dump thread to evict the saved tables
+        Thread.sleep(2000);
+        assertThat(meterRegistry.get("sw.datastore.table.cache.evictions").counter().count(), greaterThan(0.0));
+        assertThat(meterRegistry.get("sw.datastore.table.resident.bytes").gauge().value(), lessThan(1024.0 * 1024));
+        System.gc();
+        assertThat(this.storageAccessService.list("wal/")
+                        .filter(key -> !key.contains(".chunk."))
+                        .collect(Collectors.toList()),
+                is(List.of("wal/wal.log.1")));
         for (int i = 0; i < 10; ++i) {
             assertThat(
                     this.dataStore.scan(DataStoreScanRequest.builder()
@@ -1042,6 +1291,94 @@ public class DataStoreTest {
         }
     }
 
+    @Test
+    public void testSnapshotReadsWithConcurrentWrites() throws Throwable {
+        this.dataStore.terminate();
+        this.createDateStore(DataStoreParams.builder()
+                .walMaxFileSize(65536 * 1024)
+                .build());
+        var schema = new TableSchemaDesc("k",
+                List.of(ColumnSchemaDesc.builder().name("k").type("INT32").build(),
+                        ColumnSchemaDesc.builder().name("v").type("INT32").build()));
+        var batchSize = 100;
+        BiFunction<Integer, Integer, List<Map<String, Object>>> createBatch = (start, value) ->
+                IntStream.range(start, start + batchSize)
+                        .mapToObj(k -> Map.<String, Object>of("k",
+                                Integer.toHexString(k % batchSize),
+                                "v",
+                                Integer.toHexString(value)))
+                        .collect(Collectors.toList());
+        this.dataStore.update("t", schema, createBatch.apply(0, 0));
+
+        var writing = new AtomicBoolean(true);
+        var writeCount = new AtomicLong();
+        var readCount = new AtomicLong();
+        var writers = new ArrayList<TestThread>();
+        for (int i = 0; i < 4; ++i) {
+            writers.add(new TestThread() {
+                public void execute() {
+                    for (int j = 0; j < 500; ++j) {
+                        // every update changes all records to the same value
+                        dataStore.update("t", schema, createBatch.apply(j, this.random.nextInt(1 << 20)));
+                        writeCount.incrementAndGet();
+                    }
+                }
+            });
+        }
+        var readers = new ArrayList<TestThread>();
+        for (int i = 0; i < 8; ++i) {
+            var index = i;
+            readers.add(new TestThread() {
+                public void execute() {
+                    while (writing.get()) {
+                        List<Map<String, Object>> records;
+                        if (index % 2 == 0) {
+                            records = dataStore.query(DataStoreQueryRequest.builder()
+                                    .tableName("t")
+                                    .rawResult(true)
+                                    .build()).getRecords();
+                        } else {
+                            records = dataStore.scan(DataStoreScanRequest.builder()
+                                    .tables(List.of(DataStoreScanRequest.TableInfo.builder()
+                                            .tableName("t")
+                                            .build()))
+                                    .rawResult(true)
+                                    .build()).getRecords();
+                        }
+                        // a snapshot never contains a partial update
+                        assertThat(records.size(), is(batchSize));
+                        assertThat(records.stream().map(r -> r.get("v")).distinct().count(), is(1L));
+                        readCount.incrementAndGet();
+                    }
+                }
+            });
+        }
+        var startTime = System.currentTimeMillis();
+        for (var thread : readers) {
+            thread.start();
+        }
+        for (var thread : writers) {
+            thread.start();
+        }
+        for (var thread : writers) {
+            thread.join();
+            thread.checkException();
+        }
+        var elapsed = Math.max(System.currentTimeMillis() - startTime, 1);
+        writing.set(false);
+        for (var thread : readers) {
+            thread.join();
+            thread.checkException();
+        }
+        System.out.printf("%d writes(%d/s), %d reads(%d/s) in %dms\n",
+                writeCount.get(),
+                writeCount.get() * 1000 / elapsed,
+                readCount.get(),
+                readCount.get() * 1000 / elapsed,
+                elapsed);
+        assertThat(writeCount.get(), is(2000L));
+    }
+
     @Test
     public void testRestartWhenUpdating() throws Throwable {
         this.dataStore.terminate();
@@ -1135,8 +1472,13 @@ public class DataStoreTest {
         }
     }
 
-    @Test
-    public void testAllTypes() throws Exception {
+    @ParameterizedTest
+    @EnumSource(RecordLayout.class)
+    public void testAllTypes(RecordLayout recordLayout) throws Exception {
+        this.dataStore.terminate();
+        this.createDateStore(DataStoreParams.builder()
+                .recordLayout(recordLayout.name())
+                .build());
         List<Map<String, Object>> records = List.of(
                 new HashMap<>() {
                     {
@@ -1493,6 +1835,7 @@ public class DataStoreTest {
         this.createDateStore(DataStoreParams.builder()
                 .dumpInterval("1s")
                 .minNoUpdatePeriod("1ms")
+                .recordLayout(recordLayout.name())
                 .build());
         result = this.dataStore.scan(DataStoreScanRequest.builder()
                 .tables(List.of(DataStoreScanRequest.TableInfo.builder()
@@ -1508,7 +1851,9 @@ public class DataStoreTest {
             Thread.sleep(100);
         }
         this.dataStore.terminate();
-        this.createDateStore(DataStoreParams.builder().build());
+        this.createDateStore(DataStoreParams.builder()
+                .recordLayout(recordLayout.name())
+                .build());
         result = this.dataStore.scan(DataStoreScanRequest.builder()
                 .tables(List.of(DataStoreScanRequest.TableInfo.builder()
                         .tableName("t")
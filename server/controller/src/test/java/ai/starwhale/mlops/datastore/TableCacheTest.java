@@ -0,0 +1,96 @@
+/*
+ * Copyright 2022 Starwhale, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.starwhale.mlops.datastore;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.BDDMockito.given;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+public class TableCacheTest {
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private Set<MemoryTable> dirtyTables;
+
+    private TableCache cache;
+
+    @BeforeEach
+    public void setUp() {
+        this.meterRegistry = new SimpleMeterRegistry();
+        this.dirtyTables = new HashSet<>();
+        this.cache = new TableCache(250, table -> !this.dirtyTables.contains(table), this.meterRegistry);
+    }
+
+    private MemoryTable createTable(long size) {
+        var table = Mockito.mock(MemoryTable.class);
+        given(table.getEstimatedSize()).willReturn(size);
+        return table;
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() {
+        var t1 = this.createTable(100);
+        var t2 = this.createTable(100);
+        var t3 = this.createTable(100);
+        this.cache.put("t1", t1);
+        this.cache.put("t2", t2);
+        this.cache.get("t1");
+        this.cache.put("t3", t3);
+        assertThat(this.cache.getTables(), containsInAnyOrder(t1, t3));
+        assertThat(this.meterRegistry.get("sw.datastore.table.resident.bytes").gauge().value(), is(200.0));
+        assertThat(this.meterRegistry.get("sw.datastore.table.cache.evictions").counter().count(), is(1.0));
+    }
+
+    @Test
+    public void testNeverEvictDirtyTables() {
+        var t1 = this.createTable(100);
+        var t2 = this.createTable(100);
+        var t3 = this.createTable(100);
+        this.dirtyTables.add(t1);
+        this.dirtyTables.add(t2);
+        this.cache.put("t1", t1);
+        this.cache.put("t2", t2);
+        this.cache.put("t3", t3);
+        // the most recently used table is always kept
+        assertThat(this.cache.getTables(), containsInAnyOrder(t1, t2, t3));
+        this.dirtyTables.clear();
+        this.cache.evict();
+        assertThat(this.cache.getTables(), containsInAnyOrder(t2, t3));
+    }
+
+    @Test
+    public void testEvictedTableInUse() {
+        var t1 = this.createTable(100);
+        this.cache.put("t1", t1);
+        this.cache.put("t2", this.createTable(200));
+        assertThat(this.cache.getTables().contains(t1), is(false));
+        // t1 is still referenced here, so the same instance is returned
+        assertThat(this.cache.get("t1"), sameInstance(t1));
+        assertThat(this.cache.get("t3"), nullValue());
+        assertThat(this.meterRegistry.get("sw.datastore.table.cache.hits").counter().count(), is(1.0));
+    }
+}
@@ -13,13 +13,17 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-
 package ai.starwhale.mlops.datastore.exporter;
 
-import ai.starwhale.mlops.datastore.RecordList;
+import ai.starwhale.mlops.datastore.ColumnSchemaDesc;
+import ai.starwhale.mlops.datastore.TableSchema;
+import ai.starwhale.mlops.datastore.TableSchemaDesc;
+import ai.starwhale.mlops.datastore.type.BaseValue;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import org.junit.jupiter.api.Assertions;
@@ -27,29 +31,55 @@ import org.junit.jupiter.api.Test;
 
 public class RecordsExporterStreamingCsvTest {
 
-    private static final String EXPECTED = "ke1,ke2,ke3\r\nv1,\"{\"\"mk\"\":\"\"mv中文\"\"}\",\"[1,2,3]\"\r\n"
-            + "V1,\"{\"\"MK\"\":\"\"MV鈤\"\"}\",\"[4,5,6]\"\r\n";
-
-    private static final RecordList RECORD_LIST = new RecordList(
-            null,
-            null,
-            List.of(
-                    Map.of("ke1", "v1",
-                            "ke2", Map.of("mk", "mv中文"),
-                            "ke3", List.of(1, 2, 3)),
-                    Map.of("ke2", Map.of("MK", "MV鈤"),
-                            "ke1", "V1",
-                            "ke3", List.of(4, 5, 6))
-            ),
-            null,
-            null);
+    private static final String EXPECTED = "ke1,ke2,ke3\r\n"
+            + "v1,\"{\"\"mk\"\":\"\"mv中文\"\"}\",\"[\"\"1\"\",\"\"2\"\",\"\"3\"\"]\"\r\n"
+            + "V1,\"{\"\"MK\"\":\"\"MV鈤\"\"}\",\"[\"\"4\"\",\"\"5\"\",\"\"6\"\"]\"\r\n"
+            + ",,\r\n";
+
+    static final TableSchema SCHEMA = new TableSchema(new TableSchemaDesc("ke1", List.of(
+            ColumnSchemaDesc.builder().name("ke1").type("STRING").build(),
+            ColumnSchemaDesc.builder().name("ke2").type("MAP")
+                    .keyType(ColumnSchemaDesc.builder().type("STRING").build())
+                    .valueType(ColumnSchemaDesc.builder().type("STRING").build())
+                    .build(),
+            ColumnSchemaDesc.builder().name("ke3").type("LIST")
+                    .elementType(ColumnSchemaDesc.builder().type("INT32").build())
+                    .build())));
+
+    static final List<Map<String, BaseValue>> RECORDS = List.of(
+            Map.of("ke1", BaseValue.valueOf("v1"),
+                    "ke2", BaseValue.valueOf(Map.of("mk", "mv中文")),
+                    "ke3", BaseValue.valueOf(List.of(1, 2, 3))),
+            Map.of("ke2", BaseValue.valueOf(Map.of("MK", "MV鈤")),
+                    "ke1", BaseValue.valueOf("V1"),
+                    "ke3", BaseValue.valueOf(List.of(4, 5, 6))),
+            new HashMap<>() {
+                {
+                    put("ke1", null);
+                }
+            });
 
     @Test
     public void testRecordsExporterCsv() throws IOException {
         RecordsStreamingExporter exporter = new RecordsStreamingExporterCsv(new ObjectMapper());
         ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        exporter.exportTo(RECORD_LIST, outputStream);
-        Assertions.assertEquals(EXPECTED, new String(outputStream.toByteArray()));
+        var writer = exporter.createWriter(outputStream, true, false);
+        writer.writeSchema(SCHEMA);
+        for (var record : RECORDS) {
+            writer.write(record);
+        }
+        writer.close();
+        Assertions.assertEquals(EXPECTED, outputStream.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testNoTable() throws IOException {
+        RecordsStreamingExporter exporter = new RecordsStreamingExporterCsv(new ObjectMapper());
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        var writer = exporter.createWriter(outputStream, true, false);
+        writer.writeSchema(new TableSchema());
+        writer.close();
+        Assertions.assertEquals("", outputStream.toString(StandardCharsets.UTF_8));
     }
 
 }
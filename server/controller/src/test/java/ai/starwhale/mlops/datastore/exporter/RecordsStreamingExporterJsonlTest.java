@@ -0,0 +1,42 @@
+/*
+ * Copyright 2022 Starwhale, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ai.starwhale.mlops.datastore.exporter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class RecordsStreamingExporterJsonlTest {
+
+    @Test
+    public void testRecordsExporterJsonl() throws IOException {
+        RecordsStreamingExporter exporter = new RecordsStreamingExporterJsonl(new ObjectMapper());
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        var writer = exporter.createWriter(outputStream, true, false);
+        writer.writeSchema(RecordsExporterStreamingCsvTest.SCHEMA);
+        for (var record : RecordsExporterStreamingCsvTest.RECORDS) {
+            writer.write(record);
+        }
+        writer.close();
+        Assertions.assertEquals("{\"ke1\":\"v1\",\"ke2\":{\"mk\":\"mv中文\"},\"ke3\":[\"1\",\"2\",\"3\"]}\n"
+                        + "{\"ke1\":\"V1\",\"ke2\":{\"MK\":\"MV鈤\"},\"ke3\":[\"4\",\"5\",\"6\"]}\n"
+                        + "{\"ke1\":null}\n",
+                outputStream.toString(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2022 Starwhale, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ai.starwhale.mlops.datastore.exporter;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import ai.starwhale.mlops.datastore.parquet.SwParquetReaderBuilder;
+import ai.starwhale.mlops.datastore.parquet.SwReadSupport;
+import ai.starwhale.mlops.storage.memory.StorageAccessServiceMemory;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import org.apache.hadoop.conf.Configuration;
+import org.junit.jupiter.api.Test;
+
+public class RecordsStreamingExporterParquetTest {
+
+    @Test
+    public void testRecordsExporterParquet() throws IOException {
+        RecordsStreamingExporter exporter = new RecordsStreamingExporterParquet();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        var writer = exporter.createWriter(outputStream, true, false);
+        writer.writeSchema(RecordsExporterStreamingCsvTest.SCHEMA);
+        for (var record : RecordsExporterStreamingCsvTest.RECORDS) {
+            writer.write(record);
+        }
+        writer.close();
+
+        var storageAccessService = new StorageAccessServiceMemory();
+        storageAccessService.put("t", outputStream.toByteArray());
+        var conf = new Configuration();
+        try (var reader = new SwParquetReaderBuilder(storageAccessService, "t").withConf(conf).build()) {
+            for (var record : RecordsExporterStreamingCsvTest.RECORDS) {
+                assertThat(reader.read(), is(record));
+            }
+            assertThat(reader.read(), nullValue());
+        }
+        assertThat(conf.get(SwReadSupport.SCHEMA_KEY), is(RecordsExporterStreamingCsvTest.SCHEMA.toJsonString()));
+    }
+}
@@ -19,7 +19,10 @@ package ai.starwhale.mlops.datastore.impl;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.hasItems;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import ai.starwhale.mlops.datastore.ColumnSchemaDesc;
@@ -28,22 +31,27 @@ import ai.starwhale.mlops.datastore.MemoryTable;
 import ai.starwhale.mlops.datastore.OrderByDesc;
 import ai.starwhale.mlops.datastore.ParquetConfig;
 import ai.starwhale.mlops.datastore.ParquetConfig.CompressionCodec;
+import ai.starwhale.mlops.datastore.QueryCursor;
 import ai.starwhale.mlops.datastore.RecordResult;
 import ai.starwhale.mlops.datastore.TableQueryFilter;
 import ai.starwhale.mlops.datastore.TableQueryFilter.Operator;
 import ai.starwhale.mlops.datastore.TableSchema;
 import ai.starwhale.mlops.datastore.TableSchemaDesc;
+import ai.starwhale.mlops.datastore.Wal;
 import ai.starwhale.mlops.datastore.type.BaseValue;
 import ai.starwhale.mlops.datastore.type.ObjectValue;
 import ai.starwhale.mlops.datastore.type.TupleValue;
 import ai.starwhale.mlops.datastore.wal.WalManager;
 import ai.starwhale.mlops.exception.SwValidationException;
+import ai.starwhale.mlops.storage.LengthAbleInputStream;
 import ai.starwhale.mlops.storage.StorageAccessService;
 import ai.starwhale.mlops.storage.memory.StorageAccessServiceMemory;
 import com.google.common.collect.ImmutableList;
 import com.google.common.jimfs.Configuration;
 import com.google.common.jimfs.Jimfs;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystem;
@@ -52,7 +60,12 @@ import java.util.Base64;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
@@ -61,6 +74,7 @@ import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ValueSource;
 
@@ -95,12 +109,28 @@ public class MemoryTableImplTest {
     private FileSystem fs;
     private WalManager walManager;
     private StorageAccessService storageAccessService;
+    // the ranged reads which are not closed yet
+    private final Set<InputStream> openInputs = ConcurrentHashMap.newKeySet();
 
     @BeforeEach
     public void setUp() throws IOException {
         this.fs = Jimfs.newFileSystem(Configuration.unix());
-        this.storageAccessService = new StorageAccessServiceMemory();
-        this.walManager = new WalManager(this.storageAccessService, 4096, this.fs.getPath("/wal_cache"), "wal/", 3);
+        this.storageAccessService = new StorageAccessServiceMemory() {
+            @Override
+            public LengthAbleInputStream get(String path, Long offset, Long size) throws IOException {
+                var ret = new LengthAbleInputStream(super.get(path, offset, size), size) {
+                    @Override
+                    public void close() throws IOException {
+                        openInputs.remove(this);
+                        super.close();
+                    }
+                };
+                openInputs.add(ret);
+                return ret;
+            }
+        };
+        this.walManager = new WalManager(this.storageAccessService, 4096, this.fs.getPath("/wal_cache"), "wal/", 3,
+                new SimpleMeterRegistry());
     }
 
     @AfterEach
@@ -111,6 +141,10 @@ public class MemoryTableImplTest {
     }
 
     public MemoryTableImpl createInstance(String name) {
+        return this.createInstance(name, false);
+    }
+
+    public MemoryTableImpl createInstance(String name, boolean lazy) {
         var parquetConfig = new ParquetConfig();
         parquetConfig.setCompressionCodec(CompressionCodec.SNAPPY);
         parquetConfig.setRowGroupSize(1024 * 1024);
@@ -120,7 +154,9 @@ public class MemoryTableImplTest {
                 this.walManager,
                 this.storageAccessService,
                 name,
-                parquetConfig);
+                parquetConfig,
+                RecordLayout.ROW,
+                lazy);
     }
 
     @Nested
@@ -648,6 +684,75 @@ public class MemoryTableImplTest {
             assertThat("records", scanAll(this.memoryTable, List.of("k"), false), empty());
         }
 
+        @Test
+        public void testIngest() throws IOException {
+            this.memoryTable.update(
+                    new TableSchemaDesc("k", List.of(
+                            ColumnSchemaDesc.builder().name("k").type("INT32").build(),
+                            ColumnSchemaDesc.builder().name("a").type("INT32").build())),
+                    List.of(Map.of("k", "1", "a", "1")));
+            // the column indexes differ from the table schema, and the type of a is changed
+            var schema = new TableSchema(Wal.TableSchema.newBuilder()
+                    .setKeyColumn("k")
+                    .addColumns(Wal.ColumnSchema.newBuilder()
+                            .setColumnName("a").setColumnType("STRING").setColumnIndex(0))
+                    .addColumns(Wal.ColumnSchema.newBuilder()
+                            .setColumnName("k").setColumnType("INT32").setColumnIndex(1))
+                    .addColumns(Wal.ColumnSchema.newBuilder()
+                            .setColumnName("b").setColumnType("INT64").setColumnIndex(2))
+                    .build());
+            this.memoryTable.ingest(schema, List.of(
+                    Wal.Record.newBuilder()
+                            .addColumns(Wal.Column.newBuilder().setIndex(1).setIntValue(1))
+                            .addColumns(Wal.Column.newBuilder().setIndex(0).setStringValue("x"))
+                            .build(),
+                    Wal.Record.newBuilder()
+                            .addColumns(Wal.Column.newBuilder().setIndex(1).setIntValue(2))
+                            .addColumns(Wal.Column.newBuilder().setIndex(2).setIntValue(5))
+                            .build(),
+                    Wal.Record.newBuilder()
+                            .addColumns(Wal.Column.newBuilder().setIndex(1).setIntValue(3))
+                            .build()));
+            this.memoryTable.ingest(schema, List.of(
+                    Wal.Record.newBuilder()
+                            .addColumns(Wal.Column.newBuilder().setIndex(1).setIntValue(3))
+                            .addColumns(Wal.Column.newBuilder().setIndex(-1))
+                            .build()));
+            var expected = List.of(
+                    new RecordResult(BaseValue.valueOf(1), false,
+                            Map.of("k", BaseValue.valueOf(1), "a", BaseValue.valueOf("x"))),
+                    new RecordResult(BaseValue.valueOf(2), false,
+                            Map.of("k", BaseValue.valueOf(2), "b", BaseValue.valueOf(5L))));
+            assertThat(scanAll(this.memoryTable, List.of("k", "a", "b"), false), is(expected));
+
+            assertThrows(SwValidationException.class,
+                    () -> this.memoryTable.ingest(schema, List.of(Wal.Record.newBuilder()
+                            .addColumns(Wal.Column.newBuilder().setIndex(0).setStringValue("y"))
+                            .build())),
+                    "no key");
+            assertThrows(SwValidationException.class,
+                    () -> this.memoryTable.ingest(schema, List.of(Wal.Record.newBuilder()
+                            .addColumns(Wal.Column.newBuilder().setIndex(1).setIntValue(4))
+                            .addColumns(Wal.Column.newBuilder().setIndex(3).setIntValue(4))
+                            .build())),
+                    "invalid index");
+
+            // the records written to the wal are the same after replay
+            MemoryTableImplTest.this.walManager.terminate();
+            MemoryTableImplTest.this.walManager = new WalManager(MemoryTableImplTest.this.storageAccessService,
+                    4096,
+                    MemoryTableImplTest.this.fs.getPath("/wal_cache"),
+                    "wal/",
+                    3,
+                    new SimpleMeterRegistry());
+            this.memoryTable = createInstance("test");
+            var it = MemoryTableImplTest.this.walManager.readAll();
+            while (it.hasNext()) {
+                this.memoryTable.updateFromWal(it.next());
+            }
+            assertThat(scanAll(this.memoryTable, List.of("k", "a", "b"), false), is(expected));
+        }
+
         @ParameterizedTest
         @ValueSource(booleans = {true, false})
         public void testUpdateFromWal(Boolean scanWithMaxRevision) throws IOException {
@@ -798,7 +903,8 @@ public class MemoryTableImplTest {
                     4096,
                     MemoryTableImplTest.this.fs.getPath("/wal_cache"),
                     "wal/",
-                    3);
+                    3,
+                    new SimpleMeterRegistry());
             this.memoryTable = createInstance("test");
             var it = MemoryTableImplTest.this.walManager.readAll();
             while (it.hasNext()) {
@@ -862,9 +968,46 @@ public class MemoryTableImplTest {
                     List.of(Map.of("k", "0", "a", "a")));
             for (int i = 0; i < 100; ++i) {
                 this.memoryTable.save();
-                assertThat(storageAccessService.list("test").count(), is(1L));
+                // the manifest, the base snapshot and the deltas written after it
+                assertThat(storageAccessService.list("test").count(), is(2L + i % 17));
             }
         }
+
+        @Test
+        public void testSaveDelta() throws IOException {
+            var desc = new TableSchemaDesc("k", List.of(
+                    ColumnSchemaDesc.builder().name("k").type("STRING").build(),
+                    ColumnSchemaDesc.builder().name("a").type("INT32").build()));
+            var baseRevision = this.memoryTable.update(desc, IntStream.range(0, 10)
+                    .mapToObj(i -> Map.<String, Object>of("k", String.valueOf(i), "a", Integer.toHexString(i)))
+                    .collect(Collectors.toList()));
+            this.memoryTable.save();
+            this.memoryTable.update(desc, List.of(Map.of("k", "1", "a", "64")));
+            this.memoryTable.update(desc, List.of(Map.of("k", "2", "-", "1")));
+            this.memoryTable.save();
+            assertThat(storageAccessService.list("test").filter(path -> path.endsWith(".delta")).count(), is(1L));
+            var table = createInstance("test");
+            assertThat(scanAll(table, List.of("k", "a"), false),
+                    is(scanAll(this.memoryTable, List.of("k", "a"), false)));
+            assertThat(scanAll(table, List.of("k", "a"), false, baseRevision),
+                    is(scanAll(this.memoryTable, List.of("k", "a"), false, baseRevision)));
+            assertThat(table.getLastRevision(), is(this.memoryTable.getLastRevision()));
+
+            // 5 rows in deltas reach half of the base, so the next save compacts them
+            this.memoryTable.update(desc, List.of(Map.of("k", "3", "a", "c8"),
+                    Map.of("k", "10", "a", "a"),
+                    Map.of("k", "11", "a", "b")));
+            this.memoryTable.save();
+            assertThat(storageAccessService.list("test").filter(path -> path.endsWith(".delta")).count(), is(2L));
+            this.memoryTable.update(desc, List.of(Map.of("k", "4", "-", "1")));
+            this.memoryTable.save();
+            assertThat(storageAccessService.list("test").count(), is(2L));
+            table = createInstance("test");
+            assertThat(scanAll(table, List.of("k", "a"), false),
+                    is(scanAll(this.memoryTable, List.of("k", "a"), false)));
+            assertThat(scanAll(table, List.of("k", "a"), false, baseRevision),
+                    is(scanAll(this.memoryTable, List.of("k", "a"), false, baseRevision)));
+        }
     }
 
     @Nested
@@ -2865,6 +3008,119 @@ public class MemoryTableImplTest {
                                             "d", BaseValue.valueOf(8))))));
         }
 
+        @Test
+        public void testQueryFilterIn() {
+            var columns = Map.of("d", "d");
+            var results = ImmutableList.copyOf(
+                    this.memoryTable.query(
+                            Long.MAX_VALUE,
+                            columns,
+                            null,
+                            TableQueryFilter.builder()
+                                    .operator(Operator.IN)
+                                    .operands(new ArrayList<>() {
+                                        {
+                                            add(new TableQueryFilter.Column("d"));
+                                            add(createConstant(1));
+                                            add(createConstant(5L));
+                                            add(createConstant("7"));
+                                            add(createConstant(null));
+                                        }
+                                    })
+                                    .build(),
+                            false,
+                            false));
+            assertThat(results,
+                    is(List.of(new RecordResult(BaseValue.valueOf(3), false, Map.of("d", BaseValue.valueOf(5))),
+                            new RecordResult(BaseValue.valueOf(5), false, Map.of("d", BaseValue.valueOf(7))),
+                            new RecordResult(BaseValue.valueOf(7), false, Map.of()),
+                            new RecordResult(BaseValue.valueOf(9), false, Map.of("d", BaseValue.valueOf(1))))));
+
+            columns = Map.of("h", "h");
+            results = ImmutableList.copyOf(
+                    this.memoryTable.query(
+                            Long.MAX_VALUE,
+                            columns,
+                            null,
+                            TableQueryFilter.builder()
+                                    .operator(Operator.IN)
+                                    .operands(List.of(
+                                            new TableQueryFilter.Column("h"),
+                                            createConstant("3"),
+                                            createConstant(1)))
+                                    .build(),
+                            false,
+                            false));
+            assertThat(results,
+                    is(List.of(new RecordResult(BaseValue.valueOf(5), false, Map.of("h", BaseValue.valueOf("1"))),
+                            new RecordResult(BaseValue.valueOf(7), false, Map.of("h", BaseValue.valueOf("3"))))));
+        }
+
+        @Test
+        public void testQueryFilterLike() {
+            var columns = Map.of("h", "h");
+            this.memoryTable.update(
+                    new TableSchemaDesc("key",
+                            List.of(ColumnSchemaDesc.builder().name("key").type("INT32").build(),
+                                    ColumnSchemaDesc.builder().name("h").type("STRING").build())),
+                    List.of(Map.of("key", "a", "h", "abc"),
+                            Map.of("key", "b", "h", "abd"),
+                            Map.of("key", "c", "h", "a_c"),
+                            Map.of("key", "d", "h", "xabc")));
+            Function<String, List<RecordResult>> query = pattern -> ImmutableList.copyOf(
+                    this.memoryTable.query(
+                            Long.MAX_VALUE,
+                            columns,
+                            null,
+                            TableQueryFilter.builder()
+                                    .operator(Operator.LIKE)
+                                    .operands(List.of(new TableQueryFilter.Column("h"), createConstant(pattern)))
+                                    .build(),
+                            false,
+                            false));
+            Function<Integer, RecordResult> result = key -> new RecordResult(BaseValue.valueOf(key),
+                    false,
+                    Map.of("h", BaseValue.valueOf(List.of("abc", "abd", "a_c", "xabc").get(key - 10))));
+            assertThat(query.apply("ab%"), is(List.of(result.apply(10), result.apply(11))));
+            assertThat(query.apply("%bc"), is(List.of(result.apply(10), result.apply(13))));
+            assertThat(query.apply("a_c"), is(List.of(result.apply(10), result.apply(12))));
+            assertThat(query.apply("a\\_c"), is(List.of(result.apply(12))));
+            assertThat(query.apply("%a%c%"), is(List.of(result.apply(10), result.apply(12), result.apply(13))));
+            assertThat(query.apply("abc"), is(List.of(result.apply(10))));
+            assertThat(query.apply("ab"), is(List.of()));
+        }
+
+        @Test
+        public void testQueryFilterIsNull() {
+            var columns = Map.of("d", "d");
+            var results = ImmutableList.copyOf(
+                    this.memoryTable.query(
+                            Long.MAX_VALUE,
+                            columns,
+                            null,
+                            TableQueryFilter.builder()
+                                    .operator(Operator.IS_NULL)
+                                    .operands(List.of(new TableQueryFilter.Column("d")))
+                                    .build(),
+                            false,
+                            false));
+            assertThat(results, is(List.of(new RecordResult(BaseValue.valueOf(7), false, Map.of()))));
+        }
+
+        @Test
+        public void testQueryFilterInvalid() {
+            assertThrows(IllegalArgumentException.class, () -> this.memoryTable.query(
+                    Long.MAX_VALUE,
+                    Map.of("d", "d"),
+                    null,
+                    TableQueryFilter.builder()
+                            .operator(Operator.LIKE)
+                            .operands(List.of(new TableQueryFilter.Column("h"), createConstant(1)))
+                            .build(),
+                    false,
+                    false));
+        }
+
         @Test
         public void testQueryUnknown() {
             var columns = Map.of("z", "z");
@@ -3209,4 +3465,428 @@ public class MemoryTableImplTest {
                     is(expected));
         }
     }
+
+    @Nested
+    public class IndexTest {
+
+        private List<RecordResult> query(MemoryTable table, long revision, TableQueryFilter filter) {
+            return ImmutableList.copyOf(table.query(revision,
+                    Map.of("k", "k", "a", "a", "b", "b"),
+                    null,
+                    filter,
+                    true,
+                    false));
+        }
+
+        private TableQueryFilter filter(Operator op, Object... operands) {
+            return TableQueryFilter.builder().operator(op).operands(List.of(operands)).build();
+        }
+
+        @Test
+        public void testQueryWithIndexes() throws IOException {
+            var indexed = createInstance("indexed");
+            // NOT prevents the reference table from using indexes
+            var reference = createInstance("reference");
+            var schema = new TableSchemaDesc("k", List.of(
+                    ColumnSchemaDesc.builder().name("k").type("INT32").build(),
+                    ColumnSchemaDesc.builder().name("a").type("INT32").build(),
+                    ColumnSchemaDesc.builder().name("b").type("STRING").build()));
+            var a = new TableQueryFilter.Column("a");
+            var b = new TableQueryFilter.Column("b");
+            var filters = List.of(
+                    filter(Operator.EQUAL, a, new TableQueryFilter.Constant(ColumnType.INT32, 3)),
+                    filter(Operator.LESS, a, new TableQueryFilter.Constant(ColumnType.INT32, 3)),
+                    filter(Operator.GREATER, new TableQueryFilter.Constant(ColumnType.INT32, 5), a),
+                    filter(Operator.GREATER_EQUAL, a, new TableQueryFilter.Constant(ColumnType.INT32, 6)),
+                    filter(Operator.EQUAL, b, new TableQueryFilter.Constant(ColumnType.STRING, "x1")),
+                    filter(Operator.EQUAL, b, new TableQueryFilter.Constant(ColumnType.INT32, 1)),
+                    filter(Operator.AND,
+                            filter(Operator.EQUAL, b, new TableQueryFilter.Constant(ColumnType.STRING, "x1")),
+                            filter(Operator.GREATER, a, new TableQueryFilter.Constant(ColumnType.INT32, 2))),
+                    filter(Operator.OR,
+                            filter(Operator.EQUAL, a, new TableQueryFilter.Constant(ColumnType.INT32, 1)),
+                            filter(Operator.EQUAL, b, new TableQueryFilter.Constant(ColumnType.STRING, "x2"))),
+                    filter(Operator.OR,
+                            filter(Operator.EQUAL, a, new TableQueryFilter.Constant(ColumnType.INT32, 1)),
+                            filter(Operator.NOT, filter(Operator.EQUAL,
+                                    b,
+                                    new TableQueryFilter.Constant(ColumnType.STRING, "x2")))));
+            var random = new Random(7);
+            var revisions = new ArrayList<Long>();
+            for (int round = 0; round < 20; ++round) {
+                var records = new ArrayList<Map<String, Object>>();
+                for (int i = 0; i < 50; ++i) {
+                    var record = new HashMap<String, Object>();
+                    record.put("k", Integer.toHexString(random.nextInt(200)));
+                    switch (random.nextInt(4)) {
+                        case 0:
+                            record.put("-", "1");
+                            break;
+                        case 1:
+                            record.put("a", Integer.toHexString(random.nextInt(8)));
+                            break;
+                        case 2:
+                            record.put("b", "x" + random.nextInt(4));
+                            break;
+                        default:
+                            record.put("a", null);
+                            record.put("b", "x" + random.nextInt(4));
+                            break;
+                    }
+                    records.add(record);
+                }
+                revisions.add(indexed.update(schema, records));
+                reference.update(schema, records);
+                if (round == 10) {
+                    // indexes should be rebuilt on loading
+                    indexed.save();
+                    indexed = createInstance("indexed");
+                }
+                for (var filter : filters) {
+                    for (var revision : List.of(revisions.get(random.nextInt(revisions.size())), Long.MAX_VALUE)) {
+                        assertThat(filter + " at " + revision,
+                                query(indexed, revision, filter),
+                                is(query(reference, revision, filter(Operator.NOT, filter(Operator.NOT, filter)))));
+                    }
+                }
+            }
+        }
+
+        @Test
+        public void testUpdateDuringQuery() {
+            var table = createInstance("test");
+            var schema = new TableSchemaDesc("k", List.of(
+                    ColumnSchemaDesc.builder().name("k").type("INT32").build(),
+                    ColumnSchemaDesc.builder().name("a").type("INT32").build()));
+            var records = new ArrayList<Map<String, Object>>();
+            for (int i = 0; i < 100; ++i) {
+                records.add(Map.of("k", Integer.toHexString(i), "a", Integer.toHexString(i % 10)));
+            }
+            table.update(schema, records);
+            var filter = filter(Operator.EQUAL,
+                    new TableQueryFilter.Column("a"),
+                    new TableQueryFilter.Constant(ColumnType.INT32, 3));
+            for (int i = 0; i < TableIndexes.AUTO_INDEX_THRESHOLD; ++i) {
+                assertThat(query(table, Long.MAX_VALUE, filter).size(), is(10));
+            }
+            var it = table.query(Long.MAX_VALUE, Map.of("k", "k"), null, filter, false, false);
+            assertThat(it.next().getKey(), is(BaseValue.valueOf(3)));
+            // the keys are removed from the group being visited, the query still sees the old values
+            table.update(schema, List.of(
+                    Map.of("k", Integer.toHexString(53), "a", Integer.toHexString(4)),
+                    Map.of("k", Integer.toHexString(93), "a", Integer.toHexString(4))));
+            var keys = new ArrayList<BaseValue>();
+            it.forEachRemaining(r -> keys.add(r.getKey()));
+            assertThat(keys, is(IntStream.of(13, 23, 33, 43, 53, 63, 73, 83, 93)
+                    .mapToObj(BaseValue::valueOf)
+                    .collect(Collectors.toList())));
+            assertThat(query(table, Long.MAX_VALUE, filter).size(), is(8));
+        }
+    }
+
+    @Nested
+    public class TopKTest {
+
+        private final Map<String, String> columns = Map.of("k", "k", "a", "a", "b", "b");
+
+        private List<RecordResult> fullSort(MemoryTable table,
+                List<OrderByDesc> orderBy,
+                TableQueryFilter filter,
+                int limit) {
+            return ImmutableList.copyOf(table.query(Long.MAX_VALUE, this.columns, orderBy, filter, true, false))
+                    .stream()
+                    .filter(r -> !r.isDeleted())
+                    .limit(limit)
+                    .collect(Collectors.toList());
+        }
+
+        private List<RecordResult> topK(MemoryTable table,
+                List<OrderByDesc> orderBy,
+                TableQueryFilter filter,
+                QueryCursor cursor,
+                int limit) {
+            return ImmutableList.copyOf(
+                    table.query(Long.MAX_VALUE, this.columns, orderBy, filter, true, false, cursor, limit));
+        }
+
+        private MemoryTableImpl createTable(String name, int count, Random random) {
+            var table = createInstance(name);
+            var schema = new TableSchemaDesc("k", List.of(
+                    ColumnSchemaDesc.builder().name("k").type("INT32").build(),
+                    ColumnSchemaDesc.builder().name("a").type("INT32").build(),
+                    ColumnSchemaDesc.builder().name("b").type("INT64").build()));
+            for (int i = 0; i < count; i += 1000) {
+                var records = new ArrayList<Map<String, Object>>();
+                for (int j = i; j < i + 1000 && j < count; ++j) {
+                    var record = new HashMap<String, Object>();
+                    record.put("k", Integer.toHexString(j));
+                    if (random.nextInt(10) > 0) {
+                        record.put("a", Integer.toHexString(random.nextInt(count / 10 + 1)));
+                    }
+                    record.put("b", Long.toHexString(random.nextInt(count)));
+                    records.add(record);
+                }
+                table.update(schema, records);
+            }
+            return table;
+        }
+
+        @Test
+        public void testTopK() {
+            var random = new Random(11);
+            var table = createTable("test", 3000, random);
+            var schema = table.getSchema().toTableSchemaDesc();
+            // update and delete some records so that keys are moved between the groups of the index
+            var records = new ArrayList<Map<String, Object>>();
+            for (int i = 0; i < 300; ++i) {
+                var record = new HashMap<String, Object>();
+                record.put("k", Integer.toHexString(random.nextInt(3000)));
+                if (i % 3 == 0) {
+                    record.put("-", "1");
+                } else {
+                    record.put("a", Integer.toHexString(random.nextInt(301)));
+                }
+                records.add(record);
+            }
+            table.update(schema, records);
+            var filter = TableQueryFilter.builder()
+                    .operator(Operator.GREATER)
+                    .operands(List.of(new TableQueryFilter.Column("b"),
+                            new TableQueryFilter.Constant(ColumnType.INT64, 1000L)))
+                    .build();
+            for (var orderBy : List.of(List.of(new OrderByDesc("a")),
+                    List.of(new OrderByDesc("a", true)),
+                    List.of(new OrderByDesc("a"), new OrderByDesc("b", true)),
+                    List.of(new OrderByDesc("a", true), new OrderByDesc("k", true)))) {
+                // the ordered index on the first order by column is created on the third query
+                for (int i = 0; i < TableIndexes.AUTO_INDEX_THRESHOLD + 1; ++i) {
+                    for (var limit : List.of(0, 1, 10, 1000, 5000)) {
+                        assertThat(orderBy + " " + limit,
+                                topK(table, orderBy, null, null, limit),
+                                is(fullSort(table, orderBy, null, limit)));
+                        assertThat(orderBy + " " + limit,
+                                topK(table, orderBy, filter, null, limit),
+                                is(fullSort(table, orderBy, filter, limit)));
+                    }
+                    // page with cursors
+                    var expected = fullSort(table, orderBy, null, Integer.MAX_VALUE);
+                    var pages = new ArrayList<RecordResult>();
+                    QueryCursor cursor = null;
+                    for (; ; ) {
+                        var page = topK(table, orderBy, null, cursor, 100);
+                        if (page.isEmpty()) {
+                            break;
+                        }
+                        pages.addAll(page);
+                        var last = page.get(page.size() - 1);
+                        cursor = new QueryCursor(Long.MAX_VALUE, last.getKey(), last.getOrderByValues());
+                    }
+                    assertThat(orderBy.toString(), pages, is(expected));
+                }
+            }
+        }
+
+        /**
+         * Compares the top-k query paths with sorting all records on a table of 1M records.
+         *
+         * <p>It takes a while, run it with {@code mvn test -Dtest='MemoryTableImplTest$TopKTest' -Dbenchmark=true}.
+         */
+        @Test
+        @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+        public void benchmarkTopK() {
+            var table = createTable("benchmark", 1000000, new Random(0));
+            var orderBy = List.of(new OrderByDesc("b", true));
+            BiFunction<String, Supplier<List<RecordResult>>, List<RecordResult>> run = (name, query) -> {
+                List<RecordResult> result = null;
+                long best = Long.MAX_VALUE;
+                for (int i = 0; i < 5; ++i) {
+                    var start = System.nanoTime();
+                    result = query.get();
+                    best = Math.min(best, System.nanoTime() - start);
+                }
+                System.out.printf("%s: %dms\n", name, best / 1000000);
+                return result;
+            };
+            table.setAutoIndex(false);
+            var expected = run.apply("full sort", () -> fullSort(table, orderBy, null, 1000));
+            assertThat(run.apply("bounded heap", () -> topK(table, orderBy, null, null, 1000)), is(expected));
+            table.setAutoIndex(true);
+            for (int i = 0; i < TableIndexes.AUTO_INDEX_THRESHOLD; ++i) {
+                topK(table, orderBy, null, null, 1000);
+            }
+            assertThat(run.apply("ordered index", () -> topK(table, orderBy, null, null, 1000)), is(expected));
+        }
+    }
+
+    @Nested
+    public class ColdTableTest {
+
+        private final TableSchemaDesc desc = new TableSchemaDesc("k", List.of(
+                ColumnSchemaDesc.builder().name("k").type("INT32").build(),
+                ColumnSchemaDesc.builder().name("a").type("INT32").build(),
+                ColumnSchemaDesc.builder().name("b").type("STRING").build()));
+
+        private MemoryTableImpl memoryTable;
+
+        private long baseRevision;
+
+        @BeforeEach
+        public void setUp() throws IOException {
+            this.memoryTable = createInstance("test");
+            this.baseRevision = this.memoryTable.update(this.desc, IntStream.range(0, 100)
+                    .mapToObj(i -> Map.<String, Object>of("k", Integer.toHexString(i),
+                            "a", Integer.toHexString(i % 7),
+                            "b", String.valueOf(i)))
+                    .collect(Collectors.toList()));
+            this.memoryTable.save();
+            // the delta has newer versions of some records
+            this.memoryTable.update(this.desc, List.of(Map.of("k", "3", "a", "64"),
+                    Map.of("k", "5", "-", "1"),
+                    Map.of("k", "64", "a", "1", "b", "new")));
+            this.memoryTable.save();
+        }
+
+        private List<RecordResult> scan(MemoryTable table, String start, String end, List<String> columns) {
+            return ImmutableList.copyOf(table.scan(Long.MAX_VALUE,
+                    columns.stream().collect(Collectors.toMap(Function.identity(), Function.identity())),
+                    start,
+                    null,
+                    true,
+                    end,
+                    null,
+                    false,
+                    false));
+        }
+
+        private List<RecordResult> query(MemoryTable table, TableQueryFilter filter) {
+            return ImmutableList.copyOf(table.query(Long.MAX_VALUE,
+                    Map.of("k", "k", "a", "a", "b", "b"),
+                    null,
+                    filter,
+                    false,
+                    false));
+        }
+
+        @Test
+        public void testQueryColdTable() {
+            var table = createInstance("test", true);
+            assertThat(table.getEstimatedSize(), is(0L));
+            assertThat(scanAll(table, List.of("k", "a", "b"), false),
+                    is(scanAll(this.memoryTable, List.of("k", "a", "b"), false)));
+            assertThat(scanAll(table, List.of("k", "a", "b"), false, this.baseRevision),
+                    is(scanAll(this.memoryTable, List.of("k", "a", "b"), false, this.baseRevision)));
+            assertThat(this.scan(table, "2", "a", List.of("k", "a")),
+                    is(this.scan(this.memoryTable, "2", "a", List.of("k", "a"))));
+            assertThat(this.scan(table, "60", null, List.of("b")),
+                    is(this.scan(this.memoryTable, "60", null, List.of("b"))));
+            var filter = TableQueryFilter.builder()
+                    .operator(Operator.EQUAL)
+                    .operands(List.of(new TableQueryFilter.Column("a"), createConstantInt(1)))
+                    .build();
+            assertThat(this.query(table, filter), is(this.query(this.memoryTable, filter)));
+            assertThat(this.query(table, null), is(this.query(this.memoryTable, null)));
+            assertThat(table.getColumnStatistics(Map.of("a", "a", "b", "b")),
+                    is(this.memoryTable.getColumnStatistics(Map.of("a", "a", "b", "b"))));
+            assertThat(table.getLastRevision(), is(this.memoryTable.getLastRevision()));
+            assertThat(table.getEstimatedSize(), is(0L));
+        }
+
+        @Test
+        public void testScanStringKeysOutOfBmp() {
+            var desc = new TableSchemaDesc("k", List.of(ColumnSchemaDesc.builder().name("k").type("STRING").build()));
+            var hot = createInstance("strings");
+            hot.update(desc, List.of(Map.of("k", "a"), Map.of("k", "\uFFFE"), Map.of("k", "\uD83D\uDE00")));
+            hot.save();
+            var cold = createInstance("strings", true);
+            // the emoji is less than U+E000 when strings are compared by UTF-16 code units
+            assertThat(this.scan(cold, null, "\uFFFF", List.of("k")).size(), is(3));
+            assertThat(this.scan(cold, "\uE000", null, List.of("k")).size(), is(1));
+            for (var range : List.of(List.of("a", "\uFFFF"), List.of("\uD83D", "\uFFFE"), List.of("b", "\uE000"))) {
+                assertThat(range.toString(),
+                        this.scan(cold, range.get(0), range.get(1), List.of("k")),
+                        is(this.scan(hot, range.get(0), range.get(1), List.of("k"))));
+            }
+        }
+
+        @Test
+        public void testQueryColumnsNotSelected() {
+            var table = createInstance("test", true);
+            var filter = TableQueryFilter.builder()
+                    .operator(Operator.GREATER)
+                    .operands(List.of(new TableQueryFilter.Column("a"), createConstantInt(2)))
+                    .build();
+            // the filter and order by columns are read even if they are not selected
+            Function<MemoryTable, List<RecordResult>> query = t -> ImmutableList.copyOf(t.query(Long.MAX_VALUE,
+                    Map.of("k", "k"),
+                    List.of(new OrderByDesc("b", true)),
+                    filter,
+                    false,
+                    false));
+            var result = query.apply(table);
+            assertThat(result.size(), is(55));
+            assertThat(result, is(query.apply(this.memoryTable)));
+        }
+
+        @Test
+        public void testLoadOnWrite() {
+            var table = createInstance("test", true);
+            table.update(this.desc, List.of(Map.of("k", "65", "a", "2")));
+            this.memoryTable.update(this.desc, List.of(Map.of("k", "65", "a", "2")));
+            assertThat(table.getEstimatedSize(), greaterThan(0L));
+            assertThat(scanAll(table, List.of("k", "a", "b"), false),
+                    is(scanAll(this.memoryTable, List.of("k", "a", "b"), false)));
+            assertThat(table.getColumnStatistics(Map.of("k", "k", "a", "a")),
+                    is(this.memoryTable.getColumnStatistics(Map.of("k", "k", "a", "a"))));
+        }
+
+        @Test
+        public void testCloseSnapshotFilesOfLimitedQuery() {
+            var table = createInstance("test", true);
+            try (var iterator = table.query(Long.MAX_VALUE,
+                    Map.of("k", "k", "a", "a"),
+                    null,
+                    null,
+                    false,
+                    false,
+                    null,
+                    3)) {
+                assertThat(iterator.next().getKey(), is(BaseValue.valueOf(0)));
+                assertThat(openInputs, not(empty()));
+            }
+            assertThat(openInputs, empty());
+            try (var iterator = table.scan(Long.MAX_VALUE, Map.of("k", "k"), null, null, true, "a", null, false,
+                    false)) {
+                iterator.next();
+            }
+            assertThat(openInputs, empty());
+        }
+
+        @Test
+        public void testDeleteSnapshotFilesAfterQueries() throws IOException {
+            var table = createInstance("test", true);
+            var oldFiles = storageAccessService.list("test")
+                    .filter(path -> !path.endsWith("manifest"))
+                    .collect(Collectors.toList());
+            try (var iterator = table.scan(Long.MAX_VALUE, Map.of("k", "k"), null, null, true, null, null, false,
+                    false)) {
+                assertThat(iterator.next().getKey(), is(BaseValue.valueOf(0)));
+                // the second save is a full one since the rows of the deltas exceed the compaction ratio
+                table.update(this.desc, IntStream.range(100, 160)
+                        .mapToObj(i -> Map.<String, Object>of("k", Integer.toHexString(i)))
+                        .collect(Collectors.toList()));
+                table.save();
+                table.update(this.desc, List.of(Map.of("k", "0", "a", "1")));
+                table.save();
+                assertThat(storageAccessService.list("test").collect(Collectors.toList()),
+                        hasItems(oldFiles.toArray(new String[0])));
+                assertThat(iterator.next().getKey(), is(BaseValue.valueOf(1)));
+            }
+            assertThat(storageAccessService.list("test").filter(oldFiles::contains).collect(Collectors.toList()),
+                    empty());
+        }
+
+        private TableQueryFilter.Constant createConstantInt(int value) {
+            return new TableQueryFilter.Constant(ColumnType.INT32, value);
+        }
+    }
 }
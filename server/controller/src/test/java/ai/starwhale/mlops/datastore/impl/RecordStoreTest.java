@@ -0,0 +1,128 @@
+/*
+ * Copyright 2022 Starwhale, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.starwhale.mlops.datastore.impl;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import ai.starwhale.mlops.datastore.type.BaseValue;
+import ai.starwhale.mlops.datastore.type.BytesValue;
+import ai.starwhale.mlops.datastore.type.Float32Value;
+import ai.starwhale.mlops.datastore.type.Float64Value;
+import ai.starwhale.mlops.datastore.type.Int16Value;
+import ai.starwhale.mlops.datastore.type.Int32Value;
+import ai.starwhale.mlops.datastore.type.Int64Value;
+import ai.starwhale.mlops.datastore.type.Int8Value;
+import ai.starwhale.mlops.datastore.type.ListValue;
+import ai.starwhale.mlops.datastore.type.StringValue;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+public class RecordStoreTest {
+
+    private static Map<String, BaseValue> values(Object... keyValues) {
+        var ret = new HashMap<String, BaseValue>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            ret.put((String) keyValues[i], (BaseValue) keyValues[i + 1]);
+        }
+        return ret;
+    }
+
+    @ParameterizedTest
+    @EnumSource(RecordLayout.class)
+    public void testAllTypes(RecordLayout layout) {
+        var store = layout.createStore();
+        var list = new ListValue();
+        list.add(new Int32Value(1));
+        var record = values("bool", BaseValue.valueOf(true),
+                "int8", new Int8Value((byte) -1),
+                "int16", new Int16Value((short) -2),
+                "int32", new Int32Value(-3),
+                "int64", new Int64Value(Long.MIN_VALUE),
+                "float32", new Float32Value(1.1f),
+                "float64", new Float64Value(-2.2),
+                "string", new StringValue("s"),
+                "bytes", new BytesValue(ByteBuffer.wrap(new byte[]{1, 2})),
+                "list", list,
+                "null", null);
+        store.append(new StringValue("k"), MemoryRecord.builder().revision(1).values(record).build());
+        var result = store.get(new StringValue("k"), 1);
+        assertThat(result.isDeleted(), is(false));
+        assertThat(result.getRevision(), is(1L));
+        assertThat(result.getValues(), is(record));
+        assertThat(store.get(new StringValue("k"), 0), nullValue());
+        assertThat(store.get(new StringValue("x"), 1), nullValue());
+    }
+
+    @ParameterizedTest
+    @EnumSource(RecordLayout.class)
+    public void testVersions(RecordLayout layout) {
+        var store = layout.createStore();
+        var key = new Int32Value(1);
+        store.append(key, MemoryRecord.builder().revision(1)
+                .values(values("a", new Int32Value(1), "b", new StringValue("x"))).build());
+        store.append(key, MemoryRecord.builder().revision(2).values(values("a", new Int32Value(2))).build());
+        store.append(key, MemoryRecord.builder().revision(3).deleted(true).build());
+        store.append(key, MemoryRecord.builder().revision(4).values(values("c", new StringValue("y"))).build());
+
+        assertThat(store.get(key, 1).getValues(), is(values("a", new Int32Value(1), "b", new StringValue("x"))));
+        assertThat(store.get(key, 2).getValues(), is(values("a", new Int32Value(2), "b", new StringValue("x"))));
+        assertThat(store.get(key, 3).isDeleted(), is(true));
+        assertThat(store.get(key, 3).getValues(), is(Map.of()));
+        assertThat(store.get(key, 4).getValues(), is(values("c", new StringValue("y"))));
+
+        var dumped = new ArrayList<MemoryRecord>();
+        assertThat(store.dump(null, 10, 3, (k, r) -> dumped.add(r)), is(key));
+        assertThat(dumped.stream().map(MemoryRecord::getRevision).collect(Collectors.toList()), contains(1L, 2L, 3L));
+        assertThat(dumped.get(1).getValues(), is(values("a", new Int32Value(2))));
+        assertThat(dumped.get(2).isDeleted(), is(true));
+        assertThat(store.dump(key, 10, 3, (k, r) -> dumped.add(r)), nullValue());
+    }
+
+    @ParameterizedTest
+    @EnumSource(RecordLayout.class)
+    public void testQueryRange(RecordLayout layout) {
+        var store = layout.createStore();
+        for (int i = 0; i < 10000; ++i) {
+            store.append(new Int32Value(i),
+                    MemoryRecord.builder().revision(i).values(values("v", new StringValue("" + i % 7))).build());
+        }
+        assertThat(store.firstKey(), is(new Int32Value(0)));
+        assertThat(store.lastKey(), is(new Int32Value(9999)));
+        assertThat(store.query(new Int32Value(10), false, new Int32Value(15), true, Long.MAX_VALUE)
+                        .map(entry -> entry.getKey())
+                        .collect(Collectors.toList()),
+                is(List.of(new Int32Value(11),
+                        new Int32Value(12),
+                        new Int32Value(13),
+                        new Int32Value(14),
+                        new Int32Value(15))));
+        assertThat(store.query(null, true, null, true, 4999).count(), is(5000L));
+        assertThat(store.query(new Int32Value(9998), true, null, true, Long.MAX_VALUE)
+                        .map(entry -> entry.getValue().getValues().get("v"))
+                        .collect(Collectors.toList()),
+                is(List.of(new StringValue("2"), new StringValue("3"))));
+    }
+}
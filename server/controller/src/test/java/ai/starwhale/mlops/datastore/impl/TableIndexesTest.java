@@ -0,0 +1,235 @@
+/*
+ * Copyright 2022 Starwhale, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.starwhale.mlops.datastore.impl;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import ai.starwhale.mlops.datastore.ColumnSchemaDesc;
+import ai.starwhale.mlops.datastore.ColumnType;
+import ai.starwhale.mlops.datastore.TableQueryFilter;
+import ai.starwhale.mlops.datastore.TableQueryFilter.Operator;
+import ai.starwhale.mlops.datastore.TableSchema;
+import ai.starwhale.mlops.datastore.TableSchemaDesc;
+import ai.starwhale.mlops.datastore.type.BaseValue;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class TableIndexesTest {
+
+    private RecordStore recordStore;
+
+    private TableIndexes indexes;
+
+    private static TableQueryFilter filter(Operator op, Object... operands) {
+        return TableQueryFilter.builder().operator(op).operands(List.of(operands)).build();
+    }
+
+    private static TableQueryFilter equal(String column, int value) {
+        return filter(Operator.EQUAL, new TableQueryFilter.Column(column),
+                new TableQueryFilter.Constant(ColumnType.INT32, value));
+    }
+
+    private void put(int key, long revision, boolean deleted, Object... keyValues) {
+        var values = new HashMap<String, BaseValue>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            values.put((String) keyValues[i], (BaseValue) keyValues[i + 1]);
+        }
+        var latest = this.recordStore.get(BaseValue.valueOf(key), Long.MAX_VALUE);
+        var record = MemoryRecord.builder().revision(revision).deleted(deleted).values(values).build();
+        this.recordStore.append(BaseValue.valueOf(key), record);
+        this.indexes.append(BaseValue.valueOf(key), latest, record);
+    }
+
+    private void append(int key, long revision, boolean deleted, Object... keyValues) {
+        this.put(key, revision, deleted, keyValues);
+        this.indexes.publish();
+    }
+
+    @BeforeEach
+    public void setUp() {
+        this.recordStore = RecordLayout.ROW.createStore();
+        this.indexes = new TableIndexes();
+        for (int i = 0; i < 100; ++i) {
+            this.append(i, 1, false, "a", BaseValue.valueOf(i % 10), "b", BaseValue.valueOf(i % 2));
+        }
+    }
+
+    @Test
+    public void testAutoCreate() {
+        var schema = new TableSchema(new TableSchemaDesc("k", List.of(
+                ColumnSchemaDesc.builder().name("k").type("INT32").build(),
+                ColumnSchemaDesc.builder().name("a").type("INT32").build())));
+        var filter = filter(Operator.AND,
+                equal("a", 1),
+                equal("k", 1),
+                equal("x", 1),
+                filter(Operator.LESS, new TableQueryFilter.Column("a"),
+                        new TableQueryFilter.Constant(ColumnType.INT32, 3)));
+        for (int i = 1; i < TableIndexes.AUTO_INDEX_THRESHOLD; ++i) {
+            assertThat(this.indexes.observe(filter, null, schema), is(Map.of()));
+        }
+        // the range predicate wins
+        assertThat(this.indexes.observe(filter, null, schema), is(Map.of("a", true)));
+        this.indexes.build("a", true, this.recordStore);
+        assertThat(this.indexes.observe(filter, null, schema), is(Map.of()));
+    }
+
+    @Test
+    public void testLookup() {
+        this.indexes.build("a", false, this.recordStore);
+        this.indexes.build("b", true, this.recordStore);
+        assertThat(this.indexes.lookup(equal("a", 3)), is(Set.of(
+                BaseValue.valueOf(3), BaseValue.valueOf(13), BaseValue.valueOf(23), BaseValue.valueOf(33),
+                BaseValue.valueOf(43), BaseValue.valueOf(53), BaseValue.valueOf(63), BaseValue.valueOf(73),
+                BaseValue.valueOf(83), BaseValue.valueOf(93))));
+        // hash index does not support range
+        assertThat(this.indexes.lookup(filter(Operator.GREATER, new TableQueryFilter.Column("a"),
+                new TableQueryFilter.Constant(ColumnType.INT32, 3))), nullValue());
+        // constants are converted to the type of the column as the filter does, the API sends integers as INT64
+        assertThat(this.indexes.lookup(filter(Operator.EQUAL, new TableQueryFilter.Column("a"),
+                new TableQueryFilter.Constant(ColumnType.INT64, 3L))).size(), is(10));
+        assertThat(this.indexes.lookup(filter(Operator.EQUAL, new TableQueryFilter.Column("a"),
+                new TableQueryFilter.Constant(ColumnType.STRING, "3"))).size(), is(10));
+        assertThat(this.indexes.estimate(filter(Operator.LESS, new TableQueryFilter.Column("b"),
+                new TableQueryFilter.Constant(ColumnType.INT64, 1L))), is(50L));
+        // no exact conversion
+        assertThat(this.indexes.lookup(filter(Operator.EQUAL, new TableQueryFilter.Column("a"),
+                new TableQueryFilter.Constant(ColumnType.INT64, 1L << 40))), nullValue());
+        assertThat(this.indexes.lookup(filter(Operator.EQUAL, new TableQueryFilter.Column("a"),
+                new TableQueryFilter.Constant(ColumnType.FLOAT64, 3.0))), nullValue());
+        assertThat(this.indexes.lookup(filter(Operator.EQUAL, new TableQueryFilter.Column("a"),
+                new TableQueryFilter.Constant(ColumnType.STRING, "x"))), nullValue());
+        // no index
+        assertThat(this.indexes.lookup(equal("c", 3)), nullValue());
+        assertThat(this.indexes.lookup(filter(Operator.NOT, equal("a", 3))), nullValue());
+
+        // the most selective operand is used
+        assertThat(this.indexes.estimate(filter(Operator.AND, equal("b", 1), equal("a", 3))), is(10L));
+        assertThat(this.indexes.lookup(filter(Operator.AND, equal("b", 1), equal("a", 3), equal("c", 1))).size(),
+                is(10));
+        assertThat(this.indexes.lookup(filter(Operator.OR, equal("a", 3), equal("a", 4))).size(), is(20));
+        assertThat(this.indexes.lookup(filter(Operator.OR, equal("a", 3), equal("c", 4))), nullValue());
+        // constant on the left
+        assertThat(this.indexes.estimate(filter(Operator.GREATER, new TableQueryFilter.Constant(ColumnType.INT32, 2),
+                new TableQueryFilter.Column("b"))), is(100L));
+        // scanning is faster if a large fraction of the records matches
+        assertThat(this.indexes.estimate(equal("b", 1)), is(50L));
+        assertThat(this.indexes.lookup(equal("b", 1)), nullValue());
+    }
+
+    @Test
+    public void testNullAndDeleted() {
+        this.indexes.build("a", true, this.recordStore);
+        this.append(3, 2, true);
+        this.append(3, 3, false, "b", BaseValue.valueOf(0));
+        this.append(200, 4, false, "b", BaseValue.valueOf(0));
+        this.append(201, 5, false, "a", null);
+        this.append(5, 6, false, "a", BaseValue.valueOf(0));
+        var less = filter(Operator.LESS, new TableQueryFilter.Column("a"),
+                new TableQueryFilter.Constant(ColumnType.INT32, 1));
+        // keys are moved to the groups of their latest values, and null is less than any value
+        assertThat(this.indexes.lookup(less), is(Set.of(BaseValue.valueOf(0), BaseValue.valueOf(10),
+                BaseValue.valueOf(20), BaseValue.valueOf(30), BaseValue.valueOf(40), BaseValue.valueOf(50),
+                BaseValue.valueOf(60), BaseValue.valueOf(70), BaseValue.valueOf(80), BaseValue.valueOf(90),
+                BaseValue.valueOf(3), BaseValue.valueOf(5), BaseValue.valueOf(200), BaseValue.valueOf(201))));
+        assertThat(this.indexes.lookup(equal("a", 3)).contains(BaseValue.valueOf(3)), is(false));
+        assertThat(this.indexes.lookup(equal("a", 5)).contains(BaseValue.valueOf(5)), is(false));
+        assertThat(this.indexes.estimate(equal("a", 5)), is(9L));
+
+        // a rebuilt index is the same
+        this.indexes.build("a", true, this.recordStore);
+        assertThat(this.indexes.lookup(less).size(), is(14));
+        assertThat(this.indexes.estimate(equal("a", 3)), is(9L));
+        assertThat(this.indexes.estimate(equal("a", 5)), is(9L));
+    }
+
+    @Test
+    public void testRemoveOnPublish() {
+        this.indexes.build("a", false, this.recordStore);
+        var version = this.indexes.getVersion();
+        this.put(1, 2, false, "a", BaseValue.valueOf(2));
+        // the key is in both groups until the revision is published
+        assertThat(this.indexes.lookup(equal("a", 1)).contains(BaseValue.valueOf(1)), is(true));
+        assertThat(this.indexes.lookup(equal("a", 2)).contains(BaseValue.valueOf(1)), is(true));
+        assertThat(this.indexes.getVersion(), is(version));
+        // changed back to the old value in the same revision
+        this.put(1, 2, false, "a", BaseValue.valueOf(1));
+        this.put(2, 2, false, "a", BaseValue.valueOf(3));
+        this.indexes.publish();
+        assertThat(this.indexes.getVersion(), is(version + 1));
+        assertThat(this.indexes.lookup(equal("a", 1)).contains(BaseValue.valueOf(1)), is(true));
+        assertThat(this.indexes.lookup(equal("a", 2)).contains(BaseValue.valueOf(1)), is(false));
+        assertThat(this.indexes.lookup(equal("a", 2)).contains(BaseValue.valueOf(2)), is(false));
+        assertThat(this.indexes.lookup(equal("a", 3)).contains(BaseValue.valueOf(2)), is(true));
+        // nothing to remove
+        this.append(300, 3, false, "a", BaseValue.valueOf(1));
+        assertThat(this.indexes.getVersion(), is(version + 1));
+    }
+
+    @Test
+    public void testInLikeAndIsNull() {
+        this.indexes.build("a", false, this.recordStore);
+        this.append(201, 2, false, "a", null);
+        this.append(300, 3, false, "s", BaseValue.valueOf("abc"));
+        this.append(301, 4, false, "s", BaseValue.valueOf("abd"));
+        this.append(302, 5, false, "s", BaseValue.valueOf("b"));
+        this.append(303, 6, false, "s", BaseValue.valueOf("ab\uffff"));
+        this.indexes.build("s", true, this.recordStore);
+
+        var in = filter(Operator.IN, new TableQueryFilter.Column("a"),
+                new TableQueryFilter.Constant(ColumnType.INT32, 3),
+                new TableQueryFilter.Constant(ColumnType.INT32, 4));
+        assertThat(this.indexes.estimate(in), is(20L));
+        assertThat(this.indexes.lookup(in).size(), is(20));
+        // a null constant matches null values
+        var inNull = TableQueryFilter.builder()
+                .operator(Operator.IN)
+                .operands(new ArrayList<>() {
+                    {
+                        add(new TableQueryFilter.Column("a"));
+                        add(new TableQueryFilter.Constant(ColumnType.INT32, 3));
+                        add(null);
+                    }
+                })
+                .build();
+        // records without the column have null values
+        assertThat(this.indexes.lookup(inNull).size(), is(15));
+        assertThat(this.indexes.lookup(filter(Operator.IN, new TableQueryFilter.Column("a"),
+                new TableQueryFilter.Constant(ColumnType.INT64, 3L))).size(), is(10));
+
+        assertThat(this.indexes.lookup(filter(Operator.IS_NULL, new TableQueryFilter.Column("a"))),
+                is(Set.of(BaseValue.valueOf(201), BaseValue.valueOf(300), BaseValue.valueOf(301),
+                        BaseValue.valueOf(302), BaseValue.valueOf(303))));
+
+        assertThat(this.indexes.lookup(filter(Operator.LIKE, new TableQueryFilter.Column("s"),
+                        new TableQueryFilter.Constant(ColumnType.STRING, "ab%"))),
+                is(Set.of(BaseValue.valueOf(300), BaseValue.valueOf(301), BaseValue.valueOf(303))));
+        assertThat(this.indexes.lookup(filter(Operator.LIKE, new TableQueryFilter.Column("s"),
+                        new TableQueryFilter.Constant(ColumnType.STRING, "ab\uffff"))),
+                is(Set.of(BaseValue.valueOf(303))));
+        // hash index does not support LIKE
+        assertThat(this.indexes.lookup(filter(Operator.LIKE, new TableQueryFilter.Column("a"),
+                new TableQueryFilter.Constant(ColumnType.STRING, "1%"))), nullValue());
+    }
+}
@@ -42,6 +42,7 @@ import com.google.common.jimfs.Configuration;
 import com.google.common.jimfs.Jimfs;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.CodedOutputStream;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -52,9 +53,11 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.stream.LongStream;
 import java.util.stream.Stream;
 import lombok.SneakyThrows;
 import org.apache.commons.lang3.tuple.Triple;
@@ -77,7 +80,8 @@ public class WalManagerTest {
     }
 
     private void createInstance() throws IOException {
-        this.walManager = new WalManager(this.storageAccessService, 4096, this.fs.getPath("/wal_cache"), "test/", 3);
+        this.walManager = new WalManager(this.storageAccessService, 4096, this.fs.getPath("/wal_cache"), "test/", 3,
+                new SimpleMeterRegistry());
     }
 
 
@@ -295,7 +299,8 @@ public class WalManagerTest {
                 CodedOutputStream.computeMessageSizeNoTag(entry1) + WalManager.HEADER.length,
                 this.fs.getPath("/wal_cache"),
                 "test/",
-                3);
+                3,
+                new SimpleMeterRegistry());
         this.walManager.append(entry1.toBuilder().addAllRecords(entry2.getRecordsList()));
         this.walManager.terminate();
         this.createInstance();
@@ -317,15 +322,15 @@ public class WalManagerTest {
                     is(i));
         }
         Thread.sleep(1000);
-        assertThat(this.storageAccessService.list("").collect(Collectors.toList()),
+        assertThat(this.listLogFiles(),
                 is(IntStream.range(0, 10).mapToObj(k -> "test/wal.log." + k).collect(Collectors.toList())));
         for (int i = -1; i <= 5; ++i) {
             this.walManager.removeWalLogFiles(i);
-            assertThat(this.storageAccessService.list("").collect(Collectors.toList()),
+            assertThat(this.listLogFiles(),
                     is(IntStream.range(0, 10).mapToObj(k -> "test/wal.log." + k).collect(Collectors.toList())));
         }
         this.walManager.removeWalLogFiles(6);
-        assertThat(this.storageAccessService.list("").collect(Collectors.toList()),
+        assertThat(this.listLogFiles(),
                 is(IntStream.range(1, 10).mapToObj(k -> "test/wal.log." + k).collect(Collectors.toList())));
         assertThat(Files.exists(this.fs.getPath("/wal_cache/wal.log.8")), is(false));
         assertThat(Files.exists(this.fs.getPath("/wal_cache/wal.log.9")), is(true));
@@ -334,11 +339,18 @@ public class WalManagerTest {
         //noinspection ResultOfMethodCallIgnored
         ImmutableList.copyOf(walManager.readAll());
         this.walManager.removeWalLogFiles(14);
-        assertThat(this.storageAccessService.list("").collect(Collectors.toList()),
+        assertThat(this.listLogFiles(),
                 is(IntStream.range(3, 10).mapToObj(k -> "test/wal.log." + k).collect(Collectors.toList())));
         Thread.sleep(1000);
         this.walManager.removeWalLogFiles(100);
-        assertThat(this.storageAccessService.list("").collect(Collectors.toList()), is(List.of("test/wal.log.9")));
+        assertThat(this.listLogFiles(), is(List.of("test/wal.log.9")));
+    }
+
+    // chunks of the active log file may exist before it is sealed
+    private List<String> listLogFiles() throws IOException {
+        return this.storageAccessService.list("")
+                .filter(key -> !key.contains(".chunk."))
+                .collect(Collectors.toList());
     }
 
     @Test
@@ -353,7 +365,7 @@ public class WalManagerTest {
                     throw new IOException();
                 }
                 synchronized (files) {
-                    if (files.isEmpty() || !path.equals(files.get(files.size() - 1))) {
+                    if (!path.contains(".chunk.") && !files.contains(path)) {
                         files.add(path);
                     }
                 }
@@ -362,7 +374,8 @@ public class WalManagerTest {
         };
         this.walManager.terminate();
         try {
-            this.walManager = new WalManager(storageAccessService, 4096, this.fs.getPath("/wal_cache"), "test/", 3);
+            this.walManager = new WalManager(storageAccessService, 4096, this.fs.getPath("/wal_cache"), "test/", 3,
+                    new SimpleMeterRegistry());
             for (int i = 0; i < 20; ++i) {
                 this.walManager.append(Wal.WalEntry.newBuilder()
                         .setEntryType(Wal.WalEntry.Type.UPDATE)
@@ -414,7 +427,8 @@ public class WalManagerTest {
                 .doNothing()
                 .when(storageAccessService).put(anyString(), any(), anyLong());
         this.walManager.terminate();
-        this.walManager = new WalManager(storageAccessService, 4096, this.fs.getPath("/wal_cache"), "test/", 3);
+        this.walManager = new WalManager(storageAccessService, 4096, this.fs.getPath("/wal_cache"), "test/", 3,
+                new SimpleMeterRegistry());
         walManager.append(Wal.WalEntry.newBuilder()
                 .setEntryType(Wal.WalEntry.Type.UPDATE)
                 .setTableName("t"));
@@ -434,7 +448,8 @@ public class WalManagerTest {
                 .willReturn(new LengthAbleInputStream(
                         new ByteArrayInputStream(new byte[]{'s', 'w', 'l', 0, 0, 0, 0, 0, 0, 0}), 10));
         this.walManager.terminate();
-        this.walManager = new WalManager(storageAccessService, 4096, this.fs.getPath("/tmp"), "test/", 3);
+        this.walManager = new WalManager(storageAccessService, 4096, this.fs.getPath("/tmp"), "test/", 3,
+                new SimpleMeterRegistry());
         //noinspection ResultOfMethodCallIgnored
         ImmutableList.copyOf(walManager.readAll());
         walManager.terminate();
@@ -480,4 +495,77 @@ public class WalManagerTest {
             }
         }
     }
+
+    @Test
+    public void testCommit() throws Exception {
+        var meterRegistry = new SimpleMeterRegistry();
+        this.walManager.terminate();
+        this.walManager = new WalManager(this.storageAccessService, 4096, this.fs.getPath("/wal_cache"), "test/", 3,
+                meterRegistry);
+        for (var durability : WalDurability.values()) {
+            var id = this.walManager.append(Wal.WalEntry.newBuilder()
+                    .setEntryType(Type.UPDATE)
+                    .setTableName(durability.name())
+                    .addAllRecords(this.createRecords(List.of(Map.of(1, "a")))));
+            this.walManager.commit(id, durability).get(10, TimeUnit.SECONDS);
+            assertThat(this.walManager.getMaxEntryId(), is(id));
+        }
+        assertThat(this.storageAccessService.list("test/").collect(Collectors.toList()),
+                is(List.of("test/wal.log.0")));
+        // all entries are already committed
+        this.walManager.commit(1, WalDurability.REMOTE_ACK).get(10, TimeUnit.SECONDS);
+        for (var durability : List.of("async", "local-fsync", "remote-ack")) {
+            assertThat(meterRegistry.get("sw.datastore.wal.commit.latency")
+                    .tag("durability", durability)
+                    .timer()
+                    .count(), is(durability.equals("remote-ack") ? 2L : 1L));
+        }
+        assertThat(meterRegistry.get("sw.datastore.wal.batch.size").summary().totalAmount(), is(3.0));
+        this.walManager.terminate();
+        this.createInstance();
+        assertThat(ImmutableList.copyOf(this.walManager.readAll()).stream()
+                        .map(Wal.WalEntry::getTableName)
+                        .collect(Collectors.toList()),
+                is(List.of("ASYNC", "LOCAL_FSYNC", "REMOTE_ACK")));
+        // ids continue after the replayed entries
+        this.walManager.flush();
+        this.walManager.commit(3, WalDurability.LOCAL_FSYNC).get(10, TimeUnit.SECONDS);
+        assertThat(this.walManager.append(Wal.WalEntry.newBuilder().setEntryType(Type.UPDATE).setTableName("t")),
+                is(4L));
+    }
+
+    @Test
+    public void testCommitConcurrently() throws Throwable {
+        var threads = new ArrayList<TestThread>();
+        for (int i = 0; i < 10; ++i) {
+            var durability = WalDurability.values()[i % WalDurability.values().length];
+            var tableName = "t" + i;
+            var t = new TestThread() {
+                @Override
+                public void execute() throws Exception {
+                    for (int j = 0; j < 100; ++j) {
+                        var id = walManager.append(Wal.WalEntry.newBuilder()
+                                .setEntryType(Type.UPDATE)
+                                .setTableName(tableName)
+                                .addAllRecords(createRecords(List.of(Map.of(1, "0".repeat(j * 10))))));
+                        walManager.commit(id, durability).get(10, TimeUnit.SECONDS);
+                    }
+                }
+            };
+            t.start();
+            threads.add(t);
+        }
+        for (var t : threads) {
+            t.join();
+        }
+        for (var t : threads) {
+            t.checkException();
+        }
+        this.walManager.terminate();
+        this.createInstance();
+        var entries = ImmutableList.copyOf(this.walManager.readAll());
+        assertThat(entries.size(), is(1000));
+        assertThat(entries.stream().map(Wal.WalEntry::getId).collect(Collectors.toList()),
+                is(LongStream.rangeClosed(1, 1000).boxed().collect(Collectors.toList())));
+    }
 }
@@ -17,6 +17,7 @@
 package ai.starwhale.mlops.datastore.wal;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.is;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyLong;
@@ -40,6 +41,9 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
 import java.util.stream.Stream;
 import lombok.SneakyThrows;
 import org.junit.jupiter.api.AfterEach;
@@ -157,6 +161,57 @@ public class WalRemoteFileManagerTest {
         assertThat(this.storageAccessService.head("/wal/wal.log.6").isExists(), is(true));
     }
 
+    @Test
+    @SneakyThrows
+    public void testChunks() {
+        var offsets = new ArrayList<Integer>();
+        var out = new ByteArrayOutputStream();
+        out.write(WalManager.HEADER);
+        for (int j = 0; j < 10; ++j) {
+            WalEntry.newBuilder()
+                    .setEntryType(Type.UPDATE)
+                    .setId(60 + j)
+                    .setTableName("t")
+                    .build()
+                    .writeDelimitedTo(out);
+            offsets.add(out.size());
+        }
+        var walLocalFileManager = new WalLocalFileManager(this.fs.getPath("/wal"), 4096, 0);
+        var path6 = this.fs.getPath("/wal/wal.log.6");
+        for (var j : List.of(2, 6, 9)) {
+            this.walRemoteFileManager.push(walLocalFileManager.new LogFileInfo(6, path6, 60 + j, offsets.get(j)));
+            Thread.sleep(300);
+        }
+        // only the new bytes are uploaded after the first push
+        assertThat(this.storageAccessService.list("/wal/wal.log.6").collect(Collectors.toList()),
+                containsInAnyOrder("/wal/wal.log.6",
+                        "/wal/wal.log.6.chunk." + offsets.get(2) + "-" + offsets.get(6),
+                        "/wal/wal.log.6.chunk." + offsets.get(6) + "-" + offsets.get(9)));
+        var reader = new WalRemoteFileManager(this.storageAccessService, 3, "/wal/wal.log.");
+        var ids = new ArrayList<Long>();
+        reader.readAll(6, 4096).forEachRemaining(entry -> ids.add(entry.getId()));
+        reader.terminate();
+        assertThat(ids, is(LongStream.concat(LongStream.range(0, 50), LongStream.range(60, 70))
+                .boxed()
+                .collect(Collectors.toList())));
+
+        // the chunks are merged into the sealed file when the log rolls over
+        var path7 = this.fs.getPath("/wal/wal.log.7");
+        this.walRemoteFileManager.push(
+                walLocalFileManager.new LogFileInfo(7, path7, 79, (int) Files.size(path7)));
+        Thread.sleep(300);
+        assertThat(Files.exists(path6), is(false));
+        assertThat(this.storageAccessService.list("/wal/wal.log.6").collect(Collectors.toList()),
+                is(List.of("/wal/wal.log.6")));
+        reader = new WalRemoteFileManager(this.storageAccessService, 3, "/wal/wal.log.");
+        ids.clear();
+        reader.readAll(7, 4096).forEachRemaining(entry -> ids.add(entry.getId()));
+        reader.terminate();
+        assertThat(ids, is(LongStream.concat(LongStream.range(0, 50), LongStream.range(60, 80))
+                .boxed()
+                .collect(Collectors.toList())));
+    }
+
     @Test
     @SneakyThrows
     public void testStartWithoutLogs() {
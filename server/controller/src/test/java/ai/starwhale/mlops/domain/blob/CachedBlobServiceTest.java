@@ -150,5 +150,9 @@ public class CachedBlobServiceTest {
         assertThat(this.blobService.getSignedPutUrl("B-1"), is("y/B-1"));
         assertThrows(IllegalArgumentException.class, () -> this.blobService.getSignedUrl("C-1"));
         assertThrows(IllegalArgumentException.class, () -> this.blobService.getSignedPutUrl("C-1"));
+
+        assertThat(this.blobService.getSignedUrls(List.of("1", "A-1", "B-1", "A-2")),
+                is(Map.of("1", "blob/1", "A-1", "x/A-1", "B-1", "y/B-1", "A-2", "x/A-2")));
+        assertThrows(IllegalArgumentException.class, () -> this.blobService.getSignedUrls(List.of("1", "C-1")));
     }
 }
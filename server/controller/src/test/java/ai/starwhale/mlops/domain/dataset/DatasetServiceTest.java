@@ -450,6 +450,16 @@ public class DatasetServiceTest {
 
     @Test
     public void testLinksOf() {
+        given(uriAccessor.linksOf(eq(Set.of("a", "b")), anyLong()))
+                .willReturn(Map.of("a", "link1", "b", "link2"));
+        Assertions.assertEquals(
+                Map.of("a", "link1", "b", "link2"),
+                service.signLinks("", "", Set.of("a", "b"), 1L)
+        );
+
+        // fall back to sign the links one by one
+        given(uriAccessor.linksOf(eq(Set.of("a", "b", "x")), anyLong()))
+                .willThrow(SwValidationException.class);
         given(uriAccessor.linkOf(eq("a"), anyLong()))
                 .willReturn("link1");
 
@@ -23,6 +23,7 @@ import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -32,6 +33,7 @@ import ai.starwhale.mlops.common.IdConverter;
 import ai.starwhale.mlops.common.VersionAliasConverter;
 import ai.starwhale.mlops.domain.bundle.tag.BundleVersionTagDao;
 import ai.starwhale.mlops.domain.dataset.bo.DatasetVersion;
+import ai.starwhale.mlops.domain.dataset.dataloader.DataReadManager;
 import ai.starwhale.mlops.domain.dataset.index.datastore.DataStoreTableNameHelper;
 import ai.starwhale.mlops.domain.dataset.mapper.DatasetMapper;
 import ai.starwhale.mlops.domain.dataset.mapper.DatasetVersionMapper;
@@ -164,6 +166,7 @@ public class DatasetUploaderTest {
 
         IdConverter idConvertor = new IdConverter();
         VersionAliasConverter versionAliasConvertor = new VersionAliasConverter();
+        DataReadManager dataReadManager = mock(DataReadManager.class);
 
         DatasetUploader datasetUploader = new DatasetUploader(
                 datasetMapper,
@@ -177,7 +180,9 @@ public class DatasetUploaderTest {
                 dataStoreTableNameHelper,
                 datasetDao,
                 idConvertor,
-                versionAliasConvertor
+                versionAliasConvertor,
+                dataReadManager,
+                50
         );
 
         DatasetUploadRequest uploadRequest = new DatasetUploadRequest();
@@ -192,9 +197,13 @@ public class DatasetUploaderTest {
         when(datasetDao.selectMaxVersionOrderOfBundleForUpdate(any())).thenReturn(2L);
         when(datasetDao.updateVersionOrder(any(), any())).thenReturn(1);
 
+        given(datasetVersionMapper.find(dsVersionId)).willReturn(
+                DatasetVersionEntity.builder().id(dsVersionId).indexTable("index-table").build());
         datasetUploader.end(dsVersionId);
 
         verify(datasetVersionMapper).updateStatus(1L, DatasetVersion.STATUS_AVAILABLE);
+        verify(dataReadManager).clearSplitPoints(dsVersionId);
+        verify(dataReadManager, timeout(5000)).buildSplitPoints(dsVersionId, "index-table", 50);
         verify(datasetVersionMapper).insert(any(DatasetVersionEntity.class));
         verify(datasetMapper).findByName(eq(dsName), anyLong(), any());
         verify(datasetMapper).insert(any(DatasetEntity.class));
@@ -246,7 +255,7 @@ public class DatasetUploaderTest {
 
         };
         when(httpResponse.getOutputStream()).thenReturn(mockOutPutStream);
-        datasetUploader.pull("project", dsName, dsVersion, "index.jsonl", httpResponse);
+        datasetUploader.pull("project", dsName, dsVersion, "index.jsonl", null, null, httpResponse);
 
         Assertions.assertThrowsExactly(StarwhaleApiException.class,
                 () -> datasetUploader.create(MANIFEST, "_manifest.yaml", uploadRequest));
@@ -286,7 +295,9 @@ public class DatasetUploaderTest {
                 dataStoreTableNameHelper,
                 mock(DatasetDao.class),
                 mock(IdConverter.class),
-                mock(VersionAliasConverter.class)
+                mock(VersionAliasConverter.class),
+                mock(DataReadManager.class),
+                50
         );
         MultipartFile file = mock(MultipartFile.class);
         when(file.getInputStream()).thenReturn(new ByteArrayInputStream("fc".getBytes(StandardCharsets.UTF_8)));
@@ -0,0 +1,310 @@
+/*
+ * Copyright 2022 Starwhale, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.starwhale.mlops.domain.dataset.dataloader;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.BDDMockito.willThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import ai.starwhale.mlops.api.protocol.dataset.dataloader.DataIndexDesc;
+import ai.starwhale.mlops.domain.dataset.dataloader.bo.DataReadLog;
+import ai.starwhale.mlops.domain.dataset.dataloader.bo.Session;
+import ai.starwhale.mlops.domain.dataset.dataloader.dao.DataReadLogDao;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+public class DataReadLeaseEngineTest {
+
+    private final Session session = Session.builder().id(1L).build();
+
+    private DataReadLogDao dataReadLogDao;
+
+    // the rows of dataset_read_log
+    private List<DataReadLog> rows;
+
+    private Map<String, DataReadLog> rowsByStart;
+
+    @BeforeEach
+    public void setUp() {
+        this.dataReadLogDao = mock(DataReadLogDao.class);
+        this.createRows(10);
+        willAnswer(invocation -> {
+            int limit = invocation.getArgument(1);
+            synchronized (this.rows) {
+                return this.rows.stream()
+                        .filter(row -> row.getConsumerId() == null && row.getStatus() == Status.DataStatus.UNPROCESSED)
+                        .limit(limit)
+                        .map(DataReadLeaseEngineTest::copy)
+                        .collect(Collectors.toList());
+            }
+        }).given(this.dataReadLogDao).selectTopsUnAssignedData(anyLong(), anyInt());
+        willAnswer(invocation -> {
+            List<DataReadLog> logs = invocation.getArgument(0);
+            synchronized (this.rows) {
+                for (var log : logs) {
+                    if (log.getStatus() == Status.DataStatus.PROCESSED) {
+                        var row = this.rowsByStart.get(log.getStart());
+                        if (row != null && Objects.equals(row.getEnd(), log.getEnd())) {
+                            row.setConsumerId(log.getConsumerId());
+                            row.setStatus(Status.DataStatus.PROCESSED);
+                        }
+                    } else {
+                        var row = this.rows.get(log.getId().intValue());
+                        row.setConsumerId(log.getConsumerId());
+                        row.setAssignedNum(row.getAssignedNum() + 1);
+                    }
+                }
+            }
+            return null;
+        }).given(this.dataReadLogDao).batchWriteBack(any());
+        willAnswer(invocation -> {
+            String consumerId = invocation.getArgument(0);
+            synchronized (this.rows) {
+                for (var row : this.rows) {
+                    if (consumerId.equals(row.getConsumerId()) && row.getStatus() == Status.DataStatus.UNPROCESSED) {
+                        row.setConsumerId(null);
+                    }
+                }
+            }
+            return true;
+        }).given(this.dataReadLogDao).updateUnProcessedToUnAssigned(anyString());
+    }
+
+    private void createRows(int count) {
+        this.rows = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            this.rows.add(DataReadLog.builder()
+                    .id((long) i)
+                    .sessionId(1L)
+                    .start(String.valueOf(i * 10))
+                    .startType("STRING")
+                    .end(i == count - 1 ? null : String.valueOf((i + 1) * 10))
+                    .endType("STRING")
+                    .size(10)
+                    .build());
+        }
+        this.rowsByStart = this.rows.stream().collect(Collectors.toMap(DataReadLog::getStart, Function.identity()));
+    }
+
+    private static DataReadLog copy(DataReadLog row) {
+        return DataReadLog.builder()
+                .id(row.getId())
+                .sessionId(row.getSessionId())
+                .consumerId(row.getConsumerId())
+                .start(row.getStart())
+                .startType(row.getStartType())
+                .end(row.getEnd())
+                .endType(row.getEndType())
+                .size(row.getSize())
+                .assignedNum(row.getAssignedNum())
+                .status(row.getStatus())
+                .build();
+    }
+
+    private static List<DataIndexDesc> processed(DataReadLog log) {
+        return List.of(DataIndexDesc.builder()
+                .start(log.getStart())
+                .startType(log.getStartType())
+                .end(log.getEnd())
+                .endType(log.getEndType())
+                .build());
+    }
+
+    private DataReadLeaseEngine createEngine(String leaseTimeout, int preloadSize) {
+        return new DataReadLeaseEngine(this.dataReadLogDao, true, leaseTimeout, preloadSize, 10, "1h");
+    }
+
+    @Test
+    public void testLeaseAndAcknowledge() {
+        var engine = this.createEngine("30m", 3);
+        var leased = new HashSet<Long>();
+        for (DataReadLog log; (log = engine.lease("c1", this.session)) != null; ) {
+            assertThat(log.getConsumerId(), is("c1"));
+            assertThat(log.getAssignedNum(), is(1));
+            assertThat(log.getAssignedTime(), notNullValue());
+            assertThat(leased.add(log.getId()), is(true));
+            engine.acknowledge("c1", processed(log), this.session);
+        }
+        assertThat(leased.size(), is(10));
+        engine.flush();
+        for (var row : this.rows) {
+            assertThat(row.getStatus(), is(Status.DataStatus.PROCESSED));
+            assertThat(row.getConsumerId(), is("c1"));
+            assertThat(row.getAssignedNum(), is(1));
+        }
+        // the database is read once per preload batch, not once per request
+        verify(this.dataReadLogDao, times(4)).selectTopsUnAssignedData(1L, 3);
+        assertThat(engine.lease("c2", this.session), nullValue());
+    }
+
+    @Test
+    public void testLeasedDataIsNotLoadedAgain() {
+        var engine = this.createEngine("30m", 5);
+        var leased = new HashSet<Long>();
+        for (DataReadLog log; (log = engine.lease("c1", this.session)) != null; ) {
+            assertThat(leased.add(log.getId()), is(true));
+        }
+        assertThat(leased.size(), is(10));
+        engine.flush();
+        assertThat(this.rows.stream().allMatch(row -> "c1".equals(row.getConsumerId())), is(true));
+    }
+
+    @Test
+    public void testLeaseExpired() throws InterruptedException {
+        var engine = this.createEngine("1ms", 10);
+        var first = engine.lease("c1", this.session);
+        assertThat(first.getId(), is(0L));
+        // the expiry is checked at most once per second
+        Thread.sleep(1100);
+        var ids = new ArrayList<Long>();
+        for (DataReadLog log; (log = engine.lease("c2", this.session)) != null; ) {
+            ids.add(log.getId());
+            engine.acknowledge("c2", processed(log), this.session);
+        }
+        assertThat(ids.size(), is(10));
+        assertThat(ids.contains(0L), is(true));
+        engine.flush();
+        assertThat(this.rows.get(0).getConsumerId(), is("c2"));
+        assertThat(this.rows.get(0).getAssignedNum(), is(2));
+        assertThat(this.rows.stream().allMatch(row -> row.getStatus() == Status.DataStatus.PROCESSED), is(true));
+    }
+
+    @Test
+    public void testReset() {
+        var engine = this.createEngine("30m", 10);
+        var c1 = engine.lease("c1", this.session);
+        var c2 = engine.lease("c2", this.session);
+        engine.reset("c1");
+        verify(this.dataReadLogDao).updateUnProcessedToUnAssigned("c1");
+        assertThat(this.rows.get(c1.getId().intValue()).getConsumerId(), nullValue());
+        assertThat(this.rows.get(c2.getId().intValue()).getConsumerId(), is("c2"));
+
+        var ids = new ArrayList<Long>();
+        for (DataReadLog log; (log = engine.lease("c3", this.session)) != null; ) {
+            ids.add(log.getId());
+        }
+        assertThat(ids.size(), is(9));
+        assertThat(ids.contains(c1.getId()), is(true));
+        assertThat(ids.contains(c2.getId()), is(false));
+    }
+
+    @Test
+    public void testAcknowledgeUnknownData() {
+        var engine = this.createEngine("30m", 10);
+        // leased before a restart
+        this.rows.get(3).setConsumerId("c1");
+        engine.acknowledge("c1", processed(this.rows.get(3)), this.session);
+        engine.flush();
+        assertThat(this.rows.get(3).getStatus(), is(Status.DataStatus.PROCESSED));
+    }
+
+    @Test
+    public void testFlushRetry() {
+        var engine = this.createEngine("30m", 10);
+        var log = engine.lease("c1", this.session);
+        engine.acknowledge("c1", processed(log), this.session);
+        willThrow(new RuntimeException("db down")).given(this.dataReadLogDao).batchWriteBack(any());
+        assertThrows(RuntimeException.class, engine::flush);
+        assertThat(this.rows.get(0).getStatus(), is(Status.DataStatus.UNPROCESSED));
+
+        List<List<DataReadLog>> batches = new ArrayList<>();
+        willAnswer(invocation -> batches.add(new ArrayList<>(invocation.getArgument(0))))
+                .given(this.dataReadLogDao).batchWriteBack(any());
+        engine.flush();
+        assertThat(batches.size(), is(1));
+        assertThat(batches.get(0).size(), is(2));
+        // the assignment goes before the acknowledgement
+        assertThat(batches.get(0).get(0).getStatus(), is(Status.DataStatus.UNPROCESSED));
+        assertThat(batches.get(0).get(1).getStatus(), is(Status.DataStatus.PROCESSED));
+    }
+
+    @Test
+    public void testConcurrentConsumers() throws Exception {
+        this.createRows(2000);
+        var engine = this.createEngine("30m", 100);
+        var count = this.runConsumers(engine, 16);
+        assertThat(count, is(2000));
+        engine.flush();
+        assertThat(this.rows.stream().allMatch(row -> row.getStatus() == Status.DataStatus.PROCESSED), is(true));
+        assertThat(this.rows.stream().allMatch(row -> row.getAssignedNum() == 1), is(true));
+    }
+
+    private int runConsumers(DataReadLeaseEngine engine, int consumerNum) throws Exception {
+        var count = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(consumerNum);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < consumerNum; ++i) {
+                var consumerId = "c" + i;
+                futures.add(executor.submit(() -> {
+                    for (DataReadLog log; (log = engine.lease(consumerId, this.session)) != null; ) {
+                        count.incrementAndGet();
+                        engine.acknowledge(consumerId, processed(log), this.session);
+                    }
+                }));
+            }
+            for (var future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return count.get();
+    }
+
+    /**
+     * Measures the assignments per second of concurrent consumers.
+     *
+     * <p>Run it with {@code mvn test -Dtest=DataReadLeaseEngineTest -Dbenchmark=true}.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    public void benchmarkLease() throws Exception {
+        for (var consumerNum : List.of(1, 8, 64, 256)) {
+            this.createRows(200000);
+            var engine = this.createEngine("30m", 1000);
+            var start = System.nanoTime();
+            var count = this.runConsumers(engine, consumerNum);
+            engine.flush();
+            var elapsed = System.nanoTime() - start;
+            System.out.printf("%d consumers: %d assignments/s\n", consumerNum, count * 1000000000L / elapsed);
+        }
+    }
+}
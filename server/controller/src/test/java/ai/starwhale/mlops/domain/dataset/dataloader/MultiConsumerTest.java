@@ -38,6 +38,7 @@ import ai.starwhale.mlops.domain.dataset.dataloader.mapper.DataReadLogMapper;
 import ai.starwhale.mlops.domain.dataset.dataloader.mapper.SessionMapper;
 import ai.starwhale.mlops.exception.SwRequestFrequentException;
 import cn.hutool.json.JSONUtil;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
@@ -67,9 +68,9 @@ import org.springframework.transaction.annotation.EnableTransactionManagement;
     "sw.dataset.processed.timeout.tolerance=100",
     "sw.dataset.load.read.log-cache-timeout=1s",
 })
-@Import({DataLoader.class, DataReadManager.class,
+@Import({DataLoader.class, DataReadManager.class, DataReadLeaseEngine.class,
         SessionDao.class, SessionConverter.class,
-        DataReadLogDao.class, DataReadLogConverter.class})
+        DataReadLogDao.class, DataReadLogConverter.class, SimpleMeterRegistry.class})
 @EnableTransactionManagement
 @AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
 public class MultiConsumerTest extends MySqlContainerHolder {
@@ -78,6 +79,8 @@ public class MultiConsumerTest extends MySqlContainerHolder {
     private DataLoader dataLoader;
     @MockBean
     private DataStoreIndexProvider dataRangeProvider;
+    @MockBean
+    private SplitPointsIndex splitPointsIndex;
     @Autowired
     private SessionMapper sessionMapper;
     @Autowired
@@ -368,6 +371,12 @@ public class MultiConsumerTest extends MySqlContainerHolder {
 
         assertEquals(2, updated.getAssignedNum());
         assertNotNull(updated.getAssignedTime());
+
+        // mark both processed with one statement
+        assertEquals(2, dataReadLogMapper.batchUpdateToProcessed(result.getId(), consumerId, List.of(
+                dataReadLogConverter.convert(dataReadLog1),
+                dataReadLogConverter.convert(dataReadLog2)), Status.DataStatus.PROCESSED.name()));
+        assertEquals(2, dataReadLogMapper.selectByStatus(sessionId, Status.DataStatus.PROCESSED.name()).size());
     }
 
 }
@@ -18,6 +18,7 @@ package ai.starwhale.mlops.domain.dataset.dataloader;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.Mockito.mock;
@@ -28,10 +29,14 @@ import ai.starwhale.mlops.api.protocol.dataset.dataloader.DataIndexDesc;
 import ai.starwhale.mlops.datastore.DataStore;
 import ai.starwhale.mlops.datastore.DataStoreScanRequest;
 import ai.starwhale.mlops.datastore.RecordList;
+import ai.starwhale.mlops.domain.dataset.dataloader.bo.DataIndex;
 import ai.starwhale.mlops.domain.dataset.dataloader.bo.DataReadLog;
 import ai.starwhale.mlops.domain.dataset.dataloader.bo.Session;
 import ai.starwhale.mlops.domain.dataset.dataloader.dao.DataReadLogDao;
 import ai.starwhale.mlops.domain.dataset.dataloader.dao.SessionDao;
+import ai.starwhale.mlops.domain.storage.StoragePathCoordinator;
+import ai.starwhale.mlops.storage.memory.StorageAccessServiceMemory;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.util.List;
 import java.util.Map;
 import org.junit.jupiter.api.BeforeEach;
@@ -44,6 +49,7 @@ public class ReadRangeTest {
     private static DataStoreIndexProvider dataRangeProvider;
     private static DataStore dataStore;
     private static SessionDao sessionDao;
+    private static SplitPointsIndex splitPointsIndex;
     private static DataReadLogDao dataReadLogDao;
     private final Integer cacheSize = 1;
 
@@ -53,9 +59,14 @@ public class ReadRangeTest {
         sessionDao = mock(SessionDao.class);
         dataReadLogDao = mock(DataReadLogDao.class);
         dataRangeProvider = new DataStoreIndexProvider(dataStore);
+        splitPointsIndex = new SplitPointsIndex(
+                new StorageAccessServiceMemory(), new StoragePathCoordinator("/test"), true);
         DataReadManager dataReadManager = new DataReadManager(
-                sessionDao, dataReadLogDao, dataRangeProvider, 1, cacheSize, "10s");
-        dataLoader = new DataLoader(dataReadManager, 1);
+                sessionDao, dataReadLogDao, dataRangeProvider, splitPointsIndex, new SimpleMeterRegistry(),
+                1, cacheSize, "10s");
+        DataReadLeaseEngine dataReadLeaseEngine = new DataReadLeaseEngine(
+                dataReadLogDao, false, "30m", cacheSize, 1, "10s");
+        dataLoader = new DataLoader(dataReadManager, dataReadLeaseEngine, 1);
     }
 
     @Test
@@ -140,6 +151,81 @@ public class ReadRangeTest {
         verify(dataStore, times(4)).scan(any());
     }
 
+    @Test
+    public void testSplitter() {
+        var splitter = new DataIndexSplitter(2);
+        assertThat(splitter.finish(), is(List.of()));
+        splitter = new DataIndexSplitter(2);
+        splitter.add("1", "INT32");
+        splitter.add("2", "INT32");
+        splitter.add("3", "INT32");
+        splitter.add("4", "STRING");
+        assertThat(splitter.finish(), is(List.of(
+                DataIndex.builder().start("1").startType("INT32").end("3").endType("INT32").size(2).build(),
+                DataIndex.builder().start("3").startType("INT32").end(null).endType("STRING").size(2).build())));
+    }
+
+    @Test
+    public void testSplitPoints() {
+        var sid = 3L;
+        var request = DataReadRequest.builder()
+                .sessionId("split-points-session")
+                .consumerId("1")
+                .tableName("test-table-name")
+                .datasetName("test-name")
+                .datasetVersionId(2L)
+                .processedData(List.of())
+                .batchSize(2)
+                .build();
+        given(sessionDao.insert(any())).willAnswer((Answer<Boolean>) invocation -> {
+            var session = invocation.getArgument(0, Session.class);
+            session.setId(sid);
+            return true;
+        });
+        given(dataStore.scan(any())).willReturn(new RecordList(
+                Map.of(),
+                Map.of(),
+                List.of(Map.of("id", Map.of("value", "0000-000", "type", "STRING")),
+                        Map.of("id", Map.of("value", "0000-001", "type", "STRING")),
+                        Map.of("id", Map.of("value", "0000-002", "type", "STRING"))),
+                "0000-002",
+                "STRING"
+        ));
+        var expected = List.of(
+                DataIndex.builder().start("0000-000").startType("STRING")
+                        .end("0000-002").endType("STRING").size(2).build(),
+                DataIndex.builder().start("0000-002").startType("STRING")
+                        .end(null).endType("STRING").size(1).build());
+
+        var dataReadManager = new DataReadManager(
+                sessionDao, dataReadLogDao, dataRangeProvider, splitPointsIndex, new SimpleMeterRegistry(),
+                1, cacheSize, "10s");
+        dataReadManager.generateSession(request);
+        verify(dataStore, times(1)).scan(any());
+        verify(dataReadLogDao, times(1)).batchInsert(any());
+        assertThat(splitPointsIndex.get(2L, 2), is(expected));
+
+        // the persisted split points are used by the sessions with the same batch size
+        request.setSessionId("split-points-session-2");
+        dataReadManager.generateSession(request);
+        verify(dataStore, times(1)).scan(any());
+        verify(dataReadLogDao, times(2)).batchInsert(any());
+
+        request.setBatchSize(3);
+        dataReadManager.generateSession(request);
+        verify(dataStore, times(2)).scan(any());
+        assertThat(splitPointsIndex.get(2L, 3), is(List.of(
+                DataIndex.builder().start("0000-000").startType("STRING")
+                        .end(null).endType("STRING").size(3).build())));
+
+        // the split points of all batch sizes are dropped when the dataset version is uploaded again
+        splitPointsIndex.put(20L, 2, expected);
+        dataReadManager.clearSplitPoints(2L);
+        assertThat(splitPointsIndex.get(2L, 2), is(nullValue()));
+        assertThat(splitPointsIndex.get(2L, 3), is(nullValue()));
+        assertThat(splitPointsIndex.get(20L, 2), is(expected));
+    }
+
     @Test
     public void testNextDataRange() {
         var sid = 2L;
@@ -229,7 +315,7 @@ public class ReadRangeTest {
                 ));
         verify(dataStore, times(1)).scan(any());
         verify(dataReadLogDao, times(1)).updateToAssigned(any());
-        verify(dataReadLogDao, times(0)).updateToProcessed(any(), any(), any(), any());
+        verify(dataReadLogDao, times(0)).batchUpdateToProcessed(any(), any(), any());
         verify(sessionDao, times(1)).insert(any());
 
         // case 2: get next data with exist session and consumer 1
@@ -273,8 +359,8 @@ public class ReadRangeTest {
 
         verify(dataStore, times(1)).scan(any());
         verify(dataReadLogDao, times(2)).updateToAssigned(any());
-        verify(dataReadLogDao, times(1))
-                .updateToProcessed(sid, consumerIdFor1, "0000-000", "0000-001");
+        verify(dataReadLogDao, times(1)).batchUpdateToProcessed(sid, consumerIdFor1, List.of(
+                DataReadLog.builder().start("0000-000").end("0000-001").build()));
         verify(sessionDao, times(1)).insert(any());
 
     }
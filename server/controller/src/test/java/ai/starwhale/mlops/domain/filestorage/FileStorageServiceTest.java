@@ -21,11 +21,11 @@ import static org.hamcrest.Matchers.is;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.mockStatic;
-import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 import ai.starwhale.mlops.exception.SwValidationException;
@@ -66,6 +66,7 @@ public class FileStorageServiceTest {
 
     @Test
     public void testGeneratePutUrl() throws IOException {
+        given(storageAccessService.signAllPut(any(), any(), any())).willCallRealMethod();
         given(storageAccessService.signedPutUrl(eq(pathPrefix + "a.txt"), any(), any())).willReturn("http://signedUrl");
         given(storageAccessService.signedPutUrl(eq(pathPrefix + "b.txt"), any(), any())).willReturn("https://signedUrl");
         assertThrows(SwValidationException.class, () ->
@@ -94,6 +95,7 @@ public class FileStorageServiceTest {
     public void testGenerateGetUrl() throws IOException {
         given(storageAccessService.list(pathPrefix))
                 .willReturn(List.of(pathPrefix + "a.txt", pathPrefix + "b.txt").stream());
+        given(storageAccessService.signAll(any(), any())).willCallRealMethod();
         given(storageAccessService.signedUrl(any(), any())).willReturn("signedGetUrl");
         assertThrows(SwValidationException.class, () ->
                 fileStorageService.generateSignedGetUrls("invalidPath"));
@@ -112,7 +114,8 @@ public class FileStorageServiceTest {
                 fileStorageService.deleteFiles("invalidPath", Set.of()));
 
         fileStorageService.deleteFiles(pathPrefix, Set.of("a.txt", "/b.txt"));
-        verify(storageAccessService, times(2)).delete(any());
+        verify(storageAccessService).deleteAll(
+                argThat(paths -> Set.copyOf(paths).equals(Set.of(pathPrefix + "a.txt", pathPrefix + "b.txt"))));
     }
 
 }
@@ -18,13 +18,17 @@ package ai.starwhale.mlops.domain.job;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.hasProperty;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.same;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.BDDMockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 
 import ai.starwhale.mlops.common.IdConverter;
 import ai.starwhale.mlops.domain.job.bo.Job;
@@ -33,6 +37,7 @@ import ai.starwhale.mlops.domain.job.mapper.JobDatasetVersionMapper;
 import ai.starwhale.mlops.domain.job.mapper.JobMapper;
 import ai.starwhale.mlops.domain.job.po.JobEntity;
 import ai.starwhale.mlops.domain.job.storage.JobRepo;
+import java.util.List;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
@@ -40,9 +45,11 @@ public class JobDaoTest {
 
     private JobDao jobDao;
 
+    private JobMapper jobMapper;
+
     @BeforeEach
     public void setUp() {
-        JobMapper jobMapper = mock(JobMapper.class);
+        jobMapper = mock(JobMapper.class);
         JobEntity job1 = JobEntity.builder()
                 .id(1L)
                 .jobUuid("job-uuid-1")
@@ -86,4 +93,10 @@ public class JobDaoTest {
         res = jobDao.findJob("job-uuid-x");
         assertThat(res, nullValue());
     }
+
+    @Test
+    public void testFindJobByStatusIn() {
+        assertThat(jobDao.findJobByStatusIn(List.of()), empty());
+        verify(jobMapper, never()).findJobByStatusIn(any());
+    }
 }
@@ -157,7 +157,7 @@ public class JobRepoTest {
                                 RuntimeVersionIdColumn, "0000000000000002",
                                 JobStatusColumn, "RUNNING"
                         )
-                ), null, null))
+                ), null, null, "cursor"))
                 .thenReturn(new RecordList(Map.of(), Map.of(), List.of(), null, null));
 
         List<JobFlattenEntity> jobEntities = jobRepo.listJobs(1L, null);
@@ -196,7 +196,7 @@ public class JobRepoTest {
                                 RuntimeVersionIdColumn, "0000000000000002",
                                 JobStatusColumn, "RUNNING"
                         )
-                ), null, null))
+                ), null, null, "cursor"))
                 .thenReturn(new RecordList(Map.of(), Map.of(), List.of(), null, null));
         ;
 
@@ -205,6 +205,9 @@ public class JobRepoTest {
         Mockito.verify(dataStore, times(2)).query(
                 argThat((DataStoreQueryRequest request) -> request.getTableName().equals("project/1/eval/summary")));
         jobEntities.forEach(job -> Assertions.assertEquals(job.getJobStatus(), JobStatus.RUNNING));
+
+        Assertions.assertEquals(List.of(), jobRepo.findJobByStatusIn(List.of()));
+        Mockito.verify(dataStore, times(2)).query(any());
     }
 
     @Test
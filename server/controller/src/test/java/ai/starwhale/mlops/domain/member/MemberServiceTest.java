@@ -29,6 +29,8 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.same;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 import ai.starwhale.mlops.domain.project.mapper.ProjectMemberMapper;
 import ai.starwhale.mlops.domain.project.po.ProjectMemberEntity;
@@ -43,10 +45,13 @@ public class MemberServiceTest {
 
     private ProjectMemberMapper projectMemberMapper;
 
+    private AuthorizationCache authorizationCache;
+
     @BeforeEach
     public void setUp() {
         projectMemberMapper = mock(ProjectMemberMapper.class);
-        service = new MemberService(projectMemberMapper);
+        authorizationCache = mock(AuthorizationCache.class);
+        service = new MemberService(projectMemberMapper, authorizationCache);
     }
 
     @Test
@@ -134,6 +139,7 @@ public class MemberServiceTest {
 
         res = service.modifyProjectMember(2L, 2L);
         assertThat(res, is(false));
+        verify(authorizationCache, times(2)).invalidateAll();
     }
 
     @Test
@@ -144,6 +150,7 @@ public class MemberServiceTest {
 
         res = service.deleteProjectMember(2L);
         assertThat(res, is(false));
+        verify(authorizationCache, times(2)).invalidateAll();
     }
 
     @Test
@@ -32,9 +32,12 @@ import static org.mockito.ArgumentMatchers.same;
 import static org.mockito.BDDMockito.any;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.BDDMockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 import ai.starwhale.mlops.common.IdConverter;
 import ai.starwhale.mlops.common.OrderParams;
+import ai.starwhale.mlops.configuration.security.AuthorizationCache;
 import ai.starwhale.mlops.domain.dataset.mapper.DatasetVersionMapper;
 import ai.starwhale.mlops.domain.member.MemberService;
 import ai.starwhale.mlops.domain.member.bo.ProjectMember;
@@ -71,6 +74,8 @@ public class ProjectServiceTest {
 
     private MemberService memberService;
 
+    private AuthorizationCache authorizationCache;
+
     @BeforeEach
     public void setUp() {
         ProjectEntity project1 = ProjectEntity.builder()
@@ -131,6 +136,7 @@ public class ProjectServiceTest {
                         .build());
 
         memberService = mock(MemberService.class);
+        authorizationCache = mock(AuthorizationCache.class);
 
         IdConverter idConvertor = new IdConverter();
         service = new ProjectService(projectMapper,
@@ -141,7 +147,8 @@ public class ProjectServiceTest {
                 userService,
                 mock(RuntimeVersionMapper.class),
                 mock(ModelVersionMapper.class),
-                mock(DatasetVersionMapper.class)
+                mock(DatasetVersionMapper.class),
+                authorizationCache
         );
     }
 
@@ -281,6 +288,7 @@ public class ProjectServiceTest {
 
         assertThrows(StarwhaleApiException.class,
                 () -> service.updateProject("1", "p2", "", "PUBLIC"));
+        verify(authorizationCache, times(5)).invalidateAll();
     }
 
     @Test
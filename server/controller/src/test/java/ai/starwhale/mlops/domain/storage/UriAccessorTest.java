@@ -20,6 +20,7 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import ai.starwhale.mlops.domain.dataset.objectstore.StorageAccessParser;
@@ -29,6 +30,9 @@ import ai.starwhale.mlops.storage.LengthAbleInputStream;
 import ai.starwhale.mlops.storage.StorageAccessService;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
@@ -80,4 +84,25 @@ public class UriAccessorTest {
         Assertions.assertEquals("abc", fileGetter.linkOf("s3://host:9080/bucket/bdc/bdcsd", 1L));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testLinksOf() throws IOException {
+        StorageAccessParser storageAccessParser = mock(StorageAccessParser.class);
+        StorageAccessService storageAccessService = mock(StorageAccessService.class);
+        when(storageAccessService.signAll(eq(Set.of("/bdc/bdcsd", "/uri/1")), anyLong()))
+                .thenReturn(Map.of("/bdc/bdcsd", "abc", "/uri/1", "ABC"));
+        when(storageAccessParser.getStorageAccessServiceFromUri(any())).thenReturn(storageAccessService);
+        UriAccessor fileGetter = new UriAccessor(storageAccessParser);
+        var links = fileGetter.linksOf(
+                List.of("/uri/1", "https://host/a", "s3://host:9080/bucket/bdc/bdcsd", "s3://host:9080/bucket2/uri/1"),
+                1L);
+        Assertions.assertEquals(List.of("/uri/1", "https://host/a", "s3://host:9080/bucket/bdc/bdcsd",
+                "s3://host:9080/bucket2/uri/1"), List.copyOf(links.keySet()));
+        Assertions.assertEquals(Map.of("/uri/1", "ABC", "https://host/a", "https://host/a",
+                "s3://host:9080/bucket/bdc/bdcsd", "abc", "s3://host:9080/bucket2/uri/1", "ABC"), links);
+        // signed in one batch
+        verify(storageAccessService).signAll(any(), anyLong());
+
+        when(storageAccessService.signAll(any(), anyLong())).thenThrow(IOException.class);
+        Assertions.assertThrows(SwProcessException.class, () -> fileGetter.linksOf(List.of("/uri/1"), 1L));
+    }
+}
@@ -31,9 +31,12 @@ import static org.mockito.ArgumentMatchers.same;
 import static org.mockito.BDDMockito.any;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.BDDMockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 import ai.starwhale.mlops.common.IdConverter;
 import ai.starwhale.mlops.common.PageParams;
+import ai.starwhale.mlops.configuration.security.AuthorizationCache;
 import ai.starwhale.mlops.configuration.security.SwPasswordEncoder;
 import ai.starwhale.mlops.domain.member.MemberService;
 import ai.starwhale.mlops.domain.member.bo.ProjectMember;
@@ -63,6 +66,7 @@ public class UserServiceTest {
     private UserMapper userMapper;
     private RoleMapper roleMapper;
     private MemberService memberService;
+    private AuthorizationCache authorizationCache;
 
     @BeforeEach
     public void setUp() {
@@ -101,8 +105,9 @@ public class UserServiceTest {
 
         SaltGenerator saltGenerator = mock(SaltGenerator.class);
         given(saltGenerator.salt()).willReturn("salt");
+        authorizationCache = mock(AuthorizationCache.class);
         service = new UserService(userMapper, roleMapper, memberService,
-                new IdConverter(), saltGenerator);
+                new IdConverter(), saltGenerator, authorizationCache);
 
         User current = User.builder().id(1L).name("current").active(true).build();
         var token = new UsernamePasswordAuthenticationToken(current, null);
@@ -349,6 +354,7 @@ public class UserServiceTest {
 
         res = service.updateUserState(User.builder().id(2L).build(), true);
         assertThat(res, is(false));
+        verify(authorizationCache, times(2)).invalidateAll();
     }
 
 
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2022 Starwhale, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.starwhale.mlops.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a range of a file with positional reads, so the channel position is never changed.
+ */
+class FileChannelInputStream extends InputStream {
+
+    private final FileChannel channel;
+
+    private long position;
+
+    private final long end;
+
+    FileChannelInputStream(FileChannel channel, long offset, long size) {
+        this.channel = channel;
+        this.position = offset;
+        this.end = offset + size;
+    }
+
+    @Override
+    public int read() throws IOException {
+        var b = new byte[1];
+        var ret = this.read(b, 0, 1);
+        return ret < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (this.position >= this.end) {
+            return -1;
+        }
+        len = (int) Math.min(len, this.end - this.position);
+        var ret = this.channel.read(ByteBuffer.wrap(b, off, len), this.position);
+        if (ret < 0) {
+            return -1;
+        }
+        this.position += ret;
+        return ret;
+    }
+
+    @Override
+    public long skip(long n) {
+        var ret = Math.max(0, Math.min(n, this.end - this.position));
+        this.position += ret;
+        return ret;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, this.end - this.position);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2022 Starwhale, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.starwhale.mlops.storage;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+
+/**
+ * The content of a region of a local file.
+ *
+ * <p>Besides reading it as a stream, the caller can transfer the region with {@link FileChannel#transferTo} or hand
+ * the file over to the web server, so the content is not copied through the heap.
+ */
+public class FileRegionInputStream extends LengthAbleInputStream {
+
+    private final FileChannel channel;
+
+    private final long position;
+
+    private final Path path;
+
+    /**
+     * @param channel  the channel of the file, closed when the stream is closed
+     * @param position the start of the region in the file
+     * @param size     the size of the region
+     * @param path     the path of the file, or null if the file may be removed or replaced while it is being read
+     */
+    public FileRegionInputStream(FileChannel channel, long position, long size, Path path) {
+        super(new FileChannelInputStream(channel, position, size), size);
+        this.channel = channel;
+        this.position = position;
+        this.path = path;
+    }
+
+    public FileChannel getChannel() {
+        return this.channel;
+    }
+
+    public long getPosition() {
+        return this.position;
+    }
+
+    /**
+     * @return the path of the file if it is safe to open the file again by the path, or null
+     */
+    public Path getPath() {
+        return this.path;
+    }
+
+    /**
+     * Transfer the whole region to the target with {@link FileChannel#transferTo}, regardless of what has been read
+     * from the stream.
+     *
+     * @return the number of bytes transferred
+     */
+    public long transferTo(WritableByteChannel target) throws IOException {
+        checkClosed();
+        var end = this.position + this.getSize();
+        var pos = this.position;
+        while (pos < end) {
+            var n = this.channel.transferTo(pos, end - pos, target);
+            if (n <= 0) {
+                // the file is truncated
+                if (pos >= this.channel.size()) {
+                    throw new IOException("unexpected end of file at " + pos);
+                }
+                continue;
+            }
+            pos += n;
+        }
+        return pos - this.position;
+    }
+}
@@ -16,8 +16,12 @@
 
 package ai.starwhale.mlops.storage;
 
+import ai.starwhale.mlops.storage.util.BatchHelper;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.stream.Stream;
 
 /**
@@ -54,4 +58,51 @@ public interface StorageAccessService {
     String signedUrl(String path, Long expTimeMillis) throws IOException;
 
     String signedPutUrl(String path, String contentType, Long expTimeMillis) throws IOException;
+
+    /**
+     * head the objects concurrently, the storages may override it with a batch api
+     *
+     * @param paths the keys of the objects
+     * @return the info of the objects in the order of the paths
+     */
+    default Map<String, StorageObjectInfo> headAll(Collection<String> paths) throws IOException {
+        return BatchHelper.map(paths, this::head);
+    }
+
+    /**
+     * delete the objects concurrently, the storages may override it with a batch api
+     *
+     * @param paths the keys of the objects
+     */
+    default void deleteAll(Collection<String> paths) throws IOException {
+        BatchHelper.map(paths, path -> {
+            this.delete(path);
+            return true;
+        });
+    }
+
+    /**
+     * return the pre-signed urls of the objects. The urls are signed locally by all the storages, so no request is
+     * sent.
+     *
+     * @param paths         the keys of the objects
+     * @param expTimeMillis the urls will expire after expTimeMillis
+     * @return the urls in the order of the paths
+     */
+    default Map<String, String> signAll(Collection<String> paths, Long expTimeMillis) throws IOException {
+        var ret = new LinkedHashMap<String, String>();
+        for (var path : paths) {
+            ret.put(path, this.signedUrl(path, expTimeMillis));
+        }
+        return ret;
+    }
+
+    default Map<String, String> signAllPut(Collection<String> paths, String contentType, Long expTimeMillis)
+            throws IOException {
+        var ret = new LinkedHashMap<String, String>();
+        for (var path : paths) {
+            ret.put(path, this.signedPutUrl(path, contentType, expTimeMillis));
+        }
+        return ret;
+    }
 }
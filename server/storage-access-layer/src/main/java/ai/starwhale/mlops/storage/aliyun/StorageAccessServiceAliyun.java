@@ -21,6 +21,9 @@ import ai.starwhale.mlops.storage.NopCloserInputStream;
 import ai.starwhale.mlops.storage.StorageAccessService;
 import ai.starwhale.mlops.storage.StorageObjectInfo;
 import ai.starwhale.mlops.storage.s3.S3Config;
+import ai.starwhale.mlops.storage.transfer.ByteBufferInputStream;
+import ai.starwhale.mlops.storage.transfer.ParallelTransfer;
+import ai.starwhale.mlops.storage.util.BatchHelper;
 import ai.starwhale.mlops.storage.util.MetaHelper;
 import com.aliyun.oss.ClientBuilderConfiguration;
 import com.aliyun.oss.HttpMethod;
@@ -30,6 +33,7 @@ import com.aliyun.oss.OSSErrorCode;
 import com.aliyun.oss.OSSException;
 import com.aliyun.oss.model.AbortMultipartUploadRequest;
 import com.aliyun.oss.model.CompleteMultipartUploadRequest;
+import com.aliyun.oss.model.DeleteObjectsRequest;
 import com.aliyun.oss.model.GeneratePresignedUrlRequest;
 import com.aliyun.oss.model.GetObjectRequest;
 import com.aliyun.oss.model.HeadObjectRequest;
@@ -38,15 +42,15 @@ import com.aliyun.oss.model.ListObjectsRequest;
 import com.aliyun.oss.model.OSSObjectSummary;
 import com.aliyun.oss.model.ObjectListing;
 import com.aliyun.oss.model.ObjectMetadata;
-import com.aliyun.oss.model.PartETag;
 import com.aliyun.oss.model.UploadPartRequest;
 import com.google.common.collect.Streams;
 import java.io.ByteArrayInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.LinkedHashSet;
 import java.util.stream.Stream;
 import lombok.extern.slf4j.Slf4j;
 
@@ -55,13 +59,13 @@ public class StorageAccessServiceAliyun implements StorageAccessService {
 
     private final String bucket;
 
-    private final long partSize;
+    private final ParallelTransfer transfer;
 
     private final OSS ossClient;
 
     public StorageAccessServiceAliyun(S3Config s3Config) {
         this.bucket = s3Config.getBucket();
-        this.partSize = s3Config.getHugeFilePartSize();
+        this.transfer = s3Config.createTransfer();
 
         var config = new ClientBuilderConfiguration();
         config.setRequestTimeoutEnabled(true);
@@ -110,24 +114,14 @@ public class StorageAccessServiceAliyun implements StorageAccessService {
         var uploadId = this.ossClient.initiateMultipartUpload(new InitiateMultipartUploadRequest(this.bucket, path))
                 .getUploadId();
         try {
-            var etagList = new ArrayList<PartETag>();
-            for (int i = 1; ; ++i) {
-                var data = inputStream.readNBytes((int) this.partSize);
-                if (data.length == 0) {
-                    break;
-                }
-                var resp = this.ossClient.uploadPart(new UploadPartRequest(
-                        this.bucket,
-                        path,
-                        uploadId,
-                        i,
-                        new ByteArrayInputStream(data),
-                        data.length));
-                etagList.add(resp.getPartETag());
-                if (data.length < this.partSize) {
-                    break;
-                }
-            }
+            var etagList = this.transfer.upload(inputStream, -1, (partNumber, data) -> this.ossClient.uploadPart(
+                    new UploadPartRequest(
+                            this.bucket,
+                            path,
+                            uploadId,
+                            partNumber,
+                            new ByteBufferInputStream(data),
+                            data.remaining())).getPartETag());
             this.ossClient.completeMultipartUpload(
                     new CompleteMultipartUploadRequest(this.bucket, path, uploadId, etagList));
         } catch (Throwable t) {
@@ -190,6 +184,14 @@ public class StorageAccessServiceAliyun implements StorageAccessService {
         this.ossClient.deleteObject(this.bucket, path);
     }
 
+    @Override
+    public void deleteAll(Collection<String> paths) throws IOException {
+        for (var keys : BatchHelper.partition(new LinkedHashSet<>(paths), BatchHelper.MAX_DELETE_KEYS)) {
+            // the keys that do not exist are treated as deleted
+            this.ossClient.deleteObjects(new DeleteObjectsRequest(this.bucket).withKeys(keys).withQuiet(true));
+        }
+    }
+
     @Override
     public String signedUrl(String path, Long expTimeMillis) {
         return ossClient.generatePresignedUrl(this.bucket, path, new Date(System.currentTimeMillis() + expTimeMillis))
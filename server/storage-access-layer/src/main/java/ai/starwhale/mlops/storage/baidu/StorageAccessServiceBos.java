@@ -22,6 +22,9 @@ import ai.starwhale.mlops.storage.LengthAbleInputStream;
 import ai.starwhale.mlops.storage.StorageAccessService;
 import ai.starwhale.mlops.storage.StorageObjectInfo;
 import ai.starwhale.mlops.storage.s3.S3Config;
+import ai.starwhale.mlops.storage.transfer.ByteBufferInputStream;
+import ai.starwhale.mlops.storage.transfer.ParallelTransfer;
+import ai.starwhale.mlops.storage.util.BatchHelper;
 import ai.starwhale.mlops.storage.util.MetaHelper;
 import com.baidubce.BceServiceException;
 import com.baidubce.auth.DefaultBceCredentials;
@@ -31,21 +34,23 @@ import com.baidubce.services.bos.BosClientConfiguration;
 import com.baidubce.services.bos.model.AbortMultipartUploadRequest;
 import com.baidubce.services.bos.model.BosObjectSummary;
 import com.baidubce.services.bos.model.CompleteMultipartUploadRequest;
+import com.baidubce.services.bos.model.DeleteMultipleObjectsRequest;
 import com.baidubce.services.bos.model.GeneratePresignedUrlRequest;
 import com.baidubce.services.bos.model.GetObjectRequest;
 import com.baidubce.services.bos.model.InitiateMultipartUploadRequest;
 import com.baidubce.services.bos.model.ListObjectsRequest;
 import com.baidubce.services.bos.model.ListObjectsResponse;
 import com.baidubce.services.bos.model.ObjectMetadata;
-import com.baidubce.services.bos.model.PartETag;
 import com.baidubce.services.bos.model.UploadPartRequest;
 import com.google.common.collect.Streams;
 import java.io.ByteArrayInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.Set;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import lombok.extern.slf4j.Slf4j;
 
@@ -54,7 +59,7 @@ public class StorageAccessServiceBos implements StorageAccessService {
 
     private final String bucket;
 
-    private final long partSize;
+    private final ParallelTransfer transfer;
 
     private final BosClient bosClient;
 
@@ -62,7 +67,7 @@ public class StorageAccessServiceBos implements StorageAccessService {
 
     public StorageAccessServiceBos(S3Config s3Config) {
         this.bucket = s3Config.getBucket();
-        this.partSize = s3Config.getHugeFilePartSize();
+        this.transfer = s3Config.createTransfer();
 
         var config = new BosClientConfiguration();
         config.setCredentials(new DefaultBceCredentials(s3Config.getAccessKey(), s3Config.getSecretKey()));
@@ -117,28 +122,17 @@ public class StorageAccessServiceBos implements StorageAccessService {
     public void put(String path, InputStream inputStream) throws IOException {
         var initReq = new InitiateMultipartUploadRequest(this.bucket, path);
         var uploadId = this.bosClient.initiateMultipartUpload(initReq).getUploadId();
-        var parts = new ArrayList<PartETag>();
         try {
-            for (int i = 1; ; i++) {
-                var data = inputStream.readNBytes((int) this.partSize);
-                if (data.length == 0) {
-                    break;
-                }
-
+            var parts = this.transfer.upload(inputStream, -1, (partNumber, data) -> {
                 var partReq = new UploadPartRequest()
                         .withBucketName(this.bucket)
                         .withKey(path)
                         .withUploadId(uploadId)
-                        .withInputStream(new ByteArrayInputStream(data))
-                        .withPartSize(data.length)
-                        .withPartNumber(i);
-                var partResp = this.bosClient.uploadPart(partReq);
-                parts.add(partResp.getPartETag());
-                if (data.length < this.partSize) {
-                    break;
-                }
-            }
-
+                        .withInputStream(new ByteBufferInputStream(data))
+                        .withPartSize(data.remaining())
+                        .withPartNumber(partNumber);
+                return this.bosClient.uploadPart(partReq).getPartETag();
+            });
             var req = new CompleteMultipartUploadRequest(this.bucket, path, uploadId, parts);
             this.bosClient.completeMultipartUpload(req);
         } catch (Throwable t) {
@@ -203,6 +197,28 @@ public class StorageAccessServiceBos implements StorageAccessService {
         this.bosClient.deleteObject(this.bucket, path);
     }
 
+    @Override
+    public void deleteAll(Collection<String> paths) throws IOException {
+        for (var keys : BatchHelper.partition(new LinkedHashSet<>(paths), BatchHelper.MAX_DELETE_KEYS)) {
+            var request = new DeleteMultipleObjectsRequest();
+            request.setBucketName(this.bucket);
+            request.setObjectKeys(keys);
+            var resp = this.bosClient.deleteMultipleObjects(request);
+            if (resp.getErrors() == null) {
+                continue;
+            }
+            // bos reports the keys that do not exist, which are deleted already
+            var errors = resp.getErrors().stream()
+                    .filter(error -> !"NoSuchKey".equals(error.getCode()))
+                    .collect(Collectors.toList());
+            if (!errors.isEmpty()) {
+                var error = errors.get(0);
+                throw new IOException(String.format("failed to delete %d objects, %s: %s %s",
+                        errors.size(), error.getKey(), error.getCode(), error.getMessage()));
+            }
+        }
+    }
+
     @Override
     public String signedUrl(String path, Long expTimeMillis) {
         // -1 means never expired
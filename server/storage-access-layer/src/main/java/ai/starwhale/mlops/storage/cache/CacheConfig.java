@@ -0,0 +1,67 @@
+/*
+ * Copyright 2022 Starwhale, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.starwhale.mlops.storage.cache;
+
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class CacheConfig {
+
+    private boolean enabled;
+
+    /**
+     * the local directory where the cached objects are stored
+     */
+    private String dir;
+
+    /**
+     * the max total size of the cached objects in bytes
+     */
+    private long maxSize;
+
+    /**
+     * objects larger than this are always read from the storage
+     */
+    private long maxObjectSize;
+
+    /**
+     * only the objects under one of these prefixes are cached
+     */
+    private List<Rule> rules;
+
+    @Data
+    @Builder
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class Rule {
+
+        private String prefix;
+
+        /**
+         * whether the objects under the prefix are never changed once written, e.g. blobs and hash named objects.
+         * The cached copies of mutable objects are validated against the etag of the object on each read.
+         */
+        private boolean immutable;
+    }
+}
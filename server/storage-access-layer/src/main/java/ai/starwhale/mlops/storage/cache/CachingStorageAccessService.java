@@ -0,0 +1,402 @@
+/*
+ * Copyright 2022 Starwhale, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.starwhale.mlops.storage.cache;
+
+import ai.starwhale.mlops.storage.FileRegionInputStream;
+import ai.starwhale.mlops.storage.LengthAbleInputStream;
+import ai.starwhale.mlops.storage.StorageAccessService;
+import ai.starwhale.mlops.storage.StorageObjectInfo;
+import com.google.common.util.concurrent.Striped;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * Keeps local copies of the objects read from the storage in a directory with a size limit.
+ *
+ * <p>A cached file is named by the hash of the object path, plus the hash of the etag if the object is mutable, so a
+ * changed object never hits a stale copy. Files are downloaded to a temporary file and moved into place atomically.
+ * The least recently used files are evicted when the total size exceeds the limit.
+ *
+ * <p>Only the objects under the configured prefixes are cached. Everything else goes to the storage directly.
+ */
+@Slf4j
+public class CachingStorageAccessService implements StorageAccessService {
+
+    private static final String OBJECT_DIR = "objects";
+
+    private static final String TEMP_DIR = "tmp";
+
+    private final StorageAccessService delegate;
+
+    // the longest prefix first
+    private final List<CacheConfig.Rule> rules;
+
+    private final long maxSize;
+
+    private final long maxObjectSize;
+
+    private final Path objectDir;
+
+    private final Path tempDir;
+
+    // access ordered, the eldest entry is the least recently used one
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long totalSize;
+
+    // the same object is downloaded only once at a time
+    private final Striped<Lock> loadLocks = Striped.lock(256);
+
+    @AllArgsConstructor
+    private static class Entry {
+
+        final String key;
+
+        // null for immutable objects
+        final String version;
+
+        final Path file;
+
+        final long size;
+    }
+
+    public CachingStorageAccessService(StorageAccessService delegate, CacheConfig config) {
+        if (config.getMaxSize() <= 0) {
+            throw new IllegalArgumentException("invalid cache size " + config.getMaxSize());
+        }
+        this.delegate = delegate;
+        this.rules = config.getRules() == null ? List.of() : config.getRules().stream()
+                .sorted(Comparator.comparingInt((CacheConfig.Rule rule) -> rule.getPrefix().length()).reversed())
+                .collect(Collectors.toList());
+        this.maxSize = config.getMaxSize();
+        this.maxObjectSize = config.getMaxObjectSize() > 0 ? config.getMaxObjectSize() : config.getMaxSize();
+        var dir = Path.of(config.getDir());
+        this.objectDir = dir.resolve(OBJECT_DIR);
+        this.tempDir = dir.resolve(TEMP_DIR);
+        try {
+            this.load();
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to load cache dir " + dir, e);
+        }
+    }
+
+    @Override
+    public StorageObjectInfo head(String path) throws IOException {
+        return this.delegate.head(path);
+    }
+
+    @Override
+    public StorageObjectInfo head(String path, boolean md5sum) throws IOException {
+        return this.delegate.head(path, md5sum);
+    }
+
+    @Override
+    public void put(String path, InputStream inputStream, long size) throws IOException {
+        this.delegate.put(path, inputStream, size);
+        this.invalidate(path);
+    }
+
+    @Override
+    public void put(String path, byte[] body) throws IOException {
+        this.delegate.put(path, body);
+        this.invalidate(path);
+    }
+
+    @Override
+    public void put(String path, InputStream inputStream) throws IOException {
+        this.delegate.put(path, inputStream);
+        this.invalidate(path);
+    }
+
+    @Override
+    public LengthAbleInputStream get(String path) throws IOException {
+        return this.read(path, null, null);
+    }
+
+    @Override
+    public LengthAbleInputStream get(String path, Long offset, Long size) throws IOException {
+        return this.read(path, offset == null ? 0L : offset, size);
+    }
+
+    @Override
+    public Stream<String> list(String path) throws IOException {
+        return this.delegate.list(path);
+    }
+
+    @Override
+    public void delete(String path) throws IOException {
+        this.delegate.delete(path);
+        this.invalidate(path);
+    }
+
+    @Override
+    public String signedUrl(String path, Long expTimeMillis) throws IOException {
+        return this.delegate.signedUrl(path, expTimeMillis);
+    }
+
+    @Override
+    public String signedPutUrl(String path, String contentType, Long expTimeMillis) throws IOException {
+        return this.delegate.signedPutUrl(path, contentType, expTimeMillis);
+    }
+
+    @Override
+    public Map<String, StorageObjectInfo> headAll(Collection<String> paths) throws IOException {
+        return this.delegate.headAll(paths);
+    }
+
+    @Override
+    public void deleteAll(Collection<String> paths) throws IOException {
+        this.delegate.deleteAll(paths);
+        paths.forEach(this::invalidate);
+    }
+
+    @Override
+    public Map<String, String> signAll(Collection<String> paths, Long expTimeMillis) throws IOException {
+        return this.delegate.signAll(paths, expTimeMillis);
+    }
+
+    @Override
+    public Map<String, String> signAllPut(Collection<String> paths, String contentType, Long expTimeMillis)
+            throws IOException {
+        return this.delegate.signAllPut(paths, contentType, expTimeMillis);
+    }
+
+    /**
+     * @param offset null to read the whole object
+     */
+    private LengthAbleInputStream read(String path, Long offset, Long size) throws IOException {
+        var rule = this.findRule(path);
+        if (rule == null) {
+            return this.readDirectly(path, offset, size);
+        }
+        var key = DigestUtils.sha256Hex(path);
+        StorageObjectInfo info = null;
+        String version = null;
+        if (!rule.isImmutable()) {
+            info = this.delegate.head(path, true);
+            version = info.isExists() ? versionOf(info) : null;
+            if (version == null) {
+                return this.readDirectly(path, offset, size);
+            }
+        }
+        var ret = this.openCached(key, version, offset, size);
+        if (ret != null) {
+            return ret;
+        }
+        if (offset != null) {
+            // do not download a huge object only to read a small range of it
+            if (info == null) {
+                info = this.delegate.head(path);
+            }
+            if (!info.isExists() || info.getContentLength() > this.maxObjectSize) {
+                return this.readDirectly(path, offset, size);
+            }
+        }
+        var lock = this.loadLocks.get(key);
+        lock.lock();
+        try {
+            ret = this.openCached(key, version, offset, size);
+            if (ret != null) {
+                return ret;
+            }
+            var in = this.delegate.get(path);
+            if (in.getSize() > this.maxObjectSize) {
+                if (offset == null) {
+                    return in;
+                }
+                in.close();
+                return this.readDirectly(path, offset, size);
+            }
+            try (in) {
+                this.download(key, version, in);
+            }
+        } finally {
+            lock.unlock();
+        }
+        ret = this.openCached(key, version, offset, size);
+        if (ret == null) {
+            // evicted already
+            return this.readDirectly(path, offset, size);
+        }
+        return ret;
+    }
+
+    private LengthAbleInputStream readDirectly(String path, Long offset, Long size) throws IOException {
+        if (offset == null) {
+            return this.delegate.get(path);
+        }
+        return this.delegate.get(path, offset, size);
+    }
+
+    private CacheConfig.Rule findRule(String path) {
+        for (var rule : this.rules) {
+            if (path.startsWith(rule.getPrefix())) {
+                return rule;
+            }
+        }
+        return null;
+    }
+
+    private static String versionOf(StorageObjectInfo info) {
+        if (info.getMd5sum() == null || info.getMd5sum().isEmpty()) {
+            return null;
+        }
+        return DigestUtils.sha256Hex(info.getMd5sum() + "/" + info.getContentLength()).substring(0, 16);
+    }
+
+    private LengthAbleInputStream openCached(String key, String version, Long offset, Long size) throws IOException {
+        Entry entry;
+        synchronized (this.entries) {
+            entry = this.entries.get(key);
+        }
+        if (entry == null || !Objects.equals(entry.version, version)) {
+            return null;
+        }
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(entry.file, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            log.warn("cached file {} is missing", entry.file);
+            this.remove(entry);
+            return null;
+        }
+        var start = offset == null || offset < 0 ? 0 : Math.min(offset, entry.size);
+        var length = size == null || size < 0 ? entry.size - start : Math.min(size, entry.size - start);
+        // the path is not exposed as the file may be evicted at any time
+        return new FileRegionInputStream(channel, start, length, null);
+    }
+
+    private void download(String key, String version, InputStream in) throws IOException {
+        var temp = Files.createTempFile(this.tempDir, key, null);
+        try {
+            long size;
+            try (var out = Files.newOutputStream(temp)) {
+                size = in.transferTo(out);
+            }
+            var file = this.objectDir.resolve(key.substring(0, 2)).resolve(version == null ? key : key + "." + version);
+            Files.createDirectories(file.getParent());
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            this.add(new Entry(key, version, file, size));
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private void add(Entry entry) {
+        var evicted = new ArrayList<Path>();
+        synchronized (this.entries) {
+            var old = this.entries.put(entry.key, entry);
+            if (old != null) {
+                this.totalSize -= old.size;
+                if (!old.file.equals(entry.file)) {
+                    evicted.add(old.file);
+                }
+            }
+            this.totalSize += entry.size;
+            var it = this.entries.values().iterator();
+            while (this.totalSize > this.maxSize && it.hasNext()) {
+                var eldest = it.next();
+                it.remove();
+                this.totalSize -= eldest.size;
+                evicted.add(eldest.file);
+            }
+        }
+        // the readers still holding the evicted files can go on reading them
+        evicted.forEach(CachingStorageAccessService::deleteFile);
+    }
+
+    private void remove(Entry entry) {
+        synchronized (this.entries) {
+            if (!this.entries.remove(entry.key, entry)) {
+                return;
+            }
+            this.totalSize -= entry.size;
+        }
+        deleteFile(entry.file);
+    }
+
+    private void invalidate(String path) {
+        if (this.findRule(path) == null) {
+            return;
+        }
+        Entry entry;
+        synchronized (this.entries) {
+            entry = this.entries.get(DigestUtils.sha256Hex(path));
+        }
+        if (entry != null) {
+            this.remove(entry);
+        }
+    }
+
+    private static void deleteFile(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("failed to delete cached file {}", file, e);
+        }
+    }
+
+    private void load() throws IOException {
+        Files.createDirectories(this.objectDir);
+        Files.createDirectories(this.tempDir);
+        // the temporary files are left by the downloads that are interrupted
+        try (var files = Files.list(this.tempDir)) {
+            files.forEach(CachingStorageAccessService::deleteFile);
+        }
+        List<Path> files;
+        try (var stream = Files.walk(this.objectDir, 2)) {
+            files = stream.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+        var loaded = new ArrayList<Entry>();
+        for (var file : files) {
+            var name = file.getFileName().toString();
+            var index = name.indexOf('.');
+            var key = index < 0 ? name : name.substring(0, index);
+            var version = index < 0 ? null : name.substring(index + 1);
+            loaded.add(new Entry(key, version, file, Files.size(file)));
+        }
+        // the least recently written first as the access time is not recorded
+        var modified = new HashMap<Path, Long>();
+        for (var entry : loaded) {
+            modified.put(entry.file, Files.getLastModifiedTime(entry.file).toMillis());
+        }
+        loaded.sort(Comparator.comparing(entry -> modified.get(entry.file)));
+        loaded.forEach(this::add);
+        log.info("{} objects loaded from the cache dir, {} bytes in total", this.entries.size(), this.totalSize);
+    }
+}
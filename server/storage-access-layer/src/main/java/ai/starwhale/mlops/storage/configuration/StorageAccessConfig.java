@@ -25,6 +25,7 @@ import ai.starwhale.mlops.storage.autofit.minio.CompatibleStorageAccessServiceBu
 import ai.starwhale.mlops.storage.autofit.qcloud.CompatibleStorageAccessServiceBuilderQcloud;
 import ai.starwhale.mlops.storage.autofit.s3.CompatibleStorageAccessServiceBuilderS3;
 import ai.starwhale.mlops.storage.baidu.StorageAccessServiceBos;
+import ai.starwhale.mlops.storage.cache.CachingStorageAccessService;
 import ai.starwhale.mlops.storage.fs.StorageAccessServiceFile;
 import ai.starwhale.mlops.storage.memory.StorageAccessServiceMemory;
 import ai.starwhale.mlops.storage.minio.StorageAccessServiceMinio;
@@ -72,42 +73,51 @@ public class StorageAccessConfig {
     @Bean
     @ConditionalOnProperty(prefix = "sw.storage", name = "type", havingValue = "fs")
     public StorageAccessService fs(StorageProperties storageProperties) {
-        return new StorageAccessServiceFile(storageProperties.getFsConfig());
+        return withCache(storageProperties, new StorageAccessServiceFile(storageProperties.getFsConfig()));
     }
 
     @Bean
     @ConditionalOnProperty(prefix = "sw.storage", name = "type", havingValue = "s3")
     public StorageAccessService s3(StorageProperties storageProperties) {
-        return new StorageAccessServiceS3(storageProperties.getS3Config());
+        return withCache(storageProperties, new StorageAccessServiceS3(storageProperties.getS3Config()));
     }
 
     @Bean
     @ConditionalOnProperty(prefix = "sw.storage", name = "type", havingValue = "aliyun")
     public StorageAccessService aliyun(StorageProperties storageProperties) {
-        return new StorageAccessServiceAliyun(storageProperties.getS3Config());
+        return withCache(storageProperties, new StorageAccessServiceAliyun(storageProperties.getS3Config()));
     }
 
     @Bean
     @ConditionalOnProperty(prefix = "sw.storage", name = "type", havingValue = "tencent")
     public StorageAccessService qcloud(StorageProperties storageProperties) {
-        return new StorageAccessServiceQcloud(storageProperties.getS3Config());
+        return withCache(storageProperties, new StorageAccessServiceQcloud(storageProperties.getS3Config()));
     }
 
     @Bean
     @ConditionalOnProperty(prefix = "sw.storage", name = "type", havingValue = "baidu")
     public StorageAccessService bos(StorageProperties storageProperties) {
-        return new StorageAccessServiceBos(storageProperties.getS3Config());
+        return withCache(storageProperties, new StorageAccessServiceBos(storageProperties.getS3Config()));
     }
 
     @Bean
     @ConditionalOnProperty(prefix = "sw.storage", name = "type", havingValue = "minio", matchIfMissing = true)
     public StorageAccessService minio(StorageProperties storageProperties) {
-        return new StorageAccessServiceMinio(storageProperties.getS3Config());
+        return withCache(storageProperties, new StorageAccessServiceMinio(storageProperties.getS3Config()));
     }
 
     @Bean
     @ConditionalOnProperty(prefix = "sw.storage", name = "type", havingValue = "memory")
     public StorageAccessService memory(StorageProperties storageProperties) {
-        return new StorageAccessServiceMemory();
+        return withCache(storageProperties, new StorageAccessServiceMemory());
+    }
+
+    private static StorageAccessService withCache(StorageProperties storageProperties,
+            StorageAccessService storageAccessService) {
+        var cacheConfig = storageProperties.getCacheConfig();
+        if (cacheConfig == null || !cacheConfig.isEnabled()) {
+            return storageAccessService;
+        }
+        return new CachingStorageAccessService(storageAccessService, cacheConfig);
     }
 }
@@ -16,6 +16,7 @@
 
 package ai.starwhale.mlops.storage.configuration;
 
+import ai.starwhale.mlops.storage.cache.CacheConfig;
 import ai.starwhale.mlops.storage.fs.FsConfig;
 import ai.starwhale.mlops.storage.s3.S3Config;
 import lombok.AllArgsConstructor;
@@ -39,4 +40,7 @@ public class StorageProperties {
     @NestedConfigurationProperty
     FsConfig fsConfig;
 
+    @NestedConfigurationProperty
+    CacheConfig cacheConfig;
+
 }
@@ -16,10 +16,10 @@
 
 package ai.starwhale.mlops.storage.fs;
 
+import ai.starwhale.mlops.storage.FileRegionInputStream;
 import ai.starwhale.mlops.storage.LengthAbleInputStream;
 import ai.starwhale.mlops.storage.StorageAccessService;
 import ai.starwhale.mlops.storage.StorageObjectInfo;
-import com.google.common.io.ByteStreams;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -27,11 +27,11 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.RandomAccessFile;
-import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.Spliterator;
 import java.util.Spliterators;
 import java.util.stream.Stream;
@@ -109,11 +109,7 @@ public class StorageAccessServiceFile implements StorageAccessService {
 
     @Override
     public LengthAbleInputStream get(String path) throws IOException {
-        var f = new File(this.rootDir, path);
-        if (!f.exists()) {
-            throw new FileNotFoundException(f.getAbsolutePath());
-        }
-        return new LengthAbleInputStream(new FileInputStream(f), f.length());
+        return this.get(path, 0L, -1L);
     }
 
     @Override
@@ -121,14 +117,16 @@ public class StorageAccessServiceFile implements StorageAccessService {
         if (offset == null || offset < 0) {
             offset = 0L;
         }
-        if (size == null || size < 0) {
-            size = -1L;
+        var f = new File(this.rootDir, path);
+        if (!f.isFile()) {
+            throw new FileNotFoundException(f.getAbsolutePath());
+        }
+        var channel = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+        var length = Math.max(0, channel.size() - offset);
+        if (size != null && size >= 0) {
+            length = Math.min(length, size);
         }
-        var f = new RandomAccessFile(new File(this.rootDir, path), "r");
-        f.seek(offset);
-        //noinspection UnstableApiUsage
-        var is = ByteStreams.limit(Channels.newInputStream(f.getChannel()), size);
-        return new LengthAbleInputStream(is, size);
+        return new FileRegionInputStream(channel, offset, length, f.toPath());
     }
 
     @Override
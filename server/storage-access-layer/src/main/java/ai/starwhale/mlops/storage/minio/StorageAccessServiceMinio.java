@@ -20,6 +20,7 @@ import ai.starwhale.mlops.storage.LengthAbleInputStream;
 import ai.starwhale.mlops.storage.StorageAccessService;
 import ai.starwhale.mlops.storage.StorageObjectInfo;
 import ai.starwhale.mlops.storage.s3.S3Config;
+import ai.starwhale.mlops.storage.transfer.ParallelTransfer;
 import ai.starwhale.mlops.storage.util.MetaHelper;
 import io.minio.GetObjectArgs;
 import io.minio.GetObjectResponse;
@@ -28,11 +29,15 @@ import io.minio.ListObjectsArgs;
 import io.minio.MinioClient;
 import io.minio.PutObjectArgs;
 import io.minio.RemoveObjectArgs;
+import io.minio.RemoveObjectsArgs;
+import io.minio.Result;
 import io.minio.StatObjectArgs;
 import io.minio.StatObjectResponse;
 import io.minio.errors.ErrorResponseException;
 import io.minio.errors.MinioException;
 import io.minio.http.Method;
+import io.minio.messages.DeleteError;
+import io.minio.messages.DeleteObject;
 import java.io.ByteArrayInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -40,8 +45,11 @@ import java.io.InputStream;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import lombok.extern.slf4j.Slf4j;
 
@@ -52,11 +60,18 @@ public class StorageAccessServiceMinio implements StorageAccessService {
 
     private final long partSize;
 
+    private final long hugeFileThreshold;
+
+    // the client uploads the parts by itself, the transfer is for the parallel ranged reads only
+    private final ParallelTransfer transfer;
+
     private final MinioClient minioClient;
 
     public StorageAccessServiceMinio(S3Config s3Config) {
         this.bucket = s3Config.getBucket();
         this.partSize = s3Config.getHugeFilePartSize();
+        this.hugeFileThreshold = s3Config.getHugeFileThreshold();
+        this.transfer = s3Config.createTransfer();
         minioClient =
                 MinioClient.builder()
                         .endpoint(s3Config.getEndpoint())
@@ -135,6 +150,11 @@ public class StorageAccessServiceMinio implements StorageAccessService {
         if (!objectInfo.isExists()) {
             throw new FileNotFoundException(path);
         }
+        var size = objectInfo.getContentLength();
+        if (this.hugeFileThreshold > 0 && size >= this.hugeFileThreshold && this.transfer.getParallelism() > 1) {
+            return new LengthAbleInputStream(
+                    this.transfer.download(size, null, (offset, length) -> this.get(path, offset, length)), size);
+        }
         try {
             GetObjectResponse resp = this.minioClient.getObject(GetObjectArgs.builder()
                     .bucket(this.bucket)
@@ -197,6 +217,26 @@ public class StorageAccessServiceMinio implements StorageAccessService {
         }
     }
 
+    @Override
+    public void deleteAll(Collection<String> paths) throws IOException {
+        var objects = new LinkedHashSet<>(paths).stream().map(DeleteObject::new).collect(Collectors.toList());
+        // the client splits the objects into batches of 1000 and sends them lazily while the results are iterated
+        var results = this.minioClient.removeObjects(
+                RemoveObjectsArgs.builder().bucket(this.bucket).objects(objects).build());
+        try {
+            for (Result<DeleteError> result : results) {
+                var error = result.get();
+                throw new IOException(String.format("failed to delete %s: %s %s",
+                        error.objectName(), error.code(), error.message()));
+            }
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("delete objects fails", e);
+            throw new IOException(e);
+        }
+    }
+
     @Override
     public String signedUrl(String path, Long expTimeMillis) throws IOException {
         return this.signUrl(path, expTimeMillis, Method.GET);
@@ -22,6 +22,9 @@ import ai.starwhale.mlops.storage.LengthAbleInputStream;
 import ai.starwhale.mlops.storage.StorageAccessService;
 import ai.starwhale.mlops.storage.StorageObjectInfo;
 import ai.starwhale.mlops.storage.s3.S3Config;
+import ai.starwhale.mlops.storage.transfer.ByteBufferInputStream;
+import ai.starwhale.mlops.storage.transfer.ParallelTransfer;
+import ai.starwhale.mlops.storage.util.BatchHelper;
 import ai.starwhale.mlops.storage.util.MetaHelper;
 import com.google.common.collect.Streams;
 import com.qcloud.cos.COSClient;
@@ -34,21 +37,23 @@ import com.qcloud.cos.http.HttpProtocol;
 import com.qcloud.cos.model.AbortMultipartUploadRequest;
 import com.qcloud.cos.model.COSObjectSummary;
 import com.qcloud.cos.model.CompleteMultipartUploadRequest;
+import com.qcloud.cos.model.DeleteObjectsRequest;
 import com.qcloud.cos.model.GeneratePresignedUrlRequest;
 import com.qcloud.cos.model.GetObjectRequest;
 import com.qcloud.cos.model.InitiateMultipartUploadRequest;
 import com.qcloud.cos.model.ListObjectsRequest;
 import com.qcloud.cos.model.ObjectListing;
 import com.qcloud.cos.model.ObjectMetadata;
-import com.qcloud.cos.model.PartETag;
 import com.qcloud.cos.model.UploadPartRequest;
 import com.qcloud.cos.region.Region;
 import java.io.ByteArrayInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.util.StringUtils;
@@ -58,13 +63,13 @@ public class StorageAccessServiceQcloud implements StorageAccessService {
 
     private final String bucket;
 
-    private final long partSize;
+    private final ParallelTransfer transfer;
 
     private final COSClient cosClient;
 
     public StorageAccessServiceQcloud(S3Config s3Config) {
         this.bucket = s3Config.getBucket();
-        this.partSize = s3Config.getHugeFilePartSize();
+        this.transfer = s3Config.createTransfer();
 
         // https://cloud.tencent.com/document/product/436/10199
         var cred = new BasicCOSCredentials(s3Config.getAccessKey(), s3Config.getSecretKey());
@@ -138,28 +143,17 @@ public class StorageAccessServiceQcloud implements StorageAccessService {
     public void put(String path, InputStream inputStream) throws IOException {
         var initReq = new InitiateMultipartUploadRequest(this.bucket, path);
         var uploadId = this.cosClient.initiateMultipartUpload(initReq).getUploadId();
-        var parts = new ArrayList<PartETag>();
         try {
-            for (int i = 1; ; i++) {
-                var data = inputStream.readNBytes((int) this.partSize);
-                if (data.length == 0) {
-                    break;
-                }
-
+            var parts = this.transfer.upload(inputStream, -1, (partNumber, data) -> {
                 var partReq = new UploadPartRequest()
                         .withBucketName(this.bucket)
                         .withKey(path)
                         .withUploadId(uploadId)
-                        .withInputStream(new ByteArrayInputStream(data))
-                        .withPartSize(data.length)
-                        .withPartNumber(i);
-                var partResp = this.cosClient.uploadPart(partReq);
-                parts.add(partResp.getPartETag());
-                if (data.length < this.partSize) {
-                    break;
-                }
-            }
-
+                        .withInputStream(new ByteBufferInputStream(data))
+                        .withPartSize(data.remaining())
+                        .withPartNumber(partNumber);
+                return this.cosClient.uploadPart(partReq).getPartETag();
+            });
             var req = new CompleteMultipartUploadRequest(this.bucket, path, uploadId, parts);
             this.cosClient.completeMultipartUpload(req);
         } catch (Throwable t) {
@@ -227,6 +221,17 @@ public class StorageAccessServiceQcloud implements StorageAccessService {
         this.cosClient.deleteObject(this.bucket, path);
     }
 
+    @Override
+    public void deleteAll(Collection<String> paths) throws IOException {
+        for (var keys : BatchHelper.partition(new LinkedHashSet<>(paths), BatchHelper.MAX_DELETE_KEYS)) {
+            var request = new DeleteObjectsRequest(this.bucket);
+            request.setQuiet(true);
+            request.setKeys(keys.stream().map(DeleteObjectsRequest.KeyVersion::new).collect(Collectors.toList()));
+            // MultiObjectDeleteException is thrown if any of the keys fails
+            this.cosClient.deleteObjects(request);
+        }
+    }
+
     @Override
     public String signedUrl(String path, Long expTimeMillis) {
         var expiration = new Date(System.currentTimeMillis() + expTimeMillis);
@@ -16,7 +16,7 @@
 
 package ai.starwhale.mlops.storage.s3;
 
-
+import ai.starwhale.mlops.storage.transfer.ParallelTransfer;
 import java.util.Map;
 import lombok.AllArgsConstructor;
 import lombok.Data;
@@ -36,6 +36,9 @@ public class S3Config {
     private String endpoint;
     private long hugeFileThreshold;
     private long hugeFilePartSize;
+    // the number of parts transferred at the same time
+    private int transferParallelism;
+    private int transferMaxRetries;
 
     public S3Config(Map<String, String> tokens) {
         this.bucket = tokens.get("bucket");
@@ -45,6 +48,15 @@ public class S3Config {
         this.region = tokens.get("region");
         this.hugeFileThreshold = Long.parseLong(tokens.get("hugeFileThreshold"));
         this.hugeFilePartSize = Long.parseLong(tokens.get("hugeFilePartSize"));
+        this.transferParallelism = Integer.parseInt(tokens.getOrDefault("transferParallelism", "1"));
+        this.transferMaxRetries = Integer.parseInt(tokens.getOrDefault("transferMaxRetries", "0"));
+    }
+
+    public ParallelTransfer createTransfer() {
+        // 5MB is the minimum part size of the s3 compatible services
+        return new ParallelTransfer(this.hugeFilePartSize > 0 ? this.hugeFilePartSize : 5 * 1024 * 1024,
+                this.transferParallelism,
+                this.transferMaxRetries);
     }
 
     public boolean overWriteEndPoint() {
@@ -19,21 +19,28 @@ package ai.starwhale.mlops.storage.s3;
 import ai.starwhale.mlops.storage.LengthAbleInputStream;
 import ai.starwhale.mlops.storage.StorageAccessService;
 import ai.starwhale.mlops.storage.StorageObjectInfo;
+import ai.starwhale.mlops.storage.transfer.ByteBufferInputStream;
+import ai.starwhale.mlops.storage.transfer.ParallelTransfer;
+import ai.starwhale.mlops.storage.util.BatchHelper;
 import ai.starwhale.mlops.storage.util.MetaHelper;
 import com.google.common.collect.Streams;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.net.URI;
 import java.time.Duration;
-import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.compress.utils.BoundedInputStream;
 import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.core.exception.SdkException;
 import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.S3Client;
@@ -44,15 +51,20 @@ import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
 import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
 import software.amazon.awssdk.services.s3.model.CompletedPart;
 import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.Delete;
 import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
 import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
 import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
 import software.amazon.awssdk.services.s3.model.ListMultipartUploadsRequest;
 import software.amazon.awssdk.services.s3.model.ListObjectsRequest;
 import software.amazon.awssdk.services.s3.model.ListObjectsResponse;
 import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
 import software.amazon.awssdk.services.s3.model.S3Object;
 import software.amazon.awssdk.services.s3.model.UploadPartRequest;
 import software.amazon.awssdk.services.s3.presigner.S3Presigner;
@@ -69,12 +81,20 @@ public class StorageAccessServiceS3 implements StorageAccessService {
 
     final S3Presigner s3Presigner;
 
+    final ParallelTransfer transfer;
+
     public StorageAccessServiceS3(S3Config s3Config) {
+        this(s3Config, ClientOverrideConfiguration.builder().build());
+    }
+
+    StorageAccessServiceS3(S3Config s3Config, ClientOverrideConfiguration overrideConfiguration) {
         this.s3Config = s3Config;
+        this.transfer = s3Config.createTransfer();
         AwsBasicCredentials awsCreds = AwsBasicCredentials.create(s3Config.getAccessKey(), s3Config.getSecretKey());
         S3ClientBuilder s3ClientBuilder = S3Client.builder()
                 .credentialsProvider(StaticCredentialsProvider.create(awsCreds))
-                .region(Region.of(s3Config.getRegion()));
+                .region(Region.of(s3Config.getRegion()))
+                .overrideConfiguration(overrideConfiguration);
         if (s3Config.overWriteEndPoint()) {
             s3ClientBuilder.endpointOverride(URI.create(s3Config.getEndpoint()));
         }
@@ -140,77 +160,33 @@ public class StorageAccessServiceS3 implements StorageAccessService {
                     RequestBody.fromInputStream(inputStream, size));
             return;
         }
-        var uploadId = this.s3client.createMultipartUpload(CreateMultipartUploadRequest.builder()
-                        .bucket(this.s3Config.getBucket())
-                        .key(path)
-                        .build())
-                .uploadId();
-        try {
-            var etagList = new ArrayList<String>();
-            for (int i = 1; size > 0; ++i) {
-                var partSize = Math.min(size, this.s3Config.getHugeFilePartSize());
-                var resp = this.s3client.uploadPart(UploadPartRequest.builder()
-                                .bucket(this.s3Config.getBucket())
-                                .key(path)
-                                .uploadId(uploadId)
-                                .partNumber(i)
-                                .contentLength(partSize)
-                                .build(),
-                        RequestBody.fromInputStream(new BoundedInputStream(inputStream, partSize), partSize));
-                size -= partSize;
-                etagList.add(resp.eTag());
-            }
-            this.s3client.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
-                    .bucket(this.s3Config.getBucket())
-                    .key(path)
-                    .uploadId(uploadId)
-                    .multipartUpload(CompletedMultipartUpload.builder()
-                            .parts(IntStream.range(0, etagList.size())
-                                    .mapToObj(i -> CompletedPart.builder()
-                                            .partNumber(i + 1)
-                                            .eTag(etagList.get(i))
-                                            .build())
-                                    .collect(Collectors.toList()))
-                            .build())
-                    .build());
-        } catch (Throwable t) {
-            log.error("multipart file upload aborted", t);
-            this.s3client.abortMultipartUpload(AbortMultipartUploadRequest.builder()
-                    .bucket(this.s3Config.getBucket())
-                    .key(path)
-                    .uploadId(uploadId)
-                    .build());
-            throw new IOException(t);
-        }
+        this.multipartUpload(path, inputStream, size);
     }
 
     @Override
     public void put(String path, InputStream inputStream) throws IOException {
+        this.multipartUpload(path, inputStream, -1);
+    }
+
+    private void multipartUpload(String path, InputStream inputStream, long size) throws IOException {
         var uploadId = this.s3client.createMultipartUpload(CreateMultipartUploadRequest.builder()
                         .bucket(this.s3Config.getBucket())
                         .key(path)
                         .build())
                 .uploadId();
         try {
-            var etagList = new ArrayList<String>();
-            for (int i = 1; ; ++i) {
-                var data = inputStream.readNBytes((int) this.s3Config.getHugeFilePartSize());
-                if (data.length == 0) {
-                    break;
-                }
-                var resp = this.s3client.uploadPart(UploadPartRequest.builder()
-                                .bucket(this.s3Config.getBucket())
-                                .key(path)
-                                .uploadId(uploadId)
-                                .partNumber(i)
-                                .contentLength((long) data.length)
-                                .build(),
-                        RequestBody.fromBytes(data));
-                etagList.add(resp.eTag());
-                if (data.length < this.s3Config.getHugeFilePartSize()) {
-                    break;
-                }
-            }
+            var etagList = this.transfer.upload(inputStream, size, (partNumber, data) -> this.s3client.uploadPart(
+                    UploadPartRequest.builder()
+                            .bucket(this.s3Config.getBucket())
+                            .key(path)
+                            .uploadId(uploadId)
+                            .partNumber(partNumber)
+                            .contentLength((long) data.remaining())
+                            .build(),
+                    // the part is streamed from the buffer, which can be read again on retries
+                    RequestBody.fromContentProvider(() -> new ByteBufferInputStream(data),
+                            data.remaining(),
+                            "application/octet-stream")).eTag());
             this.s3client.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
                     .bucket(this.s3Config.getBucket())
                     .key(path)
@@ -245,6 +221,9 @@ public class StorageAccessServiceS3 implements StorageAccessService {
     @Override
     public LengthAbleInputStream get(String path) throws IOException {
         try {
+            if (this.s3Config.getHugeFileThreshold() > 0 && this.transfer.getParallelism() > 1) {
+                return this.parallelGet(path);
+            }
             var req = GetObjectRequest.builder().bucket(s3Config.getBucket()).key(path).build();
             var resp = s3client.getObject(req);
             return new LengthAbleInputStream(resp, resp.response().contentLength());
@@ -260,6 +239,67 @@ public class StorageAccessServiceS3 implements StorageAccessService {
     //bytes=0-10098
     static final String RANGE_FORMAT = "bytes=%d-%d";
 
+    //bytes=10099-
+    static final String OPEN_RANGE_FORMAT = "bytes=%d-";
+
+    /**
+     * Read the first part and learn the object size from the content range, so that objects fitting in a part take
+     * one request as before. The rest of an object below the huge file threshold is read with one more request, and
+     * the rest of a huge object is read in parallel.
+     */
+    private LengthAbleInputStream parallelGet(String path) throws IOException {
+        ResponseInputStream<GetObjectResponse> first;
+        try {
+            first = this.s3client.getObject(GetObjectRequest.builder()
+                    .bucket(this.s3Config.getBucket())
+                    .key(path)
+                    .range(String.format(RANGE_FORMAT, 0, this.transfer.getPartSize() - 1))
+                    .build());
+        } catch (S3Exception e) {
+            if (e.statusCode() != 416) {
+                throw e;
+            }
+            // empty objects do not satisfy any range
+            var resp = this.s3client.getObject(GetObjectRequest.builder()
+                    .bucket(this.s3Config.getBucket())
+                    .key(path)
+                    .build());
+            return new LengthAbleInputStream(resp, resp.response().contentLength());
+        }
+        var contentRange = first.response().contentRange();
+        var size = contentRange == null
+                ? first.response().contentLength()
+                : Long.parseLong(contentRange.substring(contentRange.lastIndexOf('/') + 1));
+        if (size <= this.transfer.getPartSize()) {
+            return new LengthAbleInputStream(first, first.response().contentLength());
+        }
+        if (size < this.s3Config.getHugeFileThreshold()) {
+            ResponseInputStream<GetObjectResponse> rest;
+            try {
+                rest = this.s3client.getObject(GetObjectRequest.builder()
+                        .bucket(this.s3Config.getBucket())
+                        .key(path)
+                        .range(String.format(OPEN_RANGE_FORMAT, this.transfer.getPartSize()))
+                        .build());
+            } catch (RuntimeException e) {
+                first.abort();
+                throw e;
+            }
+            return new LengthAbleInputStream(new SequenceInputStream(first, rest), size);
+        }
+        return new LengthAbleInputStream(this.transfer.download(size, first, (offset, length) -> {
+            try {
+                return this.s3client.getObject(GetObjectRequest.builder()
+                        .bucket(this.s3Config.getBucket())
+                        .key(path)
+                        .range(String.format(RANGE_FORMAT, offset, offset + length - 1))
+                        .build());
+            } catch (SdkException e) {
+                throw new IOException(e);
+            }
+        }), size);
+    }
+
     @Override
     public LengthAbleInputStream get(String path, Long offset, Long size) throws IOException {
         if (null == offset || null == size || offset < 0 || size <= 0) {
@@ -306,6 +346,26 @@ public class StorageAccessServiceS3 implements StorageAccessService {
                 .build());
     }
 
+    @Override
+    public void deleteAll(Collection<String> paths) throws IOException {
+        for (var keys : BatchHelper.partition(new LinkedHashSet<>(paths), BatchHelper.MAX_DELETE_KEYS)) {
+            var resp = s3client.deleteObjects(DeleteObjectsRequest.builder()
+                    .bucket(s3Config.getBucket())
+                    .delete(Delete.builder()
+                            .objects(keys.stream()
+                                    .map(key -> ObjectIdentifier.builder().key(key).build())
+                                    .collect(Collectors.toList()))
+                            .quiet(true)
+                            .build())
+                    .build());
+            if (resp.hasErrors() && !resp.errors().isEmpty()) {
+                var error = resp.errors().get(0);
+                throw new IOException(String.format("failed to delete %d objects, %s: %s %s",
+                        resp.errors().size(), error.key(), error.code(), error.message()));
+            }
+        }
+    }
+
     @Override
     public String signedUrl(String path, Long expTimeMillis) {
         return s3Presigner.presignGetObject(GetObjectPresignRequest.builder()
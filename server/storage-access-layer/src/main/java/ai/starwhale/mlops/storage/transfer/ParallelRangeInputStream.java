@@ -0,0 +1,153 @@
+/*
+ * Copyright 2022 Starwhale, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.starwhale.mlops.storage.transfer;
+
+import ai.starwhale.mlops.storage.transfer.ParallelTransfer.RangeReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Reads an object sequentially while the following parts are read in parallel with ranged reads.
+ *
+ * <p>At most {@link ParallelTransfer#getParallelism()} parts are read ahead of the current one.
+ */
+class ParallelRangeInputStream extends InputStream {
+
+    private final ParallelTransfer transfer;
+
+    private final long size;
+
+    private final RangeReader reader;
+
+    private final long partCount;
+
+    private final Deque<Future<byte[]>> prefetched = new ArrayDeque<>();
+
+    // the first part read by the caller already, or null
+    private InputStream firstPart;
+
+    private long nextPart;
+
+    private byte[] current;
+
+    private int currentPos;
+
+    private boolean closed;
+
+    ParallelRangeInputStream(ParallelTransfer transfer, long size, InputStream firstPart, RangeReader reader) {
+        this.transfer = transfer;
+        this.size = size;
+        this.reader = reader;
+        this.partCount = (size + transfer.getPartSize() - 1) / transfer.getPartSize();
+        this.firstPart = firstPart;
+        this.nextPart = firstPart == null ? 0 : 1;
+        this.prefetch();
+    }
+
+    @Override
+    public int read() throws IOException {
+        var b = new byte[1];
+        var ret = this.read(b, 0, 1);
+        return ret < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (this.closed) {
+            throw new IOException("stream closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        for (; ; ) {
+            if (this.firstPart != null) {
+                var ret = this.firstPart.read(b, off, len);
+                if (ret >= 0) {
+                    return ret;
+                }
+                this.firstPart.close();
+                this.firstPart = null;
+            }
+            if (this.current != null && this.currentPos < this.current.length) {
+                var ret = Math.min(len, this.current.length - this.currentPos);
+                System.arraycopy(this.current, this.currentPos, b, off, ret);
+                this.currentPos += ret;
+                return ret;
+            }
+            var future = this.prefetched.poll();
+            if (future == null) {
+                return -1;
+            }
+            try {
+                this.current = future.get();
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            this.currentPos = 0;
+            this.prefetch();
+        }
+    }
+
+    @Override
+    public int available() {
+        return this.current == null ? 0 : this.current.length - this.currentPos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        this.prefetched.forEach(f -> f.cancel(true));
+        this.prefetched.clear();
+        this.current = null;
+        if (this.firstPart != null) {
+            this.firstPart.close();
+            this.firstPart = null;
+        }
+    }
+
+    private void prefetch() {
+        var partSize = this.transfer.getPartSize();
+        while (this.prefetched.size() < this.transfer.getParallelism() && this.nextPart < this.partCount) {
+            var offset = this.nextPart * partSize;
+            var length = (int) Math.min(partSize, this.size - offset);
+            this.prefetched.add(this.transfer.submit(() -> this.transfer.withRetry(
+                    () -> this.readPart(offset, length), "read range " + offset + "+" + length)));
+            ++this.nextPart;
+        }
+    }
+
+    private byte[] readPart(long offset, int length) throws IOException {
+        try (var in = this.reader.read(offset, length)) {
+            var data = in.readNBytes(length);
+            if (data.length < length) {
+                throw new IOException("unexpected end of range " + offset + "+" + length);
+            }
+            return data;
+        }
+    }
+}
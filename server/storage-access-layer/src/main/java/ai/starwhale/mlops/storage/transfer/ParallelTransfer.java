@@ -0,0 +1,260 @@
+/*
+ * Copyright 2022 Starwhale, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.starwhale.mlops.storage.transfer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Transfers large objects part by part with a number of parts in flight at the same time.
+ *
+ * <p>It is independent of the storage SDKs. The storage implementations provide the calls to upload a part or to read
+ * a range of an object, and the transfer takes care of the concurrency, the buffers and the retries.
+ *
+ * <p>Uploads read the parts into direct buffers from a bounded pool, so the memory used by uploads is limited no matter
+ * how many of them are running: all the uploads of a storage share parallelism + 1 buffers and upload at most
+ * parallelism parts at the same time. Downloads
+ * are bounded per stream instead, every stream prefetches at most parallelism parts into buffers owned by itself, so
+ * a download is not slowed down by the others. The threads are created on demand for the parts in flight.
+ */
+@Slf4j
+public class ParallelTransfer {
+
+    @FunctionalInterface
+    public interface PartUploader<T> {
+
+        /**
+         * Upload a part. It may be called again with the same data if it fails.
+         *
+         * @param partNumber part number starting from 1
+         * @param data the content of the part, owned by the caller during the call only
+         * @return the result of the part, e.g. the etag
+         */
+        T upload(int partNumber, ByteBuffer data) throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface RangeReader {
+
+        InputStream read(long offset, long size) throws IOException;
+    }
+
+    @Getter
+    private final int partSize;
+
+    @Getter
+    private final int parallelism;
+
+    private final int maxRetries;
+
+    private final ExecutorService executor;
+
+    private final BlockingQueue<ByteBuffer> bufferPool = new LinkedBlockingQueue<>();
+
+    // one more than the parallelism, so that the next part can be read while the others are being uploaded
+    private final int maxBuffers;
+
+    private final AtomicInteger allocatedBuffers = new AtomicInteger();
+
+    private final Semaphore uploadingParts;
+
+    public ParallelTransfer(long partSize, int parallelism, int maxRetries) {
+        if (partSize <= 0 || partSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("invalid part size " + partSize);
+        }
+        this.partSize = (int) partSize;
+        this.parallelism = Math.max(1, parallelism);
+        this.maxRetries = Math.max(0, maxRetries);
+        this.maxBuffers = this.parallelism + 1;
+        this.uploadingParts = new Semaphore(this.parallelism);
+        var threadIndex = new AtomicInteger();
+        // not a fixed pool, which would cap the parts in flight of all the downloads together
+        this.executor = Executors.newCachedThreadPool(r -> {
+            var thread = new Thread(r, "storage-transfer-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Upload the stream part by part
+     *
+     * @param inputStream the content
+     * @param size the size of the content, or -1 if it is unknown
+     * @param uploader uploads a part
+     * @return the results of the parts in the order of the part number. There is always at least one part.
+     */
+    public <T> List<T> upload(InputStream inputStream, long size, PartUploader<T> uploader) throws IOException {
+        var channel = Channels.newChannel(inputStream);
+        var futures = new ArrayList<Future<T>>();
+        var failure = new AtomicReference<Throwable>();
+        try {
+            var remaining = size;
+            for (int partNumber = 1; ; ++partNumber) {
+                if (failure.get() != null) {
+                    break;
+                }
+                var expected = size < 0 ? this.partSize : (int) Math.min(remaining, this.partSize);
+                var buffer = this.acquireBuffer();
+                int length;
+                try {
+                    length = readFully(channel, buffer, expected);
+                } catch (IOException | RuntimeException e) {
+                    this.releaseBuffer(buffer);
+                    throw e;
+                }
+                if (length == 0 && partNumber > 1) {
+                    this.releaseBuffer(buffer);
+                    break;
+                }
+                buffer.flip();
+                var number = partNumber;
+                futures.add(this.executor.submit(() -> {
+                    try {
+                        if (failure.get() != null) {
+                            throw new CancellationException("upload aborted");
+                        }
+                        this.uploadingParts.acquire();
+                        try {
+                            return this.withRetry(() -> uploader.upload(number, buffer.asReadOnlyBuffer()),
+                                    "upload part " + number);
+                        } finally {
+                            this.uploadingParts.release();
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                        throw t;
+                    } finally {
+                        this.releaseBuffer(buffer);
+                    }
+                }));
+                if (size >= 0) {
+                    remaining -= length;
+                    if (length < expected) {
+                        throw new IOException("unexpected end of stream, " + remaining + " bytes missing");
+                    }
+                    if (remaining == 0) {
+                        break;
+                    }
+                } else if (length < expected) {
+                    break;
+                }
+            }
+            var ret = new ArrayList<T>(futures.size());
+            for (var future : futures) {
+                ret.add(future.get());
+            }
+            return ret;
+        } catch (ExecutionException e) {
+            // the first failure is the cause, the later parts may have been skipped because of it
+            failure.compareAndSet(null, e.getCause());
+            throw new IOException(failure.get());
+        } catch (InterruptedException e) {
+            failure.compareAndSet(null, e);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (IOException | RuntimeException e) {
+            // the pending parts are skipped rather than cancelled, so that their buffers are always released
+            failure.compareAndSet(null, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Read an object with parallel ranged reads
+     *
+     * @param size the size of the object
+     * @param firstPart the content of the first part if it is read already, or null
+     * @param reader reads a range of the object
+     * @return the content of the object in order
+     */
+    public InputStream download(long size, InputStream firstPart, RangeReader reader) {
+        return new ParallelRangeInputStream(this, size, firstPart, reader);
+    }
+
+    <T> Future<T> submit(Callable<T> task) {
+        return this.executor.submit(task);
+    }
+
+    <T> T withRetry(Callable<T> call, String name) throws Exception {
+        for (int attempt = 0; ; ++attempt) {
+            try {
+                return call.call();
+            } catch (InterruptedException | InterruptedIOException e) {
+                throw e;
+            } catch (Exception e) {
+                if (attempt >= this.maxRetries) {
+                    throw e;
+                }
+                log.warn("failed to {}, retry {}/{}", name, attempt + 1, this.maxRetries, e);
+                Thread.sleep(100L << Math.min(attempt, 6));
+            }
+        }
+    }
+
+    static int readFully(ReadableByteChannel channel, ByteBuffer buffer, int length) throws IOException {
+        buffer.clear();
+        buffer.limit(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                break;
+            }
+        }
+        return buffer.position();
+    }
+
+    private ByteBuffer acquireBuffer() throws InterruptedIOException {
+        var buffer = this.bufferPool.poll();
+        if (buffer != null) {
+            return buffer;
+        }
+        if (this.allocatedBuffers.incrementAndGet() <= this.maxBuffers) {
+            return ByteBuffer.allocateDirect(this.partSize);
+        }
+        this.allocatedBuffers.decrementAndGet();
+        try {
+            return this.bufferPool.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private void releaseBuffer(ByteBuffer buffer) {
+        buffer.clear();
+        this.bufferPool.add(buffer);
+    }
+}
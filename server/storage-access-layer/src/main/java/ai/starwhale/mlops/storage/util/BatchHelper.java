@@ -0,0 +1,120 @@
+/*
+ * Copyright 2022 Starwhale, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.starwhale.mlops.storage.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs an operation on a batch of objects concurrently, for the storages without a batch api.
+ *
+ * <p>All the batches share one pool, so the number of requests in flight is bounded no matter how many batches are
+ * running.
+ */
+public class BatchHelper {
+
+    public static final int PARALLELISM = 16;
+
+    // the max number of keys in one batch delete request of S3 and the compatible storages
+    public static final int MAX_DELETE_KEYS = 1000;
+
+    private static final ExecutorService executor;
+
+    static {
+        var threadIndex = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(PARALLELISM, r -> {
+            var thread = new Thread(r, "storage-batch-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @FunctionalInterface
+    public interface Operation<T> {
+
+        T apply(String path) throws IOException;
+    }
+
+    /**
+     * @return the results in the order of the paths. Duplicated paths are processed once.
+     * @throws IOException the first failure. The operations not started yet are cancelled.
+     */
+    public static <T> Map<String, T> map(Collection<String> paths, Operation<T> operation) throws IOException {
+        var ret = new LinkedHashMap<String, T>();
+        if (paths.size() <= 1) {
+            for (var path : paths) {
+                ret.put(path, operation.apply(path));
+            }
+            return ret;
+        }
+        var futures = new LinkedHashMap<String, Future<T>>();
+        for (var path : paths) {
+            if (!futures.containsKey(path)) {
+                futures.put(path, executor.submit(() -> operation.apply(path)));
+            }
+        }
+        try {
+            for (var entry : futures.entrySet()) {
+                ret.put(entry.getKey(), entry.getValue().get());
+            }
+            return ret;
+        } catch (ExecutionException e) {
+            futures.values().forEach(f -> f.cancel(false));
+            var cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        } catch (InterruptedException e) {
+            futures.values().forEach(f -> f.cancel(false));
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * Split the items into chunks for the batch apis that limit the number of items in one call.
+     */
+    public static <T> List<List<T>> partition(Collection<T> items, int size) {
+        var ret = new ArrayList<List<T>>();
+        var chunk = new ArrayList<T>(Math.min(size, items.size()));
+        for (var item : items) {
+            chunk.add(item);
+            if (chunk.size() == size) {
+                ret.add(chunk);
+                chunk = new ArrayList<>(size);
+            }
+        }
+        if (!chunk.isEmpty()) {
+            ret.add(chunk);
+        }
+        return ret;
+    }
+}
@@ -74,6 +74,16 @@ public class StorageAccessServiceTest {
         storageAccessService.delete("t1");
         assertThat(storageAccessService.head("t1").isExists(), is(false));
         assertThat(storageAccessService.list("t").collect(Collectors.toList()), is(List.of("t2")));
+        storageAccessService.put("b/1", "c:b/1".getBytes(StandardCharsets.UTF_8));
+        storageAccessService.put("b/2", "c:b/2".getBytes(StandardCharsets.UTF_8));
+        var infos = storageAccessService.headAll(List.of("b/2", "b/1", "b/3"));
+        assertThat(List.copyOf(infos.keySet()), is(List.of("b/2", "b/1", "b/3")));
+        assertThat(infos.get("b/1").getContentLength(), is(5L));
+        assertThat(infos.get("b/3").isExists(), is(false));
+        assertThat(storageAccessService.signAll(List.of("b/1", "b/2"), 1000L).size(), is(2));
+        // the objects that do not exist are ignored
+        storageAccessService.deleteAll(List.of("b/1", "b/2", "b/3"));
+        assertThat(storageAccessService.list("b").count(), is(0L));
         var data = new byte[20 * 1024 * 1024];
         var off5m = 5 * 1024 * 1024;
         for (int i = 0; i < data.length; ++i) {
@@ -89,6 +99,13 @@ public class StorageAccessServiceTest {
                         is(Arrays.copyOfRange(data, data.length - off5m, data.length - off5m + 100)));
             }
         }
+        // larger than a part but below the huge file threshold
+        var data7m = Arrays.copyOf(data, 7 * 1024 * 1024);
+        storageAccessService.put("m1", data7m);
+        try (var in = storageAccessService.get("m1")) {
+            assertThat(in.getSize(), is((long) data7m.length));
+            assertThat(in.readAllBytes(), is(data7m));
+        }
         assertThrows(IOException.class, () -> storageAccessService.get("non-exists"));
         assertThrows(IOException.class, () -> storageAccessService.get("non-exists", 1L, 1L));
     }
@@ -109,6 +126,8 @@ public class StorageAccessServiceTest {
                         .endpoint(s3Mock.getHttpEndpoint())
                         .hugeFileThreshold(10 * 1024 * 1024)
                         .hugeFilePartSize(5 * 1024 * 1024)
+                        .transferParallelism(4)
+                        .transferMaxRetries(2)
                         .build()));
     }
 
@@ -123,6 +142,8 @@ public class StorageAccessServiceTest {
                         .endpoint(s3Mock.getHttpEndpoint())
                         .hugeFileThreshold(10 * 1024 * 1024)
                         .hugeFilePartSize(5 * 1024 * 1024)
+                        .transferParallelism(4)
+                        .transferMaxRetries(2)
                         .build()));
     }
 
@@ -136,6 +157,8 @@ public class StorageAccessServiceTest {
                 .endpoint(s3Mock.getHttpEndpoint())
                 .hugeFileThreshold(10 * 1024 * 1024)
                 .hugeFilePartSize(5 * 1024 * 1024)
+                .transferParallelism(4)
+                .transferMaxRetries(2)
                 .build()));
     }
 
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2022 Starwhale, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.starwhale.mlops.storage.cache;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import ai.starwhale.mlops.storage.memory.StorageAccessServiceMemory;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class CachingStorageAccessServiceTest {
+
+    @TempDir
+    private Path dir;
+
+    private StorageAccessServiceMemory delegate;
+
+    private CachingStorageAccessService cache;
+
+    private byte[] data;
+
+    @BeforeEach
+    public void setUp() {
+        this.delegate = spy(new StorageAccessServiceMemory());
+        this.cache = this.createCache();
+        this.data = new byte[100];
+        for (int i = 0; i < this.data.length; ++i) {
+            this.data[i] = (byte) i;
+        }
+    }
+
+    private CachingStorageAccessService createCache() {
+        return new CachingStorageAccessService(this.delegate, CacheConfig.builder()
+                .enabled(true)
+                .dir(this.dir.toString())
+                .maxSize(250)
+                .maxObjectSize(150)
+                .rules(List.of(new CacheConfig.Rule("blob/", true), new CacheConfig.Rule("table/", false)))
+                .build());
+    }
+
+    private byte[] read(String path) throws IOException {
+        try (var in = this.cache.get(path)) {
+            var ret = in.readAllBytes();
+            assertThat(in.getSize(), is((long) ret.length));
+            return ret;
+        }
+    }
+
+    private byte[] read(String path, long offset, long size) throws IOException {
+        try (var in = this.cache.get(path, offset, size)) {
+            return in.readAllBytes();
+        }
+    }
+
+    @Test
+    public void testImmutable() throws IOException {
+        this.delegate.put("blob/a", this.data);
+        assertThat(this.read("blob/a"), is(this.data));
+        assertThat(this.read("blob/a"), is(this.data));
+        assertThat(this.read("blob/a", 10, 20), is(Arrays.copyOfRange(this.data, 10, 30)));
+        assertThat(this.read("blob/a", 90, 20), is(Arrays.copyOfRange(this.data, 90, 100)));
+        verify(this.delegate, times(1)).get("blob/a");
+        verify(this.delegate, never()).get("blob/a", 10L, 20L);
+        verify(this.delegate, never()).head("blob/a", true);
+
+        // puts through the cache invalidate the cached copy
+        this.cache.put("blob/a", new byte[]{1});
+        assertThat(this.read("blob/a"), is(new byte[]{1}));
+        this.cache.delete("blob/a");
+        assertThrows(FileNotFoundException.class, () -> this.read("blob/a"));
+    }
+
+    @Test
+    public void testRangeMiss() throws IOException {
+        this.delegate.put("blob/a", this.data);
+        assertThat(this.read("blob/a", 10, 20), is(Arrays.copyOfRange(this.data, 10, 30)));
+        assertThat(this.read("blob/a"), is(this.data));
+        verify(this.delegate, times(1)).get("blob/a");
+        verify(this.delegate, never()).get("blob/a", 10L, 20L);
+    }
+
+    @Test
+    public void testMutable() throws IOException {
+        this.delegate.put("table/a", this.data);
+        assertThat(this.read("table/a"), is(this.data));
+        assertThat(this.read("table/a"), is(this.data));
+        verify(this.delegate, times(1)).get("table/a");
+
+        // changed behind the cache
+        this.delegate.put("table/a", new byte[]{1, 2});
+        assertThat(this.read("table/a"), is(new byte[]{1, 2}));
+        assertThat(this.read("table/a"), is(new byte[]{1, 2}));
+        verify(this.delegate, times(2)).get("table/a");
+
+        this.delegate.delete("table/a");
+        assertThrows(FileNotFoundException.class, () -> this.read("table/a"));
+    }
+
+    @Test
+    public void testNotCached() throws IOException {
+        this.delegate.put("other/a", this.data);
+        assertThat(this.read("other/a"), is(this.data));
+        assertThat(this.read("other/a"), is(this.data));
+        verify(this.delegate, times(2)).get("other/a");
+
+        // too large
+        this.delegate.put("blob/large", new byte[200]);
+        assertThat(this.read("blob/large"), is(new byte[200]));
+        assertThat(this.read("blob/large", 10, 20), is(new byte[20]));
+        assertThat(this.read("blob/large"), is(new byte[200]));
+        verify(this.delegate, times(2)).get("blob/large");
+        verify(this.delegate, times(1)).get("blob/large", 10L, 20L);
+    }
+
+    @Test
+    public void testEviction() throws IOException {
+        this.delegate.put("blob/a", this.data);
+        this.delegate.put("blob/b", this.data);
+        this.delegate.put("blob/c", this.data);
+        this.read("blob/a");
+        this.read("blob/b");
+        this.read("blob/a");
+        // b is the least recently used one
+        this.read("blob/c");
+        clearInvocations(this.delegate);
+        this.read("blob/a");
+        this.read("blob/c");
+        verify(this.delegate, never()).get("blob/a");
+        verify(this.delegate, never()).get("blob/c");
+        this.read("blob/b");
+        verify(this.delegate, times(1)).get("blob/b");
+    }
+
+    @Test
+    public void testReload() throws IOException {
+        this.delegate.put("blob/a", this.data);
+        this.delegate.put("table/b", this.data);
+        this.read("blob/a");
+        this.read("table/b");
+        clearInvocations(this.delegate);
+
+        this.cache = this.createCache();
+        assertThat(this.read("blob/a"), is(this.data));
+        assertThat(this.read("table/b"), is(this.data));
+        verify(this.delegate, never()).get("blob/a");
+        verify(this.delegate, never()).get("table/b");
+    }
+
+    @Test
+    public void testReadAfterEvicted() throws IOException {
+        this.delegate.put("blob/a", this.data);
+        this.delegate.put("blob/b", this.data);
+        this.delegate.put("blob/c", this.data);
+        this.read("blob/a");
+        try (var in = this.cache.get("blob/a")) {
+            this.read("blob/b");
+            this.read("blob/c");
+            // the file is deleted but it is still readable
+            assertThat(in.readAllBytes(), is(this.data));
+        }
+    }
+}
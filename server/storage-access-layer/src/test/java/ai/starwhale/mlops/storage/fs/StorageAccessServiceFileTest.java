@@ -17,11 +17,16 @@
 package ai.starwhale.mlops.storage.fs;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.is;
 
+import ai.starwhale.mlops.storage.FileRegionInputStream;
 import ai.starwhale.mlops.storage.LengthAbleInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.channels.Channels;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -93,4 +98,23 @@ public class StorageAccessServiceFileTest {
         Assertions.assertEquals("ll", new String(lengthAbleInputStream.readAllBytes()));
     }
 
+    @Test
+    public void testFileRegion() throws IOException {
+        service.put("unit_test/x", "hello word".getBytes(StandardCharsets.UTF_8));
+        try (var in = service.get("unit_test/x", 6L, 100L)) {
+            assertThat(in, instanceOf(FileRegionInputStream.class));
+            var region = (FileRegionInputStream) in;
+            assertThat(region.getSize(), is(4L));
+            assertThat(region.getPosition(), is(6L));
+            assertThat(region.getPath().toFile(), is(new File(this.rootDir, "unit_test/x")));
+            var out = new ByteArrayOutputStream();
+            assertThat(region.transferTo(Channels.newChannel(out)), is(4L));
+            assertThat(out.toString(StandardCharsets.UTF_8), is("word"));
+        }
+        try (var in = service.get("unit_test/x")) {
+            assertThat(in.getSize(), is(10L));
+            assertThat(new String(in.readAllBytes(), StandardCharsets.UTF_8), is("hello word"));
+        }
+        Assertions.assertThrows(FileNotFoundException.class, () -> service.get("unit_test/y", 0L, 1L));
+    }
 }
@@ -34,6 +34,8 @@ import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.stream.Collectors;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
@@ -41,10 +43,15 @@ import org.junit.jupiter.api.Test;
 import org.testcontainers.junit.jupiter.Container;
 import org.testcontainers.junit.jupiter.Testcontainers;
 import software.amazon.awssdk.auth.credentials.AnonymousCredentialsProvider;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
 import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
 import software.amazon.awssdk.services.s3.model.ListMultipartUploadsRequest;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
 
@@ -165,6 +172,45 @@ public class StorageAccessServiceS3Test {
         // TODO: test the whole content after s3mock fix issue with chunk encoding enabled
     }
 
+    @Test
+    public void testGetObjectLargerThanPart() throws IOException {
+        var data = new byte[7 * 1024 * 1024];
+        for (int i = 0; i < data.length; ++i) {
+            data[i] = (byte) i;
+        }
+        this.client.putObject(PutObjectRequest.builder().bucket("test").key("m1").build(),
+                RequestBody.fromBytes(data));
+        var ranges = Collections.synchronizedList(new ArrayList<String>());
+        var s3 = new StorageAccessServiceS3(
+                S3Config.builder()
+                        .bucket("test")
+                        .accessKey("ak")
+                        .secretKey("sk")
+                        .region("us-west-1")
+                        .endpoint(s3Mock.getHttpEndpoint())
+                        .hugeFileThreshold(10 * 1024 * 1024)
+                        .hugeFilePartSize(5 * 1024 * 1024)
+                        .transferParallelism(4)
+                        .build(),
+                ClientOverrideConfiguration.builder()
+                        .addExecutionInterceptor(new ExecutionInterceptor() {
+                            @Override
+                            public void beforeExecution(Context.BeforeExecution context,
+                                    ExecutionAttributes executionAttributes) {
+                                if (context.request() instanceof GetObjectRequest) {
+                                    ranges.add(((GetObjectRequest) context.request()).range());
+                                }
+                            }
+                        })
+                        .build());
+        try (var in = s3.get("m1")) {
+            assertThat(in.getSize(), is((long) data.length));
+            assertThat(in.readAllBytes(), is(data));
+        }
+        // the first part is kept, and the rest is read by one more request
+        assertThat(ranges, is(List.of("bytes=0-5242879", "bytes=5242880-")));
+    }
+
     @Test
     public void testDelete() throws IOException {
         this.s3.delete("x");
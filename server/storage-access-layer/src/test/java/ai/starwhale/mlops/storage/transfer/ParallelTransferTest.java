@@ -0,0 +1,223 @@
+/*
+ * Copyright 2022 Starwhale, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.starwhale.mlops.storage.transfer;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ParallelTransferTest {
+
+    private ParallelTransfer transfer;
+
+    private byte[] data;
+
+    @BeforeEach
+    public void setUp() {
+        this.transfer = new ParallelTransfer(100, 4, 2);
+        this.data = new byte[1050];
+        for (int i = 0; i < this.data.length; ++i) {
+            this.data[i] = (byte) i;
+        }
+    }
+
+    private Map<Integer, byte[]> upload(long size, byte[] content) throws IOException {
+        var parts = new ConcurrentHashMap<Integer, byte[]>();
+        var running = new AtomicInteger();
+        var maxRunning = new AtomicInteger();
+        var ret = this.transfer.upload(new ByteArrayInputStream(content), size, (partNumber, buffer) -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(10);
+                parts.put(partNumber, new ByteBufferInputStream(buffer).readAllBytes());
+                return "etag" + partNumber;
+            } finally {
+                running.decrementAndGet();
+            }
+        });
+        assertThat(ret, is(IntStream.rangeClosed(1, parts.size())
+                .mapToObj(i -> "etag" + i)
+                .collect(Collectors.toList())));
+        assertThat(maxRunning.get(), lessThanOrEqualTo(4));
+        return parts;
+    }
+
+    private static byte[] concat(Map<Integer, byte[]> parts) throws IOException {
+        var out = new ByteArrayOutputStream();
+        for (int i = 1; i <= parts.size(); ++i) {
+            out.write(parts.get(i));
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testUploadKnownSize() throws IOException {
+        var parts = this.upload(this.data.length, this.data);
+        assertThat(parts.size(), is(11));
+        assertThat(parts.get(11).length, is(50));
+        assertThat(concat(parts), is(this.data));
+    }
+
+    @Test
+    public void testUploadUnknownSize() throws IOException {
+        var parts = this.upload(-1, this.data);
+        assertThat(parts.size(), is(11));
+        assertThat(concat(parts), is(this.data));
+
+        // no empty part is uploaded if the size is a multiple of the part size
+        parts = this.upload(-1, Arrays.copyOf(this.data, 1000));
+        assertThat(parts.size(), is(10));
+        assertThat(concat(parts), is(Arrays.copyOf(this.data, 1000)));
+    }
+
+    @Test
+    public void testUploadEmpty() throws IOException {
+        var parts = this.upload(-1, new byte[0]);
+        assertThat(parts.size(), is(1));
+        assertThat(parts.get(1).length, is(0));
+    }
+
+    @Test
+    public void testUploadShortStream() {
+        assertThrows(IOException.class, () -> this.upload(2000, this.data));
+    }
+
+    @Test
+    public void testUploadRetry() throws IOException {
+        var attempts = new ConcurrentHashMap<Integer, AtomicInteger>();
+        var parts = new ConcurrentHashMap<Integer, byte[]>();
+        this.transfer.upload(new ByteArrayInputStream(this.data), this.data.length, (partNumber, buffer) -> {
+            // the data is the same on each attempt
+            var content = new ByteBufferInputStream(buffer).readAllBytes();
+            if (attempts.computeIfAbsent(partNumber, k -> new AtomicInteger()).incrementAndGet() < 3) {
+                throw new IOException("fail");
+            }
+            parts.put(partNumber, content);
+            return partNumber;
+        });
+        assertThat(concat(parts), is(this.data));
+    }
+
+    @Test
+    public void testUploadFailure() throws IOException {
+        assertThrows(IOException.class,
+                () -> this.transfer.upload(new ByteArrayInputStream(this.data), -1, (partNumber, buffer) -> {
+                    if (partNumber == 3) {
+                        throw new IOException("fail");
+                    }
+                    return partNumber;
+                }));
+        // all buffers are released
+        for (int i = 0; i < 3; ++i) {
+            this.upload(this.data.length, this.data);
+        }
+    }
+
+    @Test
+    public void testDownload() throws IOException {
+        var reads = new AtomicInteger();
+        ParallelTransfer.RangeReader reader = (offset, size) -> {
+            reads.incrementAndGet();
+            return new ByteArrayInputStream(this.data, (int) offset, (int) size);
+        };
+        try (var in = this.transfer.download(this.data.length, null, reader)) {
+            assertThat(in.readAllBytes(), is(this.data));
+        }
+        assertThat(reads.get(), is(11));
+
+        reads.set(0);
+        var first = new ByteArrayInputStream(this.data, 0, 100);
+        try (var in = this.transfer.download(this.data.length, first, reader)) {
+            assertThat(in.read(), is(0));
+            assertThat(in.readAllBytes(), is(Arrays.copyOfRange(this.data, 1, this.data.length)));
+        }
+        assertThat(reads.get(), is(10));
+    }
+
+    @Test
+    public void testConcurrentDownloads() throws IOException {
+        // every stream reads its parts in parallel no matter how many streams there are
+        var latch = new CountDownLatch(8);
+        ParallelTransfer.RangeReader reader = (offset, size) -> {
+            latch.countDown();
+            try {
+                if (offset < 400 && !latch.await(10, TimeUnit.SECONDS)) {
+                    throw new IOException("timeout");
+                }
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            return new ByteArrayInputStream(this.data, (int) offset, (int) size);
+        };
+        try (var in1 = this.transfer.download(this.data.length, null, reader);
+                var in2 = this.transfer.download(this.data.length, null, reader)) {
+            assertThat(in1.readAllBytes(), is(this.data));
+            assertThat(in2.readAllBytes(), is(this.data));
+        }
+    }
+
+    @Test
+    public void testDownloadRetry() throws IOException {
+        var failed = ConcurrentHashMap.<Long>newKeySet();
+        try (var in = this.transfer.download(this.data.length, null, (offset, size) -> {
+            if (failed.add(offset)) {
+                throw new IOException("fail");
+            }
+            return new ByteArrayInputStream(this.data, (int) offset, (int) size);
+        })) {
+            assertThat(in.readAllBytes(), is(this.data));
+        }
+    }
+
+    @Test
+    public void testDownloadFailure() throws IOException {
+        try (var in = this.transfer.download(this.data.length, null, (offset, size) -> {
+            if (offset >= 500) {
+                throw new IOException("fail");
+            }
+            return new ByteArrayInputStream(this.data, (int) offset, (int) size);
+        })) {
+            assertThat(in.readNBytes(500), is(Arrays.copyOf(this.data, 500)));
+            assertThrows(IOException.class, in::read);
+        }
+    }
+
+    @Test
+    public void testDownloadClose() throws IOException {
+        var in = this.transfer.download(this.data.length, null,
+                (offset, size) -> new ByteArrayInputStream(this.data, (int) offset, (int) size));
+        assertThat(in.readNBytes(10), is(Arrays.copyOf(this.data, 10)));
+        in.close();
+        assertThrows(IOException.class, in::read);
+    }
+}
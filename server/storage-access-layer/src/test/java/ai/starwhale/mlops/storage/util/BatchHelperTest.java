@@ -0,0 +1,86 @@
+/*
+ * Copyright 2022 Starwhale, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ai.starwhale.mlops.storage.util;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+public class BatchHelperTest {
+
+    @Test
+    public void testMap() throws IOException {
+        var paths = IntStream.range(0, 100).mapToObj(i -> "p" + i).collect(Collectors.toList());
+        var calls = new AtomicInteger();
+        var running = new AtomicInteger();
+        var maxRunning = new AtomicInteger();
+        var ret = BatchHelper.map(paths, path -> {
+            calls.incrementAndGet();
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(5);
+                return path.toUpperCase();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            } finally {
+                running.decrementAndGet();
+            }
+        });
+        assertThat(List.copyOf(ret.keySet()), is(paths));
+        assertThat(ret.get("p10"), is("P10"));
+        assertThat(calls.get(), is(100));
+        assertThat(maxRunning.get(), lessThanOrEqualTo(BatchHelper.PARALLELISM));
+
+        // duplicated paths are processed once
+        calls.set(0);
+        ret = BatchHelper.map(List.of("a", "b", "a"), path -> {
+            calls.incrementAndGet();
+            return path;
+        });
+        assertThat(List.copyOf(ret.keySet()), is(List.of("a", "b")));
+        assertThat(calls.get(), is(2));
+    }
+
+    @Test
+    public void testMapFailure() {
+        assertThrows(IOException.class, () -> BatchHelper.map(List.of("a", "b", "c"), path -> {
+            if (path.equals("b")) {
+                throw new IOException("fail");
+            }
+            return path;
+        }));
+        assertThrows(IllegalStateException.class, () -> BatchHelper.map(List.of("a", "b"), path -> {
+            throw new IllegalStateException();
+        }));
+    }
+
+    @Test
+    public void testPartition() {
+        assertThat(BatchHelper.partition(List.of(1, 2, 3, 4, 5), 2),
+                is(List.of(List.of(1, 2), List.of(3, 4), List.of(5))));
+        assertThat(BatchHelper.partition(List.of(1, 2), 2), is(List.of(List.of(1, 2))));
+        assertThat(BatchHelper.partition(List.of(), 2), is(List.of()));
+    }
+}